@@ -0,0 +1,52 @@
+/*
+ * JMH benchmarks for the signing, zipping and serialization hot paths of jpasskit and the per-request overhead of the server.
+ *
+ * Not published. Run with
+ *   ./gradlew :jpasskit.benchmarks:jmh
+ * and narrow or scale a run with -PjmhIncludes=<regex> and -PjmhThreads=<n>, e.g. once per thread count to compare 1..N threads.
+ * Attach JMH profilers with -PjmhProfilers=<p1,p2>, e.g. -PjmhProfilers=gc for the allocations per operation (-prof gc).
+ * Results are written to build/results/jmh/results.json.
+ */
+
+plugins {
+    java
+    alias(libs.plugins.me.champeau.jmh)
+}
+
+description = "JMH benchmarks for jpasskit"
+
+repositories {
+    maven {
+        url = uri("https://maven.restlet.talend.com")
+    }
+}
+
+dependencies {
+    jmh(project(":jpasskit"))
+    jmh(project(":jpasskit.server"))
+    jmh(libs.org.apache.logging.log4j.log4j.slf4j.impl)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+}
+
+tasks.withType<JavaCompile>() {
+    options.encoding = "UTF-8"
+}
+
+// the benchmarks sign with the test certificates and templates of the library
+sourceSets.named("jmh") {
+    resources.srcDir(project(":jpasskit").file("src/test/resources"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.org.openjdk.jmh)
+    includes.set(providers.gradleProperty("jmhIncludes").map { listOf(it) }.orElse(listOf()))
+    threads.set(providers.gradleProperty("jmhThreads").map { it.toInt() }.orElse(1))
+    profilers.set(providers.gradleProperty("jmhProfilers").map { it.split(",") }.orElse(listOf()))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import de.brendamour.jpasskit.signing.PKInMemorySigningUtil;
+import de.brendamour.jpasskit.signing.PKSigningException;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * Signs a manifest.json on its own, the CMS signature is created for every pass and does not depend on the size of the files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ManifestSigningBenchmark {
+
+    @Param({ "TINY", "RETINA_HEAVY" })
+    public String templateSize;
+
+    private PKSigningInformation signingInformation;
+    private PKInMemorySigningUtil signingUtil;
+    private byte[] manifestJSON;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        signingInformation = PassFixtures.loadSigningInformation();
+        signingUtil = new PKInMemorySigningUtil();
+
+        ObjectWriter writer = PassFixtures.passWriter();
+        Map<String, String> manifest = new TreeMap<>(PassFixtures.createTemplate(PassFixtures.TemplateSize.valueOf(templateSize))
+                .getAllFileDigests());
+        manifest.put("pass.json", DigestUtils.sha1Hex(writer.writeValueAsBytes(PassFixtures.loadPass())));
+        manifestJSON = writer.writeValueAsBytes(manifest);
+    }
+
+    @Benchmark
+    public byte[] signManifestFile() throws PKSigningException {
+        return signingUtil.signManifestFile(manifestJSON, signingInformation);
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import de.brendamour.jpasskit.PKBarcode;
+import de.brendamour.jpasskit.PKField;
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.PKPassBuilder;
+import de.brendamour.jpasskit.enums.PKBarcodeFormat;
+import de.brendamour.jpasskit.passes.PKStoreCard;
+import de.brendamour.jpasskit.signing.PKPassTemplateInMemory;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+import de.brendamour.jpasskit.signing.PKSigningInformationUtil;
+
+/**
+ * Passes, templates and signing information shared by the benchmarks. Everything is loaded from the test resources of the library
+ * through the class path, so the benchmarks also run from the JMH jar.
+ */
+final class PassFixtures {
+
+    private static final String TEMPLATE_FOLDER = "StoreCard.raw/";
+    private static final String APPLE_WWDRCA = "passbook/ca-chain.cert.pem";
+    private static final String KEYSTORE_PATH = "passbook/jpasskittest.p12";
+    private static final String KEYSTORE_PASSWORD = "password";
+    private static final URL WEB_SERVICE_URL = toURL("https://example.com/passes/");
+    private static final List<Locale> RETINA_HEAVY_LOCALES = Arrays.asList(Locale.GERMAN, Locale.FRENCH, Locale.ITALIAN, Locale.JAPANESE);
+
+    private PassFixtures() {
+    }
+
+    /**
+     * Sizes of the templates used by the benchmarks.
+     */
+    enum TemplateSize {
+        /** icon only, about 8 KB */
+        TINY,
+        /** the StoreCard template of the tests: icon, logo and strip in two resolutions, about 1 MB */
+        STORE_CARD,
+        /** the StoreCard template with @3x images and localized retina images for four languages, about 8 MB */
+        RETINA_HEAVY
+    }
+
+    static PKPassTemplateInMemory createTemplate(TemplateSize size) throws IOException {
+        PKPassTemplateInMemory template = new PKPassTemplateInMemory();
+        template.addFile(PKPassTemplateInMemory.PK_ICON, resource(TEMPLATE_FOLDER + "icon.png"));
+        template.addFile(PKPassTemplateInMemory.PK_ICON_RETINA, resource(TEMPLATE_FOLDER + "icon@2x.png"));
+        if (size == TemplateSize.TINY) {
+            return template;
+        }
+
+        template.addFile(PKPassTemplateInMemory.PK_LOGO, resource(TEMPLATE_FOLDER + "logo.png"));
+        template.addFile(PKPassTemplateInMemory.PK_LOGO_RETINA, resource(TEMPLATE_FOLDER + "logo@2x.png"));
+        template.addFile(PKPassTemplateInMemory.PK_STRIP, resource(TEMPLATE_FOLDER + "strip.png"));
+        template.addFile(PKPassTemplateInMemory.PK_STRIP_RETINA, resource(TEMPLATE_FOLDER + "strip@2x.png"));
+        template.addFile(PKPassTemplateInMemory.PK_LOGO, Locale.ENGLISH, resource(TEMPLATE_FOLDER + "en.lproj/logo.png"));
+        template.addFile(PKPassTemplateInMemory.PK_LOGO_RETINA, Locale.ENGLISH, resource(TEMPLATE_FOLDER + "en.lproj/logo@2x.png"));
+        if (size == TemplateSize.STORE_CARD) {
+            return template;
+        }
+
+        // there are no @3x images in the test resources, the @2x ones stand in for them
+        template.addFile(PKPassTemplateInMemory.PK_ICON_RETINAHD, resource(TEMPLATE_FOLDER + "icon@2x.png"));
+        template.addFile(PKPassTemplateInMemory.PK_LOGO_RETINAHD, resource(TEMPLATE_FOLDER + "logo@2x.png"));
+        template.addFile(PKPassTemplateInMemory.PK_STRIP_RETINAHD, resource(TEMPLATE_FOLDER + "strip@2x.png"));
+        for (Locale locale : RETINA_HEAVY_LOCALES) {
+            template.addFile(PKPassTemplateInMemory.PK_LOGO_RETINA, locale, resource(TEMPLATE_FOLDER + "logo@2x.png"));
+            template.addFile(PKPassTemplateInMemory.PK_STRIP_RETINA, locale, resource(TEMPLATE_FOLDER + "strip@2x.png"));
+            template.addFile(PKPassTemplateInMemory.PK_STRIP_RETINAHD, locale, resource(TEMPLATE_FOLDER + "strip@2x.png"));
+        }
+        return template;
+    }
+
+    /**
+     * Writes the template of the given size to a new temporary directory, for the folder based templates.
+     */
+    static File provisionTemplate(TemplateSize size) throws IOException {
+        File directory = Files.createTempDirectory("jpasskit-benchmark-" + size.name().toLowerCase(Locale.ROOT)).toFile();
+        createTemplate(size).provisionPassAtDirectory(directory);
+        return directory;
+    }
+
+    static void deleteTemplate(File directory) {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    static PKSigningInformation loadSigningInformation() throws Exception {
+        try (InputStream keyStore = resource(KEYSTORE_PATH); InputStream appleWWDRCA = resource(APPLE_WWDRCA)) {
+            return new PKSigningInformationUtil().loadSigningInformationFromPKCS12AndIntermediateCertificate(keyStore, KEYSTORE_PASSWORD,
+                    appleWWDRCA);
+        }
+    }
+
+    static PKPass loadPass() throws IOException {
+        try (InputStream passJSON = resource("pass.json")) {
+            return new ObjectMapper().readValue(passJSON, PKPass.class);
+        }
+    }
+
+    /**
+     * @return a builder for a store card with the fields a typical loyalty pass uses
+     */
+    static PKPassBuilder passBuilder(int serialNumber) {
+        return PKPass.builder()
+                .formatVersion(1)
+                .passTypeIdentifier("pass.de.brendamour.benchmark")
+                .teamIdentifier("ti")
+                .serialNumber(String.valueOf(serialNumber))
+                .organizationName("jpasskit")
+                .description("Benchmark store card")
+                .webServiceURL(WEB_SERVICE_URL)
+                .authenticationToken("vxwxd7J8AlNNFPS8k0a0FfUFtq0ewzFdc")
+                .barcodeBuilder(PKBarcode.builder()
+                        .format(PKBarcodeFormat.PKBarcodeFormatQR)
+                        .message("member-" + serialNumber)
+                        .messageEncoding(StandardCharsets.ISO_8859_1))
+                .pass(PKStoreCard.builder()
+                        .primaryFieldBuilder(PKField.builder().key("balance").label("Balance").value("21.75"))
+                        .auxiliaryFieldBuilder(PKField.builder().key("level").label("Level").value("Gold"))
+                        .backFieldBuilder(PKField.builder().key("terms").label("Terms").value("Terms and conditions apply.")));
+    }
+
+    /**
+     * @return a writer configured like the one the signing utils use
+     */
+    static ObjectWriter passWriter() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        objectMapper.setDateFormat(new StdDateFormat());
+        objectMapper.configOverride(Date.class).setFormat(JsonFormat.Value.forPattern("yyyy-MM-dd'T'HH:mm:ssXXX"));
+        objectMapper.setSerializationInclusion(Include.NON_NULL);
+        objectMapper.registerModule(new JavaTimeModule());
+        return objectMapper.writer();
+    }
+
+    private static URL toURL(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static InputStream resource(String path) throws IOException {
+        InputStream inputStream = PassFixtures.class.getClassLoader().getResourceAsStream(path);
+        if (inputStream == null) {
+            throw new IOException("Resource " + path + " not found on the class path");
+        }
+        return inputStream;
+    }
+}
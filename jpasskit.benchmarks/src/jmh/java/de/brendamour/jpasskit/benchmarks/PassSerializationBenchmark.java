@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import de.brendamour.jpasskit.PKPass;
+
+/**
+ * Builds passes and serializes them to pass.json. Builders are not thread safe, so every benchmark thread has its own state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PassSerializationBenchmark {
+
+    private ObjectWriter writer;
+    private PKPass pass;
+    private int serialNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        writer = PassFixtures.passWriter();
+        pass = PassFixtures.passBuilder(0).build();
+    }
+
+    @Benchmark
+    public PKPass buildPass() {
+        return PassFixtures.passBuilder(serialNumber++).build();
+    }
+
+    @Benchmark
+    public byte[] serializePass() throws JsonProcessingException {
+        return writer.writeValueAsBytes(pass);
+    }
+
+    @Benchmark
+    public byte[] buildAndSerializePass() throws JsonProcessingException {
+        return writer.writeValueAsBytes(PassFixtures.passBuilder(serialNumber++).build());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.brendamour.jpasskit.PKPushToken;
+import de.brendamour.jpasskit.server.PKServerComponents;
+import de.brendamour.jpasskit.signing.PKFileBasedSigningUtil;
+import de.brendamour.jpasskit.signing.PKInMemorySigningUtil;
+
+/**
+ * The per-request overhead of the server resources: Restlet creates a resource for every request, which used to build its own
+ * object mappers and signing util before reading the request body. {@link #perRequestObjects} repeats that,
+ * {@link #sharedComponents} uses a shared {@link PKServerComponents} as the resource factories now do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ServerResourceBenchmark {
+
+    private static final String PUSH_TOKEN_JSON = "{\"pushToken\":\"0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef\"}";
+
+    private PKServerComponents components;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        components = new PKServerComponents();
+    }
+
+    @Benchmark
+    public PKPushToken perRequestObjects(Blackhole blackhole) throws IOException {
+        // PKPassResource
+        ObjectMapper passObjectMapper = new ObjectMapper();
+        passObjectMapper.setSerializationInclusion(Include.NON_NULL);
+        blackhole.consume(new PKFileBasedSigningUtil(passObjectMapper.writer()));
+        // PKPersonalizePassResource
+        blackhole.consume(new ObjectMapper());
+        blackhole.consume(new PKInMemorySigningUtil());
+        // PKDeviceResource, which also reads the request
+        ObjectMapper deviceObjectMapper = new ObjectMapper();
+        return deviceObjectMapper.readValue(PUSH_TOKEN_JSON, PKPushToken.class);
+    }
+
+    @Benchmark
+    public PKPushToken sharedComponents(Blackhole blackhole) throws IOException {
+        blackhole.consume(components.getSigningUtil());
+        // the reader PKDeviceResource reads the request with
+        return components.getPushTokenReader().readValue(PUSH_TOKEN_JSON);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.PKInMemorySigningUtil;
+import de.brendamour.jpasskit.signing.PKPassTemplatePrecompressed;
+import de.brendamour.jpasskit.signing.PKSigningException;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * Streams signed archives to a discarding stream, with and without {@link PKInMemorySigningUtil#setReuseBuffers(boolean)}, so that the
+ * allocations per pass are those of the signing util alone. Run it with the GC profiler to see them:
+ * {@code ./gradlew :jpasskit.benchmarks:jmh -PjmhIncludes=SigningAllocationBenchmark -PjmhProfilers=gc} and compare
+ * {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SigningAllocationBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean reuseBuffers;
+
+    private PKSigningInformation signingInformation;
+    private PKPass pass;
+    private IPKPassTemplate template;
+    private PKInMemorySigningUtil signingUtil;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        signingInformation = PassFixtures.loadSigningInformation();
+        pass = PassFixtures.loadPass();
+        template = new PKPassTemplatePrecompressed(PassFixtures.createTemplate(PassFixtures.TemplateSize.STORE_CARD));
+
+        signingUtil = new PKInMemorySigningUtil();
+        signingUtil.setReuseBuffers(reuseBuffers);
+    }
+
+    @Benchmark
+    public void signToStream() throws PKSigningException {
+        signingUtil.createSignedAndZippedPkPassArchiveStream(pass, template, signingInformation, OutputStream.nullOutputStream());
+    }
+}
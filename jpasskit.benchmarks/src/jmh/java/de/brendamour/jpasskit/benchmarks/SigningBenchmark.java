@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.PKFileBasedSigningUtil;
+import de.brendamour.jpasskit.signing.PKInMemorySigningUtil;
+import de.brendamour.jpasskit.signing.PKPassTemplateFolder;
+import de.brendamour.jpasskit.signing.PKPassTemplatePrecompressed;
+import de.brendamour.jpasskit.signing.PKSigningException;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * Creates complete signed archives. The signing utils and templates are shared by all benchmark threads, like they are in a server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SigningBenchmark {
+
+    @Param({ "TINY", "STORE_CARD", "RETINA_HEAVY" })
+    public String templateSize;
+
+    @Param({ "false", "true" })
+    public boolean reuseBuffers;
+
+    private PKSigningInformation signingInformation;
+    private PKPass pass;
+    private IPKPassTemplate inMemoryTemplate;
+    private IPKPassTemplate precompressedTemplate;
+    private IPKPassTemplate folderTemplate;
+    private File templateDirectory;
+    private PKInMemorySigningUtil inMemorySigningUtil;
+    private PKFileBasedSigningUtil fileBasedSigningUtil;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PassFixtures.TemplateSize size = PassFixtures.TemplateSize.valueOf(templateSize);
+        signingInformation = PassFixtures.loadSigningInformation();
+        pass = PassFixtures.loadPass();
+        inMemoryTemplate = PassFixtures.createTemplate(size);
+        precompressedTemplate = new PKPassTemplatePrecompressed(inMemoryTemplate);
+        templateDirectory = PassFixtures.provisionTemplate(size);
+        folderTemplate = new PKPassTemplateFolder(templateDirectory.getAbsolutePath());
+
+        inMemorySigningUtil = new PKInMemorySigningUtil();
+        inMemorySigningUtil.setReuseBuffers(reuseBuffers);
+        fileBasedSigningUtil = new PKFileBasedSigningUtil();
+        fileBasedSigningUtil.setReuseBuffers(reuseBuffers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PassFixtures.deleteTemplate(templateDirectory);
+    }
+
+    @Benchmark
+    public byte[] inMemorySigningUtil() throws PKSigningException {
+        return inMemorySigningUtil.createSignedAndZippedPkPassArchive(pass, inMemoryTemplate, signingInformation);
+    }
+
+    @Benchmark
+    public byte[] inMemorySigningUtilWithPrecompressedTemplate() throws PKSigningException {
+        return inMemorySigningUtil.createSignedAndZippedPkPassArchive(pass, precompressedTemplate, signingInformation);
+    }
+
+    @Benchmark
+    public byte[] fileBasedSigningUtil() throws PKSigningException {
+        return fileBasedSigningUtil.createSignedAndZippedPkPassArchive(pass, folderTemplate, signingInformation);
+    }
+}
@@ -12,6 +12,8 @@ dependencies {
     api(project(":jpasskit"))
     api(libs.org.restlet.jse.org.restlet)
     api(libs.org.restlet.jse.org.restlet.ext.simple)
+    testImplementation(libs.org.apache.logging.log4j.log4j.slf4j.impl)
+    testImplementation(libs.org.testng.testng)
 }
 
 project.description = "Java Server Example for Apple PassBook Web Service API"
@@ -24,3 +26,19 @@ tasks.named<Test>("test") {
     failOnNoDiscoveredTests = false
 }
 
+// the minimum of the library applies to the server as well, except for these classes of the original example server, whose requests
+// and SSL setup are not covered by tests yet; they are still part of the coverage report
+val classesWithoutTests = listOf(
+    "de/brendamour/jpasskit/server/PKRestServer.class",
+    "de/brendamour/jpasskit/server/PKRestletHttpEngine.class",
+    "de/brendamour/jpasskit/server/PKLogResource.class",
+    "de/brendamour/jpasskit/server/PKPersonalizePassResource.class",
+    "de/brendamour/jpasskit/server/PKPersonalizePassPayload.class",
+    "de/brendamour/jpasskit/server/PKServerConfigurationException.class",
+    "de/brendamour/jpasskit/server/PKPassNotModifiedException.class"
+)
+
+tasks.named<JacocoCoverageVerification>("jacocoTestCoverageVerification") {
+    classDirectories.setFrom(sourceSets.main.get().output.classesDirs.asFileTree.matching { exclude(classesWithoutTests) })
+}
+
@@ -23,10 +23,22 @@ public class GetPKPassResponse {
 
 	private final PKPass pass;
 	private final Date lastUpdated;
+	private final String eTag;
 
 	public GetPKPassResponse(final PKPass pass, final Date lastUpdated) {
+		this(pass, lastUpdated, null);
+	}
+
+	/**
+	 * @param eTag
+	 *            the version of the pass, should match the one returned by
+	 *            {@link PKPassResource#probeLatestVersionOfPass(String, String, String)}. If null, a fingerprint of the pass content is
+	 *            used.
+	 */
+	public GetPKPassResponse(final PKPass pass, final Date lastUpdated, final String eTag) {
 		this.pass = pass;
 		this.lastUpdated = lastUpdated;
+		this.eTag = eTag;
 	}
 
 	public PKPass getPass() {
@@ -37,4 +49,8 @@ public class GetPKPassResponse {
 		return lastUpdated;
 	}
 
+	public String getETag() {
+		return eTag;
+	}
+
 }
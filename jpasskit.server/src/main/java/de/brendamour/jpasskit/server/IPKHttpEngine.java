@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.Properties;
+
+import org.restlet.Restlet;
+
+/**
+ * Transport of {@link PKRestServer}: accepts the HTTP connections and hands every request to the web service routes. The engine
+ * decides how connections are handled and on which threads requests run; the routes and resources are the same for every engine.
+ * <p>
+ * {@link PKRestletHttpEngine} is the default, {@link PKJdkHttpEngine} serves the requests with the HTTP server of the JDK.
+ */
+public interface IPKHttpEngine {
+
+	/**
+	 * Starts accepting requests.
+	 *
+	 * @param serverConfigurationProperties
+	 *            the configuration of the server, at least the {@code PKRestServer.SERVER_BIND_*} keys
+	 * @param routes
+	 *            handles every request, the engine starts and stops it
+	 */
+	void start(Properties serverConfigurationProperties, Restlet routes) throws Exception;
+
+	void stop() throws Exception;
+}
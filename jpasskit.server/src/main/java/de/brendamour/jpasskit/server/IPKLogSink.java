@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.List;
+
+/**
+ * Receives the log messages devices post to the web service, collected in batches by {@link PKLogIngestion}.
+ */
+public interface IPKLogSink {
+
+	/**
+	 * @param messages
+	 *            in the order they were received, an unmodifiable list that may be kept after the call
+	 * @throws Exception
+	 *             if the messages could not be handled. The batch is dropped and logged after this single attempt, it is
+	 *             not passed again
+	 */
+	void write(List<String> messages) throws Exception;
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.List;
+
+/**
+ * Stores the registration changes collected by {@link PKRegistrationWriteBehind}, typically with one batch statement per call.
+ */
+public interface IPKRegistrationSink {
+
+	/**
+	 * @param changes
+	 *            in the order they were made, a later change of the same registration overrides an earlier one; an unmodifiable list
+	 *            that may be kept after the call
+	 * @throws Exception
+	 *             if the changes could not be stored. The same batch is passed again after a delay, and dropped and logged after 3
+	 *             failed attempts in total
+	 */
+	void write(List<PKRegistrationChange> changes) throws Exception;
+}
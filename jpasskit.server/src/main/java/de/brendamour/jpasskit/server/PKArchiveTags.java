@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import de.brendamour.jpasskit.signing.PKContentFingerprint;
+import de.brendamour.jpasskit.signing.PKPassTemplateSnapshot;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * The ETags of pass archives. Besides the version of the pass, a tag covers the files of the template and the certificates the archive
+ * is signed with, so devices fetch the pass again after a new template or certificate was deployed.
+ * <p>
+ * The part of the template is computed once per {@link PKPassTemplateSnapshot} and the part of the certificates once per
+ * {@link PKSigningInformation}, both kept by identity for as long as the instance is in use.
+ */
+final class PKArchiveTags {
+
+	private static final int MAX_CACHED_PARTS = 64;
+
+	private final Cache<PKPassTemplateSnapshot, String> templateParts = CacheBuilder.newBuilder()
+			.weakKeys()
+			.maximumSize(MAX_CACHED_PARTS)
+			.build();
+	private final Cache<PKSigningInformation, String> certificateParts = CacheBuilder.newBuilder()
+			.weakKeys()
+			.maximumSize(MAX_CACHED_PARTS)
+			.build();
+
+	/**
+	 * @param signingInformation
+	 *            may be null, the tag then only covers the pass and the template
+	 */
+	String getTag(final String passTag, final PKPassTemplateSnapshot templateSnapshot, final PKSigningInformation signingInformation)
+			throws CertificateEncodingException {
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		DigestUtils.updateDigest(digest, passTag);
+		digest.update((byte) 0);
+		DigestUtils.updateDigest(digest, getTemplatePart(templateSnapshot));
+		if (signingInformation != null) {
+			digest.update((byte) 0);
+			DigestUtils.updateDigest(digest, getCertificatePart(signingInformation));
+		}
+		return Hex.encodeHexString(digest.digest());
+	}
+
+	// computing a part twice when requests race is cheaper than making them wait for each other
+	private String getTemplatePart(final PKPassTemplateSnapshot templateSnapshot) {
+		String part = templateParts.getIfPresent(templateSnapshot);
+		if (part == null) {
+			part = PKContentFingerprint.ofTemplate(templateSnapshot);
+			templateParts.put(templateSnapshot, part);
+		}
+		return part;
+	}
+
+	private String getCertificatePart(final PKSigningInformation signingInformation) throws CertificateEncodingException {
+		String part = certificateParts.getIfPresent(signingInformation);
+		if (part == null) {
+			MessageDigest digest = DigestUtils.getSha256Digest();
+			updateDigest(digest, signingInformation.getSigningCert());
+			updateDigest(digest, signingInformation.getAppleWWDRCACert());
+			part = Hex.encodeHexString(digest.digest());
+			certificateParts.put(signingInformation, part);
+		}
+		return part;
+	}
+
+	private static void updateDigest(final MessageDigest digest, final X509Certificate certificate) throws CertificateEncodingException {
+		digest.update((byte) 0);
+		if (certificate != null) {
+			digest.update(certificate.getEncoded());
+		}
+	}
+}
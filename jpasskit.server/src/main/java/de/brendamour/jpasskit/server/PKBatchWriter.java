@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue with a background thread that hands the queued items to a handler in batches, shared by
+ * {@link PKRegistrationWriteBehind} and {@link PKLogIngestion}.
+ * <p>
+ * The writer takes everything queued and waits up to the maximum delay to fill a batch. Callers waiting for room in the queue do not
+ * hold a lock, so {@link #flush()} and {@link #close()} are not held up by them. {@link #close()} stops accepting items and returns
+ * once the queued ones are handled.
+ */
+final class PKBatchWriter<T> implements Closeable {
+
+	@FunctionalInterface
+	interface BatchHandler<T> {
+
+		/**
+		 * Handles a batch, including its failures. The batch is an unmodifiable copy, so it may be kept after this returns.
+		 */
+		void handle(List<T> batch);
+	}
+
+	private static final long IDLE_POLL_MILLIS = 100;
+
+	private final BlockingQueue<T> queue;
+	// one permit per free place in the queue, so callers can wait for room without holding the submit lock
+	private final Semaphore room;
+	private final int batchSize;
+	private final long maxDelayNanos;
+	private final BatchHandler<T> handler;
+	private final Thread writer;
+	private final Object submitLock = new Object();
+	private final Object progressLock = new Object();
+	private volatile boolean closed;
+	// guarded by submitLock
+	private long submittedCount;
+	// guarded by progressLock
+	private long completedCount;
+
+	/**
+	 * Starts the writer thread.
+	 */
+	PKBatchWriter(final String threadName, final int queueCapacity, final int batchSize, final long maxDelayNanos,
+			final BatchHandler<T> handler) {
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.room = new Semaphore(queueCapacity);
+		this.batchSize = batchSize;
+		this.maxDelayNanos = maxDelayNanos;
+		this.handler = handler;
+		writer = new Thread(this::writeBatches, threadName);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues the item, waiting for room in the queue if it is full.
+	 *
+	 * @return false if this was closed, before or while waiting
+	 */
+	boolean put(final T item) throws InterruptedException {
+		return reserve() && add(item);
+	}
+
+	/**
+	 * Waits for room in the queue and reserves it for one item, which must then be queued with {@link #putReserved(Object)} or given
+	 * back with {@link #cancelReservation()}. Lets callers wait for room before they take their own locks.
+	 *
+	 * @return false if this was closed, before or while waiting
+	 */
+	boolean reserve() throws InterruptedException {
+		while (!room.tryAcquire(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (closed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the item in the room reserved by {@link #reserve()}, without waiting. The reservation is used up either way.
+	 *
+	 * @return false if this was closed
+	 */
+	boolean putReserved(final T item) {
+		return add(item);
+	}
+
+	/**
+	 * Gives back the room reserved by {@link #reserve()} without queueing an item.
+	 */
+	void cancelReservation() {
+		room.release();
+	}
+
+	/**
+	 * Queues the item if there is room.
+	 *
+	 * @return false if the queue is full or this was closed
+	 */
+	boolean offer(final T item) {
+		return room.tryAcquire() && add(item);
+	}
+
+	/**
+	 * Waits until all items queued before this call are handled.
+	 */
+	void flush() throws InterruptedException {
+		long target;
+		synchronized (submitLock) {
+			target = submittedCount;
+		}
+		synchronized (progressLock) {
+			while (completedCount < target && writer.isAlive()) {
+				progressLock.wait(IDLE_POLL_MILLIS);
+			}
+		}
+	}
+
+	int size() {
+		return queue.size();
+	}
+
+	int capacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		synchronized (submitLock) {
+			closed = true;
+		}
+		boolean interrupted = false;
+		while (writer.isAlive()) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// must hold a permit, the lock keeps the queue order and the count in step, which flush() relies on
+	private boolean add(final T item) {
+		synchronized (submitLock) {
+			if (closed) {
+				room.release();
+				return false;
+			}
+			queue.add(item);
+			submittedCount++;
+			return true;
+		}
+	}
+
+	private void writeBatches() {
+		List<T> batch = new ArrayList<>(batchSize);
+		// items of the batch whose place in the queue was given back
+		int released = 0;
+		while (true) {
+			try {
+				T first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					if (closed && queue.isEmpty()) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				fillBatch(batch);
+			} catch (InterruptedException e) {
+				// only close() stops the writer, as the queued items must be handled
+				continue;
+			} finally {
+				room.release(batch.size() - released);
+				released = batch.size();
+			}
+			handler.handle(List.copyOf(batch));
+			synchronized (progressLock) {
+				completedCount += batch.size();
+				progressLock.notifyAll();
+			}
+			batch.clear();
+			released = 0;
+		}
+	}
+
+	private void fillBatch(final List<T> batch) throws InterruptedException {
+		queue.drainTo(batch, batchSize - batch.size());
+		long deadline = System.nanoTime() + maxDelayNanos;
+		while (batch.size() < batchSize && !closed) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (next == null) {
+				return;
+			}
+			batch.add(next);
+			queue.drainTo(batch, batchSize - batch.size());
+		}
+	}
+}
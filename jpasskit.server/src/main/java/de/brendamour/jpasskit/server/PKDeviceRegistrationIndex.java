@@ -0,0 +1,488 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.util.concurrent.Striped;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * In-memory index of the device registrations of the Wallet web service, for use by a {@link PKDeviceResource} and by the code
+ * sending push notifications. It answers which passes a device registered for and which devices and push tokens a pass was
+ * registered on, without going to a database.
+ * <p>
+ * Reads of a device do not lock. Changes to a device are serialized by a lock striped over the device library identifiers, the
+ * devices of a pass are guarded by the pass. The pass type identifiers are interned and every device and pass is stored once, all
+ * registrations of a pass share its serial number. Devices keep their passes in small arrays; passes keep their devices in an array
+ * that grows by doubling and turns into a set once many devices share the pass, so registering stays cheap for passes shared by
+ * many devices, and tens of millions of registrations fit into one JVM. Pass an expected size to the constructor to avoid resizing
+ * the maps while the index grows.
+ * <p>
+ * An index created with {@link #openJournaled(Path, int, int)} writes every change to an append-only journal before it returns and
+ * replays the journal when it is opened again. Call {@link #compactJournal()} from time to time to drop the overwritten records, and
+ * {@link #close()} on shutdown.
+ */
+public class PKDeviceRegistrationIndex implements Closeable {
+
+	private static final int LOCK_STRIPES = 1024;
+	private static final Pass[] NO_PASSES = new Pass[0];
+	private static final Device[] NO_DEVICES = new Device[0];
+	// passes shared by more devices keep them in a set, so removing one does not scan them all
+	private static final int MAX_DEVICE_ARRAY_LENGTH = 16;
+
+	private final ConcurrentMap<String, Device> devices;
+	private final ConcurrentMap<PassKey, Pass> passes;
+	private final ConcurrentMap<String, Device> devicesByPushToken;
+	private final Interner<String> passTypeIdentifiers = Interners.newWeakInterner();
+	private final Striped<Lock> deviceLocks = Striped.lock(LOCK_STRIPES);
+	private final AtomicLong registrationCount = new AtomicLong();
+	private PKDeviceRegistrationJournal journal;
+
+	public PKDeviceRegistrationIndex() {
+		this(16, 16);
+	}
+
+	/**
+	 * @param expectedDevices
+	 *            number of devices the index is sized for
+	 * @param expectedPasses
+	 *            number of distinct passes the index is sized for
+	 */
+	public PKDeviceRegistrationIndex(final int expectedDevices, final int expectedPasses) {
+		devices = new ConcurrentHashMap<>(expectedDevices);
+		passes = new ConcurrentHashMap<>(expectedPasses);
+		devicesByPushToken = new ConcurrentHashMap<>(expectedDevices);
+	}
+
+	/**
+	 * Creates an index that is persisted in the journal at {@code journalFile}, restoring the registrations the journal contains.
+	 *
+	 * @throws IOException
+	 *             if the journal can not be read or created
+	 */
+	public static PKDeviceRegistrationIndex openJournaled(final Path journalFile, final int expectedDevices, final int expectedPasses)
+			throws IOException {
+		Assert.notNull(journalFile, "Journal file is mandatory");
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex(expectedDevices, expectedPasses);
+		index.journal = PKDeviceRegistrationJournal.open(journalFile, new PKDeviceRegistrationJournal.Handler() {
+
+			@Override
+			public void register(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+					final String pushToken, final long registeredAt) {
+				index.applyRegister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken);
+				index.devices.get(deviceLibraryIdentifier).pushTokenRegisteredAt = registeredAt;
+			}
+
+			@Override
+			public void unregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber) {
+				index.applyUnregister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber);
+			}
+		});
+		return index;
+	}
+
+	/**
+	 * Registers the device for updates of the pass, or updates its push token if it is registered already.
+	 *
+	 * @return true if the registration is new (answer with 201), false if the device was registered for the pass already (answer
+	 *         with 200)
+	 * @throws UncheckedIOException
+	 *             if the change could not be written to the journal
+	 */
+	public boolean register(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+			final String pushToken) {
+		Assert.notNull(deviceLibraryIdentifier, "Device library identifier is mandatory");
+		Assert.notNull(passTypeIdentifier, "Pass type identifier is mandatory");
+		Assert.notNull(serialNumber, "Serial number is mandatory");
+		Lock lock = deviceLocks.get(deviceLibraryIdentifier);
+		lock.lock();
+		try {
+			long registeredAt = System.currentTimeMillis();
+			boolean created = applyRegister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken);
+			devices.get(deviceLibraryIdentifier).pushTokenRegisteredAt = registeredAt;
+			// renewals are written too, pruning after a restart must know the device registered again
+			if (journal != null) {
+				journal.appendRegister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken, registeredAt);
+			}
+			return created;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the registration to the journal", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the registration of the device for the pass. Devices without registrations are removed with their push token.
+	 *
+	 * @return true if the device was registered for the pass (answer with 200), false otherwise
+	 * @throws UncheckedIOException
+	 *             if the change could not be written to the journal
+	 */
+	public boolean unregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber) {
+		Assert.notNull(deviceLibraryIdentifier, "Device library identifier is mandatory");
+		Assert.notNull(passTypeIdentifier, "Pass type identifier is mandatory");
+		Assert.notNull(serialNumber, "Serial number is mandatory");
+		Lock lock = deviceLocks.get(deviceLibraryIdentifier);
+		lock.lock();
+		try {
+			if (!applyUnregister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber)) {
+				return false;
+			}
+			if (journal != null) {
+				journal.appendUnregister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber);
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the registration to the journal", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the registrations of the device with the push token for passes of type {@code passTypeIdentifier}, because APNs
+	 * reported the token as invalid.
+	 *
+	 * @param passTypeIdentifier
+	 *            the pass type the token was rejected for, or null to remove the registrations of all pass types
+	 * @param invalidatedAt
+	 *            since when APNs considers the token invalid, or null. Registrations the device renewed after that are kept.
+	 * @return the number of registrations removed
+	 * @throws UncheckedIOException
+	 *             if the change could not be written to the journal
+	 */
+	public int unregisterPushToken(final String passTypeIdentifier, final String pushToken, final Instant invalidatedAt) {
+		Assert.notNull(pushToken, "Push token is mandatory");
+		Device device = devicesByPushToken.get(pushToken);
+		if (device == null) {
+			return 0;
+		}
+		Lock lock = deviceLocks.get(device.deviceLibraryIdentifier);
+		lock.lock();
+		try {
+			if (devices.get(device.deviceLibraryIdentifier) != device || !pushToken.equals(device.pushToken)) {
+				return 0;
+			}
+			if (invalidatedAt != null && device.pushTokenRegisteredAt > invalidatedAt.toEpochMilli()) {
+				return 0;
+			}
+			int removed = 0;
+			for (Pass pass : device.passes) {
+				if (passTypeIdentifier != null && !pass.passTypeIdentifier.equals(passTypeIdentifier)) {
+					continue;
+				}
+				applyUnregister(device.deviceLibraryIdentifier, pass.passTypeIdentifier, pass.serialNumber);
+				if (journal != null) {
+					journal.appendUnregister(device.deviceLibraryIdentifier, pass.passTypeIdentifier, pass.serialNumber);
+				}
+				removed++;
+			}
+			return removed;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the registration to the journal", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isRegistered(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber) {
+		Device device = devices.get(deviceLibraryIdentifier);
+		return device != null && indexOf(device.passes, passTypeIdentifier, serialNumber) >= 0;
+	}
+
+	/**
+	 * @return the serial numbers of the passes of type {@code passTypeIdentifier} the device is registered for
+	 */
+	public Set<String> getSerialNumbers(final String deviceLibraryIdentifier, final String passTypeIdentifier) {
+		Device device = devices.get(deviceLibraryIdentifier);
+		if (device == null) {
+			return Collections.emptySet();
+		}
+		Set<String> serialNumbers = new HashSet<>();
+		for (Pass pass : device.passes) {
+			if (pass.passTypeIdentifier.equals(passTypeIdentifier)) {
+				serialNumbers.add(pass.serialNumber);
+			}
+		}
+		return serialNumbers;
+	}
+
+	/**
+	 * @return the push token the device registered with, or null if the device is not registered for any pass
+	 */
+	public String getPushToken(final String deviceLibraryIdentifier) {
+		Device device = devices.get(deviceLibraryIdentifier);
+		return device != null ? device.pushToken : null;
+	}
+
+	/**
+	 * @return the push tokens of the devices registered for the pass, keyed by device library identifier
+	 */
+	public Map<String, String> getPushTokens(final String passTypeIdentifier, final String serialNumber) {
+		Pass pass = passes.get(new PassKey(passTypeIdentifier, serialNumber));
+		if (pass == null) {
+			return Collections.emptyMap();
+		}
+		return pass.getPushTokens();
+	}
+
+	public int getDeviceCount() {
+		return devices.size();
+	}
+
+	public long getRegistrationCount() {
+		return registrationCount.get();
+	}
+
+	/**
+	 * Rewrites the journal with one record per registration. Changes made while compacting are not lost; they wait until the new
+	 * journal is in place. Does nothing if the index has no journal.
+	 */
+	public void compactJournal() throws IOException {
+		if (journal == null) {
+			return;
+		}
+		journal.compact(writer -> {
+			long written = 0;
+			for (Device device : devices.values()) {
+				String pushToken = device.pushToken;
+				long registeredAt = device.pushTokenRegisteredAt;
+				for (Pass pass : device.passes) {
+					writer.write(device.deviceLibraryIdentifier, pass.passTypeIdentifier, pass.serialNumber, pushToken, registeredAt);
+					written++;
+				}
+			}
+			return written;
+		});
+	}
+
+	/**
+	 * @return the number of records in the journal, compare it to {@link #getRegistrationCount()} to decide when to compact, or 0 if
+	 *         the index has no journal
+	 */
+	public long getJournalRecordCount() {
+		return journal != null ? journal.getRecordCount() : 0;
+	}
+
+	/**
+	 * Forces the journal to disk and closes it. The index can still be read afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (journal != null) {
+			journal.close();
+		}
+	}
+
+	// must hold the lock of the device, changes the index first so a concurrent compaction sees either the change or its journal record
+	private boolean applyRegister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+			final String pushToken) {
+		Device device = devices.get(deviceLibraryIdentifier);
+		if (device == null) {
+			device = new Device(deviceLibraryIdentifier);
+			devices.put(deviceLibraryIdentifier, device);
+		}
+		String previousPushToken = device.pushToken;
+		if (!Objects.equals(previousPushToken, pushToken)) {
+			if (previousPushToken != null) {
+				devicesByPushToken.remove(previousPushToken, device);
+			}
+			if (pushToken != null) {
+				devicesByPushToken.put(pushToken, device);
+			}
+			device.pushToken = pushToken;
+		}
+		if (indexOf(device.passes, passTypeIdentifier, serialNumber) >= 0) {
+			return false;
+		}
+		Device registeredDevice = device;
+		// one pass instance per pass, the devices share it and its serial number
+		Pass pass = passes.compute(new PassKey(passTypeIdentifier, serialNumber), (key, registeredPass) -> {
+			Pass sharedPass = registeredPass != null ? registeredPass : new Pass(passTypeIdentifiers.intern(passTypeIdentifier), serialNumber);
+			sharedPass.addDevice(registeredDevice);
+			return sharedPass;
+		});
+		device.passes = append(device.passes, pass);
+		registrationCount.incrementAndGet();
+		return true;
+	}
+
+	// must hold the lock of the device
+	private boolean applyUnregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber) {
+		Device device = devices.get(deviceLibraryIdentifier);
+		if (device == null) {
+			return false;
+		}
+		int index = indexOf(device.passes, passTypeIdentifier, serialNumber);
+		if (index < 0) {
+			return false;
+		}
+		Pass pass = device.passes[index];
+		device.passes = remove(device.passes, index);
+		passes.computeIfPresent(pass, (key, registeredPass) -> registeredPass.removeDevice(device) ? null : registeredPass);
+		if (device.passes.length == 0) {
+			devices.remove(deviceLibraryIdentifier, device);
+			if (device.pushToken != null) {
+				devicesByPushToken.remove(device.pushToken, device);
+			}
+		}
+		registrationCount.decrementAndGet();
+		return true;
+	}
+
+	private static int indexOf(final Pass[] values, final String passTypeIdentifier, final String serialNumber) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i].serialNumber.equals(serialNumber) && values[i].passTypeIdentifier.equals(passTypeIdentifier)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static <T> T[] append(final T[] values, final T value) {
+		T[] appended = Arrays.copyOf(values, values.length + 1);
+		appended[values.length] = value;
+		return appended;
+	}
+
+	private static <T> T[] remove(final T[] values, final int index) {
+		T[] removed = Arrays.copyOf(values, values.length - 1);
+		System.arraycopy(values, index + 1, removed, index, values.length - index - 1);
+		return removed;
+	}
+
+	private static final class Device {
+
+		private final String deviceLibraryIdentifier;
+		private volatile String pushToken;
+		// when the device last registered
+		private volatile long pushTokenRegisteredAt;
+		// replaced, never modified, so it can be read without the lock
+		private volatile Pass[] passes = NO_PASSES;
+
+		private Device(final String deviceLibraryIdentifier) {
+			this.deviceLibraryIdentifier = deviceLibraryIdentifier;
+		}
+	}
+
+	private static class PassKey {
+
+		final String passTypeIdentifier;
+		final String serialNumber;
+		private final int hashCode;
+
+		PassKey(final String passTypeIdentifier, final String serialNumber) {
+			this.passTypeIdentifier = passTypeIdentifier;
+			this.serialNumber = serialNumber;
+			hashCode = 31 * passTypeIdentifier.hashCode() + serialNumber.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PassKey)) {
+				return false;
+			}
+			PassKey other = (PassKey) obj;
+			return hashCode == other.hashCode && serialNumber.equals(other.serialNumber) && passTypeIdentifier.equals(other.passTypeIdentifier);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	// the key of its own entry in the pass map
+	private static final class Pass extends PassKey {
+
+		// guarded by this, an array of deviceCount devices until the pass has more than MAX_DEVICE_ARRAY_LENGTH, then the set
+		private Device[] deviceArray = NO_DEVICES;
+		private int deviceCount;
+		private Set<Device> deviceSet;
+
+		private Pass(final String passTypeIdentifier, final String serialNumber) {
+			super(passTypeIdentifier, serialNumber);
+		}
+
+		synchronized void addDevice(final Device device) {
+			if (deviceSet != null) {
+				deviceSet.add(device);
+			} else if (deviceCount < deviceArray.length) {
+				deviceArray[deviceCount++] = device;
+			} else if (deviceCount < MAX_DEVICE_ARRAY_LENGTH) {
+				deviceArray = Arrays.copyOf(deviceArray, Math.max(1, deviceCount * 2));
+				deviceArray[deviceCount++] = device;
+			} else {
+				deviceSet = new HashSet<>(Arrays.asList(deviceArray));
+				deviceSet.add(device);
+				deviceArray = null;
+			}
+		}
+
+		/**
+		 * @return true if the pass has no devices left
+		 */
+		synchronized boolean removeDevice(final Device device) {
+			if (deviceSet != null) {
+				deviceSet.remove(device);
+				return deviceSet.isEmpty();
+			}
+			for (int i = 0; i < deviceCount; i++) {
+				if (deviceArray[i] == device) {
+					deviceArray[i] = deviceArray[--deviceCount];
+					deviceArray[deviceCount] = null;
+					break;
+				}
+			}
+			return deviceCount == 0;
+		}
+
+		synchronized Map<String, String> getPushTokens() {
+			Iterable<Device> devices = deviceSet != null ? deviceSet : Arrays.asList(deviceArray).subList(0, deviceCount);
+			Map<String, String> pushTokens = new HashMap<>();
+			for (Device device : devices) {
+				String pushToken = device.pushToken;
+				if (pushToken != null) {
+					pushTokens.put(device.deviceLibraryIdentifier, pushToken);
+				}
+			}
+			return pushTokens;
+		}
+	}
+}
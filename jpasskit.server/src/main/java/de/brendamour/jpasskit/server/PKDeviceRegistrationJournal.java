@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.CountingInputStream;
+
+/**
+ * Append-only log of the changes to a {@link PKDeviceRegistrationIndex}. Every record sets the state of one registration, so
+ * replaying a record twice does no harm and the last record of a registration wins.
+ * <p>
+ * Records are flushed to the operating system when they are written, they survive a crash of the JVM but not necessarily one of the
+ * machine. A truncated last record, e.g. from a crash while writing it, is dropped when the journal is opened.
+ * <p>
+ * Registrations carry the time the device registered, so the index can tell after a restart which registrations a device renewed
+ * after its push token was invalidated.
+ */
+final class PKDeviceRegistrationJournal implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKDeviceRegistrationJournal.class);
+	private static final int MAGIC = 0x504b4452; // PKDR
+	private static final int VERSION = 1;
+	private static final byte REGISTER = 'R';
+	private static final byte UNREGISTER = 'U';
+
+	interface Handler {
+
+		/**
+		 * @param registeredAt
+		 *            when the device registered in milliseconds since the epoch
+		 */
+		void register(String deviceLibraryIdentifier, String passTypeIdentifier, String serialNumber, String pushToken, long registeredAt);
+
+		void unregister(String deviceLibraryIdentifier, String passTypeIdentifier, String serialNumber);
+	}
+
+	@FunctionalInterface
+	interface RegistrationWriter {
+
+		void write(String deviceLibraryIdentifier, String passTypeIdentifier, String serialNumber, String pushToken, long registeredAt)
+				throws IOException;
+	}
+
+	@FunctionalInterface
+	interface Snapshot {
+
+		/**
+		 * @return the number of registrations written
+		 */
+		long writeTo(RegistrationWriter writer) throws IOException;
+	}
+
+	private final Path file;
+	private FileOutputStream fileOutputStream;
+	private DataOutputStream output;
+	private long recordCount;
+
+	private PKDeviceRegistrationJournal(final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Replays the journal at {@code file} into {@code handler} and opens it for appending. A missing file is created.
+	 */
+	static PKDeviceRegistrationJournal open(final Path file, final Handler handler) throws IOException {
+		PKDeviceRegistrationJournal journal = new PKDeviceRegistrationJournal(file);
+		journal.replay(handler);
+		journal.openForAppending(false);
+		return journal;
+	}
+
+	synchronized void appendRegister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+			final String pushToken, final long registeredAt) throws IOException {
+		writeRegister(output, deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken, registeredAt);
+		output.flush();
+		recordCount++;
+	}
+
+	synchronized void appendUnregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber)
+			throws IOException {
+		output.writeByte(UNREGISTER);
+		output.writeUTF(deviceLibraryIdentifier);
+		output.writeUTF(passTypeIdentifier);
+		output.writeUTF(serialNumber);
+		output.flush();
+		recordCount++;
+	}
+
+	/**
+	 * @return the number of records in the journal, including those that were overwritten by later ones
+	 */
+	synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Replaces the journal by the registrations {@code snapshot} writes. Appending blocks until the new journal is in place, so
+	 * changes that are missing from the snapshot are appended to the new journal.
+	 */
+	synchronized void compact(final Snapshot snapshot) throws IOException {
+		Path compactedFile = file.resolveSibling(file.getFileName() + ".compacting");
+		long compactedRecordCount;
+		try (FileOutputStream compactedOutputStream = new FileOutputStream(compactedFile.toFile());
+				DataOutputStream compactedOutput = new DataOutputStream(new BufferedOutputStream(compactedOutputStream))) {
+			writeHeader(compactedOutput);
+			compactedRecordCount = snapshot.writeTo((deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken,
+					registeredAt) -> writeRegister(compactedOutput, deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken,
+							registeredAt));
+			compactedOutput.flush();
+			compactedOutputStream.getChannel().force(true);
+		}
+		output.close();
+		Files.move(compactedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		openForAppending(true);
+		recordCount = compactedRecordCount;
+	}
+
+	/**
+	 * Forces the journal to disk and closes it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		output.flush();
+		fileOutputStream.getChannel().force(true);
+		output.close();
+	}
+
+	private void replay(final Handler handler) throws IOException {
+		InputStream fileInputStream;
+		try {
+			fileInputStream = Files.newInputStream(file);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		long validLength = 0;
+		try (CountingInputStream countingInputStream = new CountingInputStream(new BufferedInputStream(fileInputStream));
+				DataInputStream input = new DataInputStream(countingInputStream)) {
+			try {
+				if (input.readInt() != MAGIC) {
+					throw new IOException("Not a device registration journal: " + file);
+				}
+				int version = input.readInt();
+				if (version != VERSION) {
+					throw new IOException("Unsupported device registration journal version " + version + ": " + file);
+				}
+				validLength = countingInputStream.getCount();
+				int operation;
+				while ((operation = input.read()) != -1) {
+					String deviceLibraryIdentifier = input.readUTF();
+					String passTypeIdentifier = input.readUTF();
+					String serialNumber = input.readUTF();
+					if (operation == REGISTER) {
+						String pushToken = input.readUTF();
+						long registeredAt = input.readLong();
+						handler.register(deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken.isEmpty() ? null : pushToken,
+								registeredAt);
+					} else if (operation == UNREGISTER) {
+						handler.unregister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber);
+					} else {
+						throw new IOException("Unknown record type " + operation + " at offset " + validLength + " of " + file);
+					}
+					validLength = countingInputStream.getCount();
+					recordCount++;
+				}
+			} catch (EOFException | UTFDataFormatException e) {
+				LOGGER.warn("Dropping incomplete record at offset {} of device registration journal {}", validLength, file);
+			}
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			if (channel.size() > validLength) {
+				channel.truncate(validLength);
+			}
+		}
+	}
+
+	private void openForAppending(final boolean hasHeader) throws IOException {
+		boolean writeHeader = !hasHeader && (!Files.exists(file) || Files.size(file) == 0);
+		fileOutputStream = new FileOutputStream(file.toFile(), true);
+		output = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+		if (writeHeader) {
+			writeHeader(output);
+			output.flush();
+		}
+	}
+
+	private static void writeHeader(final DataOutputStream output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+	}
+
+	private static void writeRegister(final DataOutputStream output, final String deviceLibraryIdentifier, final String passTypeIdentifier,
+			final String serialNumber, final String pushToken, final long registeredAt) throws IOException {
+		output.writeByte(REGISTER);
+		output.writeUTF(deviceLibraryIdentifier);
+		output.writeUTF(passTypeIdentifier);
+		output.writeUTF(serialNumber);
+		output.writeUTF(pushToken != null ? pushToken : "");
+		output.writeLong(registeredAt);
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.brendamour.jpasskit.apns.IPKTokenInvalidationListener;
+import de.brendamour.jpasskit.apns.PKPushRejection;
+import de.brendamour.jpasskit.apns.PKTokenInvalidationPublisher;
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Removes the registrations of push tokens APNs reported as invalid from a {@link PKDeviceRegistrationIndex}, so later pushes skip
+ * the devices. Use it as the listener of a {@link PKTokenInvalidationPublisher}.
+ * <p>
+ * Only the registrations for the pass type the token was rejected for are removed, and none the device renewed after the token
+ * invalidation timestamp APNs sent.
+ */
+public class PKDeviceRegistrationPruner implements IPKTokenInvalidationListener {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKDeviceRegistrationPruner.class);
+
+	private final PKDeviceRegistrationIndex index;
+	private final AtomicLong removedCount = new AtomicLong();
+
+	public PKDeviceRegistrationPruner(final PKDeviceRegistrationIndex index) {
+		Assert.notNull(index, "Registration index is mandatory");
+		this.index = index;
+	}
+
+	@Override
+	public void tokensInvalidated(final List<PKPushRejection> invalidations) {
+		int removed = 0;
+		for (PKPushRejection invalidation : invalidations) {
+			removed += index.unregisterPushToken(invalidation.getTopic(), invalidation.getPushToken(),
+					invalidation.getTokenInvalidationTimestamp());
+		}
+		removedCount.addAndGet(removed);
+		LOGGER.debug("Removed {} registrations of {} invalid push tokens", removed, invalidations.size());
+	}
+
+	/**
+	 * @return the number of registrations removed so far
+	 */
+	public long getRemovedCount() {
+		return removedCount.get();
+	}
+}
@@ -18,7 +18,6 @@ package de.brendamour.jpasskit.server;
 import java.io.IOException;
 import java.util.Map;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.ChallengeResponse;
@@ -34,15 +33,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.brendamour.jpasskit.PKPushToken;
+import de.brendamour.jpasskit.util.Assert;
 
 public abstract class PKDeviceResource extends ServerResource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PKDeviceResource.class);
-	private ObjectMapper jsonObjectMapper;
+	private PKServerComponents components = PKServerComponents.getDefault();
+	private Status registrationStatus;
 
-	public PKDeviceResource() {
-		jsonObjectMapper = new ObjectMapper();
+	/**
+	 * @return the components of the server that created this resource, or {@link PKServerComponents#getDefault()}
+	 */
+	public final PKServerComponents getComponents() {
+		return components;
+	}
 
+	/**
+	 * Called by the resource factories before the request is handled. Custom finders creating resources call it as well, otherwise
+	 * the resource uses {@link PKServerComponents#getDefault()}.
+	 */
+	public final void setComponents(final PKServerComponents components) {
+		Assert.notNull(components, "Server components are mandatory");
+		this.components = components;
 	}
 
 	/*
@@ -55,6 +67,9 @@ public abstract class PKDeviceResource extends ServerResource {
 		String deviceLibraryIdentifier = (String) requestAttributes.get("deviceLibraryIdentifier");
 		String passTypeIdentifier = (String) requestAttributes.get("passTypeIdentifier");
 		String passesUpdatedSince = (String) requestAttributes.get("passesUpdatedSince");
+		if (passesUpdatedSince == null) {
+			passesUpdatedSince = getQueryValue("passesUpdatedSince");
+		}
 		LOGGER.debug("getSerialNumbersForPasses - deviceLibraryIdentifier: {}", deviceLibraryIdentifier);
 		LOGGER.debug("getSerialNumbersForPasses - passTypeIdentifier: {}", passTypeIdentifier);
 		LOGGER.debug("getSerialNumbersForPasses - passesUpdatedSince: {}", passesUpdatedSince);
@@ -66,7 +81,7 @@ public abstract class PKDeviceResource extends ServerResource {
 		}
 		String responseJSONString;
 		try {
-			responseJSONString = jsonObjectMapper.writeValueAsString(serialNumbersOfPassesForDevice);
+			responseJSONString = components.getJsonWriter().writeValueAsString(serialNumbersOfPassesForDevice);
 			return new StringRepresentation(responseJSONString, MediaType.APPLICATION_JSON);
 		} catch (Exception e) {
 			LOGGER.error("Error when parsing response to JSON:", e);
@@ -85,11 +100,15 @@ public abstract class PKDeviceResource extends ServerResource {
 		String deviceLibraryIdentifier = (String) requestAttributes.get("deviceLibraryIdentifier");
 		String passTypeIdentifier = (String) requestAttributes.get("passTypeIdentifier");
 		String serialNumber = (String) requestAttributes.get("serialNumber");
+		if (request.getChallengeResponse() == null) {
+			setStatusIntoResponse(Status.CLIENT_ERROR_UNAUTHORIZED, getResponse());
+			return;
+		}
 		String authString = request.getChallengeResponse().getRawValue();
 		Status responseStatus;
 		try {
 			String jsonPushToken = entity.getText();
-			PKPushToken pkPushToken = jsonObjectMapper.readValue(jsonPushToken, PKPushToken.class);
+			PKPushToken pkPushToken = components.getPushTokenReader().readValue(jsonPushToken);
 
 			LOGGER.debug("registerDeviceRequest - deviceLibraryIdentifier: {}", deviceLibraryIdentifier);
 			LOGGER.debug("registerDeviceRequest - passTypeIdentifier: {}", passTypeIdentifier);
@@ -103,9 +122,20 @@ public abstract class PKDeviceResource extends ServerResource {
 		} catch (IOException e) {
 			responseStatus = Status.SERVER_ERROR_INTERNAL;
 		}
+		registrationStatus = responseStatus;
 		setStatusIntoResponse(responseStatus, getResponse());
 	}
 
+	@Override
+	public Representation handle() {
+		Representation result = super.handle();
+		// Restlet answers a 200 without an entity with 204, but devices learn from a 200 that the pass was already registered
+		if (Status.SUCCESS_OK.equals(registrationStatus) && Status.SUCCESS_NO_CONTENT.equals(getStatus())) {
+			setStatus(Status.SUCCESS_OK);
+		}
+		return result;
+	}
+
 	private void setStatusIntoResponse(final Status status, final Response response) {
 		response.setStatus(status);
 	}
@@ -142,6 +172,12 @@ public abstract class PKDeviceResource extends ServerResource {
 	protected abstract Status handleUnregisterDeviceRequest(String deviceLibraryIdentifier, String passTypeIdentifier, String serialNumber,
 			ChallengeResponse authString) throws PKAuthTokenNotValidException;
 
+	/**
+	 * @param passesUpdatedSince
+	 *            the tag of the previous response, null on the first request. {@link PKPassUpdateIndex} answers this without looking
+	 *            at the passes that did not change.
+	 * @return null if no passes were updated since {@code passesUpdatedSince}
+	 */
 	protected abstract PKSerialNumbersOfPassesForDeviceResponse getSerialNumberOfPassesForDevice(String deviceLibraryIdentifier,
 			String passTypeIdentifier, String passesUpdatedSince);
 
@@ -23,14 +23,22 @@ import org.restlet.resource.ServerResource;
 public final class PKDeviceResourceFactory extends Finder {
 
 	private IPKRestletServerResourceFactory pkRestletServerResourceFactory;
+	private PKServerComponents components;
 
 	public PKDeviceResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory) {
+		this(pkRestletServerResourceFactory, PKServerComponents.getDefault());
+	}
+
+	public PKDeviceResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory, final PKServerComponents components) {
 		this.pkRestletServerResourceFactory = pkRestletServerResourceFactory;
+		this.components = components;
 	}
 
 	@Override
 	public ServerResource create(final Request request, final Response response) {
-		return pkRestletServerResourceFactory.getPKDeviceResource();
+		PKDeviceResource resource = pkRestletServerResourceFactory.getPKDeviceResource();
+		resource.setComponents(components);
+		return resource;
 	}
 
 }
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang3.StringUtils;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.ChallengeScheme;
+import org.restlet.data.Header;
+import org.restlet.data.Method;
+import org.restlet.data.Reference;
+import org.restlet.data.Tag;
+import org.restlet.engine.header.HeaderUtils;
+import org.restlet.representation.InputRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Serves the web service with the HTTP server of the JDK ({@code com.sun.net.httpserver}), without a Restlet connector.
+ * <p>
+ * Requests run on virtual threads if the JDK supports them (21 and later), so tens of thousands of devices waiting on slow
+ * connections or a slow database do not need as many platform threads. On older JDKs they run on a fixed pool of
+ * {@value #PLATFORM_THREADS_PER_PROCESSOR} platform threads per available processor, with {@link #THREADS_KEY} set to a number on
+ * a fixed pool of that size. An executor passed to the constructor is used instead, and not shut down by
+ * {@link #stop()}.
+ * <p>
+ * Besides the {@code PKRestServer.SERVER_BIND_*} keys this engine reads {@link #THREADS_KEY}, {@link #BACKLOG_KEY} and
+ * {@link #STOP_DELAY_KEY}.
+ */
+public class PKJdkHttpEngine implements IPKHttpEngine {
+
+	/**
+	 * {@code virtual} (the default) for a virtual thread per request, or the number of platform threads serving requests. Without
+	 * virtual threads, {@code virtual} falls back to {@value #PLATFORM_THREADS_PER_PROCESSOR} platform threads per available processor.
+	 */
+	public static final String THREADS_KEY = "rest.jdk.threads";
+	/**
+	 * Maximum number of connections waiting to be accepted, 0 (the default) for the default of the operating system.
+	 */
+	public static final String BACKLOG_KEY = "rest.jdk.backlog";
+	/**
+	 * Seconds {@link #stop()} waits for running requests to finish, 1 by default.
+	 */
+	public static final String STOP_DELAY_KEY = "rest.jdk.stopDelaySeconds";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKJdkHttpEngine.class);
+	private static final String VIRTUAL_THREADS = "virtual";
+	// requests mostly wait for the database or the network, so the pool is larger than the number of processors
+	private static final int PLATFORM_THREADS_PER_PROCESSOR = 16;
+	private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
+	// managed by the JDK server, e.g. from the length passed to sendResponseHeaders
+	private static final Set<String> TRANSPORT_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+	static {
+		TRANSPORT_HEADERS.add("Connection");
+		TRANSPORT_HEADERS.add("Content-Length");
+		TRANSPORT_HEADERS.add("Transfer-Encoding");
+	}
+
+	private final ExecutorService providedExecutor;
+	private ExecutorService executor;
+	private HttpServer server;
+	private Restlet routes;
+	private String scheme;
+	private int stopDelaySeconds;
+
+	public PKJdkHttpEngine() {
+		this(null);
+	}
+
+	/**
+	 * @param executor
+	 *            runs the requests, null to create one as configured by {@link #THREADS_KEY}
+	 */
+	public PKJdkHttpEngine(final ExecutorService executor) {
+		this.providedExecutor = executor;
+	}
+
+	@Override
+	public void start(final Properties serverConfigurationProperties, final Restlet routes) throws Exception {
+		String bindIp = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_IP_KEY);
+		int bindPort = Integer.parseInt(serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_PORT_KEY));
+		boolean useSSL = Boolean.parseBoolean(serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY));
+		int backlog = Integer.parseInt(serverConfigurationProperties.getProperty(BACKLOG_KEY, "0"));
+		stopDelaySeconds = Integer.parseInt(serverConfigurationProperties.getProperty(STOP_DELAY_KEY, "1"));
+
+		InetSocketAddress address = StringUtils.isEmpty(bindIp) ? new InetSocketAddress(bindPort) : new InetSocketAddress(bindIp, bindPort);
+		if (useSSL) {
+			LOGGER.info("Enabling SSL");
+			// before the server binds the port, so a wrong keystore does not leave it bound
+			SSLContext sslContext = createSSLContext(serverConfigurationProperties);
+			HttpsServer httpsServer = HttpsServer.create(address, backlog);
+			httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+			server = httpsServer;
+			scheme = "https";
+		} else {
+			server = HttpServer.create(address, backlog);
+			scheme = "http";
+		}
+		executor = providedExecutor != null ? providedExecutor : createExecutor(serverConfigurationProperties.getProperty(THREADS_KEY, VIRTUAL_THREADS));
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+
+		this.routes = routes;
+		routes.start();
+		server.start();
+		LOGGER.debug("Started JDK HTTP server on {}", server.getAddress());
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (server == null) {
+			return;
+		}
+		server.stop(stopDelaySeconds);
+		if (executor != providedExecutor) {
+			executor.shutdown();
+		}
+		routes.stop();
+		server = null;
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			Request request = toRequest(exchange);
+			Response response = new Response(request);
+			routes.handle(request, response);
+			sendResponse(exchange, response);
+		} catch (RuntimeException e) {
+			LOGGER.error("Error when handling {} {}:", exchange.getRequestMethod(), exchange.getRequestURI().getRawPath(), e);
+			if (exchange.getResponseCode() == -1) {
+				exchange.sendResponseHeaders(500, -1);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Request toRequest(final HttpExchange exchange) {
+		Headers headers = exchange.getRequestHeaders();
+		String host = headers.getFirst("Host");
+		if (host == null) {
+			InetSocketAddress localAddress = exchange.getLocalAddress();
+			host = localAddress.getHostString() + ":" + localAddress.getPort();
+		}
+		String base = scheme + "://" + host;
+		URI uri = exchange.getRequestURI();
+		Reference resourceRef = new Reference(base + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+		// the routes match the part of the resource reference after the base reference
+		resourceRef.setBaseRef(base);
+
+		Series<Header> requestHeaders = new Series<>(Header.class);
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				requestHeaders.add(header.getKey(), value);
+			}
+		}
+		Request request = new Request(Method.valueOf(exchange.getRequestMethod()), resourceRef, toEntity(exchange, requestHeaders));
+		request.setRootRef(new Reference(base));
+		// all headers, like the Restlet connectors provide them to the resources
+		request.getHeaders().addAll(requestHeaders);
+
+		String authorization = headers.getFirst("Authorization");
+		if (authorization != null) {
+			// "ApplePass <authenticationToken>", the resources read the raw value
+			int separator = authorization.indexOf(' ');
+			String challengeScheme = separator < 0 ? authorization : authorization.substring(0, separator);
+			ChallengeResponse challengeResponse = new ChallengeResponse(new ChallengeScheme("HTTP_" + challengeScheme, challengeScheme));
+			challengeResponse.setRawValue(separator < 0 ? null : authorization.substring(separator + 1).trim());
+			request.setChallengeResponse(challengeResponse);
+		}
+
+		String ifNoneMatch = headers.getFirst("If-None-Match");
+		if (ifNoneMatch != null) {
+			List<Tag> noneMatch = new ArrayList<>();
+			for (String tag : ifNoneMatch.split(",")) {
+				Tag parsedTag = Tag.parse(tag.trim());
+				if (parsedTag != null) {
+					noneMatch.add(parsedTag);
+				}
+			}
+			request.getConditions().setNoneMatch(noneMatch);
+		}
+		String ifModifiedSince = headers.getFirst("If-Modified-Since");
+		if (ifModifiedSince != null) {
+			try {
+				request.getConditions().setModifiedSince(Date.from(ZonedDateTime.parse(ifModifiedSince, HTTP_DATE_FORMAT).toInstant()));
+			} catch (DateTimeParseException e) {
+				LOGGER.debug("Ignoring invalid If-Modified-Since header: {}", ifModifiedSince);
+			}
+		}
+		return request;
+	}
+
+	private static Representation toEntity(final HttpExchange exchange, final Series<Header> requestHeaders) {
+		Headers headers = exchange.getRequestHeaders();
+		String contentLength = headers.getFirst("Content-Length");
+		boolean hasBody = contentLength != null ? !"0".equals(contentLength) : headers.containsKey("Transfer-Encoding");
+		if (!hasBody) {
+			return null;
+		}
+		InputRepresentation entity = new InputRepresentation(exchange.getRequestBody());
+		// media type and character set, size, encodings and languages
+		HeaderUtils.extractEntityHeaders(requestHeaders, entity);
+		return entity;
+	}
+
+	/**
+	 * Sends the status, the headers and the entity of the response. The headers are written by the same Restlet helpers the Restlet
+	 * connectors use, so the response metadata (character set, location, cache directives, challenge requests, extension headers and
+	 * so on) is sent as the {@link PKRestletHttpEngine} sends it. Only the transport headers are left to the JDK server.
+	 */
+	private static void sendResponse(final HttpExchange exchange, final Response response) throws IOException {
+		int statusCode = response.getStatus().getCode();
+		Representation entity = response.getEntity();
+		Series<Header> responseHeaders = new Series<>(Header.class);
+		HeaderUtils.addGeneralHeaders(response, responseHeaders);
+		HeaderUtils.addResponseHeaders(response, responseHeaders);
+		if (entity != null) {
+			HeaderUtils.addEntityHeaders(entity, responseHeaders);
+		}
+		HeaderUtils.addExtensionHeaders(responseHeaders, response.getHeaders());
+
+		Headers headers = exchange.getResponseHeaders();
+		for (Header header : responseHeaders) {
+			if (!TRANSPORT_HEADERS.contains(header.getName())) {
+				headers.add(header.getName(), header.getValue());
+			}
+		}
+		if (entity == null || !entity.isAvailable() || statusCode == 204 || statusCode == 304) {
+			exchange.sendResponseHeaders(statusCode, -1);
+			return;
+		}
+		long size = entity.getSize();
+		// 0 makes the JDK server send the body chunked, -1 sends no body
+		exchange.sendResponseHeaders(statusCode, size > 0 ? size : size == 0 ? -1 : 0);
+		if (size != 0) {
+			try (OutputStream body = exchange.getResponseBody()) {
+				entity.write(body);
+			}
+		}
+	}
+
+	private static SSLContext createSSLContext(final Properties serverConfigurationProperties) throws IOException, GeneralSecurityException {
+		String keystorePath = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PATH_KEY);
+		String keystoreType = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_TYPE_KEY);
+		String keystorePassword = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PASSWORD_KEY);
+		String keyPassword = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEY_PASSWORD_KEY, keystorePassword);
+
+		if (StringUtils.isEmpty(keystorePath) || StringUtils.isEmpty(keystoreType)) {
+			throw new PKServerConfigurationException("SSL is enabled but not set up correct. We need at least a keystore path and -type");
+		}
+
+		KeyStore keyStore = KeyStore.getInstance(keystoreType);
+		try (InputStream keystoreInputStream = Files.newInputStream(Paths.get(keystorePath))) {
+			keyStore.load(keystoreInputStream, keystorePassword != null ? keystorePassword.toCharArray() : null);
+		}
+		KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, keyPassword != null ? keyPassword.toCharArray() : null);
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+		return sslContext;
+	}
+
+	private static ExecutorService createExecutor(final String threads) {
+		if (VIRTUAL_THREADS.equals(threads)) {
+			try {
+				// JDK 21 and later, looked up so the library still runs on older JDKs
+				ExecutorService virtualThreadExecutor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+				LOGGER.info("Serving requests on virtual threads");
+				return virtualThreadExecutor;
+			} catch (ReflectiveOperationException e) {
+				int poolSize = Runtime.getRuntime().availableProcessors() * PLATFORM_THREADS_PER_PROCESSOR;
+				LOGGER.info("Virtual threads are not available, serving requests on {} platform threads", poolSize);
+				return Executors.newFixedThreadPool(poolSize, new RequestThreadFactory());
+			}
+		}
+		int poolSize = Integer.parseInt(threads);
+		LOGGER.info("Serving requests on {} platform threads", poolSize);
+		return Executors.newFixedThreadPool(poolSize, new RequestThreadFactory());
+	}
+
+	private static final class RequestThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			Thread thread = new Thread(runnable, "jpasskit-http-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadConstraints;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Takes the log messages devices post to {@code webServiceURL/version/log} off the request threads: {@link #ingest(InputStream)}
+ * reads the {@code {"logs": [...]}} payload as a stream, queues the messages and returns, a background thread hands them to an
+ * {@link IPKLogSink} in batches.
+ * <p>
+ * The queue is bounded, so a wave of misconfigured devices can not use up memory or the threads serving passes. Messages that do not
+ * fit are dropped; with {@link OverflowPolicy#SAMPLE} only one in {@value #SAMPLE_RATE} messages is queued once the queue is three
+ * quarters full, which keeps a picture of what the devices report. At most {@value #MAX_MESSAGES_PER_REQUEST} messages of
+ * {@value #MAX_MESSAGE_LENGTH} characters are taken from one request, the rest of it is not read. Requests of more than
+ * {@value #MAX_PAYLOAD_LENGTH} bytes are rejected once that much was read, so a huge payload ties up neither a request thread nor
+ * memory for long.
+ * <p>
+ * Set it on the {@link PKServerComponents} to have {@link PKLogResource} use it. {@link #close()} writes the queued messages.
+ */
+public class PKLogIngestion implements Closeable {
+
+	public enum OverflowPolicy {
+		/**
+		 * Queue every message while there is room, drop the rest.
+		 */
+		DROP,
+		/**
+		 * Queue only one in {@value PKLogIngestion#SAMPLE_RATE} messages once the queue is three quarters full, drop the rest.
+		 */
+		SAMPLE
+	}
+
+	static final int SAMPLE_RATE = 10;
+	static final int MAX_MESSAGES_PER_REQUEST = 100;
+	static final int MAX_MESSAGE_LENGTH = 4096;
+	static final int MAX_PAYLOAD_LENGTH = 1024 * 1024;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKLogIngestion.class);
+	private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+			.streamReadConstraints(StreamReadConstraints.builder().maxDocumentLength(MAX_PAYLOAD_LENGTH).build())
+			.build();
+
+	private final IPKLogSink sink;
+	private final OverflowPolicy overflowPolicy;
+	private final int samplingThreshold;
+	private final PKBatchWriter<String> writer;
+	private final AtomicLong sampleCounter = new AtomicLong();
+	private final AtomicLong acceptedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * Starts the writer thread.
+	 *
+	 * @param queueCapacity
+	 *            number of messages that can wait to be written
+	 * @param batchSize
+	 *            maximum number of messages per call of the sink
+	 * @param maxDelay
+	 *            how long the writer waits for a batch to fill once a message is queued
+	 */
+	public PKLogIngestion(final IPKLogSink sink, final int queueCapacity, final int batchSize, final Duration maxDelay,
+			final OverflowPolicy overflowPolicy) {
+		Assert.notNull(sink, "Sink is mandatory");
+		Assert.isTrue(queueCapacity > 0, "Queue capacity must be positive");
+		Assert.isTrue(batchSize > 0, "Batch size must be positive");
+		Assert.isTrue(!maxDelay.isNegative(), "Maximum delay must not be negative");
+		Assert.notNull(overflowPolicy, "Overflow policy is mandatory");
+		this.sink = sink;
+		this.overflowPolicy = overflowPolicy;
+		this.samplingThreshold = queueCapacity - queueCapacity / 4;
+		writer = new PKBatchWriter<>("jpasskit-log-writer", queueCapacity, batchSize, maxDelay.toNanos(), this::writeMessages);
+	}
+
+	/**
+	 * Reads a {@code {"logs": ["message", ...]}} payload and queues its messages. Other fields and values are skipped. Reading stops
+	 * after {@value #MAX_MESSAGES_PER_REQUEST} messages.
+	 *
+	 * @return the number of messages queued
+	 * @throws JsonParseException
+	 *             if the payload is not a JSON object
+	 * @throws com.fasterxml.jackson.core.exc.StreamConstraintsException
+	 *             if the payload is longer than {@value #MAX_PAYLOAD_LENGTH} bytes; the messages read until then are queued
+	 */
+	public int ingest(final InputStream payload) throws IOException {
+		int queued = 0;
+		int read = 0;
+		try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected a JSON object with the logs");
+			}
+			// the rest of the payload is not read once enough messages were
+			while (read < MAX_MESSAGES_PER_REQUEST && parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.currentName();
+				JsonToken value = parser.nextToken();
+				if (!"logs".equals(field) || value != JsonToken.START_ARRAY) {
+					parser.skipChildren();
+					continue;
+				}
+				JsonToken token;
+				while (read < MAX_MESSAGES_PER_REQUEST && (token = parser.nextToken()) != JsonToken.END_ARRAY) {
+					if (token == null) {
+						throw new JsonParseException(parser, "Unexpected end of the logs");
+					}
+					if (token != JsonToken.VALUE_STRING) {
+						parser.skipChildren();
+						continue;
+					}
+					read++;
+					// only the part that is kept becomes a string
+					String message = new String(parser.getTextCharacters(), parser.getTextOffset(),
+							Math.min(parser.getTextLength(), MAX_MESSAGE_LENGTH));
+					if (offer(message)) {
+						queued++;
+					}
+				}
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Queues a message unless the overflow policy drops it.
+	 *
+	 * @return true if the message was queued
+	 */
+	public boolean offer(final String message) {
+		if (overflowPolicy == OverflowPolicy.SAMPLE && writer.size() >= samplingThreshold
+				&& sampleCounter.incrementAndGet() % SAMPLE_RATE != 0) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		if (!writer.offer(message)) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		acceptedCount.incrementAndGet();
+		return true;
+	}
+
+	public int getQueueDepth() {
+		return writer.size();
+	}
+
+	public long getAcceptedCount() {
+		return acceptedCount.get();
+	}
+
+	/**
+	 * @return the number of messages dropped because the queue was full, by sampling, or because this was closed
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return the number of messages lost because the sink failed to handle them
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Stops accepting messages and waits until the queued ones are written.
+	 */
+	@Override
+	public void close() {
+		writer.close();
+	}
+
+	private void writeMessages(final List<String> batch) {
+		try {
+			sink.write(batch);
+			writtenCount.addAndGet(batch.size());
+		} catch (Exception e) {
+			failedCount.addAndGet(batch.size());
+			LOGGER.error("Failed to write {} device log messages:", batch.size(), e);
+		}
+	}
+}
@@ -16,7 +16,9 @@
 package de.brendamour.jpasskit.server;
 
 import java.io.IOException;
+import java.io.InputStream;
 
+import org.restlet.data.Status;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Delete;
 import org.restlet.resource.Post;
@@ -24,22 +26,55 @@ import org.restlet.resource.ServerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import de.brendamour.jpasskit.util.Assert;
+
 public abstract class PKLogResource extends ServerResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PKLogResource.class);
+    private PKServerComponents components = PKServerComponents.getDefault();
+
+    /**
+     * @return the components of the server that created this resource, or {@link PKServerComponents#getDefault()}
+     */
+    public final PKServerComponents getComponents() {
+        return components;
+    }
+
+    /**
+     * Called by the resource factories before the request is handled. Custom finders creating resources call it as well, otherwise
+     * the resource uses {@link PKServerComponents#getDefault()}.
+     */
+    public final void setComponents(final PKServerComponents components) {
+        Assert.notNull(components, "Server components are mandatory");
+        this.components = components;
+    }
 
     /*
      * POST request to webServiceURL/version/log
      */
     @Post("json")
     public final Representation postLogMessage(final Representation entity) {
-        try {
-            LOGGER.debug("postLogMessage: Log {}", entity.getText());
+        PKLogIngestion logIngestion = components.getLogIngestion();
+        if (logIngestion == null) {
+            return handleLogRequest(entity);
+        }
+        if (entity == null) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            return null;
+        }
+        try (InputStream payload = entity.getStream()) {
+            int queued = logIngestion.ingest(payload);
+            LOGGER.debug("postLogMessage: queued {} messages", queued);
+        } catch (JsonProcessingException e) {
+            LOGGER.debug("postLogMessage: invalid payload", e);
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            LOGGER.warn("Error when reading the log messages:", e);
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
         }
-        return handleLogRequest(entity);
+        return null;
     }
 
     @Delete("json")
@@ -47,5 +82,11 @@ public abstract class PKLogResource extends ServerResource {
         return null;
     }
 
+    /**
+     * Handles the log messages if no {@link PKLogIngestion} is set on the {@link PKServerComponents}.
+     *
+     * @param entity
+     *            the unread {@code {"logs": [...]}} payload
+     */
     public abstract Representation handleLogRequest(final Representation entity);
 }
@@ -23,14 +23,22 @@ import org.restlet.resource.ServerResource;
 public final class PKLogResourceFactory extends Finder {
 
     private IPKRestletServerResourceFactory pkRestletServerResourceFactory;
+    private PKServerComponents components;
 
     public PKLogResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory) {
+        this(pkRestletServerResourceFactory, PKServerComponents.getDefault());
+    }
+
+    public PKLogResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory, final PKServerComponents components) {
         this.pkRestletServerResourceFactory = pkRestletServerResourceFactory;
+        this.components = components;
     }
 
     @Override
     public ServerResource create(final Request request, final Response response) {
-        return pkRestletServerResourceFactory.getPKLogResource();
+        PKLogResource resource = pkRestletServerResourceFactory.getPKLogResource();
+        resource.setComponents(components);
+        return resource;
     }
 
 }
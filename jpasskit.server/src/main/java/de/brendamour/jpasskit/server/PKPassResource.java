@@ -15,40 +15,58 @@
  */
 package de.brendamour.jpasskit.server;
 
-import java.io.ByteArrayInputStream;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.restlet.Request;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.Conditions;
+import org.restlet.data.MediaType;
 import org.restlet.data.Status;
-import org.restlet.representation.InputRepresentation;
+import org.restlet.data.Tag;
+import org.restlet.representation.ByteArrayRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.annotation.JsonInclude.Include;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import de.brendamour.jpasskit.PKPass;
-import de.brendamour.jpasskit.signing.IPKSigningUtil;
-import de.brendamour.jpasskit.signing.PKFileBasedSigningUtil;
-import de.brendamour.jpasskit.signing.PKPassTemplateFolder;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.PKContentFingerprint;
+import de.brendamour.jpasskit.signing.PKPassTemplatePrecompressed;
+import de.brendamour.jpasskit.signing.PKPassTemplateSnapshot;
 import de.brendamour.jpasskit.signing.PKSigningInformation;
+import de.brendamour.jpasskit.util.Assert;
 
 public abstract class PKPassResource extends ServerResource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PKPassResource.class);
-	private ObjectMapper jsonObjectMapper;
+	private static final MediaType PKPASS_MEDIA_TYPE = new MediaType("application/vnd.apple.pkpass");
 	private String pathToPassTemplate;
-	private IPKSigningUtil signingUtil;
+	private PKServerComponents components = PKServerComponents.getDefault();
 
 	public PKPassResource(final String pathToPassTemplate) {
 		this.pathToPassTemplate = pathToPassTemplate;
-		jsonObjectMapper = new ObjectMapper();
-		jsonObjectMapper.setSerializationInclusion(Include.NON_NULL);
-		signingUtil = new PKFileBasedSigningUtil(jsonObjectMapper.writer());
+	}
+
+	/**
+	 * @return the components of the server that created this resource, or {@link PKServerComponents#getDefault()}
+	 */
+	public final PKServerComponents getComponents() {
+		return components;
+	}
+
+	/**
+	 * Called by the resource factories before the request is handled. Custom finders creating resources call it as well, otherwise
+	 * the resource uses {@link PKServerComponents#getDefault()}.
+	 */
+	public final void setComponents(final PKServerComponents components) {
+		Assert.notNull(components, "Server components are mandatory");
+		this.components = components;
 	}
 
 	/*
@@ -60,7 +78,12 @@ public abstract class PKPassResource extends ServerResource {
 		Map<String, Object> requestAttributes = request.getAttributes();
 		String passTypeIdentifier = (String) requestAttributes.get("passTypeIdentifier");
 		String serialNumber = (String) requestAttributes.get("serialNumber");
-		String authString = request.getChallengeResponse().getRawValue();
+		ChallengeResponse challengeResponse = request.getChallengeResponse();
+		if (challengeResponse == null) {
+			getResponse().setStatus(Status.CLIENT_ERROR_UNAUTHORIZED);
+			return null;
+		}
+		String authString = challengeResponse.getRawValue();
 		Date modifiedSince = request.getConditions().getModifiedSince();
 
 		LOGGER.debug("getLatestVersionOfPass: passTypeIdentifier: {}", passTypeIdentifier);
@@ -70,20 +93,45 @@ public abstract class PKPassResource extends ServerResource {
 
 		PKPass latestPassVersion = null;
 		try {
+			// cheap check first, so unchanged passes are neither loaded nor signed
+			PKPassVersionInfo versionInfo = probeLatestVersionOfPass(passTypeIdentifier, serialNumber, authString);
+			IPKPassTemplate passTemplate = getPassTemplate();
+			// the tag and the archive are made from the same files, even if the template changes in between
+			PKPassTemplateSnapshot templateSnapshot = passTemplate.getSnapshot();
+			// precompressed templates never change and are signed as they are, to keep their prepared ZIP entries
+			IPKPassTemplate signedTemplate = passTemplate instanceof PKPassTemplatePrecompressed ? passTemplate : templateSnapshot;
+			PKSigningInformation signingInformation = getSigningInformation();
+			PKArchiveTags archiveTags = components.getArchiveTags();
+			if (versionInfo != null && isNotModified(request.getConditions(),
+					versionInfo.getETag() != null ? archiveTags.getTag(versionInfo.getETag(), templateSnapshot, signingInformation) : null,
+					versionInfo.getLastUpdated())) {
+				LOGGER.debug("getLatestVersionOfPass: pass {} not modified according to probe", serialNumber);
+				getResponse().setStatus(Status.REDIRECTION_NOT_MODIFIED);
+				return null;
+			}
+
 			GetPKPassResponse getPKPassResponse = handleGetLatestVersionOfPass(passTypeIdentifier, serialNumber, authString, modifiedSince);
 
 			if (getPKPassResponse != null && PKPass.builder(getPKPassResponse.getPass()).isValid()) {
 				latestPassVersion = getPKPassResponse.getPass();
-				PKSigningInformation pkSigningInformation = getSingingInformation();
-
-				byte[] signedAndZippedPkPassArchive = signingUtil.createSignedAndZippedPkPassArchive(latestPassVersion,
-						new PKPassTemplateFolder(pathToPassTemplate), pkSigningInformation);
-				String responseJSONString = jsonObjectMapper.writeValueAsString(latestPassVersion);
-				LOGGER.debug(responseJSONString);
-
-				InputRepresentation inputRepresentation = new InputRepresentation(new ByteArrayInputStream(signedAndZippedPkPassArchive));
-				inputRepresentation.setModificationDate(getPKPassResponse.getLastUpdated());
-				return inputRepresentation;
+				String passTag = getPKPassResponse.getETag() != null ? getPKPassResponse.getETag() : PKContentFingerprint.of(latestPassVersion);
+				String eTag = archiveTags.getTag(passTag, templateSnapshot, signingInformation);
+				if (isNotModified(request.getConditions(), eTag, null)) {
+					getResponse().setStatus(Status.REDIRECTION_NOT_MODIFIED);
+					return null;
+				}
+				PKPass pass = latestPassVersion;
+				List<Object> archiveKey = Arrays.asList(pathToPassTemplate, passTypeIdentifier, serialNumber, getPKPassResponse.getLastUpdated(),
+						eTag);
+				byte[] signedAndZippedPkPassArchive = components.getPassArchives().execute(archiveKey,
+						() -> components.getSigningUtil().createSignedAndZippedPkPassArchive(pass, signedTemplate, signingInformation));
+				LOGGER.debug("getLatestVersionOfPass: archive of pass {} has {} bytes", serialNumber, signedAndZippedPkPassArchive.length);
+
+				// written to the connection as is, with an exact Content-Length so the connection can be kept alive
+				ByteArrayRepresentation archiveRepresentation = new ByteArrayRepresentation(signedAndZippedPkPassArchive, PKPASS_MEDIA_TYPE);
+				archiveRepresentation.setModificationDate(getPKPassResponse.getLastUpdated());
+				archiveRepresentation.setTag(new Tag(eTag, false));
+				return archiveRepresentation;
 			}
 			LOGGER.error("Pass {} is not valid", latestPassVersion);
 		} catch (PKAuthTokenNotValidException e) {
@@ -93,7 +141,7 @@ public abstract class PKPassResource extends ServerResource {
 			getResponse().setStatus(Status.REDIRECTION_NOT_MODIFIED);
 			return null;
 		} catch (Exception e) {
-			LOGGER.error("Error when parsing response to JSON:", e);
+			LOGGER.error("Error when creating the pass archive:", e);
 		}
 
 		getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -101,8 +149,59 @@ public abstract class PKPassResource extends ServerResource {
 
 	}
 
+	/**
+	 * A pass is not modified if one of the tags in If-None-Match matches its ETag. If-Modified-Since is only considered if the request
+	 * has no If-None-Match header, as required by RFC 9110.
+	 */
+	private boolean isNotModified(final Conditions conditions, final String eTag, final Date lastUpdated) {
+		List<Tag> noneMatch = conditions.getNoneMatch();
+		if (noneMatch != null && !noneMatch.isEmpty()) {
+			if (eTag == null) {
+				return false;
+			}
+			for (Tag tag : noneMatch) {
+				// weak comparison, as If-None-Match requires
+				if (Tag.ALL.equals(tag) || eTag.equals(tag.getName())) {
+					return true;
+				}
+			}
+			return false;
+		}
+		Date modifiedSince = conditions.getModifiedSince();
+		// HTTP dates have a precision of one second
+		return modifiedSince != null && lastUpdated != null && lastUpdated.getTime() / 1000 <= modifiedSince.getTime() / 1000;
+	}
+
+	protected IPKPassTemplate getPassTemplate() {
+		return components.getPassTemplate(pathToPassTemplate);
+	}
+
+	private PKSigningInformation getSigningInformation() {
+		PKSigningInformation signingInformation = components.getSigningInformation();
+		return signingInformation != null ? signingInformation : getSingingInformation();
+	}
+
+	/**
+	 * Returns the version of a pass without loading it, called before
+	 * {@link #handleGetLatestVersionOfPass(String, String, String, Date)}. If the version matches the If-None-Match or If-Modified-Since
+	 * header of the request, 304 is returned right away. The ETag of the response combines the version with the template and the signing
+	 * certificates, so it changes with either of them.
+	 * <p>
+	 * Implementations must validate {@code authString} like {@link #handleGetLatestVersionOfPass(String, String, String, Date)} does.
+	 * The default returns null, which always loads the pass.
+	 *
+	 * @return the version of the pass, or null if it is unknown
+	 */
+	protected PKPassVersionInfo probeLatestVersionOfPass(final String passTypeIdentifier, final String serialNumber, final String authString)
+			throws PKAuthTokenNotValidException {
+		return null;
+	}
+
 	protected abstract GetPKPassResponse handleGetLatestVersionOfPass(String passTypeIdentifier, String serialNumber, String authString,
 			Date modifiedSince) throws PKAuthTokenNotValidException, PKPassNotModifiedException;
 
+	/**
+	 * Only called if no signing information is set in {@link PKServerComponents}.
+	 */
 	protected abstract PKSigningInformation getSingingInformation();
 }
@@ -23,14 +23,22 @@ import org.restlet.resource.ServerResource;
 public final class PKPassResourceFactory extends Finder {
 
     private IPKRestletServerResourceFactory pkRestletServerResourceFactory;
+    private PKServerComponents components;
 
     public PKPassResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory) {
+        this(pkRestletServerResourceFactory, PKServerComponents.getDefault());
+    }
+
+    public PKPassResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory, final PKServerComponents components) {
         this.pkRestletServerResourceFactory = pkRestletServerResourceFactory;
+        this.components = components;
     }
 
     @Override
     public ServerResource create(final Request request, final Response response) {
-        return pkRestletServerResourceFactory.getPKPassResource();
+        PKPassResource resource = pkRestletServerResourceFactory.getPKPassResource();
+        resource.setComponents(components);
+        return resource;
     }
 
 }
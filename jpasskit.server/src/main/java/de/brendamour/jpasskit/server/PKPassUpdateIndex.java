@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Update tags for the {@code passesUpdatedSince} parameter of the device polling request, and an index of the passes changed since a
+ * tag.
+ * <p>
+ * Tags are decimal numbers that increase with every update, starting at the current time in milliseconds so they keep increasing
+ * after a restart. For every pass type the index keeps the passes ordered by their latest tag, so a poll only looks at the passes
+ * that changed since the tag of the device, or at the passes of the device if there are fewer of them. If nothing changed since that
+ * tag, {@link #getSerialNumbersOfPassesForDevice(String, Set, String)} answers without looking at any pass.
+ * <p>
+ * The index only knows the updates made since it was created, and those {@link #restore(String, String, String) restored} into it.
+ * A device polling with a tag from before the index was created gets all its passes, unless tags were restored, so no update it
+ * did not fetch before a restart is lost.
+ * <p>
+ * Updates of a pass type are serialized, polls do not lock.
+ */
+public class PKPassUpdateIndex {
+
+	// tags before it were issued by an earlier instance
+	private final long historyStart;
+	private final AtomicLong lastTag;
+	private final ConcurrentMap<String, ChangeLog> changeLogs = new ConcurrentHashMap<>();
+	private volatile boolean restored;
+
+	public PKPassUpdateIndex() {
+		historyStart = System.currentTimeMillis();
+		lastTag = new AtomicLong(historyStart);
+	}
+
+	/**
+	 * Records an update of the pass. Call it after the update is stored, before sending the push notifications.
+	 *
+	 * @return the new update tag of the pass
+	 */
+	public String markUpdated(final String passTypeIdentifier, final String serialNumber) {
+		Assert.notNull(passTypeIdentifier, "Pass type identifier is mandatory");
+		Assert.notNull(serialNumber, "Serial number is mandatory");
+		ChangeLog changeLog = changeLogs.computeIfAbsent(passTypeIdentifier, key -> new ChangeLog());
+		synchronized (changeLog) {
+			long tag = lastTag.accumulateAndGet(System.currentTimeMillis(), (previous, now) -> Math.max(previous + 1, now));
+			changeLog.put(serialNumber, tag);
+			return Long.toString(tag);
+		}
+	}
+
+	/**
+	 * Restores the tag of a pass, e.g. from a database after a restart. Later updates get higher tags. Restore the tags of all passes
+	 * updated before the restart: once a tag is restored, the index answers polls with older tags from the restored tags alone.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if {@code updateTag} is not a tag of this index
+	 */
+	public void restore(final String passTypeIdentifier, final String serialNumber, final String updateTag) {
+		Assert.notNull(passTypeIdentifier, "Pass type identifier is mandatory");
+		Assert.notNull(serialNumber, "Serial number is mandatory");
+		Long tag = parseTag(updateTag);
+		Assert.isTrue(tag != null, "Not an update tag: " + updateTag);
+		ChangeLog changeLog = changeLogs.computeIfAbsent(passTypeIdentifier, key -> new ChangeLog());
+		synchronized (changeLog) {
+			restored = true;
+			lastTag.accumulateAndGet(tag, Math::max);
+			Long currentTag = changeLog.tagsBySerialNumber.get(serialNumber);
+			if (currentTag == null || currentTag < tag) {
+				changeLog.put(serialNumber, tag);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the pass, e.g. when it is deleted.
+	 */
+	public void remove(final String passTypeIdentifier, final String serialNumber) {
+		ChangeLog changeLog = changeLogs.get(passTypeIdentifier);
+		if (changeLog == null) {
+			return;
+		}
+		synchronized (changeLog) {
+			Long tag = changeLog.tagsBySerialNumber.remove(serialNumber);
+			if (tag != null) {
+				changeLog.serialNumbersByTag.remove(tag);
+			}
+		}
+	}
+
+	/**
+	 * @return the tag of the latest update of the pass, or null if it was not updated
+	 */
+	public String getUpdateTag(final String passTypeIdentifier, final String serialNumber) {
+		ChangeLog changeLog = changeLogs.get(passTypeIdentifier);
+		Long tag = changeLog != null ? changeLog.tagsBySerialNumber.get(serialNumber) : null;
+		return tag != null ? tag.toString() : null;
+	}
+
+	/**
+	 * Answers the device polling request.
+	 *
+	 * @param registeredSerialNumbers
+	 *            the serial numbers of the passes of type {@code passTypeIdentifier} the device is registered for, e.g. from
+	 *            {@link PKDeviceRegistrationIndex#getSerialNumbers(String, String)}
+	 * @param passesUpdatedSince
+	 *            the tag the device sent, null (or a value that is not a tag, or a tag from before the index was created and nothing
+	 *            was restored) for all registered passes
+	 * @return the registered passes updated since {@code passesUpdatedSince} and the tag for the next request, or null if there are
+	 *         none (answer with 204)
+	 */
+	public PKSerialNumbersOfPassesForDeviceResponse getSerialNumbersOfPassesForDevice(final String passTypeIdentifier,
+			final Set<String> registeredSerialNumbers, final String passesUpdatedSince) {
+		if (registeredSerialNumbers == null || registeredSerialNumbers.isEmpty()) {
+			return null;
+		}
+		Long since = parseTag(passesUpdatedSince);
+		ChangeLog changeLog = changeLogs.get(passTypeIdentifier);
+		// read before the changes, so the changes published after it are sent again on the next request instead of being missed
+		long latestTag = changeLog != null ? changeLog.latestTag : lastTag.get();
+		Set<String> serialNumbers;
+		// the index does not know what changed since an earlier instance issued the tag
+		if (since == null || since < historyStart && !restored) {
+			serialNumbers = new LinkedHashSet<>(registeredSerialNumbers);
+		} else if (changeLog == null || latestTag <= since) {
+			return null;
+		} else {
+			serialNumbers = changeLog.getSerialNumbersUpdatedSince(since, registeredSerialNumbers);
+			if (serialNumbers.isEmpty()) {
+				return null;
+			}
+		}
+		PKSerialNumbersOfPassesForDeviceResponse response = new PKSerialNumbersOfPassesForDeviceResponse();
+		response.setLastUpdated(Long.toString(latestTag));
+		response.setSerialNumbers(serialNumbers.toArray(new String[0]));
+		return response;
+	}
+
+	private static Long parseTag(final String tag) {
+		if (tag == null || tag.isEmpty()) {
+			return null;
+		}
+		try {
+			return Long.valueOf(tag);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static final class ChangeLog {
+
+		private final Map<String, Long> tagsBySerialNumber = new ConcurrentHashMap<>();
+		private final NavigableMap<Long, String> serialNumbersByTag = new ConcurrentSkipListMap<>();
+		private volatile long latestTag;
+
+		// must hold the lock of the change log
+		private void put(final String serialNumber, final long tag) {
+			Long previousTag = tagsBySerialNumber.put(serialNumber, tag);
+			if (previousTag != null) {
+				serialNumbersByTag.remove(previousTag);
+			}
+			serialNumbersByTag.put(tag, serialNumber);
+			if (tag > latestTag) {
+				latestTag = tag;
+			}
+		}
+
+		private Set<String> getSerialNumbersUpdatedSince(final long since, final Set<String> registeredSerialNumbers) {
+			Set<String> serialNumbers = new LinkedHashSet<>();
+			int visited = 0;
+			for (Map.Entry<Long, String> change : serialNumbersByTag.tailMap(since, false).entrySet()) {
+				if (++visited > registeredSerialNumbers.size()) {
+					// more changes than passes of the device, look the passes up instead
+					return getRegisteredSerialNumbersUpdatedSince(since, registeredSerialNumbers);
+				}
+				if (registeredSerialNumbers.contains(change.getValue())) {
+					serialNumbers.add(change.getValue());
+				}
+			}
+			return serialNumbers;
+		}
+
+		private Set<String> getRegisteredSerialNumbersUpdatedSince(final long since, final Set<String> registeredSerialNumbers) {
+			Set<String> serialNumbers = new LinkedHashSet<>();
+			for (String serialNumber : registeredSerialNumbers) {
+				Long tag = tagsBySerialNumber.get(serialNumber);
+				if (tag != null && tag > since) {
+					serialNumbers.add(serialNumber);
+				}
+			}
+			return serialNumbers;
+		}
+	}
+}
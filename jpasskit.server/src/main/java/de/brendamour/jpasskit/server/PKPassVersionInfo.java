@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.Date;
+
+/**
+ * Version of a pass as returned by {@link PKPassResource#probeLatestVersionOfPass(String, String, String)}, typically read from an
+ * index or a single database column without loading the pass itself.
+ */
+public class PKPassVersionInfo {
+
+	private final Date lastUpdated;
+	private final String eTag;
+
+	/**
+	 * @param lastUpdated
+	 *            when the pass was last changed, may be null if {@code eTag} is given
+	 * @param eTag
+	 *            an opaque version of the pass, without quotes, may be null if {@code lastUpdated} is given
+	 */
+	public PKPassVersionInfo(final Date lastUpdated, final String eTag) {
+		this.lastUpdated = lastUpdated;
+		this.eTag = eTag;
+	}
+
+	public Date getLastUpdated() {
+		return lastUpdated;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+}
@@ -15,7 +15,6 @@
  */
 package de.brendamour.jpasskit.server;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map;
 
@@ -23,28 +22,36 @@ import org.restlet.Request;
 import org.restlet.Response;
 import org.restlet.data.MediaType;
 import org.restlet.data.Status;
-import org.restlet.representation.InputRepresentation;
+import org.restlet.representation.ByteArrayRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Post;
 import org.restlet.resource.ServerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import de.brendamour.jpasskit.signing.PKInMemorySigningUtil;
 import de.brendamour.jpasskit.signing.PKSigningException;
 import de.brendamour.jpasskit.signing.PKSigningInformation;
+import de.brendamour.jpasskit.util.Assert;
 
 public abstract class PKPersonalizePassResource extends ServerResource {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PKPersonalizePassResource.class);
-	private ObjectMapper jsonObjectMapper;
-	private PKInMemorySigningUtil signingUtil;
+	private PKServerComponents components = PKServerComponents.getDefault();
+
+	/**
+	 * @return the components of the server that created this resource, or {@link PKServerComponents#getDefault()}
+	 */
+	public final PKServerComponents getComponents() {
+		return components;
+	}
 
-	public PKPersonalizePassResource() {
-		jsonObjectMapper = new ObjectMapper();
-		signingUtil = new PKInMemorySigningUtil();
+	/**
+	 * Called by the resource factories before the request is handled. Custom finders creating resources call it as well, otherwise
+	 * the resource uses {@link PKServerComponents#getDefault()}.
+	 */
+	public final void setComponents(final PKServerComponents components) {
+		Assert.notNull(components, "Server components are mandatory");
+		this.components = components;
 	}
 
 	/*
@@ -56,7 +63,8 @@ public abstract class PKPersonalizePassResource extends ServerResource {
 		Map<String, Object> requestAttributes = request.getAttributes();
 		String passTypeIdentifier = (String) requestAttributes.get("passTypeIdentifier");
 		String serialNumber = (String) requestAttributes.get("serialNumber");
-		String authString = request.getChallengeResponse().getRawValue();
+		// the personalize request of the specification is not authenticated
+		String authString = request.getChallengeResponse() != null ? request.getChallengeResponse().getRawValue() : null;
 
 		LOGGER.debug("signUpUser: passTypeIdentifier: {}", passTypeIdentifier);
 		LOGGER.debug("signUpUser: serialNumber: {}", serialNumber);
@@ -66,16 +74,16 @@ public abstract class PKPersonalizePassResource extends ServerResource {
 		Response response = getResponse();
 		try {
 			String payload = entity.getText();
-			PKPersonalizePassPayload personalizePayload = jsonObjectMapper.readValue(payload, PKPersonalizePassPayload.class);
+			PKPersonalizePassPayload personalizePayload = components.getPersonalizePassPayloadReader().readValue(payload);
 
 			LOGGER.debug("signUpUser - personalizePayload: {}", personalizePayload);
 			responseStatus = handleSignUpUserRequest(passTypeIdentifier, serialNumber, authString, personalizePayload);
 			if (responseStatus == Status.SUCCESS_OK || responseStatus == Status.SUCCESS_CREATED) {
-				byte[] signedToken = signingUtil.signManifestFile(personalizePayload.getPersonalizationToken().getBytes(),
-						getSingingInformation());
-				InputRepresentation inputRepresentation = new InputRepresentation(new ByteArrayInputStream(signedToken));
-				inputRepresentation.setMediaType(MediaType.APPLICATION_OCTET_STREAM);
-				return inputRepresentation;
+				PKSigningInformation signingInformation = components.getSigningInformation() != null ? components.getSigningInformation()
+						: getSingingInformation();
+				byte[] signedToken = components.getSigningUtil().signManifestFile(personalizePayload.getPersonalizationToken().getBytes(),
+						signingInformation);
+				return new ByteArrayRepresentation(signedToken, MediaType.APPLICATION_OCTET_STREAM);
 			}
 		} catch (PKAuthTokenNotValidException e) {
 			LOGGER.error("Error when processing signup request",e);
@@ -92,5 +100,8 @@ public abstract class PKPersonalizePassResource extends ServerResource {
 	protected abstract Status handleSignUpUserRequest(String passTypeIdentifier, String serialNumber, String authString,
 			PKPersonalizePassPayload personalizePayload) throws PKAuthTokenNotValidException;
 
+	/**
+	 * Only called if no signing information is set in {@link PKServerComponents}.
+	 */
 	protected abstract PKSigningInformation getSingingInformation();
 }
@@ -23,14 +23,22 @@ import org.restlet.resource.ServerResource;
 public final class PKPersonalizePassResourceFactory extends Finder {
 
     private IPKRestletServerResourceFactory pkRestletServerResourceFactory;
+    private PKServerComponents components;
 
     public PKPersonalizePassResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory) {
+        this(pkRestletServerResourceFactory, PKServerComponents.getDefault());
+    }
+
+    public PKPersonalizePassResourceFactory(final IPKRestletServerResourceFactory pkRestletServerResourceFactory, final PKServerComponents components) {
         this.pkRestletServerResourceFactory = pkRestletServerResourceFactory;
+        this.components = components;
     }
 
     @Override
     public ServerResource create(final Request request, final Response response) {
-        return pkRestletServerResourceFactory.getPKPersonalizePassResource();
+        PKPersonalizePassResource resource = pkRestletServerResourceFactory.getPKPersonalizePassResource();
+        resource.setComponents(components);
+        return resource;
     }
 
 }
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.Objects;
+
+/**
+ * A device registering for or unregistering from updates of a pass.
+ */
+public final class PKRegistrationChange {
+
+	public enum Type {
+		REGISTER, UNREGISTER
+	}
+
+	private final Type type;
+	private final String deviceLibraryIdentifier;
+	private final String passTypeIdentifier;
+	private final String serialNumber;
+	private final String pushToken;
+
+	private PKRegistrationChange(final Type type, final String deviceLibraryIdentifier, final String passTypeIdentifier,
+			final String serialNumber, final String pushToken) {
+		this.type = type;
+		this.deviceLibraryIdentifier = deviceLibraryIdentifier;
+		this.passTypeIdentifier = passTypeIdentifier;
+		this.serialNumber = serialNumber;
+		this.pushToken = pushToken;
+	}
+
+	public static PKRegistrationChange register(final String deviceLibraryIdentifier, final String passTypeIdentifier,
+			final String serialNumber, final String pushToken) {
+		return new PKRegistrationChange(Type.REGISTER, deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken);
+	}
+
+	public static PKRegistrationChange unregister(final String deviceLibraryIdentifier, final String passTypeIdentifier,
+			final String serialNumber) {
+		return new PKRegistrationChange(Type.UNREGISTER, deviceLibraryIdentifier, passTypeIdentifier, serialNumber, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getDeviceLibraryIdentifier() {
+		return deviceLibraryIdentifier;
+	}
+
+	public String getPassTypeIdentifier() {
+		return passTypeIdentifier;
+	}
+
+	public String getSerialNumber() {
+		return serialNumber;
+	}
+
+	/**
+	 * @return the push token of a registration, null for an unregistration
+	 */
+	public String getPushToken() {
+		return pushToken;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PKRegistrationChange)) {
+			return false;
+		}
+		PKRegistrationChange other = (PKRegistrationChange) obj;
+		return type == other.type && deviceLibraryIdentifier.equals(other.deviceLibraryIdentifier)
+				&& passTypeIdentifier.equals(other.passTypeIdentifier) && serialNumber.equals(other.serialNumber)
+				&& Objects.equals(pushToken, other.pushToken);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(type, deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken);
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + deviceLibraryIdentifier + " " + passTypeIdentifier + "/" + serialNumber;
+	}
+}
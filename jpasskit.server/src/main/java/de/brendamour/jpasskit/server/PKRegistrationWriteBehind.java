@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Writes device registrations and unregistrations to an {@link IPKRegistrationSink} in batches on a background thread, so the
+ * registration requests of a {@link PKDeviceResource} do not wait for the database.
+ * <p>
+ * Changes are queued in a bounded queue. When it is full, {@link #register(String, String, String, String)} and
+ * {@link #unregister(String, String, String)} reserve room in it before they take the lock of the registration, and then queue the
+ * change under the lock without waiting, so callers of other registrations, {@link #flush()} and {@link #close()} are not held up by
+ * them. A registration that was queued within the deduplication window with the same push token is skipped without waiting for room,
+ * as devices re-register their passes often. The writer takes everything queued, waits up to the maximum delay to fill a batch, and
+ * writes the changes in the order they were queued. A batch the sink fails to write is retried up to {@value #MAX_ATTEMPTS} times in
+ * total before it is dropped and logged.
+ * <p>
+ * {@link #flush()} waits until everything queued before is written, {@link #close()} writes everything still queued before it
+ * returns. Changes queued here are lost if the JVM dies before they are written, keep them in a {@link PKDeviceRegistrationIndex}
+ * with a journal as well if that matters.
+ */
+public class PKRegistrationWriteBehind implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKRegistrationWriteBehind.class);
+	private static final int MAX_ATTEMPTS = 3;
+	private static final long RETRY_DELAY_MILLIS = 1000;
+	private static final int LOCK_STRIPES = 64;
+	private static final String CLOSED_MESSAGE = "Registration write-behind is closed";
+
+	private final IPKRegistrationSink sink;
+	private final Cache<List<String>, String> recentRegistrations;
+	private final Striped<Lock> registrationLocks = Striped.lock(LOCK_STRIPES);
+	private final PKBatchWriter<PKRegistrationChange> writer;
+	private final AtomicLong deduplicatedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+
+	/**
+	 * Starts the writer thread.
+	 *
+	 * @param queueCapacity
+	 *            number of changes that can wait to be written
+	 * @param batchSize
+	 *            maximum number of changes per call of the sink
+	 * @param maxDelay
+	 *            how long the writer waits for a batch to fill once a change is queued
+	 * @param deduplicationWindow
+	 *            how long an unchanged registration is not written again, zero to write every registration
+	 */
+	public PKRegistrationWriteBehind(final IPKRegistrationSink sink, final int queueCapacity, final int batchSize, final Duration maxDelay,
+			final Duration deduplicationWindow) {
+		Assert.notNull(sink, "Sink is mandatory");
+		Assert.isTrue(queueCapacity > 0, "Queue capacity must be positive");
+		Assert.isTrue(batchSize > 0, "Batch size must be positive");
+		Assert.isTrue(!maxDelay.isNegative(), "Maximum delay must not be negative");
+		Assert.isTrue(!deduplicationWindow.isNegative(), "Deduplication window must not be negative");
+		this.sink = sink;
+		this.recentRegistrations = CacheBuilder.newBuilder()
+				.maximumSize(deduplicationWindow.isZero() ? 0 : queueCapacity * 16L)
+				.expireAfterWrite(deduplicationWindow)
+				.build();
+		writer = new PKBatchWriter<>("jpasskit-registration-writer", queueCapacity, batchSize, maxDelay.toNanos(), this::writeBatch);
+	}
+
+	/**
+	 * Queues a registration, waiting for room in the queue if it is full.
+	 *
+	 * @return false if the same registration was queued within the deduplication window and was skipped
+	 * @throws IllegalStateException
+	 *             if this was closed
+	 */
+	public boolean register(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+			final String pushToken) throws InterruptedException {
+		List<String> registration = Arrays.asList(deviceLibraryIdentifier, passTypeIdentifier, serialNumber);
+		if (isRecentRegistration(registration, pushToken)) {
+			deduplicatedCount.incrementAndGet();
+			return false;
+		}
+		reserveRoom();
+		boolean reserved = true;
+		try {
+			// an unregistration queued between the check and the update of the cache would leave it claiming the registration is queued
+			Lock lock = registrationLocks.get(registration);
+			lock.lockInterruptibly();
+			try {
+				if (isRecentRegistration(registration, pushToken)) {
+					deduplicatedCount.incrementAndGet();
+					return false;
+				}
+				reserved = false;
+				submitReserved(PKRegistrationChange.register(deviceLibraryIdentifier, passTypeIdentifier, serialNumber, pushToken));
+				if (pushToken != null) {
+					recentRegistrations.put(registration, pushToken);
+				}
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			if (reserved) {
+				writer.cancelReservation();
+			}
+		}
+	}
+
+	/**
+	 * Queues an unregistration, waiting for room in the queue if it is full.
+	 *
+	 * @throws IllegalStateException
+	 *             if this was closed
+	 */
+	public void unregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber)
+			throws InterruptedException {
+		List<String> registration = Arrays.asList(deviceLibraryIdentifier, passTypeIdentifier, serialNumber);
+		reserveRoom();
+		boolean reserved = true;
+		try {
+			Lock lock = registrationLocks.get(registration);
+			lock.lockInterruptibly();
+			try {
+				recentRegistrations.invalidate(registration);
+				reserved = false;
+				submitReserved(PKRegistrationChange.unregister(deviceLibraryIdentifier, passTypeIdentifier, serialNumber));
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			if (reserved) {
+				writer.cancelReservation();
+			}
+		}
+	}
+
+	/**
+	 * Waits until all changes queued before this call are written or dropped.
+	 */
+	public void flush() throws InterruptedException {
+		writer.flush();
+	}
+
+	/**
+	 * @return the number of changes waiting to be written
+	 */
+	public int getQueueDepth() {
+		return writer.size();
+	}
+
+	public int getQueueCapacity() {
+		return writer.capacity();
+	}
+
+	/**
+	 * @return the number of registrations that were skipped because they were queued within the deduplication window
+	 */
+	public long getDeduplicatedCount() {
+		return deduplicatedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return the number of changes dropped because the sink failed to write them
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+	/**
+	 * Stops accepting changes and waits until the queued ones are written. Callers still waiting for room in the queue fail.
+	 */
+	@Override
+	public void close() {
+		writer.close();
+	}
+
+	private boolean isRecentRegistration(final List<String> registration, final String pushToken) {
+		return pushToken != null && pushToken.equals(recentRegistrations.getIfPresent(registration));
+	}
+
+	// waits for room before the registration lock is taken, so callers of the same lock stripe are not held up by a full queue
+	private void reserveRoom() throws InterruptedException {
+		Assert.state(writer.reserve(), CLOSED_MESSAGE);
+	}
+
+	private void submitReserved(final PKRegistrationChange change) {
+		Assert.state(writer.putReserved(change), CLOSED_MESSAGE);
+	}
+
+	private void writeBatch(final List<PKRegistrationChange> batch) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				sink.write(batch);
+				writtenCount.addAndGet(batch.size());
+				batchCount.incrementAndGet();
+				return;
+			} catch (Exception e) {
+				if (attempt >= MAX_ATTEMPTS) {
+					droppedCount.addAndGet(batch.size());
+					LOGGER.error("Dropping {} registration changes after {} failed attempts to write them:", batch.size(), attempt, e);
+					forgetRegistrations(batch);
+					return;
+				}
+				LOGGER.warn("Failed to write {} registration changes, retrying:", batch.size(), e);
+				sleepBeforeRetry(attempt);
+			}
+		}
+	}
+
+	// so the device registering again is written instead of being deduplicated
+	private void forgetRegistrations(final List<PKRegistrationChange> batch) {
+		for (PKRegistrationChange change : batch) {
+			List<String> registration = Arrays.asList(change.getDeviceLibraryIdentifier(), change.getPassTypeIdentifier(),
+					change.getSerialNumber());
+			if (Objects.equals(recentRegistrations.getIfPresent(registration), change.getPushToken())) {
+				recentRegistrations.invalidate(registration);
+			}
+		}
+	}
+
+	private void sleepBeforeRetry(final int attempt) {
+		try {
+			Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -17,13 +17,9 @@ package de.brendamour.jpasskit.server;
 
 import java.util.Properties;
 
-import org.apache.commons.lang3.StringUtils;
-import org.restlet.Component;
-import org.restlet.Server;
-import org.restlet.data.Parameter;
-import org.restlet.data.Protocol;
+import org.restlet.Context;
+import org.restlet.Restlet;
 import org.restlet.routing.Router;
-import org.restlet.util.Series;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,23 +34,41 @@ public class PKRestServer {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(PKRestServer.class);
 	private Properties serverConfigurationProperties;
-	private Component restTrustedServerComponent;
-	private Server restTrustedServer;
 	private final IPKRestletServerResourceFactory pkRestletServerResourceFactory;
+	private final PKServerComponents components;
+	private final IPKHttpEngine httpEngine;
 	private String version = "v1";
 
 	public PKRestServer(final Properties serverConfigurationProperties, final IPKRestletServerResourceFactory pkRestletServerResourceFactory) {
+		this(serverConfigurationProperties, pkRestletServerResourceFactory, PKServerComponents.getDefault());
+	}
+
+	/**
+	 * @param components
+	 *            mappers, signing util, templates and signing information shared by all resources this server creates
+	 */
+	public PKRestServer(final Properties serverConfigurationProperties, final IPKRestletServerResourceFactory pkRestletServerResourceFactory,
+			final PKServerComponents components) {
+		this(serverConfigurationProperties, pkRestletServerResourceFactory, components, new PKRestletHttpEngine());
+	}
+
+	/**
+	 * @param httpEngine
+	 *            serves the routes of the web service, e.g. {@link PKJdkHttpEngine} instead of the default {@link PKRestletHttpEngine}
+	 */
+	public PKRestServer(final Properties serverConfigurationProperties, final IPKRestletServerResourceFactory pkRestletServerResourceFactory,
+			final PKServerComponents components, final IPKHttpEngine httpEngine) {
 		this.serverConfigurationProperties = serverConfigurationProperties;
 		this.pkRestletServerResourceFactory = pkRestletServerResourceFactory;
+		this.components = components;
+		this.httpEngine = httpEngine;
 	}
 
 	public final void start() throws Exception {
 		LOGGER.info("####################### Starting PassKitServer ###########################");
 
 		checkConfigurationProperties();
-		createPKRestWebService();
-
-		restTrustedServerComponent.start();
+		httpEngine.start(serverConfigurationProperties, createPKRestWebService());
 	}
 
 	private void checkConfigurationProperties() {
@@ -70,33 +84,13 @@ public class PKRestServer {
 		throw new PKServerConfigurationException("Server needs to be configured accordingly.");
 	}
 
-	private void createPKRestWebService() {
-		restTrustedServerComponent = new Component();
+	private Restlet createPKRestWebService() {
+		final Router router = new Router(new Context());
 
-		String bindIp = serverConfigurationProperties.getProperty(SERVER_BIND_IP_KEY);
-
-		int bindPort = Integer.parseInt(serverConfigurationProperties.getProperty(SERVER_BIND_PORT_KEY));
-		boolean useSSL = Boolean.parseBoolean(serverConfigurationProperties.getProperty(SERVER_BIND_SSL_ENABLED_KEY));
-
-		Protocol httpProtocol = Protocol.HTTP;
-		if (useSSL) {
-			httpProtocol = Protocol.HTTPS;
-		}
-
-		restTrustedServer = new Server(httpProtocol, bindIp, bindPort);
-		restTrustedServerComponent.getServers().add(restTrustedServer);
-
-		if (useSSL) {
-			setupSSL();
-		}
-
-		final Router router = new Router(restTrustedServerComponent.getContext().createChildContext());
-		restTrustedServerComponent.getDefaultHost().attach("", router);
-
-		PKDeviceResourceFactory pkDeviceResourceFactory = new PKDeviceResourceFactory(pkRestletServerResourceFactory);
-		PKPassResourceFactory pkPassResourceFactory = new PKPassResourceFactory(pkRestletServerResourceFactory);
-		PKPersonalizePassResourceFactory pkPersonalizePassResourceFactory = new PKPersonalizePassResourceFactory(pkRestletServerResourceFactory);
-		PKLogResourceFactory pkLogResourceFactory = new PKLogResourceFactory(pkRestletServerResourceFactory);
+		PKDeviceResourceFactory pkDeviceResourceFactory = new PKDeviceResourceFactory(pkRestletServerResourceFactory, components);
+		PKPassResourceFactory pkPassResourceFactory = new PKPassResourceFactory(pkRestletServerResourceFactory, components);
+		PKPersonalizePassResourceFactory pkPersonalizePassResourceFactory = new PKPersonalizePassResourceFactory(pkRestletServerResourceFactory, components);
+		PKLogResourceFactory pkLogResourceFactory = new PKLogResourceFactory(pkRestletServerResourceFactory, components);
 
 		router.attach("/" + version + "/devices/{deviceLibraryIdentifier}/registrations/{passTypeIdentifier}/{serialNumber}",
 				pkDeviceResourceFactory);
@@ -104,32 +98,13 @@ public class PKRestServer {
 		router.attach("/" + version + "/passes/{passTypeIdentifier}/{serialNumber}", pkPassResourceFactory);
 		router.attach("/" + version + "/passes/{passTypeIdentifier}/{serialNumber}/personalize", pkPersonalizePassResourceFactory);
 		router.attach("/" + version + "/log", pkLogResourceFactory);
-		LOGGER.debug("Created Restlet components");
-	}
-
-	private void setupSSL() {
-		LOGGER.info("Enabling SSL");
-
-		String keystorePath = serverConfigurationProperties.getProperty(SERVER_BIND_SSL_KEYSTORE_PATH_KEY);
-		String keystoreType = serverConfigurationProperties.getProperty(SERVER_BIND_SSL_KEYSTORE_TYPE_KEY);
-		String keystorePassword = serverConfigurationProperties.getProperty(SERVER_BIND_SSL_KEYSTORE_PASSWORD_KEY);
-		String keyPassword = serverConfigurationProperties.getProperty(SERVER_BIND_SSL_KEY_PASSWORD_KEY);
-
-		if (StringUtils.isEmpty(keystorePath) || StringUtils.isEmpty(keystoreType)) {
-			throw new PKServerConfigurationException("SSL is enabled but not set up correct. We need at least a keystore path and -type");
-		}
-
-		Series<Parameter> parameters = restTrustedServer.getContext().getParameters();
-		parameters.add("sslContextFactory", "org.restlet.engine.ssl.DefaultSslContextFactory");
-		parameters.add("keystorePath", keystorePath);
-		parameters.add("keystorePassword", keystorePassword);
-		parameters.add("keyPassword", keyPassword);
-		parameters.add("keystoreType", keystoreType);
+		LOGGER.debug("Created web service routes");
+		return router;
 	}
 
 	public final void stop() throws Exception {
 		LOGGER.info("####################### Stopping PassKitServer ###########################");
-		restTrustedServerComponent.stop();
+		httpEngine.stop();
 	}
 
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+import org.restlet.Component;
+import org.restlet.Restlet;
+import org.restlet.Server;
+import org.restlet.data.Parameter;
+import org.restlet.data.Protocol;
+import org.restlet.util.Series;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the web service with a Restlet {@link Component} and the Restlet server connector on the classpath.
+ */
+public class PKRestletHttpEngine implements IPKHttpEngine {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PKRestletHttpEngine.class);
+	private Component restTrustedServerComponent;
+	private Server restTrustedServer;
+
+	@Override
+	public void start(final Properties serverConfigurationProperties, final Restlet routes) throws Exception {
+		restTrustedServerComponent = new Component();
+
+		String bindIp = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_IP_KEY);
+
+		int bindPort = Integer.parseInt(serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_PORT_KEY));
+		boolean useSSL = Boolean.parseBoolean(serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY));
+
+		Protocol httpProtocol = Protocol.HTTP;
+		if (useSSL) {
+			httpProtocol = Protocol.HTTPS;
+		}
+
+		restTrustedServer = new Server(httpProtocol, bindIp, bindPort);
+		restTrustedServerComponent.getServers().add(restTrustedServer);
+
+		if (useSSL) {
+			setupSSL(serverConfigurationProperties);
+		}
+
+		restTrustedServerComponent.getDefaultHost().attach("", routes);
+		LOGGER.debug("Created Restlet components");
+		restTrustedServerComponent.start();
+	}
+
+	private void setupSSL(final Properties serverConfigurationProperties) {
+		LOGGER.info("Enabling SSL");
+
+		String keystorePath = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PATH_KEY);
+		String keystoreType = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_TYPE_KEY);
+		String keystorePassword = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PASSWORD_KEY);
+		String keyPassword = serverConfigurationProperties.getProperty(PKRestServer.SERVER_BIND_SSL_KEY_PASSWORD_KEY);
+
+		if (StringUtils.isEmpty(keystorePath) || StringUtils.isEmpty(keystoreType)) {
+			throw new PKServerConfigurationException("SSL is enabled but not set up correct. We need at least a keystore path and -type");
+		}
+
+		Series<Parameter> parameters = restTrustedServer.getContext().getParameters();
+		parameters.add("sslContextFactory", "org.restlet.engine.ssl.DefaultSslContextFactory");
+		parameters.add("keystorePath", keystorePath);
+		parameters.add("keystorePassword", keystorePassword);
+		parameters.add("keyPassword", keyPassword);
+		parameters.add("keystoreType", keystoreType);
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (restTrustedServerComponent != null) {
+			restTrustedServerComponent.stop();
+		}
+	}
+}
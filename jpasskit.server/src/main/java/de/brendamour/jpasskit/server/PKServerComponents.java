@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import de.brendamour.jpasskit.PKPushToken;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.IPKSigningUtil;
+import de.brendamour.jpasskit.signing.PKFileBasedSigningUtil;
+import de.brendamour.jpasskit.signing.PKPassTemplateCachedFolder;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * The thread-safe objects the resources need for every request. Restlet creates a new resource per request, so the resource
+ * factories inject one shared instance instead of every resource building its own object mapper and signing util.
+ * <p>
+ * Configure an instance before passing it to {@link PKRestServer}. Resources that are not created through the factories use
+ * {@link #getDefault()}.
+ */
+public class PKServerComponents {
+
+	private static volatile PKServerComponents defaultComponents;
+
+	private final ObjectWriter jsonWriter;
+	private final ObjectReader pushTokenReader;
+	private final ObjectReader personalizePassPayloadReader;
+	// templates are cached by path, so their files are only read when they change
+	private final ConcurrentMap<String, IPKPassTemplate> passTemplates = new ConcurrentHashMap<>();
+	// devices registered to the same pass fetch it at the same time after a push, they share one signed archive
+	private final PKSingleFlight<List<Object>, byte[]> passArchives = new PKSingleFlight<>();
+	private final PKArchiveTags archiveTags = new PKArchiveTags();
+	private volatile IPKSigningUtil signingUtil;
+	private volatile PKSigningInformation signingInformation;
+	private volatile PKLogIngestion logIngestion;
+
+	public PKServerComponents() {
+		ObjectMapper jsonObjectMapper = new ObjectMapper();
+		jsonWriter = jsonObjectMapper.writer();
+		pushTokenReader = jsonObjectMapper.readerFor(PKPushToken.class);
+		personalizePassPayloadReader = jsonObjectMapper.readerFor(PKPersonalizePassPayload.class);
+
+		ObjectMapper passObjectMapper = new ObjectMapper();
+		passObjectMapper.setSerializationInclusion(Include.NON_NULL);
+		signingUtil = new PKFileBasedSigningUtil(passObjectMapper.writer());
+	}
+
+	/**
+	 * @return the instance used by resources that were not created through the resource factories
+	 */
+	public static PKServerComponents getDefault() {
+		PKServerComponents components = defaultComponents;
+		if (components == null) {
+			synchronized (PKServerComponents.class) {
+				components = defaultComponents;
+				if (components == null) {
+					components = new PKServerComponents();
+					defaultComponents = components;
+				}
+			}
+		}
+		return components;
+	}
+
+	public IPKSigningUtil getSigningUtil() {
+		return signingUtil;
+	}
+
+	/**
+	 * @param signingUtil
+	 *            creates the pass archives and signs personalization tokens, must be thread-safe
+	 */
+	public void setSigningUtil(final IPKSigningUtil signingUtil) {
+		this.signingUtil = signingUtil;
+	}
+
+	public PKSigningInformation getSigningInformation() {
+		return signingInformation;
+	}
+
+	/**
+	 * @param signingInformation
+	 *            used for all passes instead of asking the resource for it on every request, null (the default) asks the resource
+	 */
+	public void setSigningInformation(final PKSigningInformation signingInformation) {
+		this.signingInformation = signingInformation;
+	}
+
+	public PKLogIngestion getLogIngestion() {
+		return logIngestion;
+	}
+
+	/**
+	 * @param logIngestion
+	 *            queues the log messages of the devices instead of passing every request to {@link PKLogResource#handleLogRequest},
+	 *            null (the default) to pass them
+	 */
+	public void setLogIngestion(final PKLogIngestion logIngestion) {
+		this.logIngestion = logIngestion;
+	}
+
+	/**
+	 * @return the template registered for {@code pathToPassTemplate}, by default a {@link PKPassTemplateCachedFolder} of that path
+	 */
+	public IPKPassTemplate getPassTemplate(final String pathToPassTemplate) {
+		return passTemplates.computeIfAbsent(pathToPassTemplate, PKPassTemplateCachedFolder::new);
+	}
+
+	/**
+	 * Registers a prepared template, e.g. a {@link de.brendamour.jpasskit.signing.PKPassTemplatePrecompressed}, for the resources
+	 * created with {@code pathToPassTemplate}.
+	 */
+	public void setPassTemplate(final String pathToPassTemplate, final IPKPassTemplate passTemplate) {
+		passTemplates.put(pathToPassTemplate, passTemplate);
+	}
+
+	PKSingleFlight<List<Object>, byte[]> getPassArchives() {
+		return passArchives;
+	}
+
+	PKArchiveTags getArchiveTags() {
+		return archiveTags;
+	}
+
+	/**
+	 * @return the writer of the JSON responses of the resources
+	 */
+	public ObjectWriter getJsonWriter() {
+		return jsonWriter;
+	}
+
+	/**
+	 * @return the reader of the push token that devices send when they register
+	 */
+	public ObjectReader getPushTokenReader() {
+		return pushTokenReader;
+	}
+
+	/**
+	 * @return the reader of the payload of personalize requests
+	 */
+	public ObjectReader getPersonalizePassPayloadReader() {
+		return personalizePassPayloadReader;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.IPKSigningUtil;
+import de.brendamour.jpasskit.signing.PKSigningException;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * Counts the archives instead of signing them, the archive is the serial number of the pass.
+ */
+class PKCountingSigningUtil implements IPKSigningUtil {
+
+	private final AtomicInteger signed;
+	private final CountDownLatch started;
+	private final CountDownLatch release;
+	private volatile IPKPassTemplate lastTemplate;
+
+	/**
+	 * @param signed
+	 *            incremented for every archive
+	 * @param started
+	 *            counted down when an archive is signed, may be null
+	 * @param release
+	 *            awaited before an archive is returned, may be null
+	 */
+	PKCountingSigningUtil(final AtomicInteger signed, final CountDownLatch started, final CountDownLatch release) {
+		this.signed = signed;
+		this.started = started;
+		this.release = release;
+	}
+
+	@Override
+	public byte[] createSignedAndZippedPkPassArchive(final PKPass pass, final IPKPassTemplate passTemplate,
+			final PKSigningInformation signingInformation) throws PKSigningException {
+		signed.incrementAndGet();
+		lastTemplate = passTemplate;
+		if (started != null) {
+			started.countDown();
+		}
+		if (release != null) {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new PKSigningException("Interrupted", e);
+			}
+		}
+		return pass.getSerialNumber().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the template of the last archive, null if none was signed
+	 */
+	IPKPassTemplate getLastTemplate() {
+		return lastTemplate;
+	}
+
+	@Override
+	public void createSignedAndZippedPkPassArchiveStream(final PKPass pass, final IPKPassTemplate passTemplate,
+			final PKSigningInformation signingInformation, final OutputStream outputStream) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public byte[] createSignedAndZippedPersonalizedPkPassArchive(final PKPass pass, final PKPersonalization personalization,
+			final IPKPassTemplate passTemplate, final PKSigningInformation signingInformation) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void createSignedAndZippedPersonalizedPkPassArchiveStream(final PKPass pass, final PKPersonalization personalization,
+			final IPKPassTemplate passTemplate, final PKSigningInformation signingInformation, final OutputStream outputStream) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public byte[] signManifestFile(final byte[] manifestJSON, final PKSigningInformation signingInformation) {
+		throw new UnsupportedOperationException();
+	}
+}
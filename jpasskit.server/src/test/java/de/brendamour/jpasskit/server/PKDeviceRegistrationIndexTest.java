@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.apns.PKPushRejection;
+
+public class PKDeviceRegistrationIndexTest {
+
+	private static final String PASS_TYPE = "pass.com.example";
+	private static final int THREADS = 8;
+
+	private File directory;
+	private Path journalFile;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("jpasskit-index").toFile();
+		journalFile = directory.toPath().resolve("registrations.journal");
+	}
+
+	@AfterMethod
+	public void deleteDirectory() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testRegisterAndUnregister() {
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex();
+		Assert.assertTrue(index.register("device1", PASS_TYPE, "1", "token1"));
+		Assert.assertFalse(index.register("device1", PASS_TYPE, "1", "token1"));
+		Assert.assertTrue(index.register("device1", PASS_TYPE, "2", "token1"));
+		Assert.assertTrue(index.register("device2", PASS_TYPE, "1", "token2"));
+
+		Assert.assertTrue(index.isRegistered("device1", PASS_TYPE, "2"));
+		Assert.assertEquals(index.getSerialNumbers("device1", PASS_TYPE), new HashSet<>(List.of("1", "2")));
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "1").size(), 2);
+		Assert.assertEquals(index.getRegistrationCount(), 3);
+
+		// a new push token replaces the old one for all passes of the device
+		Assert.assertFalse(index.register("device1", PASS_TYPE, "2", "token3"));
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "1").get("device1"), "token3");
+
+		Assert.assertTrue(index.unregister("device1", PASS_TYPE, "1"));
+		Assert.assertFalse(index.unregister("device1", PASS_TYPE, "1"));
+		Assert.assertTrue(index.unregister("device1", PASS_TYPE, "2"));
+		Assert.assertNull(index.getPushToken("device1"));
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "1").keySet(), Collections.singleton("device2"));
+		Assert.assertEquals(index.getDeviceCount(), 1);
+		Assert.assertEquals(index.getRegistrationCount(), 1);
+	}
+
+	@Test
+	public void testPassSharedByManyDevices() {
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex();
+		for (int i = 0; i < 10_000; i++) {
+			Assert.assertTrue(index.register("device" + i, PASS_TYPE, "shared", "token" + i));
+		}
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "shared").size(), 10_000);
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "shared").get("device42"), "token42");
+
+		for (int i = 0; i < 10_000; i += 2) {
+			Assert.assertTrue(index.unregister("device" + i, PASS_TYPE, "shared"));
+		}
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "shared").size(), 5_000);
+		Assert.assertFalse(index.getPushTokens(PASS_TYPE, "shared").containsKey("device42"));
+
+		for (int i = 1; i < 10_000; i += 2) {
+			Assert.assertTrue(index.unregister("device" + i, PASS_TYPE, "shared"));
+		}
+		Assert.assertTrue(index.getPushTokens(PASS_TYPE, "shared").isEmpty());
+		Assert.assertEquals(index.getDeviceCount(), 0);
+		Assert.assertEquals(index.getRegistrationCount(), 0);
+
+		// the pass is registered again from scratch
+		Assert.assertTrue(index.register("device1", PASS_TYPE, "shared", "token1"));
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "shared").keySet(), Collections.singleton("device1"));
+	}
+
+	@Test
+	public void testJournalReplayRestoresRegistrations() throws IOException {
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			index.register("device1", PASS_TYPE, "1", "token1");
+			index.register("device1", PASS_TYPE, "2", "token1");
+			index.register("device2", PASS_TYPE, "1", "token2");
+			index.register("device2", PASS_TYPE, "1", "token4");
+			index.register("device3", PASS_TYPE, "3", "token3");
+			index.unregister("device1", PASS_TYPE, "2");
+			index.unregister("device3", PASS_TYPE, "3");
+		}
+
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			Assert.assertEquals(index.getRegistrationCount(), 2);
+			Assert.assertEquals(index.getDeviceCount(), 2);
+			Assert.assertEquals(index.getSerialNumbers("device1", PASS_TYPE), Collections.singleton("1"));
+			Assert.assertEquals(index.getPushToken("device2"), "token4");
+			Assert.assertNull(index.getPushToken("device3"));
+			Assert.assertEquals(index.getPushTokens(PASS_TYPE, "1").size(), 2);
+			Assert.assertEquals(index.getJournalRecordCount(), 7);
+		}
+	}
+
+	@Test
+	public void testPruningAfterRestartKeepsRenewedRegistrations() throws Exception {
+		Instant invalidatedAt;
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			index.register("device1", PASS_TYPE, "1", "token1");
+			index.register("device2", PASS_TYPE, "2", "token2");
+			Thread.sleep(5);
+			invalidatedAt = Instant.now();
+			Thread.sleep(5);
+			// the device renews its registration after APNs invalidated the token
+			Assert.assertFalse(index.register("device1", PASS_TYPE, "1", "token1"));
+		}
+
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			Assert.assertEquals(index.unregisterPushToken(PASS_TYPE, "token1", invalidatedAt), 0);
+			Assert.assertEquals(index.unregisterPushToken(PASS_TYPE, "token2", invalidatedAt), 1);
+			Assert.assertTrue(index.isRegistered("device1", PASS_TYPE, "1"));
+			Assert.assertFalse(index.isRegistered("device2", PASS_TYPE, "2"));
+		}
+	}
+
+	@Test
+	public void testPassesWithCollidingHashCodes() {
+		// "Aa" and "BB" have the same hash code, so these passes share the hash code of their key
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex();
+		Assert.assertTrue(index.register("device1", PASS_TYPE, "Aa", "token1"));
+		Assert.assertTrue(index.register("device2", PASS_TYPE, "BB", "token2"));
+		Assert.assertTrue(index.register("device3", "pass.Aa", "1", "token3"));
+		Assert.assertTrue(index.register("device4", "pass.BB", "1", "token4"));
+
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "Aa").keySet(), Collections.singleton("device1"));
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "BB").keySet(), Collections.singleton("device2"));
+		Assert.assertEquals(index.getPushTokens("pass.Aa", "1").keySet(), Collections.singleton("device3"));
+		Assert.assertEquals(index.getPushTokens("pass.BB", "1").keySet(), Collections.singleton("device4"));
+	}
+
+	@Test
+	public void testPrunerRemovesRegistrationsOfTheRejectedPassType() {
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex();
+		index.register("device1", PASS_TYPE, "1", "token1");
+		index.register("device1", "pass.com.example.other", "1", "token1");
+		index.register("device2", PASS_TYPE, "2", "token2");
+		PKDeviceRegistrationPruner pruner = new PKDeviceRegistrationPruner(index);
+
+		pruner.tokensInvalidated(List.of(new PKPushRejection(PASS_TYPE, "token1", 410, "Unregistered", null),
+				new PKPushRejection(PASS_TYPE, "unknown", 400, "BadDeviceToken", null)));
+
+		Assert.assertEquals(pruner.getRemovedCount(), 1);
+		Assert.assertFalse(index.isRegistered("device1", PASS_TYPE, "1"));
+		Assert.assertTrue(index.isRegistered("device1", "pass.com.example.other", "1"));
+		Assert.assertTrue(index.isRegistered("device2", PASS_TYPE, "2"));
+	}
+
+	@Test
+	public void testTruncatedJournalKeepsEarlierRegistrations() throws IOException {
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			index.register("device1", PASS_TYPE, "1", "token1");
+			index.register("device2", PASS_TYPE, "2", "token2");
+		}
+		try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			Assert.assertTrue(index.isRegistered("device1", PASS_TYPE, "1"));
+			Assert.assertFalse(index.isRegistered("device2", PASS_TYPE, "2"));
+			Assert.assertTrue(index.register("device2", PASS_TYPE, "2", "token2"));
+		}
+		try (PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			Assert.assertEquals(index.getRegistrationCount(), 2);
+		}
+	}
+
+	@Test
+	public void testCompactionWhileRegistering() throws Exception {
+		PKDeviceRegistrationIndex index = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16);
+		AtomicBoolean done = new AtomicBoolean();
+		List<Callable<Void>> writers = new ArrayList<>();
+		for (int thread = 0; thread < THREADS; thread++) {
+			int writer = thread;
+			writers.add(() -> {
+				for (int i = 0; i < 2_000; i++) {
+					String device = "device" + writer + "-" + (i % 100);
+					index.register(device, PASS_TYPE, String.valueOf(i % 7), "token" + i);
+					if (i % 3 == 0) {
+						index.unregister(device, PASS_TYPE, String.valueOf((i + 1) % 7));
+					}
+				}
+				return null;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (Callable<Void> writer : writers) {
+				futures.add(executor.submit(writer));
+			}
+			Future<Integer> compactions = executor.submit(() -> {
+				int count = 0;
+				while (!done.get()) {
+					index.compactJournal();
+					count++;
+				}
+				return count;
+			});
+			for (Future<Void> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+			done.set(true);
+			Assert.assertTrue(compactions.get(1, TimeUnit.MINUTES) > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+		index.close();
+
+		try (PKDeviceRegistrationIndex restored = PKDeviceRegistrationIndex.openJournaled(journalFile, 16, 16)) {
+			Assert.assertEquals(restored.getRegistrationCount(), index.getRegistrationCount());
+			Assert.assertEquals(restored.getDeviceCount(), index.getDeviceCount());
+			for (int writer = 0; writer < THREADS; writer++) {
+				for (int i = 0; i < 100; i++) {
+					String device = "device" + writer + "-" + i;
+					Assert.assertEquals(restored.getSerialNumbers(device, PASS_TYPE), index.getSerialNumbers(device, PASS_TYPE), device);
+					Assert.assertEquals(restored.getPushToken(device), index.getPushToken(device), device);
+				}
+			}
+			for (int serialNumber = 0; serialNumber < 7; serialNumber++) {
+				Assert.assertEquals(restored.getPushTokens(PASS_TYPE, String.valueOf(serialNumber)),
+						index.getPushTokens(PASS_TYPE, String.valueOf(serialNumber)));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentChangesOfOneDevice() throws Exception {
+		PKDeviceRegistrationIndex index = new PKDeviceRegistrationIndex();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < THREADS; thread++) {
+				int writer = thread;
+				futures.add(executor.submit(() -> {
+					start.await();
+					// every thread changes the same device and the same shared pass
+					for (int i = 0; i < 1_000; i++) {
+						index.register("device", PASS_TYPE, writer + "-" + i, "token");
+						index.register("device" + writer, PASS_TYPE, "shared", "token" + writer);
+						index.unregister("device" + writer, PASS_TYPE, "shared");
+					}
+					index.register("device" + writer, PASS_TYPE, "shared", "token" + writer);
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Set<String> serialNumbers = index.getSerialNumbers("device", PASS_TYPE);
+		Assert.assertEquals(serialNumbers.size(), THREADS * 1_000);
+		Assert.assertEquals(index.getPushTokens(PASS_TYPE, "shared").size(), THREADS);
+		Assert.assertEquals(index.getRegistrationCount(), THREADS * 1_000 + THREADS);
+	}
+}
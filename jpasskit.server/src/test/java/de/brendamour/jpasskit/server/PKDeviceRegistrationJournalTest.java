@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PKDeviceRegistrationJournalTest {
+
+	private File directory;
+	private Path file;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("jpasskit-journal").toFile();
+		file = directory.toPath().resolve("registrations.journal");
+	}
+
+	@AfterMethod
+	public void deleteDirectory() {
+		FileUtils.deleteQuietly(directory);
+	}
+
+	@Test
+	public void testReplaysRecordsInOrder() throws IOException {
+		try (PKDeviceRegistrationJournal journal = PKDeviceRegistrationJournal.open(file, new RecordingHandler())) {
+			journal.appendRegister("device1", "pass.com.example", "1", "token1", 1000);
+			journal.appendUnregister("device1", "pass.com.example", "1");
+			journal.appendRegister("device2", "pass.com.example", "2", null, 2000);
+		}
+
+		RecordingHandler handler = new RecordingHandler();
+		try (PKDeviceRegistrationJournal journal = PKDeviceRegistrationJournal.open(file, handler)) {
+			Assert.assertEquals(journal.getRecordCount(), 3);
+		}
+		Assert.assertEquals(handler.records, Arrays.asList("R device1 pass.com.example 1 token1 1000", "U device1 pass.com.example 1",
+				"R device2 pass.com.example 2 null 2000"));
+	}
+
+	@Test
+	public void testDropsTruncatedLastRecord() throws IOException {
+		try (PKDeviceRegistrationJournal journal = PKDeviceRegistrationJournal.open(file, new RecordingHandler())) {
+			journal.appendRegister("device1", "pass.com.example", "1", "token1", 1000);
+			journal.appendRegister("device2", "pass.com.example", "2", "token2", 2000);
+		}
+		// a crash while the last record was written
+		long length = Files.size(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(length - 3);
+		}
+
+		RecordingHandler handler = new RecordingHandler();
+		try (PKDeviceRegistrationJournal journal = PKDeviceRegistrationJournal.open(file, handler)) {
+			Assert.assertEquals(journal.getRecordCount(), 1);
+			journal.appendRegister("device3", "pass.com.example", "3", "token3", 3000);
+		}
+		Assert.assertEquals(handler.records, Arrays.asList("R device1 pass.com.example 1 token1 1000"));
+
+		// the partial record was cut off, so the record appended after it is readable
+		handler = new RecordingHandler();
+		PKDeviceRegistrationJournal.open(file, handler).close();
+		Assert.assertEquals(handler.records,
+				Arrays.asList("R device1 pass.com.example 1 token1 1000", "R device3 pass.com.example 3 token3 3000"));
+	}
+
+	@Test
+	public void testCompactReplacesRecordsAndKeepsAppending() throws IOException {
+		try (PKDeviceRegistrationJournal journal = PKDeviceRegistrationJournal.open(file, new RecordingHandler())) {
+			for (int i = 0; i < 100; i++) {
+				journal.appendRegister("device1", "pass.com.example", "1", "token" + i, i);
+			}
+			journal.compact(writer -> {
+				writer.write("device1", "pass.com.example", "1", "token99", 99);
+				return 1;
+			});
+			Assert.assertEquals(journal.getRecordCount(), 1);
+			journal.appendUnregister("device1", "pass.com.example", "1");
+			Assert.assertEquals(journal.getRecordCount(), 2);
+		}
+		Assert.assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".compacting")));
+
+		RecordingHandler handler = new RecordingHandler();
+		PKDeviceRegistrationJournal.open(file, handler).close();
+		Assert.assertEquals(handler.records, Arrays.asList("R device1 pass.com.example 1 token99 99", "U device1 pass.com.example 1"));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testRejectsFileThatIsNoJournal() throws IOException {
+		Files.write(file, "registrations".getBytes(StandardCharsets.UTF_8));
+		PKDeviceRegistrationJournal.open(file, new RecordingHandler());
+	}
+
+	private static final class RecordingHandler implements PKDeviceRegistrationJournal.Handler {
+
+		private final List<String> records = new ArrayList<>();
+
+		@Override
+		public void register(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber,
+				final String pushToken, final long registeredAt) {
+			records.add("R " + deviceLibraryIdentifier + " " + passTypeIdentifier + " " + serialNumber + " " + pushToken + " " + registeredAt);
+		}
+
+		@Override
+		public void unregister(final String deviceLibraryIdentifier, final String passTypeIdentifier, final String serialNumber) {
+			records.add("U " + deviceLibraryIdentifier + " " + passTypeIdentifier + " " + serialNumber);
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.restlet.Restlet;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.Status;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.brendamour.jpasskit.PKField;
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.PKPushToken;
+import de.brendamour.jpasskit.passes.PKStoreCard;
+import de.brendamour.jpasskit.signing.PKPassTemplateInMemory;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+/**
+ * Sends the same requests to the web service served by each engine, so both answer the devices alike.
+ */
+public class PKHttpEngineTest {
+
+	private static final String TEMPLATE_PATH = "passes/test.raw";
+	private static final String PASS_TYPE = "pass.com.example";
+	private static final String SERIAL_NUMBER = "p69f2J";
+	private static final String DEVICE_LIBRARY_IDENTIFIER = "6b7a8d9e0f";
+	private static final String AUTH_TOKEN = "vxwxd7J8AlNNFPS8k0a0FfUFtq0ewzFdc";
+	private static final String PUSH_TOKEN = "{\"pushToken\":\"6c2bd1f8e5a4\"}";
+	private static final Date LAST_UPDATED = new Date(1_700_000_000_000L);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	@Test
+	public void testRestletEngine() throws Exception {
+		testEngine(new PKRestletHttpEngine());
+	}
+
+	@Test
+	public void testJdkEngine() throws Exception {
+		testEngine(new PKJdkHttpEngine());
+	}
+
+	@Test
+	public void testJdkEngineServesHttpsOnPlatformThreads() throws Exception {
+		int port = findFreePort();
+		Properties properties = createProperties(port);
+		properties.put(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY, "true");
+		properties.put(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PATH_KEY,
+				Paths.get(PKHttpEngineTest.class.getClassLoader().getResource("serverX.jks").toURI()).toString());
+		properties.put(PKRestServer.SERVER_BIND_SSL_KEYSTORE_TYPE_KEY, "JKS");
+		properties.put(PKRestServer.SERVER_BIND_SSL_KEYSTORE_PASSWORD_KEY, "password");
+		properties.put(PKJdkHttpEngine.THREADS_KEY, "2");
+		PKJdkHttpEngine engine = new PKJdkHttpEngine();
+		engine.start(properties, new Restlet() {
+		});
+		try (Socket socket = new Socket("localhost", port)) {
+			Assert.assertTrue(socket.isConnected());
+		} finally {
+			engine.stop();
+		}
+	}
+
+	@Test(expectedExceptions = PKServerConfigurationException.class)
+	public void testJdkEngineRequiresKeystoreForHttps() throws Exception {
+		Properties properties = createProperties(findFreePort());
+		properties.put(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY, "true");
+		new PKJdkHttpEngine().start(properties, new Restlet() {
+		});
+	}
+
+	@Test
+	public void testJdkEngineDoesNotShutDownProvidedExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(1);
+		try {
+			PKJdkHttpEngine engine = new PKJdkHttpEngine(executor);
+			// stopping an engine that was not started does nothing
+			engine.stop();
+			engine.start(createProperties(findFreePort()), new Restlet() {
+			});
+			engine.stop();
+			Assert.assertFalse(executor.isShutdown());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void testEngine(final IPKHttpEngine engine) throws Exception {
+		int port = findFreePort();
+		AtomicInteger signed = new AtomicInteger();
+		PKServerComponents components = new PKServerComponents();
+		components.setPassTemplate(TEMPLATE_PATH, new PKPassTemplateInMemory());
+		components.setSigningUtil(new PKCountingSigningUtil(signed, null, null));
+		PKRestServer server = new PKRestServer(createProperties(port), new TestResourceFactory(), components, engine);
+		server.start();
+		try {
+			String baseURL = "http://localhost:" + port + "/v1";
+			String registrationsURL = baseURL + "/devices/" + DEVICE_LIBRARY_IDENTIFIER + "/registrations/" + PASS_TYPE;
+			String registrationURL = registrationsURL + "/" + SERIAL_NUMBER;
+			String passURL = baseURL + "/passes/" + PASS_TYPE + "/" + SERIAL_NUMBER;
+
+			Assert.assertEquals(send(post(registrationURL, null)).statusCode(), 401);
+			Assert.assertEquals(send(post(registrationURL, AUTH_TOKEN)).statusCode(), 201);
+			Assert.assertEquals(send(post(registrationURL, AUTH_TOKEN)).statusCode(), 200);
+
+			HttpResponse<String> serialNumbers = send(HttpRequest.newBuilder(URI.create(registrationsURL)).GET().build());
+			Assert.assertEquals(serialNumbers.statusCode(), 200);
+			Assert.assertEquals(getContentType(serialNumbers), "application/json;charset=utf-8");
+			PKSerialNumbersOfPassesForDeviceResponse serialNumbersResponse = objectMapper.readValue(serialNumbers.body(),
+					PKSerialNumbersOfPassesForDeviceResponse.class);
+			Assert.assertEquals(serialNumbersResponse.getSerialNumbers(), new String[] { SERIAL_NUMBER });
+			HttpResponse<String> noUpdates = send(
+					HttpRequest.newBuilder(URI.create(registrationsURL + "?passesUpdatedSince=" + serialNumbersResponse.getLastUpdated())).GET()
+							.build());
+			Assert.assertEquals(noUpdates.statusCode(), 204);
+			Assert.assertEquals(noUpdates.body(), "");
+
+			Assert.assertEquals(send(HttpRequest.newBuilder(URI.create(passURL)).GET().build()).statusCode(), 401);
+			HttpResponse<String> pass = send(get(passURL).build());
+			Assert.assertEquals(pass.statusCode(), 200);
+			Assert.assertEquals(pass.body(), SERIAL_NUMBER);
+			Assert.assertEquals(getContentType(pass), "application/vnd.apple.pkpass");
+			Assert.assertTrue(pass.headers().firstValue("Last-Modified").isPresent());
+			String eTag = pass.headers().firstValue("ETag").orElse(null);
+			Assert.assertNotNull(eTag);
+
+			HttpResponse<String> notModified = send(get(passURL).header("If-None-Match", eTag).build());
+			Assert.assertEquals(notModified.statusCode(), 304);
+			Assert.assertEquals(notModified.body(), "");
+			Assert.assertEquals(send(get(passURL).header("If-None-Match", "\"other\"").build()).statusCode(), 200);
+			Assert.assertEquals(signed.get(), 2);
+		} finally {
+			server.stop();
+		}
+	}
+
+	private HttpResponse<String> send(final HttpRequest request) throws IOException, InterruptedException {
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static HttpRequest post(final String url, final String authToken) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+				.header("Content-Type", "application/json; charset=UTF-8")
+				.POST(HttpRequest.BodyPublishers.ofString(PUSH_TOKEN));
+		if (authToken != null) {
+			builder.header("Authorization", "ApplePass " + authToken);
+		}
+		return builder.build();
+	}
+
+	private static HttpRequest.Builder get(final String url) {
+		return HttpRequest.newBuilder(URI.create(url)).header("Authorization", "ApplePass " + AUTH_TOKEN).GET();
+	}
+
+	private static String getContentType(final HttpResponse<?> response) {
+		return response.headers().firstValue("Content-Type").orElse("").replace(" ", "").toLowerCase(Locale.ROOT);
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static Properties createProperties(final int port) {
+		Properties properties = new Properties();
+		properties.put(PKRestServer.SERVER_BIND_IP_KEY, "localhost");
+		properties.put(PKRestServer.SERVER_BIND_PORT_KEY, String.valueOf(port));
+		properties.put(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY, "false");
+		return properties;
+	}
+
+	/**
+	 * Registers devices in memory and serves one pass with a probe, accepting only {@link #AUTH_TOKEN}.
+	 */
+	private static class TestResourceFactory extends PKRestletServerResourceFactory {
+
+		private final Set<String> registrations = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public PKDeviceResource getPKDeviceResource() {
+			return new PKDeviceResource() {
+
+				@Override
+				protected Status handleRegisterDeviceRequest(final String deviceLibraryIdentifier, final String passTypeIdentifier,
+						final String serialNumber, final String authString, final PKPushToken pushToken) throws PKAuthTokenNotValidException {
+					checkAuthString(authString);
+					Assert.assertNotNull(pushToken.getPushToken());
+					return registrations.add(deviceLibraryIdentifier + "/" + passTypeIdentifier + "/" + serialNumber) ? Status.SUCCESS_CREATED
+							: Status.SUCCESS_OK;
+				}
+
+				@Override
+				protected Status handleUnregisterDeviceRequest(final String deviceLibraryIdentifier, final String passTypeIdentifier,
+						final String serialNumber, final ChallengeResponse authString) {
+					return Status.SUCCESS_OK;
+				}
+
+				@Override
+				protected PKSerialNumbersOfPassesForDeviceResponse getSerialNumberOfPassesForDevice(final String deviceLibraryIdentifier,
+						final String passTypeIdentifier, final String passesUpdatedSince) {
+					if (passesUpdatedSince != null) {
+						return null;
+					}
+					PKSerialNumbersOfPassesForDeviceResponse response = new PKSerialNumbersOfPassesForDeviceResponse();
+					response.setLastUpdated(String.valueOf(LAST_UPDATED.getTime()));
+					response.setSerialNumbers(new String[] { SERIAL_NUMBER });
+					return response;
+				}
+			};
+		}
+
+		@Override
+		public PKPassResource getPKPassResource() {
+			return new PKPassResource(TEMPLATE_PATH) {
+
+				@Override
+				protected PKPassVersionInfo probeLatestVersionOfPass(final String passTypeIdentifier, final String serialNumber,
+						final String authString) throws PKAuthTokenNotValidException {
+					checkAuthString(authString);
+					return new PKPassVersionInfo(LAST_UPDATED, "v1");
+				}
+
+				@Override
+				protected GetPKPassResponse handleGetLatestVersionOfPass(final String passTypeIdentifier, final String serialNumber,
+						final String authString, final Date modifiedSince) throws PKAuthTokenNotValidException {
+					checkAuthString(authString);
+					PKPass pass = PKPass.builder()
+							.formatVersion(1)
+							.passTypeIdentifier(passTypeIdentifier)
+							.teamIdentifier("ti")
+							.serialNumber(serialNumber)
+							.organizationName("jpasskit")
+							.description("Test store card")
+							.webServiceURL(toURL("https://example.com/passes/"))
+							.authenticationToken(AUTH_TOKEN)
+							.pass(PKStoreCard.builder().primaryFieldBuilder(PKField.builder().key("balance").label("Balance").value("21.75")))
+							.build();
+					return new GetPKPassResponse(pass, LAST_UPDATED, "v1");
+				}
+
+				@Override
+				protected PKSigningInformation getSingingInformation() {
+					return new PKSigningInformation();
+				}
+			};
+		}
+
+		private static void checkAuthString(final String authString) throws PKAuthTokenNotValidException {
+			if (!AUTH_TOKEN.equals(authString)) {
+				throw new PKAuthTokenNotValidException();
+			}
+		}
+	}
+
+	private static URL toURL(final String url) {
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+public class PKLogIngestionTest {
+
+	@Test
+	public void testQueuesMessagesOfTheLogsField() throws IOException {
+		RecordingSink sink = new RecordingSink();
+		PKLogIngestion ingestion = new PKLogIngestion(sink, 100, 10, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		int queued = ingestion.ingest(payload("{\"device\": {\"logs\": [\"nested\"]}, \"logs\": [\"first\", 42, {\"skipped\": [1]}, \"second\"],"
+				+ " \"other\": \"value\"}"));
+		ingestion.close();
+
+		Assert.assertEquals(queued, 2);
+		Assert.assertEquals(sink.messages, Arrays.asList("first", "second"));
+		Assert.assertEquals(ingestion.getWrittenCount(), 2);
+	}
+
+	@Test
+	public void testTruncatesLongMessages() throws IOException {
+		RecordingSink sink = new RecordingSink();
+		PKLogIngestion ingestion = new PKLogIngestion(sink, 100, 10, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		ingestion.ingest(payload("{\"logs\": [\"" + "x".repeat(PKLogIngestion.MAX_MESSAGE_LENGTH * 3) + "\", \"short\"]}"));
+		ingestion.close();
+
+		Assert.assertEquals(sink.messages.get(0), "x".repeat(PKLogIngestion.MAX_MESSAGE_LENGTH));
+		Assert.assertEquals(sink.messages.get(1), "short");
+	}
+
+	@Test
+	public void testStopsReadingAfterMaximumMessages() throws IOException {
+		StringBuilder json = new StringBuilder("{\"logs\": [");
+		for (int i = 0; i < PKLogIngestion.MAX_MESSAGES_PER_REQUEST; i++) {
+			json.append("\"message").append(i).append("\", ");
+		}
+		// never read, so it is no error
+		json.append("not json");
+		RecordingSink sink = new RecordingSink();
+		PKLogIngestion ingestion = new PKLogIngestion(sink, 1000, 10, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		Assert.assertEquals(ingestion.ingest(payload(json.toString())), PKLogIngestion.MAX_MESSAGES_PER_REQUEST);
+		ingestion.close();
+		Assert.assertEquals(sink.messages.size(), PKLogIngestion.MAX_MESSAGES_PER_REQUEST);
+	}
+
+	@Test
+	public void testRejectsOversizedPayload() {
+		PKLogIngestion ingestion = new PKLogIngestion(new RecordingSink(), 100, 10, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		try {
+			ingestion.ingest(payload("{\"logs\": [\"" + "x".repeat(2 * PKLogIngestion.MAX_PAYLOAD_LENGTH) + "\"]}"));
+			Assert.fail("Oversized payload accepted");
+		} catch (JsonProcessingException e) {
+			// expected
+		} catch (IOException e) {
+			Assert.fail("Unexpected exception", e);
+		} finally {
+			ingestion.close();
+		}
+		Assert.assertEquals(ingestion.getAcceptedCount(), 0);
+	}
+
+	@Test(expectedExceptions = JsonParseException.class)
+	public void testRejectsPayloadThatIsNoObject() throws IOException {
+		PKLogIngestion ingestion = new PKLogIngestion(new RecordingSink(), 100, 10, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		try {
+			ingestion.ingest(payload("[\"message\"]"));
+		} finally {
+			ingestion.close();
+		}
+	}
+
+	@Test
+	public void testDropPolicyDropsWhatDoesNotFit() throws Exception {
+		BlockingSink sink = new BlockingSink();
+		PKLogIngestion ingestion = new PKLogIngestion(sink, 8, 1, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		try {
+			blockWriter(ingestion, sink);
+			int accepted = 0;
+			for (int i = 0; i < 20; i++) {
+				if (ingestion.offer("message" + i)) {
+					accepted++;
+				}
+			}
+			Assert.assertEquals(accepted, 8);
+			Assert.assertEquals(ingestion.getDroppedCount(), 12);
+			Assert.assertEquals(ingestion.getQueueDepth(), 8);
+		} finally {
+			sink.release.countDown();
+			ingestion.close();
+		}
+		Assert.assertEquals(ingestion.getWrittenCount(), 9);
+	}
+
+	@Test
+	public void testSamplePolicySamplesOnceQueueIsThreeQuartersFull() throws Exception {
+		BlockingSink sink = new BlockingSink();
+		PKLogIngestion ingestion = new PKLogIngestion(sink, 8, 1, Duration.ZERO, PKLogIngestion.OverflowPolicy.SAMPLE);
+		try {
+			blockWriter(ingestion, sink);
+			int accepted = 0;
+			for (int i = 0; i < 6; i++) {
+				Assert.assertTrue(ingestion.offer("message" + i));
+			}
+			// every tenth message is taken while there is room
+			for (int i = 1; i <= 100; i++) {
+				if (ingestion.offer("sampled" + i)) {
+					accepted++;
+					Assert.assertEquals(i % PKLogIngestion.SAMPLE_RATE, 0);
+				}
+			}
+			Assert.assertEquals(accepted, 2);
+			Assert.assertEquals(ingestion.getDroppedCount(), 98);
+		} finally {
+			sink.release.countDown();
+			ingestion.close();
+		}
+	}
+
+	@Test
+	public void testDropsMessagesAfterClose() {
+		PKLogIngestion ingestion = new PKLogIngestion(new RecordingSink(), 8, 1, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		ingestion.close();
+		Assert.assertFalse(ingestion.offer("late"));
+		Assert.assertEquals(ingestion.getDroppedCount(), 1);
+	}
+
+	@Test
+	public void testSinkMayKeepTheBatches() throws Exception {
+		List<List<String>> batches = new CopyOnWriteArrayList<>();
+		PKLogIngestion ingestion = new PKLogIngestion(batches::add, 8, 1, Duration.ZERO, PKLogIngestion.OverflowPolicy.DROP);
+		ingestion.offer("first");
+		ingestion.offer("second");
+		ingestion.close();
+
+		Assert.assertEquals(batches, Arrays.asList(Arrays.asList("first"), Arrays.asList("second")));
+	}
+
+	// leaves the writer waiting in the sink with one message, so the queue only fills
+	private static void blockWriter(final PKLogIngestion ingestion, final BlockingSink sink) throws InterruptedException {
+		Assert.assertTrue(ingestion.offer("blocking"));
+		sink.entered.await();
+	}
+
+	private static InputStream payload(final String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class RecordingSink implements IPKLogSink {
+
+		final List<String> messages = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void write(final List<String> messages) throws Exception {
+			this.messages.addAll(messages);
+		}
+	}
+
+	private static final class BlockingSink extends RecordingSink {
+
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void write(final List<String> messages) throws Exception {
+			entered.countDown();
+			release.await();
+			super.write(messages);
+		}
+	}
+}
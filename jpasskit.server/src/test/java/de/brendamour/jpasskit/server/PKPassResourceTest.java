@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.ChallengeResponse;
+import org.restlet.data.ChallengeScheme;
+import org.restlet.data.Method;
+import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.Representation;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.PKField;
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.passes.PKStoreCard;
+import de.brendamour.jpasskit.signing.IPKPassTemplate;
+import de.brendamour.jpasskit.signing.PKPassTemplateInMemory;
+import de.brendamour.jpasskit.signing.PKSigningInformation;
+
+public class PKPassResourceTest {
+
+	private static final String TEMPLATE_PATH = "passes/test.raw";
+	private static final String PASS_TYPE = "pass.com.example";
+	private static final String SERIAL_NUMBER = "1";
+	private static final String AUTH_TOKEN = "vxwxd7J8AlNNFPS8k0a0FfUFtq0ewzFdc";
+	private static final Date LAST_UPDATED = new Date(1_700_000_000_000L);
+
+	private PKServerComponents components;
+	private AtomicInteger loaded;
+	private AtomicInteger signed;
+	private PKPassVersionInfo versionInfo;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		loaded = new AtomicInteger();
+		signed = new AtomicInteger();
+		versionInfo = null;
+		components = new PKServerComponents();
+		components.setPassTemplate(TEMPLATE_PATH, createTemplate("icon"));
+		components.setSigningInformation(new PKSigningInformation(loadCertificate(), null, loadCertificate()));
+		components.setSigningUtil(new PKCountingSigningUtil(signed, null, null));
+	}
+
+	@Test
+	public void testProbeAnswersNotModifiedWithoutLoadingThePass() throws Exception {
+		versionInfo = new PKPassVersionInfo(LAST_UPDATED, "v1");
+		Response first = get(null);
+		Assert.assertEquals(first.getStatus(), Status.SUCCESS_OK);
+		Assert.assertEquals(first.getEntity().getText(), SERIAL_NUMBER);
+		Tag tag = first.getEntity().getTag();
+		Assert.assertNotNull(tag);
+
+		Response second = get(tag.getName());
+		Assert.assertEquals(second.getStatus(), Status.REDIRECTION_NOT_MODIFIED);
+		Assert.assertNull(second.getEntity());
+		Assert.assertEquals(loaded.get(), 1);
+		Assert.assertEquals(signed.get(), 1);
+
+		versionInfo = new PKPassVersionInfo(LAST_UPDATED, "v2");
+		Response third = get(tag.getName());
+		Assert.assertEquals(third.getStatus(), Status.SUCCESS_OK);
+		Assert.assertNotEquals(third.getEntity().getTag().getName(), tag.getName());
+	}
+
+	@Test
+	public void testProbeAnswersNotModifiedSinceLastUpdate() {
+		versionInfo = new PKPassVersionInfo(LAST_UPDATED, null);
+		Response response = get(null, new Date(LAST_UPDATED.getTime() + 500));
+		Assert.assertEquals(response.getStatus(), Status.REDIRECTION_NOT_MODIFIED);
+		Assert.assertEquals(loaded.get(), 0);
+
+		Assert.assertEquals(get(null, new Date(LAST_UPDATED.getTime() - 1000)).getStatus(), Status.SUCCESS_OK);
+		Assert.assertEquals(loaded.get(), 1);
+	}
+
+	@Test
+	public void testAnswersNotModifiedWithoutSigningIfThereIsNoProbe() {
+		Response first = get(null);
+		Assert.assertEquals(first.getStatus(), Status.SUCCESS_OK);
+
+		Response second = get(first.getEntity().getTag().getName());
+		Assert.assertEquals(second.getStatus(), Status.REDIRECTION_NOT_MODIFIED);
+		Assert.assertEquals(loaded.get(), 2);
+		Assert.assertEquals(signed.get(), 1);
+	}
+
+	@Test
+	public void testTagChangesWithTemplate() throws Exception {
+		versionInfo = new PKPassVersionInfo(LAST_UPDATED, "v1");
+		String tag = get(null).getEntity().getTag().getName();
+
+		components.setPassTemplate(TEMPLATE_PATH, createTemplate("new icon"));
+		Response response = get(tag);
+		Assert.assertEquals(response.getStatus(), Status.SUCCESS_OK);
+		Assert.assertNotEquals(response.getEntity().getTag().getName(), tag);
+		Assert.assertEquals(get(response.getEntity().getTag().getName()).getStatus(), Status.REDIRECTION_NOT_MODIFIED);
+	}
+
+	@Test
+	public void testTagChangesWithTemplateWithoutDigests() throws Exception {
+		Map<String, ByteBuffer> files = new HashMap<>();
+		files.put(PKPassTemplateInMemory.PK_ICON, ByteBuffer.wrap("icon".getBytes(StandardCharsets.UTF_8)));
+		components.setPassTemplate(TEMPLATE_PATH, new FilesOnlyTemplate(files));
+		String tag = get(null).getEntity().getTag().getName();
+		Assert.assertEquals(get(tag).getStatus(), Status.REDIRECTION_NOT_MODIFIED);
+
+		files.put(PKPassTemplateInMemory.PK_ICON, ByteBuffer.wrap("new icon".getBytes(StandardCharsets.UTF_8)));
+		Response response = get(tag);
+		Assert.assertEquals(response.getStatus(), Status.SUCCESS_OK);
+		Assert.assertNotEquals(response.getEntity().getTag().getName(), tag);
+	}
+
+	@Test
+	public void testSignsTheSnapshotTheTagIsMadeOf() throws Exception {
+		PKCountingSigningUtil signingUtil = new PKCountingSigningUtil(signed, null, null);
+		components.setSigningUtil(signingUtil);
+		Assert.assertEquals(get(null).getStatus(), Status.SUCCESS_OK);
+		Assert.assertSame(signingUtil.getLastTemplate(), components.getPassTemplate(TEMPLATE_PATH).getSnapshot());
+	}
+
+	@Test
+	public void testTagChangesWithSigningCertificate() throws Exception {
+		String tag = get(null).getEntity().getTag().getName();
+
+		X509Certificate otherCertificate = loadOtherCertificate();
+		components.setSigningInformation(new PKSigningInformation(otherCertificate, null, loadCertificate()));
+		Response response = get(tag);
+		Assert.assertEquals(response.getStatus(), Status.SUCCESS_OK);
+		Assert.assertNotEquals(response.getEntity().getTag().getName(), tag);
+		Assert.assertEquals(signed.get(), 2);
+	}
+
+	@Test
+	public void testServersDoNotShareArchivesBeingSigned() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		components.setSigningUtil(new PKCountingSigningUtil(signed, started, release));
+		PKServerComponents otherComponents = new PKServerComponents();
+		otherComponents.setPassTemplate(TEMPLATE_PATH, components.getPassTemplate(TEMPLATE_PATH));
+		otherComponents.setSigningInformation(components.getSigningInformation());
+		otherComponents.setSigningUtil(new PKCountingSigningUtil(signed, null, null));
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<Response> blocked = executor.submit(() -> get(null));
+			Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+			// the same pass on another server is signed by that server instead of waiting for the first one
+			Response other = executor.submit(() -> get(otherComponents, null, null, AUTH_TOKEN)).get(1, TimeUnit.MINUTES);
+			Assert.assertEquals(other.getStatus(), Status.SUCCESS_OK);
+			Assert.assertEquals(signed.get(), 2);
+
+			release.countDown();
+			Assert.assertEquals(blocked.get(1, TimeUnit.MINUTES).getStatus(), Status.SUCCESS_OK);
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRejectsInvalidAuthenticationTokenInProbe() {
+		versionInfo = new PKPassVersionInfo(LAST_UPDATED, "v1");
+		Response response = get(null, null, "wrong");
+		Assert.assertEquals(response.getStatus(), Status.CLIENT_ERROR_UNAUTHORIZED);
+		Assert.assertEquals(loaded.get(), 0);
+	}
+
+	private Response get(final String ifNoneMatch) {
+		return get(ifNoneMatch, null);
+	}
+
+	private Response get(final String ifNoneMatch, final Date ifModifiedSince) {
+		return get(ifNoneMatch, ifModifiedSince, AUTH_TOKEN);
+	}
+
+	private Response get(final String ifNoneMatch, final Date ifModifiedSince, final String authToken) {
+		return get(components, ifNoneMatch, ifModifiedSince, authToken);
+	}
+
+	private Response get(final PKServerComponents serverComponents, final String ifNoneMatch, final Date ifModifiedSince,
+			final String authToken) {
+		Request request = new Request(Method.GET, "http://localhost/v1/passes/" + PASS_TYPE + "/" + SERIAL_NUMBER);
+		request.getAttributes().put("passTypeIdentifier", PASS_TYPE);
+		request.getAttributes().put("serialNumber", SERIAL_NUMBER);
+		ChallengeResponse challengeResponse = new ChallengeResponse(new ChallengeScheme("HTTP_ApplePass", "ApplePass"));
+		challengeResponse.setRawValue(authToken);
+		request.setChallengeResponse(challengeResponse);
+		if (ifNoneMatch != null) {
+			request.getConditions().setNoneMatch(Collections.singletonList(new Tag(ifNoneMatch, false)));
+		}
+		request.getConditions().setModifiedSince(ifModifiedSince);
+		Response response = new Response(request);
+
+		PKPassResource resource = new TestPassResource();
+		resource.setComponents(serverComponents);
+		resource.init(new Context(), request, response);
+		Representation representation = resource.getLatestVersionOfPass(null);
+		response.setEntity(representation);
+		return response;
+	}
+
+	private static PKPassTemplateInMemory createTemplate(final String icon) throws Exception {
+		PKPassTemplateInMemory template = new PKPassTemplateInMemory();
+		template.addFile(PKPassTemplateInMemory.PK_ICON, icon);
+		return template;
+	}
+
+	private static X509Certificate loadCertificate() throws Exception {
+		try (InputStream inputStream = resource("passbook/AppleWWDRCA.pem")) {
+			return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+		}
+	}
+
+	private static X509Certificate loadOtherCertificate() throws Exception {
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		try (InputStream inputStream = resource("serverX.jks")) {
+			keyStore.load(inputStream, "password".toCharArray());
+		}
+		return (X509Certificate) keyStore.getCertificate(keyStore.aliases().nextElement());
+	}
+
+	private static InputStream resource(final String path) {
+		InputStream inputStream = PKPassResourceTest.class.getClassLoader().getResourceAsStream(path);
+		Assert.assertNotNull(inputStream, path);
+		return inputStream;
+	}
+
+	/**
+	 * A template that only provides its files, like custom templates do by default.
+	 */
+	private static final class FilesOnlyTemplate implements IPKPassTemplate {
+
+		private final Map<String, ByteBuffer> files;
+
+		FilesOnlyTemplate(final Map<String, ByteBuffer> files) {
+			this.files = files;
+		}
+
+		@Override
+		public void provisionPassAtDirectory(final File tempPassDir) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<String, ByteBuffer> getAllFiles() {
+			return new HashMap<>(files);
+		}
+	}
+
+	private class TestPassResource extends PKPassResource {
+
+		TestPassResource() {
+			super(TEMPLATE_PATH);
+		}
+
+		@Override
+		protected PKPassVersionInfo probeLatestVersionOfPass(final String passTypeIdentifier, final String serialNumber,
+				final String authString) throws PKAuthTokenNotValidException {
+			checkAuthString(authString);
+			return versionInfo;
+		}
+
+		@Override
+		protected GetPKPassResponse handleGetLatestVersionOfPass(final String passTypeIdentifier, final String serialNumber,
+				final String authString, final Date modifiedSince) throws PKAuthTokenNotValidException {
+			checkAuthString(authString);
+			loaded.incrementAndGet();
+			PKPass pass = PKPass.builder()
+					.formatVersion(1)
+					.passTypeIdentifier(passTypeIdentifier)
+					.teamIdentifier("ti")
+					.serialNumber(serialNumber)
+					.organizationName("jpasskit")
+					.description("Test store card")
+					.webServiceURL(toURL("https://example.com/passes/"))
+					.authenticationToken(AUTH_TOKEN)
+					.pass(PKStoreCard.builder().primaryFieldBuilder(PKField.builder().key("balance").label("Balance").value("21.75")))
+					.build();
+			return new GetPKPassResponse(pass, LAST_UPDATED, versionInfo != null ? versionInfo.getETag() : null);
+		}
+
+		@Override
+		protected PKSigningInformation getSingingInformation() {
+			throw new AssertionError("The signing information of the components is used");
+		}
+
+		private void checkAuthString(final String authString) throws PKAuthTokenNotValidException {
+			if (!AUTH_TOKEN.equals(authString)) {
+				throw new PKAuthTokenNotValidException();
+			}
+		}
+	}
+
+	private static URL toURL(final String url) {
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
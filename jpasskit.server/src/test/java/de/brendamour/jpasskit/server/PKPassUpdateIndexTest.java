@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKPassUpdateIndexTest {
+
+	private static final String PASS_TYPE = "pass.com.example";
+
+	@Test
+	public void testTagsIncrease() throws Exception {
+		long created = System.currentTimeMillis();
+		PKPassUpdateIndex index = new PKPassUpdateIndex();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<Long>>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				String passType = PASS_TYPE + thread;
+				futures.add(executor.submit(() -> {
+					List<Long> tags = new ArrayList<>();
+					for (int i = 0; i < 10_000; i++) {
+						tags.add(Long.valueOf(index.markUpdated(passType, String.valueOf(i % 10))));
+					}
+					return tags;
+				}));
+			}
+			Set<Long> allTags = new HashSet<>();
+			for (Future<List<Long>> future : futures) {
+				long previous = created;
+				for (long tag : future.get(1, TimeUnit.MINUTES)) {
+					Assert.assertTrue(tag > previous, tag + " after " + previous);
+					previous = tag;
+					allTags.add(tag);
+				}
+			}
+			Assert.assertEquals(allTags.size(), 40_000);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testTagsIncreaseAcrossRestarts() throws Exception {
+		String tag = new PKPassUpdateIndex().markUpdated(PASS_TYPE, "1");
+		Thread.sleep(2);
+		Assert.assertTrue(Long.parseLong(new PKPassUpdateIndex().markUpdated(PASS_TYPE, "1")) > Long.parseLong(tag));
+	}
+
+	@Test
+	public void testAnswersPolls() {
+		PKPassUpdateIndex index = new PKPassUpdateIndex();
+		Set<String> registered = new HashSet<>(Arrays.asList("1", "2", "3"));
+		index.markUpdated(PASS_TYPE, "1");
+
+		PKSerialNumbersOfPassesForDeviceResponse all = index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, null);
+		Assert.assertEquals(new HashSet<>(Arrays.asList(all.getSerialNumbers())), registered);
+		String tag = all.getLastUpdated();
+		Assert.assertNull(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, tag));
+
+		index.markUpdated(PASS_TYPE, "2");
+		index.markUpdated(PASS_TYPE, "4");
+		PKSerialNumbersOfPassesForDeviceResponse changed = index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, tag);
+		Assert.assertEquals(changed.getSerialNumbers(), new String[] { "2" });
+		Assert.assertEquals(changed.getLastUpdated(), index.getUpdateTag(PASS_TYPE, "4"));
+		Assert.assertNull(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, changed.getLastUpdated()));
+
+		index.remove(PASS_TYPE, "2");
+		Assert.assertNull(index.getUpdateTag(PASS_TYPE, "2"));
+		Assert.assertNull(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, tag));
+	}
+
+	@Test
+	public void testPollOfDeviceWithoutPassesOfTheTypeBeforeAnyUpdate() {
+		PKPassUpdateIndex index = new PKPassUpdateIndex();
+		Set<String> registered = new HashSet<>(Arrays.asList("1"));
+		PKSerialNumbersOfPassesForDeviceResponse all = index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, null);
+		Assert.assertEquals(all.getSerialNumbers(), new String[] { "1" });
+		// the tag of a fresh index is not mistaken for one of an earlier instance
+		Assert.assertNull(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, all.getLastUpdated()));
+		Assert.assertNull(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, new HashSet<>(), null));
+	}
+
+	@Test
+	public void testLooksUpPassesOfDeviceWhenMoreChangedThanItHas() {
+		PKPassUpdateIndex index = new PKPassUpdateIndex();
+		String since = index.markUpdated(PASS_TYPE, "0");
+		index.markUpdated(PASS_TYPE, "registered1");
+		for (int i = 1; i <= 1000; i++) {
+			index.markUpdated(PASS_TYPE, String.valueOf(i));
+		}
+		index.markUpdated(PASS_TYPE, "registered2");
+
+		// two registered passes, a thousand changes: the passes of the device are looked up
+		Set<String> few = new HashSet<>(Arrays.asList("registered1", "registered2", "unchanged"));
+		Assert.assertEquals(new HashSet<>(Arrays.asList(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, few, since).getSerialNumbers())),
+				new HashSet<>(Arrays.asList("registered1", "registered2")));
+
+		// more registered passes than changes: the changes are walked
+		Set<String> many = new HashSet<>(few);
+		for (int i = 2000; i < 4000; i++) {
+			many.add(String.valueOf(i));
+		}
+		many.add("500");
+		Assert.assertEquals(new HashSet<>(Arrays.asList(index.getSerialNumbersOfPassesForDevice(PASS_TYPE, many, since).getSerialNumbers())),
+				new HashSet<>(Arrays.asList("registered1", "registered2", "500")));
+	}
+
+	@Test
+	public void testTagFromBeforeRestartGetsAllPasses() throws Exception {
+		PKPassUpdateIndex before = new PKPassUpdateIndex();
+		before.markUpdated(PASS_TYPE, "1");
+		Set<String> registered = new HashSet<>(Arrays.asList("1", "2"));
+		String tag = before.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, null).getLastUpdated();
+		// updated after the device fetched its passes, but the server restarts before it polls again
+		String unfetchedTag = before.markUpdated(PASS_TYPE, "2");
+		Thread.sleep(2);
+
+		PKPassUpdateIndex restarted = new PKPassUpdateIndex();
+		PKSerialNumbersOfPassesForDeviceResponse response = restarted.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, tag);
+		Assert.assertEquals(new HashSet<>(Arrays.asList(response.getSerialNumbers())), registered);
+		Assert.assertNull(restarted.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, response.getLastUpdated()));
+
+		// with the tags restored, the index knows what changed
+		PKPassUpdateIndex restored = new PKPassUpdateIndex();
+		restored.restore(PASS_TYPE, "1", before.getUpdateTag(PASS_TYPE, "1"));
+		restored.restore(PASS_TYPE, "2", unfetchedTag);
+		Assert.assertEquals(restored.getSerialNumbersOfPassesForDevice(PASS_TYPE, registered, tag).getSerialNumbers(), new String[] { "2" });
+		Assert.assertTrue(Long.parseLong(restored.markUpdated(PASS_TYPE, "1")) > Long.parseLong(unfetchedTag));
+	}
+}
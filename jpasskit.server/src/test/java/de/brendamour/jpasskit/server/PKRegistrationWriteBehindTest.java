@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Striped;
+
+public class PKRegistrationWriteBehindTest {
+
+	private static final String PASS_TYPE = "pass.com.example";
+
+	@Test
+	public void testWritesChangesInOrderInBatches() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		try (PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 100, 10, Duration.ofMillis(10), Duration.ZERO)) {
+			for (int i = 0; i < 50; i++) {
+				writeBehind.register("device" + i, PASS_TYPE, "1", "token" + i);
+			}
+			writeBehind.unregister("device0", PASS_TYPE, "1");
+			writeBehind.flush();
+
+			Assert.assertEquals(sink.changes.size(), 51);
+			Assert.assertEquals(writeBehind.getWrittenCount(), 51);
+			Assert.assertTrue(writeBehind.getBatchCount() >= 6);
+			for (int i = 0; i < 50; i++) {
+				Assert.assertEquals(sink.changes.get(i).getDeviceLibraryIdentifier(), "device" + i);
+			}
+			Assert.assertEquals(sink.changes.get(50).getType(), PKRegistrationChange.Type.UNREGISTER);
+			Assert.assertTrue(sink.batchSizes.stream().allMatch(size -> size <= 10));
+		}
+	}
+
+	@Test
+	public void testDeduplicatesRegistrationsUntilUnregistered() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		try (PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 100, 10, Duration.ZERO, Duration.ofMinutes(1))) {
+			Assert.assertTrue(writeBehind.register("device1", PASS_TYPE, "1", "token1"));
+			Assert.assertFalse(writeBehind.register("device1", PASS_TYPE, "1", "token1"));
+			// a new push token is written
+			Assert.assertTrue(writeBehind.register("device1", PASS_TYPE, "1", "token2"));
+			writeBehind.unregister("device1", PASS_TYPE, "1");
+			Assert.assertTrue(writeBehind.register("device1", PASS_TYPE, "1", "token2"));
+			writeBehind.flush();
+
+			Assert.assertEquals(sink.changes.size(), 4);
+			Assert.assertEquals(writeBehind.getDeduplicatedCount(), 1);
+		}
+	}
+
+	@Test
+	public void testRegistrationAfterRacingUnregistrationIsWritten() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 1000, 100, Duration.ZERO, Duration.ofMinutes(1))) {
+			for (int round = 0; round < 200; round++) {
+				CountDownLatch start = new CountDownLatch(1);
+				Future<?> registration = executor.submit(() -> {
+					start.await();
+					return writeBehind.register("device1", PASS_TYPE, "1", "token1");
+				});
+				Future<?> unregistration = executor.submit(() -> {
+					start.await();
+					writeBehind.unregister("device1", PASS_TYPE, "1");
+					return null;
+				});
+				start.countDown();
+				registration.get(5, TimeUnit.SECONDS);
+				unregistration.get(5, TimeUnit.SECONDS);
+				writeBehind.flush();
+
+				// whatever order they were queued in, the cache must agree with the last change written
+				PKRegistrationChange last = sink.changes.get(sink.changes.size() - 1);
+				boolean written = writeBehind.register("device1", PASS_TYPE, "1", "token1");
+				Assert.assertEquals(written, last.getType() == PKRegistrationChange.Type.UNREGISTER, "round " + round);
+				writeBehind.unregister("device1", PASS_TYPE, "1");
+				writeBehind.flush();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCloseDoesNotWaitForCallersBlockedOnFullQueue() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingSink sink = new RecordingSink() {
+
+			@Override
+			public void write(final List<PKRegistrationChange> changes) throws Exception {
+				release.await();
+				super.write(changes);
+			}
+		};
+		PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 1, 1, Duration.ZERO, Duration.ZERO);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			// the writer is stuck in the sink with the first change, the second fills the queue, the third waits for room
+			writeBehind.register("device1", PASS_TYPE, "1", "token1");
+			while (writeBehind.getQueueDepth() > 0) {
+				Thread.sleep(1);
+			}
+			writeBehind.register("device2", PASS_TYPE, "1", "token2");
+			Future<Boolean> blocked = executor.submit(() -> writeBehind.register("device3", PASS_TYPE, "1", "token3"));
+			Future<?> flush = executor.submit(() -> {
+				writeBehind.flush();
+				return null;
+			});
+			Future<?> close = executor.submit(() -> {
+				writeBehind.close();
+				return null;
+			});
+
+			try {
+				blocked.get(5, TimeUnit.SECONDS);
+				Assert.fail("Registration accepted after close");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+			}
+			Assert.assertFalse(flush.isDone());
+			release.countDown();
+			flush.get(5, TimeUnit.SECONDS);
+			close.get(5, TimeUnit.SECONDS);
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(sink.changes.size(), 2);
+	}
+
+	@Test
+	public void testCallerWaitingForRoomDoesNotHoldUpItsLockStripe() throws Exception {
+		// the write-behind stripes its locks the same way, so the two registrations share a lock
+		Striped<Lock> stripes = Striped.lock(64);
+		String serialNumber = "1";
+		while (stripes.get(Arrays.asList("device2", PASS_TYPE, serialNumber)) != stripes.get(Arrays.asList("device3", PASS_TYPE, "1"))) {
+			serialNumber = String.valueOf(Integer.parseInt(serialNumber) + 1);
+		}
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingSink sink = new RecordingSink() {
+
+			@Override
+			public void write(final List<PKRegistrationChange> changes) throws Exception {
+				release.await();
+				super.write(changes);
+			}
+		};
+		PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 1, 1, Duration.ZERO, Duration.ofMinutes(1));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			writeBehind.register("device1", PASS_TYPE, "1", "token1");
+			while (writeBehind.getQueueDepth() > 0) {
+				Thread.sleep(1);
+			}
+			writeBehind.register("device2", PASS_TYPE, serialNumber, "token2");
+			Future<Boolean> blocked = executor.submit(() -> writeBehind.register("device3", PASS_TYPE, "1", "token3"));
+			Thread.sleep(200);
+			Assert.assertFalse(blocked.isDone());
+
+			String repeatedSerialNumber = serialNumber;
+			Future<Boolean> repeated = executor.submit(() -> writeBehind.register("device2", PASS_TYPE, repeatedSerialNumber, "token2"));
+			Assert.assertFalse(repeated.get(5, TimeUnit.SECONDS));
+			release.countDown();
+			Assert.assertTrue(blocked.get(5, TimeUnit.SECONDS));
+			writeBehind.flush();
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+			writeBehind.close();
+		}
+		Assert.assertEquals(sink.changes.size(), 3);
+	}
+
+	@Test
+	public void testDropsBatchAfterFailedAttemptsAndForgetsItsRegistrations() throws Exception {
+		RecordingSink sink = new RecordingSink();
+		try (PKRegistrationWriteBehind writeBehind = new PKRegistrationWriteBehind(sink, 10, 10, Duration.ZERO, Duration.ofMinutes(1))) {
+			sink.failAlways = true;
+			writeBehind.register("device1", PASS_TYPE, "1", "token1");
+			writeBehind.flush();
+			Assert.assertEquals(writeBehind.getDroppedCount(), 1);
+
+			sink.failAlways = false;
+			Assert.assertTrue(writeBehind.register("device1", PASS_TYPE, "1", "token1"));
+			writeBehind.flush();
+			Assert.assertEquals(sink.changes.size(), 1);
+		}
+	}
+
+	@Test
+	public void testChangesAreComparedByValue() {
+		PKRegistrationChange registration = PKRegistrationChange.register("device1", PASS_TYPE, "1", "token1");
+		Assert.assertEquals(registration, PKRegistrationChange.register("device1", PASS_TYPE, "1", "token1"));
+		Assert.assertEquals(registration.hashCode(), PKRegistrationChange.register("device1", PASS_TYPE, "1", "token1").hashCode());
+		Assert.assertNotEquals(registration, PKRegistrationChange.register("device1", PASS_TYPE, "1", "token2"));
+		Assert.assertNotEquals(registration, PKRegistrationChange.register("device2", PASS_TYPE, "1", "token1"));
+		Assert.assertNotEquals(registration, PKRegistrationChange.register("device1", "pass.com.example.other", "1", "token1"));
+		Assert.assertNotEquals(registration, PKRegistrationChange.register("device1", PASS_TYPE, "2", "token1"));
+		Assert.assertNotEquals(registration, PKRegistrationChange.unregister("device1", PASS_TYPE, "1"));
+		Assert.assertNotEquals(registration, "device1");
+		Assert.assertEquals(registration.toString(), "REGISTER device1 pass.com.example/1");
+	}
+
+	private static class RecordingSink implements IPKRegistrationSink {
+
+		final List<PKRegistrationChange> changes = new CopyOnWriteArrayList<>();
+		final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+		volatile boolean failAlways;
+
+		@Override
+		public void write(final List<PKRegistrationChange> changes) throws Exception {
+			if (failAlways) {
+				throw new IllegalStateException("database down");
+			}
+			this.changes.addAll(new ArrayList<>(changes));
+			batchSizes.add(changes.size());
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Reference;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.Finder;
+import org.restlet.resource.ServerResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKResourceFactoryTest {
+
+	@Test
+	public void testFactoriesInjectTheComponentsOfTheirServer() {
+		IPKRestletServerResourceFactory resourceFactory = new PKRestletServerResourceFactory();
+		PKServerComponents components = new PKServerComponents();
+		Assert.assertNotSame(components, PKServerComponents.getDefault());
+
+		Assert.assertSame(((PKDeviceResource) create(new PKDeviceResourceFactory(resourceFactory, components))).getComponents(), components);
+		Assert.assertSame(((PKPassResource) create(new PKPassResourceFactory(resourceFactory, components))).getComponents(), components);
+		Assert.assertSame(((PKPersonalizePassResource) create(new PKPersonalizePassResourceFactory(resourceFactory, components))).getComponents(),
+				components);
+		Assert.assertSame(((PKLogResource) create(new PKLogResourceFactory(resourceFactory, components))).getComponents(), components);
+	}
+
+	@Test
+	public void testFactoriesWithoutComponentsUseTheDefault() {
+		IPKRestletServerResourceFactory resourceFactory = new PKRestletServerResourceFactory();
+		Assert.assertSame(((PKDeviceResource) create(new PKDeviceResourceFactory(resourceFactory))).getComponents(),
+				PKServerComponents.getDefault());
+		Assert.assertSame(((PKPassResource) create(new PKPassResourceFactory(resourceFactory))).getComponents(), PKServerComponents.getDefault());
+		Assert.assertSame(((PKPersonalizePassResource) create(new PKPersonalizePassResourceFactory(resourceFactory))).getComponents(),
+				PKServerComponents.getDefault());
+		Assert.assertSame(((PKLogResource) create(new PKLogResourceFactory(resourceFactory))).getComponents(), PKServerComponents.getDefault());
+	}
+
+	@Test
+	public void testServerRoutesRequestsToResourcesWithItsComponents() throws Exception {
+		RecordingResourceFactory resourceFactory = new RecordingResourceFactory();
+		PKServerComponents components = new PKServerComponents();
+		RoutesEngine engine = new RoutesEngine();
+		PKRestServer server = new PKRestServer(createProperties(), resourceFactory, components, engine);
+		server.start();
+		try {
+			Reference resourceRef = new Reference("http://localhost/v1/log");
+			resourceRef.setBaseRef("http://localhost");
+			Request request = new Request(Method.POST, resourceRef, new StringRepresentation("{\"logs\":[]}", MediaType.APPLICATION_JSON));
+			engine.routes.handle(request, new Response(request));
+		} finally {
+			server.stop();
+		}
+
+		Assert.assertEquals(resourceFactory.logResources.size(), 1);
+		Assert.assertSame(resourceFactory.logResources.get(0).getComponents(), components);
+	}
+
+	private static ServerResource create(final Finder finder) {
+		Request request = new Request(Method.GET, "http://localhost/v1/log");
+		return finder.create(request, new Response(request));
+	}
+
+	private static Properties createProperties() {
+		Properties properties = new Properties();
+		properties.put(PKRestServer.SERVER_BIND_IP_KEY, "localhost");
+		properties.put(PKRestServer.SERVER_BIND_PORT_KEY, "0");
+		properties.put(PKRestServer.SERVER_BIND_SSL_ENABLED_KEY, "false");
+		return properties;
+	}
+
+	/**
+	 * Keeps the routes instead of serving them, so requests can be passed to them directly.
+	 */
+	private static class RoutesEngine implements IPKHttpEngine {
+
+		private Restlet routes;
+
+		@Override
+		public void start(final Properties serverConfigurationProperties, final Restlet routes) throws Exception {
+			this.routes = routes;
+			routes.start();
+		}
+
+		@Override
+		public void stop() throws Exception {
+			routes.stop();
+		}
+	}
+
+	private static class RecordingResourceFactory extends PKRestletServerResourceFactory {
+
+		private final List<PKLogResource> logResources = new ArrayList<>();
+
+		@Override
+		public PKLogResource getPKLogResource() {
+			PKLogResource resource = super.getPKLogResource();
+			logResources.add(resource);
+			return resource;
+		}
+	}
+}
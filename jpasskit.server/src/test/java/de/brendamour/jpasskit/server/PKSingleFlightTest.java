@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PKSingleFlightTest {
+
+	private static final int CALLERS = 8;
+
+	private PKSingleFlight<String, Object> singleFlight;
+	private ExecutorService executor;
+	private List<Thread> waitingThreads;
+
+	@BeforeMethod
+	public void setUp() {
+		singleFlight = new PKSingleFlight<>();
+		waitingThreads = new ArrayList<>();
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable);
+			synchronized (waitingThreads) {
+				waitingThreads.add(thread);
+			}
+			return thread;
+		});
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentCallersShareOneComputation() throws Exception {
+		AtomicInteger computations = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Object value = new Object();
+
+		List<Future<Object>> results = executeConcurrently("key", () -> {
+			computations.incrementAndGet();
+			started.countDown();
+			release.await();
+			return value;
+		}, started);
+		release.countDown();
+
+		for (Future<Object> result : results) {
+			Assert.assertSame(result.get(1, TimeUnit.MINUTES), value);
+		}
+		Assert.assertEquals(computations.get(), 1);
+	}
+
+	@Test
+	public void testFailureIsPropagatedToAllCallers() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		IOException failure = new IOException("signing failed");
+
+		List<Future<Object>> results = executeConcurrently("key", () -> {
+			started.countDown();
+			release.await();
+			throw failure;
+		}, started);
+		release.countDown();
+
+		for (Future<Object> result : results) {
+			try {
+				result.get(1, TimeUnit.MINUTES);
+				Assert.fail("The failure of the computation is thrown");
+			} catch (ExecutionException e) {
+				Assert.assertSame(e.getCause(), failure);
+			}
+		}
+		// the failure is not kept
+		Assert.assertEquals(singleFlight.execute("key", () -> "retried"), "retried");
+	}
+
+	@Test
+	public void testErrorIsPropagatedToWaitingCallers() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AssertionError error = new AssertionError("out of memory");
+
+		List<Future<Object>> results = executeConcurrently("key", () -> {
+			started.countDown();
+			release.await();
+			throw error;
+		}, started);
+		release.countDown();
+
+		for (Future<Object> result : results) {
+			try {
+				result.get(1, TimeUnit.MINUTES);
+				Assert.fail("The error of the computation is thrown");
+			} catch (ExecutionException e) {
+				Assert.assertSame(e.getCause(), error);
+			}
+		}
+	}
+
+	@Test
+	public void testDifferentKeysAreComputedConcurrently() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<Object> blocked = executor.submit(() -> singleFlight.execute("first", () -> {
+			started.countDown();
+			release.await();
+			return "first";
+		}));
+		Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+
+		Assert.assertEquals(singleFlight.execute("second", () -> "second"), "second");
+		release.countDown();
+		Assert.assertEquals(blocked.get(1, TimeUnit.MINUTES), "first");
+	}
+
+	@Test
+	public void testValuesAreNotCached() throws Exception {
+		AtomicInteger computations = new AtomicInteger();
+		singleFlight.execute("key", computations::incrementAndGet);
+		singleFlight.execute("key", computations::incrementAndGet);
+		Assert.assertEquals(computations.get(), 2);
+	}
+
+	/**
+	 * Starts the computation on one thread and, once it runs, calls {@link PKSingleFlight#execute} for the same key on other threads.
+	 * Returns when all of them wait for the computation.
+	 */
+	private List<Future<Object>> executeConcurrently(final String key, final Callable<Object> computation,
+			final CountDownLatch started) throws Exception {
+		List<Future<Object>> results = new ArrayList<>();
+		results.add(executor.submit(() -> singleFlight.execute(key, computation)));
+		Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+		for (int i = 1; i < CALLERS; i++) {
+			results.add(executor.submit(() -> singleFlight.execute(key, () -> {
+				throw new AssertionError("A second computation was started");
+			})));
+		}
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+		while (countWaitingThreads() < CALLERS) {
+			Assert.assertTrue(System.nanoTime() < deadline, "Callers did not wait for the computation");
+			Thread.sleep(1);
+		}
+		return results;
+	}
+
+	private int countWaitingThreads() {
+		synchronized (waitingThreads) {
+			int waiting = 0;
+			for (Thread thread : waitingThreads) {
+				if (thread.getState() == Thread.State.WAITING) {
+					waiting++;
+				}
+			}
+			return waiting;
+		}
+	}
+}
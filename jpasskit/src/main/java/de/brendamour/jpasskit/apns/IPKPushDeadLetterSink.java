@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+/**
+ * Receives the push notifications {@link PKPushScheduler} gave up on, e.g. to store them for a later campaign or to alert.
+ */
+@FunctionalInterface
+public interface IPKPushDeadLetterSink {
+
+    /**
+     * Called on the threads of the scheduler and the APNs client, so implementations must be thread safe and should not block.
+     */
+    void deadLettered(PKPushDeadLetter deadLetter);
+}
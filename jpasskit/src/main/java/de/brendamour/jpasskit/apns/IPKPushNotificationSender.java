@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+/**
+ * Sends a prepared push notification to APNs. Implemented by {@link PKSendPushNotificationUtil} and {@link PKApnsClientRouter}, and
+ * by the layers that add behavior on top of them.
+ */
+@FunctionalInterface
+public interface IPKPushNotificationSender {
+
+    /**
+     * @return completes with the response of APNs, or exceptionally if the notification could not be sent
+     */
+    CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(SimpleApnsPushNotification notification);
+}
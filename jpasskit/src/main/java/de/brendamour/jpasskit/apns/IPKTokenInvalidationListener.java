@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.util.List;
+
+/**
+ * Receives the push tokens APNs reported as invalid, see {@link PKTokenInvalidationPublisher}.
+ */
+@FunctionalInterface
+public interface IPKTokenInvalidationListener {
+
+    /**
+     * Called with one batch at a time, never concurrently. Stop sending to the tokens, e.g. by removing their registrations.
+     *
+     * @param invalidations
+     *            the rejections of invalid tokens, at most one per topic and push token
+     * @throws Exception
+     *             if the batch could not be handled; it is logged and not delivered again, APNs reports the tokens again on the next
+     *             push
+     */
+    void tokensInvalidated(List<PKPushRejection> invalidations) throws Exception;
+}
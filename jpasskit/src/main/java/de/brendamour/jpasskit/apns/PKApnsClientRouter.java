@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import com.eatthepath.pushy.apns.util.concurrent.PushNotificationFuture;
+
+import de.brendamour.jpasskit.util.Assert;
+import de.brendamour.jpasskit.util.CertUtils;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+/**
+ * Sends the push notifications of many pass types, each with the certificate of its pass type identifier.
+ * <p>
+ * Every certificate added gets one {@link ApnsClient}, registered for all topics (pass type identifiers) the certificate contains.
+ * All clients share one Netty event loop group, so the number of threads does not grow with the number of certificates, and every
+ * client gets its own number of connections: HTTP/2 carries many notifications per connection, so pass types with little traffic
+ * do well with one.
+ * <p>
+ * Certificates can be added while notifications are sent. {@link #close()} closes all clients and the event loop group, unless the
+ * group was passed to the constructor.
+ */
+public class PKApnsClientRouter implements IPKPushNotificationSender, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int CONCURRENT_CONNECTIONS_DEFAULT = 1;
+
+    private final String apnsHost;
+    private final int apnsPort;
+    private final EventLoopGroup eventLoopGroup;
+    private final boolean ownsEventLoopGroup;
+    private final ConcurrentMap<String, ApnsClient> clientsByTopic = new ConcurrentHashMap<>();
+    private final List<ApnsClient> clients = new CopyOnWriteArrayList<>();
+    private volatile PKTokenInvalidationPublisher tokenInvalidationPublisher;
+
+    /**
+     * Creates a router for the production APNs server, with an event loop group of one thread per processor.
+     */
+    public PKApnsClientRouter() {
+        this(ApnsClientBuilder.PRODUCTION_APNS_HOST, ApnsClientBuilder.DEFAULT_APNS_PORT, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param eventLoopThreads
+     *            number of threads of the event loop group shared by all clients
+     */
+    public PKApnsClientRouter(String apnsHost, int apnsPort, int eventLoopThreads) {
+        this(apnsHost, apnsPort, new NioEventLoopGroup(eventLoopThreads), true);
+    }
+
+    /**
+     * @param eventLoopGroup
+     *            shared by all clients, e.g. with other Netty based code of the application; not shut down by {@link #close()}
+     */
+    public PKApnsClientRouter(String apnsHost, int apnsPort, EventLoopGroup eventLoopGroup) {
+        this(apnsHost, apnsPort, eventLoopGroup, false);
+    }
+
+    private PKApnsClientRouter(String apnsHost, int apnsPort, EventLoopGroup eventLoopGroup, boolean ownsEventLoopGroup) {
+        Assert.hasLength(apnsHost, "APNs host is mandatory");
+        Assert.notNull(eventLoopGroup, "Event loop group is mandatory");
+        this.apnsHost = apnsHost;
+        this.apnsPort = apnsPort;
+        this.eventLoopGroup = eventLoopGroup;
+        this.ownsEventLoopGroup = ownsEventLoopGroup;
+    }
+
+    /**
+     * Adds a certificate with a single connection to APNs.
+     *
+     * @return the topics the certificate is used for
+     */
+    public Set<String> addCertificate(String keyStorePath, char[] keyStorePassword) throws IOException {
+        return addCertificate(keyStorePath, keyStorePassword, CONCURRENT_CONNECTIONS_DEFAULT);
+    }
+
+    /**
+     * Adds a certificate, replacing the client of topics added before.
+     *
+     * @param concurrentConnections
+     *            number of connections to APNs for the topics of this certificate
+     * @return the topics the certificate is used for
+     * @throws IOException
+     *             if the key store can not be read
+     * @throws IllegalArgumentException
+     *             if the certificate contains no topic
+     */
+    public Set<String> addCertificate(String keyStorePath, char[] keyStorePassword, int concurrentConnections) throws IOException {
+        Assert.isTrue(concurrentConnections > 0, "At least one connection is required");
+        try (InputStream keyStoreInputStream = CertUtils.toInputStream(keyStorePath)) {
+            KeyStore keyStore = CertUtils.toKeyStore(keyStoreInputStream, keyStorePassword);
+            Pair<PrivateKey, X509Certificate> certificate = CertUtils.extractCertificateWithKey(keyStore, keyStorePassword);
+            Set<String> topics = CertUtils.extractApnsTopics(certificate.getRight());
+            Assert.isTrue(!topics.isEmpty(), "The certificate in %s contains no APNS topic", keyStorePath);
+            ApnsClient client = new ApnsClientBuilder().setApnsServer(apnsHost, apnsPort)
+                    .setClientCredentials(certificate.getRight(), certificate.getLeft(), String.valueOf(keyStorePassword))
+                    .setConcurrentConnections(concurrentConnections)
+                    .setEventLoopGroup(eventLoopGroup)
+                    .build();
+            addClient(client, topics);
+            return Collections.unmodifiableSet(new TreeSet<>(topics));
+        } catch (CertificateException ex) {
+            throw new IOException("Failed to load keystore from " + keyStorePath, ex);
+        }
+    }
+
+    /**
+     * Adds a client built elsewhere, e.g. with a custom trust store. It is closed by {@link #close()}, or as soon as clients added later
+     * replace it for all its topics, e.g. when a certificate is renewed.
+     */
+    public synchronized void addClient(ApnsClient client, Set<String> topics) {
+        Assert.notNull(client, "Client is mandatory");
+        Assert.isTrue(topics != null && !topics.isEmpty(), "At least one topic is required");
+        clients.add(client);
+        Set<ApnsClient> replacedClients = new HashSet<>();
+        for (String topic : topics) {
+            ApnsClient replacedClient = clientsByTopic.put(topic, client);
+            if (replacedClient != null && replacedClient != client) {
+                LOGGER.warn("Replacing the APNs client of topic {}", topic);
+                replacedClients.add(replacedClient);
+            }
+        }
+        for (ApnsClient replacedClient : replacedClients) {
+            if (!clientsByTopic.containsValue(replacedClient)) {
+                clients.remove(replacedClient);
+                replacedClient.close().whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        LOGGER.warn("Failed to close a replaced APNs client", ex);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * @return the topics (pass type identifiers) notifications can be sent for
+     */
+    public Set<String> getTopics() {
+        return Collections.unmodifiableSet(new TreeSet<>(clientsByTopic.keySet()));
+    }
+
+    /**
+     * Sets the publisher that is told about the push tokens APNs reports as invalid, or null to ignore them. The publisher is not
+     * closed with the router.
+     */
+    public void setTokenInvalidationPublisher(PKTokenInvalidationPublisher tokenInvalidationPublisher) {
+        this.tokenInvalidationPublisher = tokenInvalidationPublisher;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if no certificate was added for the pass type identifier
+     */
+    public ApnsClient getClient(String passTypeIdentifier) {
+        ApnsClient client = clientsByTopic.get(passTypeIdentifier);
+        Assert.notNull(client, "No APNS certificate for %s", passTypeIdentifier);
+        return client;
+    }
+
+    public PushNotificationFuture<SimpleApnsPushNotification, PushNotificationResponse<SimpleApnsPushNotification>> sendPushNotificationAsync(
+            String passTypeIdentifier, String pushToken) {
+        LOGGER.debug("Sending Push notification for {} and key: {}", passTypeIdentifier, pushToken);
+        return PKPushNotifications.observe(getClient(passTypeIdentifier).sendNotification(PKPushNotifications.newNotification(pushToken,
+                passTypeIdentifier)), passTypeIdentifier, pushToken, tokenInvalidationPublisher);
+    }
+
+    /**
+     * Sends a notification prepared by the caller with the client of its topic.
+     *
+     * @throws IllegalArgumentException
+     *             if no certificate was added for the topic of the notification
+     */
+    @Override
+    public PushNotificationFuture<SimpleApnsPushNotification, PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(
+            SimpleApnsPushNotification notification) {
+        return PKPushNotifications.observe(getClient(notification.getTopic()).sendNotification(notification), notification.getTopic(),
+                notification.getToken(), tokenInvalidationPublisher);
+    }
+
+    /**
+     * Sends a push notification for the pass type to every token, see
+     * {@link PKSendPushNotificationUtil#sendPushNotifications(Iterable, int)}.
+     */
+    public PKBulkPushResult sendPushNotifications(String passTypeIdentifier, Iterable<String> pushTokens, int maxInFlight)
+            throws InterruptedException {
+        return PKPushNotifications.sendAll(getClient(passTypeIdentifier), passTypeIdentifier, pushTokens, maxInFlight,
+                tokenInvalidationPublisher);
+    }
+
+    public PKBulkPushResult sendPushNotifications(String passTypeIdentifier, Stream<String> pushTokens, int maxInFlight)
+            throws InterruptedException {
+        Assert.notNull(pushTokens, "Push tokens are mandatory");
+        return sendPushNotifications(passTypeIdentifier, pushTokens::iterator, maxInFlight);
+    }
+
+    @Override
+    public void close() throws InterruptedException, ExecutionException {
+        for (ApnsClient client : clients) {
+            client.close().get();
+        }
+        clients.clear();
+        clientsByTopic.clear();
+        if (ownsEventLoopGroup) {
+            eventLoopGroup.shutdownGracefully().await();
+        }
+    }
+}
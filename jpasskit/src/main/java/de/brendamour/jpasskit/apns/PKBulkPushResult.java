@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+
+/**
+ * Outcome of {@link PKSendPushNotificationUtil#sendPushNotifications(Iterable, int)}: how many notifications APNs accepted, the
+ * number of responses per HTTP status, the rejected tokens with their reasons and the tokens that could not be sent at all.
+ */
+public final class PKBulkPushResult {
+
+    private final LongAdder acceptedCount = new LongAdder();
+    private final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+    private final Queue<PKPushRejection> rejections = new ConcurrentLinkedQueue<>();
+    private final Queue<String> failedPushTokens = new ConcurrentLinkedQueue<>();
+
+    PKBulkPushResult() {
+    }
+
+    // called concurrently from the threads completing the sends
+    void recordResponse(String topic, String pushToken, PushNotificationResponse<?> response) {
+        statusCounts.computeIfAbsent(response.getStatusCode(), status -> new LongAdder()).increment();
+        if (response.isAccepted()) {
+            acceptedCount.increment();
+        } else {
+            rejections.add(new PKPushRejection(topic, pushToken, response.getStatusCode(), response.getRejectionReason().orElse(null),
+                    response.getTokenInvalidationTimestamp().orElse(null)));
+        }
+    }
+
+    void recordFailure(String pushToken) {
+        failedPushTokens.add(pushToken);
+    }
+
+    /**
+     * @return the number of push tokens a notification was sent or attempted to be sent to
+     */
+    public long getTotalCount() {
+        return getAcceptedCount() + getRejectedCount() + getFailedCount();
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejections.size();
+    }
+
+    /**
+     * @return the number of notifications that got no response, e.g. because the connection was closed
+     */
+    public long getFailedCount() {
+        return failedPushTokens.size();
+    }
+
+    /**
+     * @return the number of responses per HTTP status, ordered by status
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        statusCounts.forEach((status, count) -> counts.put(status, count.sum()));
+        return counts;
+    }
+
+    public List<PKPushRejection> getRejections() {
+        return Collections.unmodifiableList(new ArrayList<>(rejections));
+    }
+
+    /**
+     * @return the push tokens that got no response, sending to them again may succeed
+     */
+    public List<String> getFailedPushTokens() {
+        return Collections.unmodifiableList(new ArrayList<>(failedPushTokens));
+    }
+
+    @Override
+    public String toString() {
+        return "PKBulkPushResult [accepted=" + getAcceptedCount() + ", rejected=" + getRejectedCount() + ", failed=" + getFailedCount()
+                + ", statusCounts=" + getStatusCounts() + "]";
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import com.eatthepath.pushy.apns.util.TokenUtil;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Collapses the push requests for the same device into one notification per window.
+ * <p>
+ * Wallet pushes carry no content, the device only asks the web service for updates. So when a pass changes several times within a
+ * few seconds, one push after the last change is as good as one per change. The first request for a push token and topic opens a
+ * window; requests for the same push token and topic until the window ends share its notification, which is sent when the window
+ * ends. A request therefore waits at most one window. Every notification carries an apns-collapse-id derived from the push token,
+ * so APNs keeps only the latest one if the device is offline.
+ * <p>
+ * Instances are thread safe. {@link #close()} sends the open windows before it returns.
+ */
+public class PKPushCoalescer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final IPKPushNotificationSender sender;
+    private final long windowMillis;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final ConcurrentMap<Key, Window> windows = new ConcurrentHashMap<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final AtomicLong requestedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong savedCount = new AtomicLong();
+
+    /**
+     * @param sender
+     *            sends the coalesced notifications, e.g. a {@link PKApnsClientRouter}
+     * @param window
+     *            how long requests for the same device are collected before the notification is sent
+     */
+    public PKPushCoalescer(IPKPushNotificationSender sender, Duration window) {
+        this(sender, window, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpasskit-push-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * @param scheduler
+     *            ends the windows; it is not shut down by {@link #close()}
+     */
+    public PKPushCoalescer(IPKPushNotificationSender sender, Duration window, ScheduledExecutorService scheduler) {
+        this(sender, window, scheduler, false);
+    }
+
+    private PKPushCoalescer(IPKPushNotificationSender sender, Duration window, ScheduledExecutorService scheduler, boolean ownsScheduler) {
+        Assert.notNull(sender, "Sender is mandatory");
+        Assert.notNull(window, "Window is mandatory");
+        Assert.isTrue(!window.isNegative() && !window.isZero(), "Window must be positive, but was %s", window);
+        Assert.notNull(scheduler, "Scheduler is mandatory");
+        this.sender = sender;
+        this.windowMillis = window.toMillis();
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    /**
+     * Requests a push notification for the device, to be sent when the current window of the push token and topic ends.
+     *
+     * @param topic
+     *            the pass type identifier
+     * @return completes with the response to the notification that covers this request, shared with the other requests of the
+     *         window
+     * @throws IllegalStateException
+     *             if the coalescer is closed
+     */
+    public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> requestPush(String topic, String pushToken) {
+        Assert.hasLength(topic, "Topic is mandatory");
+        Assert.hasLength(pushToken, "Push token is mandatory");
+        Assert.state(!closed.get(), "Push coalescer is closed");
+        requestedCount.incrementAndGet();
+
+        Key key = new Key(topic, TokenUtil.sanitizeTokenString(pushToken));
+        Window created = new Window(key);
+        Window window = windows.putIfAbsent(key, created);
+        if (window != null) {
+            savedCount.incrementAndGet();
+            return window.future;
+        }
+        if (closed.get()) {
+            // close() may have flushed before the window was added, and its scheduler would discard the task
+            send(created);
+            return created.future;
+        }
+        try {
+            scheduler.schedule(() -> send(created), windowMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler is gone, so do not leave the window open
+            send(created);
+        }
+        return created.future;
+    }
+
+    /**
+     * Sends the notifications of all open windows now.
+     */
+    public void flush() {
+        List<Window> open = new ArrayList<>(windows.values());
+        for (Window window : open) {
+            send(window);
+        }
+    }
+
+    /**
+     * @return the number of push requests received
+     */
+    public long getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /**
+     * @return the number of notifications handed to the sender
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of requests that joined the window of an earlier request instead of sending a notification of their own
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * @return the number of windows waiting to be sent
+     */
+    public int getPendingCount() {
+        return windows.size();
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        flush();
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+        LOGGER.debug("Closed push coalescer: {} requests, {} notifications sent, {} saved", requestedCount.get(), sentCount.get(),
+                savedCount.get());
+    }
+
+    private void send(Window window) {
+        // whoever removes the window sends it; requests after this open a new window
+        if (!windows.remove(window.key, window)) {
+            return;
+        }
+        sentCount.incrementAndGet();
+        SimpleApnsPushNotification notification = PKPushNotifications.newNotification(window.key.pushToken, window.key.topic,
+                collapseId(window.key.pushToken));
+        try {
+            sender.sendNotification(notification).whenComplete((response, cause) -> {
+                if (response != null) {
+                    window.future.complete(response);
+                } else {
+                    LOGGER.debug("Failed to send push notification for key: {}", window.key.pushToken, cause);
+                    window.future.completeExceptionally(cause);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.debug("Failed to send push notification for key: {}", window.key.pushToken, e);
+            window.future.completeExceptionally(e);
+        }
+    }
+
+    // APNs limits the collapse id to 64 bytes, which longer tokens would exceed
+    static String collapseId(String pushToken) {
+        return DigestUtils.sha1Hex(pushToken);
+    }
+
+    private static final class Key {
+        private final String topic;
+        private final String pushToken;
+
+        Key(String topic, String pushToken) {
+            this.topic = topic;
+            this.pushToken = pushToken;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return topic.equals(other.topic) && pushToken.equals(other.pushToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(topic, pushToken);
+        }
+    }
+
+    private static final class Window {
+        private final Key key;
+        private final CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = new CompletableFuture<>();
+
+        Window(Key key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+/**
+ * A push notification {@link PKPushScheduler} gave up on, with the outcome of its last attempt.
+ */
+public final class PKPushDeadLetter {
+
+    public enum Reason {
+        /** APNs answered with a retryable status or could not be reached on every attempt */
+        RETRIES_EXHAUSTED,
+        /** the notification reached the maximum age before it was accepted */
+        EXPIRED,
+        /** the scheduler was closed before the notification was accepted */
+        SHUTDOWN
+    }
+
+    private final SimpleApnsPushNotification notification;
+    private final Reason reason;
+    private final int attempts;
+    private final PushNotificationResponse<SimpleApnsPushNotification> lastResponse;
+    private final Throwable lastCause;
+
+    PKPushDeadLetter(SimpleApnsPushNotification notification, Reason reason, int attempts,
+            PushNotificationResponse<SimpleApnsPushNotification> lastResponse, Throwable lastCause) {
+        this.notification = notification;
+        this.reason = reason;
+        this.attempts = attempts;
+        this.lastResponse = lastResponse;
+        this.lastCause = lastCause;
+    }
+
+    public SimpleApnsPushNotification getNotification() {
+        return notification;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the number of times the notification was sent
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return the response to the last attempt, or null if it was not answered or no attempt was made
+     */
+    public PushNotificationResponse<SimpleApnsPushNotification> getLastResponse() {
+        return lastResponse;
+    }
+
+    /**
+     * @return why the last attempt could not be sent, or null if it was answered or no attempt was made
+     */
+    public Throwable getLastCause() {
+        return lastCause;
+    }
+
+    @Override
+    public String toString() {
+        return "PKPushDeadLetter [token=" + notification.getToken() + ", topic=" + notification.getTopic() + ", reason=" + reason
+                + ", attempts=" + attempts + ", lastStatusCode=" + (lastResponse != null ? lastResponse.getStatusCode() : null)
+                + ", lastCause=" + lastCause + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Instant;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.DeliveryPriority;
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import com.eatthepath.pushy.apns.util.TokenUtil;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Builds the Wallet update notifications and sends them in bulk, shared by the push utilities.
+ */
+final class PKPushNotifications {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final String EMPTY_PUSH_JSON_STRING = "{}";
+    // Wallet only needs the push to know it should ask for updates, so every notification has the same payload
+    static final String PAYLOAD = new SimpleApnsPayloadBuilder().setAlertBody(EMPTY_PUSH_JSON_STRING).build();
+
+    private PKPushNotifications() {
+    }
+
+    static SimpleApnsPushNotification newNotification(String pushToken, String topic) {
+        return new SimpleApnsPushNotification(TokenUtil.sanitizeTokenString(pushToken), topic, PAYLOAD);
+    }
+
+    static SimpleApnsPushNotification newNotification(String pushToken, String topic, String collapseId) {
+        return new SimpleApnsPushNotification(TokenUtil.sanitizeTokenString(pushToken), topic, PAYLOAD,
+                Instant.now().plus(SimpleApnsPushNotification.DEFAULT_EXPIRATION_PERIOD), DeliveryPriority.IMMEDIATE, collapseId);
+    }
+
+    // the future is returned as is, so callers still get the Pushy future type
+    static <F extends CompletionStage<? extends PushNotificationResponse<?>>> F observe(F future, String topic, String pushToken,
+            PKTokenInvalidationPublisher tokenInvalidationPublisher) {
+        if (tokenInvalidationPublisher != null) {
+            tokenInvalidationPublisher.observe(topic, pushToken, future);
+        }
+        return future;
+    }
+
+    static PKBulkPushResult sendAll(ApnsClient client, String topic, Iterable<String> pushTokens, int maxInFlight,
+            PKTokenInvalidationPublisher tokenInvalidationPublisher) throws InterruptedException {
+        Assert.notNull(pushTokens, "Push tokens are mandatory");
+        Assert.isTrue(maxInFlight > 0, "At least one notification must be allowed in flight");
+
+        PKBulkPushResult result = new PKBulkPushResult();
+        Semaphore window = new Semaphore(maxInFlight);
+        for (String pushToken : pushTokens) {
+            window.acquire();
+            try {
+                client.sendNotification(newNotification(pushToken, topic)).whenComplete((response, cause) -> {
+                    try {
+                        if (response != null) {
+                            result.recordResponse(topic, pushToken, response);
+                            if (tokenInvalidationPublisher != null) {
+                                tokenInvalidationPublisher.report(topic, pushToken, response);
+                            }
+                        } else {
+                            LOGGER.debug("Failed to send push notification for key: {}", pushToken, cause);
+                            result.recordFailure(pushToken);
+                        }
+                    } finally {
+                        window.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                window.release();
+                throw e;
+            }
+        }
+        // all permits are back once every notification is answered
+        window.acquire(maxInFlight);
+        LOGGER.debug("Sent push notifications for {}: {}", topic, result);
+        return result;
+    }
+}
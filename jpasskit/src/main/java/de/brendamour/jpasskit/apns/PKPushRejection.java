@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.time.Instant;
+
+/**
+ * A push notification APNs did not accept.
+ */
+public final class PKPushRejection {
+
+    private final String topic;
+    private final String pushToken;
+    private final int statusCode;
+    private final String reason;
+    private final Instant tokenInvalidationTimestamp;
+
+    public PKPushRejection(String pushToken, int statusCode, String reason, Instant tokenInvalidationTimestamp) {
+        this(null, pushToken, statusCode, reason, tokenInvalidationTimestamp);
+    }
+
+    public PKPushRejection(String topic, String pushToken, int statusCode, String reason, Instant tokenInvalidationTimestamp) {
+        this.topic = topic;
+        this.pushToken = pushToken;
+        this.statusCode = statusCode;
+        this.reason = reason;
+        this.tokenInvalidationTimestamp = tokenInvalidationTimestamp;
+    }
+
+    /**
+     * @return the topic (pass type identifier) of the notification, or null if the sender did not record it
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the push token as it was passed to the sender
+     */
+    public String getPushToken() {
+        return pushToken;
+    }
+
+    /**
+     * @return the HTTP status of the APNs response, e.g. 400 or 410
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the reason APNs gave, e.g. {@code BadDeviceToken} or {@code Unregistered}, or null
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return since when APNs considers the token invalid, only given with status 410, or null
+     */
+    public Instant getTokenInvalidationTimestamp() {
+        return tokenInvalidationTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "PKPushRejection [topic=" + topic + ", pushToken=" + pushToken + ", statusCode=" + statusCode + ", reason=" + reason
+                + ", tokenInvalidationTimestamp=" + tokenInvalidationTimestamp + "]";
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Sends push notifications at a limited rate per topic and retries the ones APNs could not take.
+ * <p>
+ * Every topic (pass type identifier) has a token bucket, see {@link #setRateLimit(double, int)}; notifications over the rate wait
+ * for their turn instead of being rejected by APNs. A notification answered with a retryable status ({@code TooManyRequests}, 500
+ * or 503), or one that could not be sent at all, e.g. because the connection dropped, is sent again after an exponential backoff
+ * with jitter. Other responses, accepted or not, complete the future returned by {@link #schedule(SimpleApnsPushNotification)}.
+ * <p>
+ * A notification is given up when it was sent the maximum number of times, when it is older than the maximum age or when the
+ * scheduler is closed. It is then handed to the {@link IPKPushDeadLetterSink}, and its future completes with the last response,
+ * or exceptionally if there was none.
+ * <p>
+ * The scheduler is itself an {@link IPKPushNotificationSender}, so a {@link PKPushCoalescer} can send through it.
+ */
+public class PKPushScheduler implements IPKPushNotificationSender, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int STATUS_SERVER_ERROR = 500;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+    private static final long INITIAL_BACKOFF_DEFAULT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BACKOFF_DEFAULT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    // keeps the shift of the backoff from overflowing
+    private static final int MAX_BACKOFF_DOUBLINGS = 30;
+
+    private final IPKPushNotificationSender sender;
+    private final long maxAgeNanos;
+    private final int maxAttempts;
+    private final ScheduledExecutorService scheduler;
+    private final Set<Job> waiting = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final ConcurrentMap<String, RateLimit> topicRateLimits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PKTokenBucket> buckets = new ConcurrentHashMap<>();
+    private volatile RateLimit defaultRateLimit;
+    private volatile long initialBackoffNanos = INITIAL_BACKOFF_DEFAULT_NANOS;
+    private volatile long maxBackoffNanos = MAX_BACKOFF_DEFAULT_NANOS;
+    private volatile IPKPushDeadLetterSink deadLetterSink = deadLetter -> LOGGER.warn("Gave up on push notification: {}", deadLetter);
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong deadLetteredCount = new AtomicLong();
+
+    /**
+     * Creates a scheduler without a rate limit, see {@link #setRateLimit(double, int)}.
+     *
+     * @param sender
+     *            sends the notifications, e.g. a {@link PKApnsClientRouter}
+     * @param maxAge
+     *            how long after it was scheduled a notification is still sent; Wallet only needs the latest push, so this can be
+     *            short
+     * @param maxAttempts
+     *            how often a notification is sent at most
+     */
+    public PKPushScheduler(IPKPushNotificationSender sender, Duration maxAge, int maxAttempts) {
+        Assert.notNull(sender, "Sender is mandatory");
+        Assert.notNull(maxAge, "Max age is mandatory");
+        Assert.isTrue(!maxAge.isNegative() && !maxAge.isZero(), "Max age must be positive, but was %s", maxAge);
+        Assert.isTrue(maxAttempts > 0, "At least one attempt must be allowed");
+        this.sender = sender;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.maxAttempts = maxAttempts;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpasskit-push-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Limits the notifications per topic, for all topics without a limit of their own.
+     *
+     * @param permitsPerSecond
+     *            sustained notifications per second and topic
+     * @param burst
+     *            notifications per topic that may be sent at once after a quiet period
+     */
+    public void setRateLimit(double permitsPerSecond, int burst) {
+        defaultRateLimit = new RateLimit(permitsPerSecond, burst);
+        buckets.clear();
+    }
+
+    /**
+     * Limits the notifications of one topic, e.g. for a pass type with a high volume.
+     */
+    public void setRateLimit(String topic, double permitsPerSecond, int burst) {
+        Assert.hasLength(topic, "Topic is mandatory");
+        topicRateLimits.put(topic, new RateLimit(permitsPerSecond, burst));
+        buckets.remove(topic);
+    }
+
+    /**
+     * Sets the backoff between attempts: it starts at {@code initial}, doubles with every attempt up to {@code max}, and a random
+     * part of up to half of it is taken off so retries of many notifications spread out. Defaults to 100 ms and 30 s.
+     */
+    public void setBackoff(Duration initial, Duration max) {
+        Assert.notNull(initial, "Initial backoff is mandatory");
+        Assert.notNull(max, "Max backoff is mandatory");
+        Assert.isTrue(!initial.isNegative() && !initial.isZero(), "Initial backoff must be positive, but was %s", initial);
+        Assert.isTrue(max.compareTo(initial) >= 0, "Max backoff must not be less than the initial backoff");
+        this.initialBackoffNanos = initial.toNanos();
+        this.maxBackoffNanos = max.toNanos();
+    }
+
+    /**
+     * Sets the sink for the notifications the scheduler gives up on. By default they are logged.
+     */
+    public void setDeadLetterSink(IPKPushDeadLetterSink deadLetterSink) {
+        Assert.notNull(deadLetterSink, "Dead letter sink is mandatory");
+        this.deadLetterSink = deadLetterSink;
+    }
+
+    /**
+     * Schedules a Wallet update notification for the push token.
+     *
+     * @param topic
+     *            the pass type identifier
+     */
+    public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> schedule(String topic, String pushToken) {
+        Assert.hasLength(topic, "Topic is mandatory");
+        Assert.hasLength(pushToken, "Push token is mandatory");
+        return schedule(PKPushNotifications.newNotification(pushToken, topic));
+    }
+
+    /**
+     * Sends the notification as soon as the rate limit of its topic allows, and again while APNs answers with a retryable status.
+     *
+     * @return completes with the final response to the notification
+     * @throws IllegalStateException
+     *             if the scheduler is closed
+     */
+    public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> schedule(SimpleApnsPushNotification notification) {
+        Assert.notNull(notification, "Notification is mandatory");
+        Assert.state(!closed.get(), "Push scheduler is closed");
+        Job job = new Job(notification, System.nanoTime());
+        attempt(job);
+        return job.future;
+    }
+
+    /**
+     * Same as {@link #schedule(SimpleApnsPushNotification)}.
+     */
+    @Override
+    public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(
+            SimpleApnsPushNotification notification) {
+        return schedule(notification);
+    }
+
+    /**
+     * @return true if APNs may take a notification answered with this status if it is sent again later
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == STATUS_TOO_MANY_REQUESTS || statusCode == STATUS_SERVER_ERROR || statusCode == STATUS_SERVICE_UNAVAILABLE;
+    }
+
+    /**
+     * @return the number of times notifications were handed to the sender, retries included
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of retries scheduled
+     */
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    /**
+     * @return the number of notifications given up on
+     */
+    public long getDeadLetteredCount() {
+        return deadLetteredCount.get();
+    }
+
+    /**
+     * @return the number of notifications waiting for the rate limit or a retry
+     */
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    /**
+     * Stops sending. Notifications still waiting, and those whose response would need a retry, are dead-lettered with
+     * {@link PKPushDeadLetter.Reason#SHUTDOWN}. The sender is not closed.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        List<Job> remaining = new ArrayList<>(waiting);
+        for (Job job : remaining) {
+            if (waiting.remove(job)) {
+                deadLetter(job, PKPushDeadLetter.Reason.SHUTDOWN);
+            }
+        }
+        LOGGER.debug("Closed push scheduler: {} sent, {} retried, {} dead-lettered", sentCount.get(), retriedCount.get(),
+                deadLetteredCount.get());
+    }
+
+    private void attempt(Job job) {
+        PKTokenBucket bucket = bucket(job.notification.getTopic());
+        long remainingNanos = maxAgeNanos - (System.nanoTime() - job.scheduledNanos);
+        // an expiring notification must not keep its permit, or a burst delays the notifications after it far beyond the rate
+        long waitNanos = remainingNanos < 0 ? -1 : bucket != null ? bucket.tryReserve(remainingNanos) : 0;
+        if (waitNanos < 0) {
+            deadLetter(job, PKPushDeadLetter.Reason.EXPIRED);
+        } else if (waitNanos > 0) {
+            job.permitReserved = true;
+            enqueue(job, waitNanos);
+        } else {
+            send(job);
+        }
+    }
+
+    private void send(Job job) {
+        job.permitReserved = false;
+        job.attempts++;
+        sentCount.incrementAndGet();
+        try {
+            sender.sendNotification(job.notification).whenComplete((response, cause) -> handleResult(job, response, cause));
+        } catch (RuntimeException e) {
+            handleResult(job, null, e);
+        }
+    }
+
+    private void handleResult(Job job, PushNotificationResponse<SimpleApnsPushNotification> response, Throwable cause) {
+        if (response != null && !isRetryable(response.getStatusCode())) {
+            job.future.complete(response);
+            return;
+        }
+        job.lastResponse = response;
+        job.lastCause = response == null ? cause : null;
+        if (job.attempts >= maxAttempts) {
+            deadLetter(job, PKPushDeadLetter.Reason.RETRIES_EXHAUSTED);
+            return;
+        }
+        long backoffNanos = backoffNanos(job.attempts);
+        if (System.nanoTime() + backoffNanos - job.scheduledNanos > maxAgeNanos) {
+            deadLetter(job, PKPushDeadLetter.Reason.EXPIRED);
+            return;
+        }
+        retriedCount.incrementAndGet();
+        LOGGER.debug("Retrying push notification for key: {} in {} ms", job.notification.getToken(),
+                TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+        enqueue(job, backoffNanos);
+    }
+
+    private void enqueue(Job job, long delayNanos) {
+        waiting.add(job);
+        try {
+            scheduler.schedule(() -> {
+                if (!waiting.remove(job)) {
+                    return;
+                }
+                if (job.permitReserved) {
+                    send(job);
+                } else {
+                    attempt(job);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            if (waiting.remove(job)) {
+                deadLetter(job, PKPushDeadLetter.Reason.SHUTDOWN);
+            }
+        }
+    }
+
+    long backoffNanos(int attempts) {
+        long initial = initialBackoffNanos;
+        long max = maxBackoffNanos;
+        int doublings = Math.min(attempts - 1, MAX_BACKOFF_DOUBLINGS);
+        long backoff = initial > (max >> doublings) ? max : initial << doublings;
+        long half = backoff / 2;
+        return backoff - ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private PKTokenBucket bucket(String topic) {
+        RateLimit rateLimit = topicRateLimits.getOrDefault(topic, defaultRateLimit);
+        if (rateLimit == null) {
+            return null;
+        }
+        return buckets.computeIfAbsent(topic, key -> new PKTokenBucket(rateLimit.permitsPerSecond, rateLimit.burst, System::nanoTime));
+    }
+
+    private void deadLetter(Job job, PKPushDeadLetter.Reason reason) {
+        deadLetteredCount.incrementAndGet();
+        PKPushDeadLetter deadLetter = new PKPushDeadLetter(job.notification, reason, job.attempts, job.lastResponse, job.lastCause);
+        try {
+            deadLetterSink.deadLettered(deadLetter);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Dead letter sink failed for {}", deadLetter, e);
+        }
+        if (job.lastResponse != null) {
+            job.future.complete(job.lastResponse);
+        } else {
+            job.future.completeExceptionally(job.lastCause != null ? job.lastCause
+                    : new IllegalStateException("Gave up on push notification: " + reason));
+        }
+    }
+
+    private static final class RateLimit {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        RateLimit(double permitsPerSecond, int burst) {
+            Assert.isTrue(permitsPerSecond > 0, "Rate must be positive, but was %s", permitsPerSecond);
+            Assert.isTrue(burst > 0, "Burst must be positive, but was %s", burst);
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    // changed by one thread at a time, the scheduler and the futures hand it over
+    private static final class Job {
+        private final SimpleApnsPushNotification notification;
+        private final long scheduledNanos;
+        private final CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = new CompletableFuture<>();
+        private int attempts;
+        private boolean permitReserved;
+        private PushNotificationResponse<SimpleApnsPushNotification> lastResponse;
+        private Throwable lastCause;
+
+        Job(SimpleApnsPushNotification notification, long scheduledNanos) {
+            this.notification = notification;
+            this.scheduledNanos = scheduledNanos;
+        }
+    }
+}
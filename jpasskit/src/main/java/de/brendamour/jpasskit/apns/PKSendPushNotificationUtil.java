@@ -18,10 +18,7 @@ package de.brendamour.jpasskit.apns;
 import com.eatthepath.pushy.apns.ApnsClient;
 import com.eatthepath.pushy.apns.ApnsClientBuilder;
 import com.eatthepath.pushy.apns.PushNotificationResponse;
-import com.eatthepath.pushy.apns.util.ApnsPayloadBuilder;
-import com.eatthepath.pushy.apns.util.SimpleApnsPayloadBuilder;
 import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
-import com.eatthepath.pushy.apns.util.TokenUtil;
 import com.eatthepath.pushy.apns.util.concurrent.PushNotificationFuture;
 import de.brendamour.jpasskit.util.Assert;
 import de.brendamour.jpasskit.util.CertUtils;
@@ -38,21 +35,23 @@ import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
 
-public class PKSendPushNotificationUtil implements AutoCloseable {
+public class PKSendPushNotificationUtil implements IPKPushNotificationSender, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-    private static final String EMPTY_PUSH_JSON_STRING = "{}";
     private static final int POOL_SIZE_DEFAULT = 10;
 
     private ApnsClient client;
-    private final Set<String> topics;
+    private final String topic;
+    private volatile PKTokenInvalidationPublisher tokenInvalidationPublisher;
 
     public PKSendPushNotificationUtil(String keyStorePath, char[] keyStorePassword) throws IOException {
         this(keyStorePath, keyStorePassword, POOL_SIZE_DEFAULT);
     }
 
     public PKSendPushNotificationUtil(String keyStorePath, char[] keyStorePassword, int poolSize) throws IOException {
+        Set<String> topics;
         try (InputStream keyStoreInputStream = CertUtils.toInputStream(keyStorePath)) {
             KeyStore keyStore = CertUtils.toKeyStore(keyStoreInputStream, keyStorePassword);
             Pair<PrivateKey, X509Certificate> certificate = CertUtils.extractCertificateWithKey(keyStore, keyStorePassword);
@@ -60,36 +59,77 @@ public class PKSendPushNotificationUtil implements AutoCloseable {
                     .setClientCredentials(certificate.getRight(), certificate.getLeft(), String.valueOf(keyStorePassword))
                     .setConcurrentConnections(poolSize)
                     .build();
-            this.topics = CertUtils.extractApnsTopics(certificate.getRight());
+            topics = CertUtils.extractApnsTopics(certificate.getRight());
         } catch (CertificateException ex) {
             throw new IOException("Failed to load keystore from " + keyStorePath);
         }
+        this.topic = selectTopic(topics);
+    }
+
+    private static String selectTopic(Set<String> topics) {
+        if (topics.isEmpty()) {
+            return null;
+        }
+        String topic = topics.iterator().next();
+        if (topics.size() > 1) {
+            LOGGER.warn("Multiple APNS topics detected, using {} (first value out of {} available) for sending push notifications", topic, topics.size());
+        }
+        return topic;
     }
 
     public void setClient(ApnsClient client) {
         this.client = client;
     }
 
+    /**
+     * Sets the publisher that is told about the push tokens APNs reports as invalid, or null to ignore them. The publisher is not
+     * closed with this util.
+     */
+    public void setTokenInvalidationPublisher(PKTokenInvalidationPublisher tokenInvalidationPublisher) {
+        this.tokenInvalidationPublisher = tokenInvalidationPublisher;
+    }
+
     public PushNotificationFuture<SimpleApnsPushNotification, PushNotificationResponse<SimpleApnsPushNotification>> sendPushNotificationAsync(final String pushtoken) {
 
         LOGGER.debug("Sending Push notification for key: {}", pushtoken);
+        Assert.state(this.topic != null, "APNS topic is required for sending a push notification");
+        return PKPushNotifications.observe(client.sendNotification(PKPushNotifications.newNotification(pushtoken, topic)), topic, pushtoken,
+                tokenInvalidationPublisher);
+    }
 
-        final ApnsPayloadBuilder payloadBuilder = new SimpleApnsPayloadBuilder();
-        payloadBuilder.setAlertBody(EMPTY_PUSH_JSON_STRING);
-
-        final String payload = payloadBuilder.build();
-        final String token = TokenUtil.sanitizeTokenString(pushtoken);
-        Assert.state(!this.topics.isEmpty(), "APNS topic is required for sending a push notification");
-        String topic = null;
-        if (!this.topics.isEmpty()) {
-            topic = this.topics.iterator().next();
-            if (this.topics.size() > 1) {
-                LOGGER.warn("Multiple APNS topics detected, using {} (first value out of {} available) for sending a push notification", topic, this.topics.size());
-            }
-        }
-        SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(token, topic, payload);
-        LOGGER.debug("Send Push notification for key: {}", pushtoken);
-        return client.sendNotification(pushNotification);
+    /**
+     * Sends a notification prepared by the caller, e.g. with a collapse id, with the client of this util.
+     */
+    @Override
+    public PushNotificationFuture<SimpleApnsPushNotification, PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(
+            SimpleApnsPushNotification notification) {
+        return PKPushNotifications.observe(client.sendNotification(notification), notification.getTopic(), notification.getToken(),
+                tokenInvalidationPublisher);
+    }
+
+    /**
+     * Sends a push notification to every token, with at most {@code maxInFlight} notifications waiting for their response at any
+     * time. Blocks until all notifications are answered, the calling thread waits while the window is full.
+     *
+     * @param pushTokens
+     *            the tokens to notify, read one at a time as the window allows
+     * @param maxInFlight
+     *            maximum number of notifications sent but not yet answered
+     * @return the responses counted per status, with the rejected tokens
+     * @throws InterruptedException
+     *             if interrupted while waiting; the notifications already sent are still delivered
+     */
+    public PKBulkPushResult sendPushNotifications(Iterable<String> pushTokens, int maxInFlight) throws InterruptedException {
+        Assert.state(this.topic != null, "APNS topic is required for sending a push notification");
+        return PKPushNotifications.sendAll(client, topic, pushTokens, maxInFlight, tokenInvalidationPublisher);
+    }
+
+    /**
+     * Streaming variant of {@link #sendPushNotifications(Iterable, int)}, the stream is consumed as the window allows.
+     */
+    public PKBulkPushResult sendPushNotifications(Stream<String> pushTokens, int maxInFlight) throws InterruptedException {
+        Assert.notNull(pushTokens, "Push tokens are mandatory");
+        return sendPushNotifications(pushTokens::iterator, maxInFlight);
     }
 
     @Override
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Token bucket that hands out reservations instead of blocking: a caller takes a permit and learns how long to wait before using it.
+ * The bucket starts full, so up to {@code burst} permits are available at once.
+ */
+final class PKTokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final LongSupplier nanoClock;
+    // negative while permits are reserved ahead of time
+    private double available;
+    private long lastRefillNanos;
+
+    PKTokenBucket(double permitsPerSecond, int burst, LongSupplier nanoClock) {
+        Assert.isTrue(permitsPerSecond > 0, "Rate must be positive, but was %s", permitsPerSecond);
+        Assert.isTrue(burst > 0, "Burst must be positive, but was %s", burst);
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.nanoClock = nanoClock;
+        this.available = burst;
+        this.lastRefillNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Takes one permit.
+     *
+     * @return the nanoseconds to wait before the permit may be used, 0 if it may be used now
+     */
+    long reserve() {
+        return tryReserve(Long.MAX_VALUE);
+    }
+
+    /**
+     * Takes one permit, unless it could only be used after more than {@code maxWaitNanos}. A caller that would give up waiting must not
+     * take the permit: it would delay every later reservation by the time of a permit it never uses.
+     *
+     * @return the nanoseconds to wait before the permit may be used, 0 if it may be used now, or -1 if no permit was taken
+     */
+    synchronized long tryReserve(long maxWaitNanos) {
+        long now = nanoClock.getAsLong();
+        available = Math.min(burst, available + (now - lastRefillNanos) * permitsPerNano);
+        lastRefillNanos = now;
+        long waitNanos = available >= 1 ? 0 : (long) Math.ceil((1 - available) / permitsPerNano);
+        if (waitNanos > maxWaitNanos) {
+            return -1;
+        }
+        available -= 1;
+        return waitNanos;
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.lang.invoke.MethodHandles;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Picks the responses that mark a push token as invalid and hands them to an {@link IPKTokenInvalidationListener} in batches.
+ * <p>
+ * A token is invalid if APNs answers with status 410 ({@code Unregistered}, {@code ExpiredToken}) or rejects it as
+ * {@code BadDeviceToken} or {@code DeviceTokenNotForTopic}. Other rejections, e.g. {@code TooManyRequests}, say nothing about the
+ * token and are ignored. A batch is delivered when it reaches the batch size or at the latest after the maximum delay, on a single
+ * thread, so the listener does not need to be thread safe.
+ * <p>
+ * Set the publisher on {@link PKSendPushNotificationUtil} or {@link PKApnsClientRouter} to have their responses checked, or report
+ * responses with {@link #report(String, String, PushNotificationResponse)}. Call {@link #close()} on shutdown to deliver the last
+ * batch.
+ */
+public class PKTokenInvalidationPublisher implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final Set<String> INVALID_TOKEN_REASONS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("BadDeviceToken", "DeviceTokenNotForTopic", "Unregistered", "ExpiredToken")));
+    private static final int STATUS_GONE = 410;
+
+    private final IPKTokenInvalidationListener listener;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Object deliveryLock = new Object();
+    // keyed by topic and token, so a token rejected by many notifications is reported once per batch
+    private Map<String, PKPushRejection> pending = new LinkedHashMap<>();
+
+    private final AtomicLong reportedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedBatchCount = new AtomicLong();
+
+    /**
+     * @param batchSize
+     *            number of invalid tokens that are delivered together
+     * @param maxDelay
+     *            how long an invalid token waits at most for its batch to fill
+     */
+    public PKTokenInvalidationPublisher(IPKTokenInvalidationListener listener, int batchSize, Duration maxDelay) {
+        Assert.notNull(listener, "Listener is mandatory");
+        Assert.isTrue(batchSize > 0, "Batch size must be positive, but was %s", batchSize);
+        Assert.notNull(maxDelay, "Max delay is mandatory");
+        Assert.isTrue(!maxDelay.isNegative() && !maxDelay.isZero(), "Max delay must be positive, but was %s", maxDelay);
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jpasskit-token-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long delayMillis = maxDelay.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return true if the response says the token of the notification is invalid and should not be used again
+     */
+    public static boolean isTokenInvalid(PushNotificationResponse<?> response) {
+        if (response == null || response.isAccepted()) {
+            return false;
+        }
+        return response.getStatusCode() == STATUS_GONE || response.getRejectionReason().map(INVALID_TOKEN_REASONS::contains).orElse(false);
+    }
+
+    /**
+     * Queues the token for the listener if the response says it is invalid.
+     *
+     * @param topic
+     *            the topic (pass type identifier) the notification was sent to
+     * @param pushToken
+     *            the push token as the device registered it
+     * @return true if the token was invalid
+     */
+    public boolean report(String topic, String pushToken, PushNotificationResponse<?> response) {
+        if (!isTokenInvalid(response)) {
+            return false;
+        }
+        PKPushRejection rejection = new PKPushRejection(topic, pushToken, response.getStatusCode(), response.getRejectionReason().orElse(null),
+                response.getTokenInvalidationTimestamp().orElse(null));
+        reportedCount.incrementAndGet();
+        boolean full;
+        synchronized (this) {
+            pending.put(topic + '\n' + pushToken, rejection);
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            try {
+                scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                flush();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the response to the notification once it arrives, see {@link #report(String, String, PushNotificationResponse)}.
+     * Notifications that could not be sent say nothing about the token and are ignored.
+     */
+    public void observe(String topic, String pushToken, CompletionStage<? extends PushNotificationResponse<?>> response) {
+        response.whenComplete((result, cause) -> {
+            if (result != null) {
+                report(topic, pushToken, result);
+            }
+        });
+    }
+
+    /**
+     * Delivers the invalid tokens collected so far.
+     */
+    public void flush() {
+        synchronized (deliveryLock) {
+            List<PKPushRejection> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending = new LinkedHashMap<>();
+            }
+            try {
+                listener.tokensInvalidated(batch);
+                deliveredCount.addAndGet(batch.size());
+            } catch (Exception e) {
+                failedBatchCount.incrementAndGet();
+                LOGGER.warn("Failed to handle {} invalid push tokens", batch.size(), e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of invalid token responses reported, including repeated ones
+     */
+    public long getReportedCount() {
+        return reportedCount.get();
+    }
+
+    /**
+     * @return the number of invalid tokens the listener handled
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return the number of batches the listener failed on
+     */
+    public long getFailedBatchCount() {
+        return failedBatchCount.get();
+    }
+
+    /**
+     * Stops the scheduled deliveries and delivers the tokens still queued.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        // cancels the scheduled deliveries, a delivery in progress finishes before the final flush starts
+        scheduler.shutdown();
+        flush();
+    }
+}
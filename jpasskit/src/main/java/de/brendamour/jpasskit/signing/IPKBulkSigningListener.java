@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import de.brendamour.jpasskit.PKPass;
+
+/**
+ * Receives the results of {@link PKBulkSigningUtil}. Methods are called from the worker threads as soon as a pass is done, so
+ * implementations must be thread-safe.
+ */
+public interface IPKBulkSigningListener {
+
+    /**
+     * @param pass
+     *            the pass that was signed
+     * @param signedAndZippedPkPassArchive
+     *            the signed and zipped .pkpass file
+     */
+    void onPassSigned(PKPass pass, byte[] signedAndZippedPkPassArchive);
+
+    /**
+     * @param pass
+     *            the pass that could not be signed
+     * @param exception
+     *            the reason
+     */
+    void onPassFailed(PKPass pass, PKSigningException exception);
+}
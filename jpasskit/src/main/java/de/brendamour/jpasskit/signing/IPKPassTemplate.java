@@ -18,6 +18,7 @@ package de.brendamour.jpasskit.signing;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Map;
 
 public interface IPKPassTemplate {
@@ -33,4 +34,32 @@ public interface IPKPassTemplate {
     void provisionPassAtDirectory(File tempPassDir) throws IOException;
 
     Map<String, ByteBuffer> getAllFiles() throws IOException;
+
+    /**
+     * Returns the hex encoded SHA-1 digests of the template files, keyed by the same paths as {@link #getAllFiles()}.
+     * <p>
+     * Templates that know their content upfront should compute the digests once, so that only the per-pass files need to be hashed
+     * when the manifest is created. Files without a digest in the returned map are hashed by the signing util.
+     *
+     * @return precomputed digests, an empty map if none are available
+     * @throws IOException
+     *             if anything goes wrong while reading the files
+     */
+    default Map<String, String> getAllFileDigests() throws IOException {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Returns the files and their digests as one consistent pair. The signing utils read the template through this method, so the
+     * manifest always describes the files that end up in the archive.
+     * <p>
+     * The default implementation calls {@link #getAllFiles()} and {@link #getAllFileDigests()} one after the other. Templates whose
+     * files can change while passes are signed must override it and return both from the same state.
+     *
+     * @throws IOException
+     *             if anything goes wrong while reading the files
+     */
+    default PKPassTemplateSnapshot getSnapshot() throws IOException {
+        return new PKPassTemplateSnapshot(getAllFiles(), getAllFileDigests());
+    }
 }
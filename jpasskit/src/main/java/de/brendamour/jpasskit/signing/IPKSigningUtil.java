@@ -19,6 +19,8 @@ import de.brendamour.jpasskit.PKPass;
 import de.brendamour.jpasskit.personalization.PKPersonalization;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 public interface IPKSigningUtil {
 
@@ -92,6 +94,88 @@ public interface IPKSigningUtil {
     void createSignedAndZippedPersonalizedPkPassArchiveStream(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
             PKSigningInformation signingInformation, OutputStream outputStream) throws PKSigningException;
 
+    /**
+     * Creates a signed and zipped pass using a template, without copying the archive into a new array
+     *
+     * @param pass
+     *            The pass to sign
+     * @param passTemplate
+     *            A {@link IPKPassTemplate} object
+     * @param signingInformation
+     *            A {@link PKSigningInformation} object containing the signing info
+     * @return a buffer containing the signed and zipped .pkpass file, backed by an array that may be larger than the archive
+     * @throws PKSigningException
+     *             will throw any underlying exception in case something goes wrong (i.e. template not found)
+     */
+    default ByteBuffer createSignedAndZippedPkPassArchiveBuffer(PKPass pass, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation) throws PKSigningException {
+        return createSignedAndZippedPersonalizedPkPassArchiveBuffer(pass, null, passTemplate, signingInformation);
+    }
+
+    /**
+     * Creates a signed and zipped personalized pass using a template, without copying the archive into a new array
+     *
+     * @param pass
+     *            The pass to sign
+     * @param personalization
+     *            Personalization info, may be null
+     * @param passTemplate
+     *            A {@link IPKPassTemplate} object
+     * @param signingInformation
+     *            A {@link PKSigningInformation} object containing the signing info
+     * @return a buffer containing the signed and zipped .pkpass file, backed by an array that may be larger than the archive
+     * @throws PKSigningException
+     *             will throw any underlying exception in case something goes wrong (i.e. template not found)
+     */
+    default ByteBuffer createSignedAndZippedPersonalizedPkPassArchiveBuffer(PKPass pass, PKPersonalization personalization,
+            IPKPassTemplate passTemplate, PKSigningInformation signingInformation) throws PKSigningException {
+        PKArchiveOutputStream.Buffer outputStream = new PKArchiveOutputStream.Buffer();
+        createSignedAndZippedPersonalizedPkPassArchiveStream(pass, personalization, passTemplate, signingInformation, outputStream);
+        return outputStream.toByteBuffer();
+    }
+
+    /**
+     * Creates a signed and zipped pass using a template and writes it to the provided channel, e.g. a {@link java.nio.channels.FileChannel}
+     *
+     * @param pass
+     *            The pass to sign
+     * @param passTemplate
+     *            A {@link IPKPassTemplate} object
+     * @param signingInformation
+     *            A {@link PKSigningInformation} object containing the signing info
+     * @param channel
+     *            A blocking channel to write the signed and zipped .pkpass file to, it is not closed
+     * @throws PKSigningException
+     *             will throw any underlying exception in case something goes wrong (i.e. template not found)
+     */
+    default void createSignedAndZippedPkPassArchiveChannel(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation,
+            WritableByteChannel channel) throws PKSigningException {
+        createSignedAndZippedPersonalizedPkPassArchiveChannel(pass, null, passTemplate, signingInformation, channel);
+    }
+
+    /**
+     * Creates a signed and zipped personalized pass using a template and writes it to the provided channel, e.g. a
+     * {@link java.nio.channels.FileChannel}
+     *
+     * @param pass
+     *            The pass to sign
+     * @param personalization
+     *            Personalization info, may be null
+     * @param passTemplate
+     *            A {@link IPKPassTemplate} object
+     * @param signingInformation
+     *            A {@link PKSigningInformation} object containing the signing info
+     * @param channel
+     *            A blocking channel to write the signed and zipped .pkpass file to, it is not closed
+     * @throws PKSigningException
+     *             will throw any underlying exception in case something goes wrong (i.e. template not found)
+     */
+    default void createSignedAndZippedPersonalizedPkPassArchiveChannel(PKPass pass, PKPersonalization personalization,
+            IPKPassTemplate passTemplate, PKSigningInformation signingInformation, WritableByteChannel channel) throws PKSigningException {
+        createSignedAndZippedPersonalizedPkPassArchiveStream(pass, personalization, passTemplate, signingInformation,
+                new PKArchiveOutputStream.Channel(channel));
+    }
+
     /**
      * Sign the manifest file
      *
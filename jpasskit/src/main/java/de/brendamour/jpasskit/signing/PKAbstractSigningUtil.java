@@ -17,29 +17,25 @@ package de.brendamour.jpasskit.signing;
 
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import java.io.File;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
 import de.brendamour.jpasskit.util.Assert;
-import de.brendamour.jpasskit.util.CertUtils;
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.DERSet;
-import org.bouncycastle.asn1.DERUTCTime;
-import org.bouncycastle.asn1.cms.AttributeTable;
-import org.bouncycastle.asn1.cms.CMSAttributes;
-import org.bouncycastle.asn1.x509.Attribute;
-import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
 import org.bouncycastle.cms.CMSProcessableByteArray;
-import org.bouncycastle.cms.CMSSignedData;
-import org.bouncycastle.cms.CMSSignedDataGenerator;
 import org.bouncycastle.cms.CMSTypedData;
-import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
-import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
-import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
@@ -50,6 +46,8 @@ import com.fasterxml.jackson.databind.util.StdDateFormat;
 
 public abstract class PKAbstractSigningUtil implements IPKSigningUtil {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
     protected static final String MANIFEST_JSON_FILE_NAME = "manifest.json";
     protected static final String PASS_JSON_FILE_NAME = "pass.json";
     protected static final String PERSONALIZATION_JSON_FILE_NAME = "personalization.json";
@@ -57,6 +55,8 @@ public abstract class PKAbstractSigningUtil implements IPKSigningUtil {
 
     protected ObjectWriter objectWriter;
 
+    private volatile boolean reuseBuffers;
+
     protected PKAbstractSigningUtil(ObjectMapper objectMapper) {
         this.objectWriter = configureObjectMapper(objectMapper);
     }
@@ -81,43 +81,7 @@ public abstract class PKAbstractSigningUtil implements IPKSigningUtil {
         Assert.notNull(signingInformation, "Signing information is mandatory");
         Assert.isTrue(signingInformation.isValid(), "Signing information is incomplete");
 
-        try {
-            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
-            ContentSigner sha1Signer = new JcaContentSignerBuilder("SHA1withRSA")
-                    .setProvider(CertUtils.getProviderName())
-                    .build(signingInformation.getSigningPrivateKey());
-
-            final ASN1EncodableVector signedAttributes = new ASN1EncodableVector();
-            final Attribute signingAttribute = new Attribute(CMSAttributes.signingTime, new DERSet(new DERUTCTime(new Date())));
-            signedAttributes.add(signingAttribute);
-
-            // Create the signing table
-            final AttributeTable signedAttributesTable = new AttributeTable(signedAttributes);
-            // Create the table table generator that will added to the Signer builder
-            final DefaultSignedAttributeTableGenerator signedAttributeGenerator = new DefaultSignedAttributeTableGenerator(signedAttributesTable);
-
-            generator.addSignerInfoGenerator(
-                    new JcaSignerInfoGeneratorBuilder(
-                            new JcaDigestCalculatorProviderBuilder()
-                                    .setProvider(CertUtils.getProviderName())
-                                    .build())
-                            .setSignedAttributeGenerator(signedAttributeGenerator)
-                            .build(sha1Signer, signingInformation.getSigningCert())
-            );
-
-            List<X509Certificate> certList = new ArrayList<X509Certificate>();
-            certList.add(signingInformation.getAppleWWDRCACert());
-            certList.add(signingInformation.getSigningCert());
-
-            JcaCertStore certs = new JcaCertStore(certList);
-
-            generator.addCertificates(certs);
-
-            CMSSignedData sigData = generator.generate(content, false);
-            return sigData.getEncoded();
-        } catch (Exception e) {
-            throw new PKSigningException("Error when signing manifest", e);
-        }
+        return PKSignerContext.forSigningInformation(signingInformation).sign(content);
     }
 
     protected ObjectWriter configureObjectMapper(final ObjectMapper jsonObjectMapper) {
@@ -137,4 +101,186 @@ public abstract class PKAbstractSigningUtil implements IPKSigningUtil {
 
         return relativePathOfFile;
     }
+
+    /**
+     * Enables reuse of the buffers used while creating archives: the per-pass JSON files, the manifest, the maps of files and digests,
+     * the deflater and the ZIP staging array are taken from a small pool shared by all instances instead of being allocated for every
+     * pass. This lowers the allocation rate (and with it the GC pressure) when many passes are created. The buffers are size-bounded,
+     * those that grew beyond 1 MB for an unusually large pass are not kept.
+     * <p>
+     * With reuse enabled the manifest is signed through {@link #signManifestUsingContent(PKSigningInformation, CMSTypedData)} without
+     * copying it, so overrides of {@link #signManifestFile(byte[], PKSigningInformation)} are not used. Disabled by default.
+     */
+    public void setReuseBuffers(boolean reuseBuffers) {
+        this.reuseBuffers = reuseBuffers;
+    }
+
+    public boolean isReuseBuffers() {
+        return reuseBuffers;
+    }
+
+    /**
+     * Creates the archive from the files of the template without touching the file system: the per-pass JSON files are serialized in
+     * memory, the manifest uses the digests precomputed by the template where available, and the ZIP entries are written straight to
+     * the output stream.
+     */
+    protected void writeSignedAndZippedPkPassArchive(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, OutputStream outputStream) throws PKSigningException {
+        Assert.notNull(passTemplate, "Pass template is mandatory");
+        PKSigningScratch scratch = reuseBuffers ? PKSigningScratch.acquire() : null;
+        try {
+            writeSignedAndZippedPkPassArchive(pass, personalization, passTemplate, signingInformation, outputStream, scratch);
+        } finally {
+            if (scratch != null) {
+                scratch.release();
+            }
+        }
+    }
+
+    private void writeSignedAndZippedPkPassArchive(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, OutputStream outputStream, PKSigningScratch scratch) throws PKSigningException {
+        Map<String, ByteBuffer> allFiles = scratch != null ? scratch.getFiles() : new HashMap<>();
+        Map<String, String> templateFileDigests;
+        try {
+            PKPassTemplateSnapshot templateSnapshot = passTemplate.getSnapshot();
+            allFiles.putAll(templateSnapshot.getFiles());
+            templateFileDigests = templateSnapshot.getFileDigests();
+        } catch (IOException e) {
+            throw new PKSigningException("Error when getting files from template", e);
+        }
+
+        // per-pass files are hashed and checksummed while they are serialized
+        Map<String, PKDigestingOutputStream> generatedFiles = scratch != null ? scratch.getGeneratedFiles() : new HashMap<>();
+        PKDigestingOutputStream passJSONFile = writeJSONFile(PASS_JSON_FILE_NAME, pass,
+                scratch != null ? scratch.getPassJSONFile() : new PKDigestingOutputStream());
+        generatedFiles.put(PASS_JSON_FILE_NAME, passJSONFile);
+        allFiles.put(PASS_JSON_FILE_NAME, passJSONFile.toByteBuffer());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("passJSONFile: {}", passJSONFile.toString(StandardCharsets.UTF_8));
+        }
+
+        if (personalization != null) {
+            PKDigestingOutputStream personalizationJSONFile = writeJSONFile(PERSONALIZATION_JSON_FILE_NAME, personalization,
+                    scratch != null ? scratch.getPersonalizationJSONFile() : new PKDigestingOutputStream());
+            generatedFiles.put(PERSONALIZATION_JSON_FILE_NAME, personalizationJSONFile);
+            allFiles.put(PERSONALIZATION_JSON_FILE_NAME, personalizationJSONFile.toByteBuffer());
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("personalizationJSONFile: {}", personalizationJSONFile.toString(StandardCharsets.UTF_8));
+            }
+        }
+
+        Map<String, String> fileWithHashMap = hashFiles(allFiles, templateFileDigests, generatedFiles,
+                scratch != null ? scratch.getManifest() : new HashMap<>());
+        PKDigestingOutputStream manifestJSONFile = writeJSONFile(MANIFEST_JSON_FILE_NAME, fileWithHashMap,
+                scratch != null ? scratch.getManifestJSONFile() : new PKDigestingOutputStream());
+        generatedFiles.put(MANIFEST_JSON_FILE_NAME, manifestJSONFile);
+        allFiles.put(MANIFEST_JSON_FILE_NAME, manifestJSONFile.toByteBuffer());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("manifestJSONFile: {}", manifestJSONFile.toString(StandardCharsets.UTF_8));
+        }
+
+        byte[] signature = scratch != null
+                ? signManifestUsingContent(signingInformation, new ByteBufferContent(manifestJSONFile.toByteBuffer()))
+                : signManifestFile(manifestJSONFile.toByteArray(), signingInformation);
+        allFiles.put(SIGNATURE_FILE_NAME, ByteBuffer.wrap(signature));
+
+        createZippedPassAndWriteToStream(allFiles, generatedFiles, passTemplate, outputStream, scratch);
+    }
+
+    private PKDigestingOutputStream writeJSONFile(String fileName, Object value, PKDigestingOutputStream outputStream)
+            throws PKSigningException {
+        try {
+            objectWriter.writeValue(outputStream, value);
+            return outputStream;
+        } catch (IOException e) {
+            throw new PKSigningException("Error when writing " + fileName, e);
+        }
+    }
+
+    private Map<String, String> hashFiles(Map<String, ByteBuffer> files, Map<String, String> templateFileDigests,
+            Map<String, PKDigestingOutputStream> generatedFiles, Map<String, String> fileWithHashMap) {
+        for (Entry<String, ByteBuffer> passResourceFile : files.entrySet()) {
+            String fileName = passResourceFile.getKey();
+            String hash;
+            PKDigestingOutputStream generatedFile = generatedFiles.get(fileName);
+            if (generatedFile != null) {
+                hash = generatedFile.getSha1Hex();
+            } else {
+                // the per-pass files replace whatever the template contains under the same name
+                hash = isPassSpecificFile(fileName) ? null : templateFileDigests.get(fileName);
+                if (hash == null) {
+                    hash = PKFileDigests.sha1Hex(passResourceFile.getValue());
+                }
+            }
+            fileWithHashMap.put(getRelativePathOfZipEntry(fileName, ""), hash);
+        }
+        return fileWithHashMap;
+    }
+
+    private boolean isPassSpecificFile(String fileName) {
+        return PASS_JSON_FILE_NAME.equals(fileName) || PERSONALIZATION_JSON_FILE_NAME.equals(fileName)
+                || MANIFEST_JSON_FILE_NAME.equals(fileName) || SIGNATURE_FILE_NAME.equals(fileName);
+    }
+
+    private void createZippedPassAndWriteToStream(final Map<String, ByteBuffer> files,
+            final Map<String, PKDigestingOutputStream> generatedFiles, final IPKPassTemplate passTemplate, final OutputStream outputStream,
+            final PKSigningScratch scratch) throws PKSigningException {
+        PKPassTemplatePrecompressed precompressedTemplate = passTemplate instanceof PKPassTemplatePrecompressed
+                ? (PKPassTemplatePrecompressed) passTemplate
+                : null;
+        PKPassArchiveWriter archiveWriter = scratch != null
+                ? new PKPassArchiveWriter(outputStream, scratch.getDeflater(), scratch.getZipBuffer())
+                : new PKPassArchiveWriter(outputStream);
+        try (PKPassArchiveWriter writer = archiveWriter) {
+            for (Entry<String, ByteBuffer> passResourceFile : files.entrySet()) {
+                String fileName = passResourceFile.getKey();
+                PKPassArchiveWriter.Entry precompressedEntry = precompressedTemplate == null || isPassSpecificFile(fileName)
+                        ? null
+                        : precompressedTemplate.getPrecompressedEntry(fileName);
+                PKDigestingOutputStream generatedFile = generatedFiles.get(fileName);
+                if (precompressedEntry != null) {
+                    writer.putPrecompressedEntry(precompressedEntry);
+                } else if (generatedFile != null) {
+                    writer.putEntry(getRelativePathOfZipEntry(fileName, ""), passResourceFile.getValue(), generatedFile.getCrc());
+                } else {
+                    writer.putEntry(getRelativePathOfZipEntry(fileName, ""), passResourceFile.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new PKSigningException("Error while creating a zip package", e);
+        } finally {
+            if (scratch != null) {
+                scratch.setZipBuffer(archiveWriter.getScratchBuffer());
+            }
+        }
+    }
+
+    /**
+     * Signing content backed by a buffer, so a reused manifest buffer does not have to be copied before it is signed.
+     */
+    private static final class ByteBufferContent implements CMSTypedData {
+
+        private final ByteBuffer content;
+
+        private ByteBufferContent(ByteBuffer content) {
+            this.content = content;
+        }
+
+        @Override
+        public ASN1ObjectIdentifier getContentType() {
+            return CMSObjectIdentifiers.data;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+        }
+
+        @Override
+        public Object getContent() {
+            byte[] bytes = new byte[content.remaining()];
+            content.duplicate().get(bytes);
+            return bytes;
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Output streams for the {@link ByteBuffer} and {@link WritableByteChannel} variants of {@link IPKSigningUtil}.
+ */
+final class PKArchiveOutputStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private PKArchiveOutputStream() {
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} that hands out its buffer instead of copying it.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * @return a buffer backed by the internal array of this stream, without copying it
+         */
+        synchronized ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Writes to a blocking channel without wrapping it in an intermediate buffer. Closing the stream leaves the channel open.
+     */
+    static final class Channel extends OutputStream {
+
+        private final WritableByteChannel channel;
+
+        Channel(WritableByteChannel channel) {
+            Assert.notNull(channel, "Channel is mandatory");
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
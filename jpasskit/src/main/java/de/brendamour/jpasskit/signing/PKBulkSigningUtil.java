@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Signs large numbers of passes with the same template and signing information in parallel.
+ * <p>
+ * Passes are taken from the source one at a time and handed to the executor, but never more than {@code maxInFlight} at once, so
+ * the source can be a lazily evaluated {@link Stream} or {@link Iterable} over millions of passes without queuing them all in memory.
+ * Every result is delivered to an {@link IPKBulkSigningListener} as soon as the pass is done, in no particular order. For best results
+ * combine it with a {@link PKPassTemplatePrecompressed} template.
+ */
+public final class PKBulkSigningUtil {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final IPKSigningUtil signingUtil;
+    private final Executor executor;
+    private final int maxInFlight;
+
+    /**
+     * Uses a {@link PKInMemorySigningUtil}, the common fork-join pool and twice as many passes in flight as there are processors.
+     */
+    public PKBulkSigningUtil() {
+        this(new PKInMemorySigningUtil());
+    }
+
+    public PKBulkSigningUtil(IPKSigningUtil signingUtil) {
+        this(signingUtil, ForkJoinPool.commonPool(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param signingUtil
+     *            creates the individual archives, must be thread-safe
+     * @param executor
+     *            runs the signing tasks, it is not shut down by this class
+     * @param maxInFlight
+     *            maximum number of passes that are submitted to the executor but not yet delivered to the listener
+     */
+    public PKBulkSigningUtil(IPKSigningUtil signingUtil, Executor executor, int maxInFlight) {
+        Assert.notNull(signingUtil, "Signing util is mandatory");
+        Assert.notNull(executor, "Executor is mandatory");
+        Assert.isTrue(maxInFlight > 0, "maxInFlight must be positive, but was %d", maxInFlight);
+        this.signingUtil = signingUtil;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread per pass when running on a JDK that supports them (21+), otherwise a
+     * work-stealing pool with one thread per processor. Virtual threads help if the listener blocks, e.g. while uploading the
+     * archives; the signing itself is CPU bound either way. The caller is responsible for shutting the executor down.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.debug("Virtual threads are not available, using a work-stealing pool instead");
+            return Executors.newWorkStealingPool();
+        }
+    }
+
+    /**
+     * Signs all passes and blocks until every result was delivered to the listener.
+     *
+     * @param passes
+     *            the passes to sign
+     * @param passTemplate
+     *            A {@link IPKPassTemplate} object shared by all passes
+     * @param signingInformation
+     *            A {@link PKSigningInformation} object containing the signing info
+     * @param listener
+     *            receives the archive or the failure of every pass
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting; passes that were already submitted are delivered before it is
+     *             thrown
+     */
+    public void createSignedAndZippedPkPassArchives(Stream<PKPass> passes, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, IPKBulkSigningListener listener) throws InterruptedException {
+        Assert.notNull(passes, "Passes are mandatory");
+        createSignedAndZippedPkPassArchives(passes.iterator(), passTemplate, signingInformation, listener);
+    }
+
+    /**
+     * Signs all passes and blocks until every result was delivered to the listener.
+     *
+     * @see #createSignedAndZippedPkPassArchives(Stream, IPKPassTemplate, PKSigningInformation, IPKBulkSigningListener)
+     */
+    public void createSignedAndZippedPkPassArchives(Iterable<PKPass> passes, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, IPKBulkSigningListener listener) throws InterruptedException {
+        Assert.notNull(passes, "Passes are mandatory");
+        createSignedAndZippedPkPassArchives(passes.iterator(), passTemplate, signingInformation, listener);
+    }
+
+    private void createSignedAndZippedPkPassArchives(Iterator<PKPass> passes, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, IPKBulkSigningListener listener) throws InterruptedException {
+        Assert.notNull(passTemplate, "Pass template is mandatory");
+        Assert.notNull(signingInformation, "Signing information is mandatory");
+        Assert.notNull(listener, "Listener is mandatory");
+
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            while (passes.hasNext()) {
+                PKPass pass = passes.next();
+                inFlight.acquire();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            signAndDeliver(pass, passTemplate, signingInformation, listener);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } finally {
+            // wait for the passes that are still in flight, also when the source or the executor failed
+            inFlight.acquireUninterruptibly(maxInFlight);
+        }
+    }
+
+    private void signAndDeliver(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation,
+            IPKBulkSigningListener listener) {
+        byte[] archive;
+        try {
+            archive = signingUtil.createSignedAndZippedPkPassArchive(pass, passTemplate, signingInformation);
+        } catch (PKSigningException e) {
+            notifyFailure(listener, pass, e);
+            return;
+        } catch (RuntimeException e) {
+            notifyFailure(listener, pass, new PKSigningException("Error when signing pass", e));
+            return;
+        }
+        try {
+            listener.onPassSigned(pass, archive);
+        } catch (RuntimeException e) {
+            LOGGER.error("Listener failed to process signed pass", e);
+        }
+    }
+
+    private void notifyFailure(IPKBulkSigningListener listener, PKPass pass, PKSigningException exception) {
+        try {
+            listener.onPassFailed(pass, exception);
+        } catch (RuntimeException e) {
+            LOGGER.error("Listener failed to process signing failure", e);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.cert.X509Certificate;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Caches signed archives in front of another {@link IPKSigningUtil}, so unchanged passes are not serialized, signed and zipped again
+ * every time a device fetches them.
+ * <p>
+ * Archives are keyed by the content of the pass and personalization (see {@link PKContentFingerprint}), the content of the template
+ * and the signing certificates, so a changed pass or template is never served from the cache. Fingerprinting a template is cheap
+ * when it provides precomputed digests ({@link PKPassTemplateInMemory}, {@link PKPassTemplateCachedFolder},
+ * {@link PKPassTemplatePrecompressed}), other templates are hashed completely on every call. The cache holds at most
+ * {@code maximumBytes} of archives and evicts the least recently used ones first. Concurrent requests for the same archive create it
+ * only once.
+ */
+public final class PKCachingSigningUtil implements IPKSigningUtil {
+
+    private static final int KEY_WEIGHT = 256;
+
+    private final IPKSigningUtil signingUtil;
+    private final Cache<ArchiveKey, byte[]> archives;
+    private final Cache<X509Certificate, String> certificateFingerprints = CacheBuilder.newBuilder().weakKeys().build();
+
+    /**
+     * @param signingUtil
+     *            creates the archives that are not in the cache
+     * @param maximumBytes
+     *            the maximum total size of the cached archives
+     */
+    public PKCachingSigningUtil(IPKSigningUtil signingUtil, long maximumBytes) {
+        Assert.notNull(signingUtil, "Signing util is mandatory");
+        Assert.isTrue(maximumBytes > 0, "Maximum bytes must be positive, was %d", maximumBytes);
+        this.signingUtil = signingUtil;
+        this.archives = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher((ArchiveKey key, byte[] archive) -> KEY_WEIGHT + archive.length)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public byte[] createSignedAndZippedPkPassArchive(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation)
+            throws PKSigningException {
+        return createSignedAndZippedPersonalizedPkPassArchive(pass, null, passTemplate, signingInformation);
+    }
+
+    @Override
+    public void createSignedAndZippedPkPassArchiveStream(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation,
+            OutputStream outputStream) throws PKSigningException {
+        createSignedAndZippedPersonalizedPkPassArchiveStream(pass, null, passTemplate, signingInformation, outputStream);
+    }
+
+    /**
+     * @return a copy of the cached archive
+     */
+    @Override
+    public byte[] createSignedAndZippedPersonalizedPkPassArchive(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation) throws PKSigningException {
+        return getArchive(pass, personalization, passTemplate, signingInformation).clone();
+    }
+
+    /**
+     * Writes the cached archive to {@code outputStream} and closes it, like the other signing utils do.
+     */
+    @Override
+    public void createSignedAndZippedPersonalizedPkPassArchiveStream(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation, OutputStream outputStream) throws PKSigningException {
+        byte[] archive = getArchive(pass, personalization, passTemplate, signingInformation);
+        try (OutputStream out = outputStream) {
+            out.write(archive);
+        } catch (IOException e) {
+            throw new PKSigningException("Error when writing the pass archive", e);
+        }
+    }
+
+    /**
+     * @return a read-only view of the cached archive, without copying it
+     */
+    @Override
+    public ByteBuffer createSignedAndZippedPersonalizedPkPassArchiveBuffer(PKPass pass, PKPersonalization personalization,
+            IPKPassTemplate passTemplate, PKSigningInformation signingInformation) throws PKSigningException {
+        return ByteBuffer.wrap(getArchive(pass, personalization, passTemplate, signingInformation)).asReadOnlyBuffer();
+    }
+
+    @Override
+    public byte[] signManifestFile(byte[] manifestJSON, PKSigningInformation signingInformation) throws PKSigningException {
+        return signingUtil.signManifestFile(manifestJSON, signingInformation);
+    }
+
+    /**
+     * @return hit, miss and eviction counts of the cache
+     */
+    public CacheStats getStats() {
+        return archives.stats();
+    }
+
+    public long getHitCount() {
+        return archives.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return archives.stats().missCount();
+    }
+
+    /**
+     * @return the number of cached archives
+     */
+    public long size() {
+        return archives.size();
+    }
+
+    public void invalidateAll() {
+        archives.invalidateAll();
+    }
+
+    private byte[] getArchive(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
+            PKSigningInformation signingInformation) throws PKSigningException {
+        Assert.notNull(passTemplate, "Pass template is mandatory");
+        Assert.notNull(signingInformation, "Signing information is mandatory");
+        PKPassTemplateSnapshot templateSnapshot;
+        try {
+            templateSnapshot = passTemplate.getSnapshot();
+        } catch (IOException e) {
+            throw new PKSigningException("Error when getting files from template", e);
+        }
+        // precompressed templates never change and are signed as they are, to keep their prepared ZIP entries
+        IPKPassTemplate signedTemplate = passTemplate instanceof PKPassTemplatePrecompressed ? passTemplate : templateSnapshot;
+        ArchiveKey key;
+        try {
+            key = new ArchiveKey(PKContentFingerprint.of(pass, personalization), PKContentFingerprint.ofTemplate(templateSnapshot),
+                    fingerprint(signingInformation.getSigningCert()) + ':' + fingerprint(signingInformation.getAppleWWDRCACert()));
+        } catch (UncheckedIOException e) {
+            throw new PKSigningException("Error when fingerprinting the pass", e.getCause());
+        }
+        try {
+            return archives.get(key,
+                    () -> signingUtil.createSignedAndZippedPersonalizedPkPassArchive(pass, personalization, signedTemplate, signingInformation));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PKSigningException) {
+                throw (PKSigningException) e.getCause();
+            }
+            throw new PKSigningException("Error when creating the pass archive", e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw new PKSigningException("Error when creating the pass archive", e.getCause());
+        }
+    }
+
+    private String fingerprint(X509Certificate certificate) throws PKSigningException {
+        if (certificate == null) {
+            return "";
+        }
+        try {
+            return certificateFingerprints.get(certificate,
+                    () -> Hex.encodeHexString(PKContentFingerprint.newSha256Digest().digest(certificate.getEncoded())));
+        } catch (ExecutionException e) {
+            throw new PKSigningException("Error when encoding the signing certificate", e.getCause());
+        }
+    }
+
+    private static final class ArchiveKey {
+
+        private final String pass;
+        private final String template;
+        private final String certificates;
+
+        private ArchiveKey(String pass, String template, String certificates) {
+            this.pass = pass;
+            this.template = template;
+            this.certificates = certificates;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ArchiveKey)) {
+                return false;
+            }
+            ArchiveKey other = (ArchiveKey) obj;
+            return pass.equals(other.pass) && template.equals(other.template) && certificates.equals(other.certificates);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(pass, template, certificates);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Canonical content fingerprints of passes and templates, for caching and change detection.
+ * <p>
+ * The model classes have no {@code equals}/{@code hashCode}. Instead, the pass is serialized to JSON with properties and map entries
+ * sorted by name and hashed with SHA-256 while it is written, without building the JSON in memory. Two passes with the same content
+ * have the same fingerprint, regardless of the order in which their fields or user info entries were set.
+ */
+public final class PKContentFingerprint {
+
+    private static final ObjectWriter CANONICAL_WRITER = JsonMapper.builder()
+            .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .serializationInclusion(Include.NON_NULL)
+            .addModule(new JavaTimeModule())
+            .build()
+            .writer();
+
+    private PKContentFingerprint() {
+    }
+
+    /**
+     * @return the hex encoded SHA-256 fingerprint of the content of {@code pass}
+     */
+    public static String of(PKPass pass) {
+        return of(pass, null);
+    }
+
+    /**
+     * @param personalization
+     *            optional, included in the fingerprint if not null
+     * @return the hex encoded SHA-256 fingerprint of the content of {@code pass} and {@code personalization}
+     */
+    public static String of(PKPass pass, PKPersonalization personalization) {
+        Assert.notNull(pass, "Pass is mandatory");
+        MessageDigest digest = newSha256Digest();
+        try (OutputStream outputStream = new DigestOutputStream(NullOutputStream.INSTANCE, digest)) {
+            CANONICAL_WRITER.writeValue(outputStream, pass);
+            if (personalization != null) {
+                outputStream.write(0);
+                CANONICAL_WRITER.writeValue(outputStream, personalization);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error when serializing pass for its fingerprint", e);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Files without a digest in the snapshot are hashed, so the fingerprint covers the content of every file.
+     *
+     * @return the hex encoded SHA-256 fingerprint of the file paths and contents of {@code templateSnapshot}
+     */
+    public static String ofTemplate(PKPassTemplateSnapshot templateSnapshot) {
+        Assert.notNull(templateSnapshot, "Template snapshot is mandatory");
+        MessageDigest digest = newSha256Digest();
+        Map<String, String> fileDigests = templateSnapshot.getFileDigests();
+        // sorted, as templates do not guarantee the order of their files
+        for (Map.Entry<String, ByteBuffer> file : new TreeMap<>(templateSnapshot.getFiles()).entrySet()) {
+            String fileDigest = fileDigests.get(file.getKey());
+            digest.update(file.getKey().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update((fileDigest != null ? fileDigest : PKFileDigests.sha1Hex(file.getValue())).getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) 0);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+}
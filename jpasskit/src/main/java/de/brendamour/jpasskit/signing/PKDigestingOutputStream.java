@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Collects a generated file and computes its manifest digest and ZIP checksum while it is written, so the content does not have to
+ * be read again before it is added to the manifest and the archive. {@link #reset()} clears the content and the checksums, so an
+ * instance can be reused for the next pass.
+ */
+final class PKDigestingOutputStream extends ByteArrayOutputStream {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final MessageDigest sha1 = PKFileDigests.newSha1Digest();
+    private final CRC32 crc = new CRC32();
+    private String sha1Hex;
+
+    PKDigestingOutputStream() {
+        super(INITIAL_BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        super.write(b);
+        sha1.update((byte) b);
+        crc.update(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        super.write(b, off, len);
+        sha1.update(b, off, len);
+        crc.update(b, off, len);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        sha1.reset();
+        crc.reset();
+        sha1Hex = null;
+    }
+
+    /**
+     * @return the capacity of the internal array, used to decide whether a reused stream should be kept
+     */
+    synchronized int capacity() {
+        return buf.length;
+    }
+
+    /**
+     * @return the written content, backed by the internal array of this stream
+     */
+    synchronized ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * @return the hex encoded SHA-1 digest of the written content, no more content may be written afterwards
+     */
+    synchronized String getSha1Hex() {
+        if (sha1Hex == null) {
+            sha1Hex = PKFileDigests.toHex(sha1.digest());
+        }
+        return sha1Hex;
+    }
+
+    synchronized long getCrc() {
+        return crc.getValue();
+    }
+}
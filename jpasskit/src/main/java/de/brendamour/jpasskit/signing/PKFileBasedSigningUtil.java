@@ -17,36 +17,18 @@ package de.brendamour.jpasskit.signing;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 
 import de.brendamour.jpasskit.PKPass;
 import de.brendamour.jpasskit.personalization.PKPersonalization;
 
 import de.brendamour.jpasskit.util.Assert;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.filefilter.RegexFileFilter;
-import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.bouncycastle.cms.CMSProcessableFile;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.lang.invoke.MethodHandles;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 public final class PKFileBasedSigningUtil extends PKAbstractSigningUtil {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
-
     public PKFileBasedSigningUtil() {
         super(new ObjectMapper());
     }
@@ -85,37 +67,15 @@ public final class PKFileBasedSigningUtil extends PKAbstractSigningUtil {
     @Override
     public byte[] createSignedAndZippedPersonalizedPkPassArchive(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate,
             PKSigningInformation signingInformation) throws PKSigningException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream byteArrayOutputStream = new PKArchiveOutputStream.Buffer();
         createSignedAndZippedPersonalizedPkPassArchiveStream(pass, personalization, passTemplate, signingInformation, byteArrayOutputStream);
         return byteArrayOutputStream.toByteArray();
     }
 
     @Override
     public void createSignedAndZippedPersonalizedPkPassArchiveStream(PKPass pass, PKPersonalization personalization, IPKPassTemplate passTemplate, PKSigningInformation signingInformation, OutputStream outputStream) throws PKSigningException {
-
-        File tempPassDir = Files.createTempDir();
-        try {
-            passTemplate.provisionPassAtDirectory(tempPassDir);
-        } catch (IOException e) {
-            throw new PKSigningException("Error when provisioning template", e);
-        }
-
-        createPassJSONFile(pass, tempPassDir);
-
-        if (personalization != null) {
-            createPersonalizationJSONFile(personalization, tempPassDir);
-        }
-
-        File manifestJSONFile = createManifestJSONFile(tempPassDir);
-        signManifestFileAndWriteToDirectory(tempPassDir, manifestJSONFile, signingInformation);
-
-        createZippedPassAndWriteToStream(tempPassDir, outputStream);
-
-        try {
-            FileUtils.deleteDirectory(tempPassDir);
-        } catch (IOException e) {
-            LOGGER.warn("Removing the temporary directory failed", e);
-        }
+        // template files are read once and the archive is built in memory, nothing is written to a temporary directory anymore
+        writeSignedAndZippedPkPassArchive(pass, personalization, passTemplate, signingInformation, outputStream);
     }
 
     public byte[] createSignedAndZippedPkPassArchive(final PKPass pass, final URL fileUrlOfTemplateDirectory,
@@ -146,65 +106,4 @@ public final class PKFileBasedSigningUtil extends PKAbstractSigningUtil {
             throw new PKSigningException("Error when writing signature to folder", e);
         }
     }
-
-    private void createPassJSONFile(final PKPass pass, final File tempPassDir) throws PKSigningException {
-        try {
-            File passJSONFile = new File(tempPassDir.getAbsolutePath() + File.separator + PASS_JSON_FILE_NAME);
-            objectWriter.writeValue(passJSONFile, pass);
-        } catch (IOException e) {
-            throw new PKSigningException("Error when writing pass.json", e);
-        }
-    }
-
-    private void createPersonalizationJSONFile(PKPersonalization personalization, File tempPassDir) throws PKSigningException {
-        try {
-            File personalizationJSONFile = new File(tempPassDir.getAbsolutePath() + File.separator + PERSONALIZATION_JSON_FILE_NAME);
-            objectWriter.writeValue(personalizationJSONFile, personalization);
-        } catch (IOException e) {
-            throw new PKSigningException("Error when writing personalization.json", e);
-        }
-    }
-
-    private File createManifestJSONFile(final File tempPassDir) throws PKSigningException {
-        try {
-            File manifestJSONFile = new File(tempPassDir.getCanonicalPath() + File.separator + MANIFEST_JSON_FILE_NAME);
-            Map<String, String> fileWithHashMap = hashFiles(tempPassDir, Hashing.sha1());
-            objectWriter.writeValue(manifestJSONFile, fileWithHashMap);
-            return manifestJSONFile;
-        } catch (IOException e) {
-            throw new PKSigningException("Error when writing manifest.json", e);
-        }
-    }
-
-    private Map<String, String> hashFiles(final File tempPassDir, final HashFunction hashFunction)
-            throws PKSigningException {
-        Map<String, String> fileWithHashMap = new HashMap<>();
-        try {
-            String base = tempPassDir.getCanonicalPath() + File.separator;
-            HashCode hash;
-            for (File file : FileUtils.listFiles(tempPassDir, new RegexFileFilter("^(?!\\.).*"), TrueFileFilter.TRUE)) {
-                hash = Files.hash(file, hashFunction);
-                fileWithHashMap.put(getRelativePathOfZipEntry(file.getCanonicalPath(), base), Hex.encodeHexString(hash.asBytes()));
-            }
-        } catch (IOException e) {
-            throw new PKSigningException("Error when hashing files", e);
-        }
-        return fileWithHashMap;
-    }
-
-    private void createZippedPassAndWriteToStream(final File tempPassDir, final OutputStream outputStream) throws PKSigningException {
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-            String base = tempPassDir.getCanonicalPath() + File.separator;
-            ZipEntry entry;
-            for (File file : FileUtils.listFiles(tempPassDir, new RegexFileFilter("^(?!\\.).*"), TrueFileFilter.TRUE)) {
-                try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                    entry = new ZipEntry(getRelativePathOfZipEntry(file.getCanonicalPath(), base));
-                    zipOutputStream.putNextEntry(entry);
-                    IOUtils.copy(fileInputStream, zipOutputStream);
-                }
-            }
-        } catch (IOException e) {
-            throw new PKSigningException("Error when creating a zip package", e);
-        }
-    }
 }
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computes the digests used in manifest.json.
+ */
+final class PKFileDigests {
+
+    @SuppressWarnings("deprecation")
+    private static final HashFunction MANIFEST_HASH_FUNCTION = Hashing.sha1();
+
+    private PKFileDigests() {
+    }
+
+    /**
+     * @param content
+     *            file content, the position of the buffer is not changed
+     * @return the hex encoded SHA-1 digest of the remaining bytes of {@code content}
+     */
+    static String sha1Hex(ByteBuffer content) {
+        return Hex.encodeHexString(MANIFEST_HASH_FUNCTION.hashBytes(content.duplicate()).asBytes());
+    }
+
+    static String sha1Hex(byte[] content) {
+        return Hex.encodeHexString(MANIFEST_HASH_FUNCTION.hashBytes(content).asBytes());
+    }
+
+    /**
+     * @return a SHA-1 digest that can be reset and reused, unlike a {@link com.google.common.hash.Hasher}
+     */
+    static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported by this JVM", e);
+        }
+    }
+
+    static String toHex(byte[] digest) {
+        return Hex.encodeHexString(digest);
+    }
+}
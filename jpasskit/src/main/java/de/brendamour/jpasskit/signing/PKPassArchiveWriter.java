@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal ZIP writer for .pkpass archives.
+ * <p>
+ * Unlike {@link java.util.zip.ZipOutputStream} it accepts entries that were deflated upfront (see {@link #deflate(String, ByteBuffer, long, Deflater)})
+ * and copies their local file records into the archive as they are. Entries are always deflated, names are UTF-8 encoded and ZIP64 is
+ * not supported. Closing the writer writes the central directory and closes the underlying stream.
+ * <p>
+ * A writer created with {@link #PKPassArchiveWriter(OutputStream, Deflater, byte[])} deflates into a caller supplied scratch array
+ * instead of allocating a record per entry, and leaves the deflater to the caller.
+ */
+final class PKPassArchiveWriter implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    private static final int CENTRAL_FILE_HEADER_LENGTH = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int VERSION_NEEDED_TO_EXTRACT = 20;
+    private static final int FLAG_UTF8_NAMES = 0x0800;
+    private static final int METHOD_DEFLATED = 8;
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final OutputStream outputStream;
+    private final long modificationTime;
+    private final List<Entry> entries = new ArrayList<>();
+    private final List<Long> offsets = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final boolean ownsDeflater;
+    private Deflater deflater;
+    private byte[] scratchBuffer;
+    private long offset;
+    private boolean closed;
+
+    PKPassArchiveWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.modificationTime = System.currentTimeMillis();
+        this.ownsDeflater = true;
+    }
+
+    /**
+     * @param deflater
+     *            a deflater using raw deflate (nowrap), it is reset before each entry and not ended when the writer is closed
+     * @param scratchBuffer
+     *            array the entries are deflated into, it is replaced by a larger one if an entry does not fit (see
+     *            {@link #getScratchBuffer()})
+     */
+    PKPassArchiveWriter(OutputStream outputStream, Deflater deflater, byte[] scratchBuffer) {
+        this.outputStream = outputStream;
+        this.modificationTime = System.currentTimeMillis();
+        this.ownsDeflater = false;
+        this.deflater = deflater;
+        this.scratchBuffer = scratchBuffer;
+    }
+
+    /**
+     * Deflates {@code content} and adds it to the archive.
+     */
+    void putEntry(String name, ByteBuffer content) throws IOException {
+        putEntry(name, content, computeCrc(content));
+    }
+
+    /**
+     * Deflates {@code content} and adds it to the archive, using a CRC-32 that was computed while the content was generated.
+     */
+    void putEntry(String name, ByteBuffer content, long crc) throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        Entry entry = deflate(name, content, crc, modificationTime, deflater, scratchBuffer);
+        if (scratchBuffer != null) {
+            // the record is written right away, only the metadata of the entry is needed for the central directory
+            scratchBuffer = entry.localRecord;
+        }
+        putPrecompressedEntry(entry);
+    }
+
+    /**
+     * @return the scratch array passed to the constructor, or the larger one that replaced it
+     */
+    byte[] getScratchBuffer() {
+        return scratchBuffer;
+    }
+
+    /**
+     * Copies the local file record of an already deflated entry into the archive.
+     */
+    void putPrecompressedEntry(Entry entry) throws IOException {
+        if (closed) {
+            throw new IOException("Archive is already closed");
+        }
+        if (!names.add(entry.getName())) {
+            throw new ZipException("duplicate entry: " + entry.getName());
+        }
+        if (entries.size() == MAX_ENTRIES) {
+            throw new ZipException("Too many entries for a ZIP archive without ZIP64 support");
+        }
+        outputStream.write(entry.localRecord, 0, entry.localRecordLength);
+        entries.add(entry);
+        offsets.add(offset);
+        offset += entry.localRecordLength;
+        if (offset > MAX_SIZE) {
+            throw new ZipException("Archive is too large for a ZIP archive without ZIP64 support");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (OutputStream out = outputStream) {
+            writeCentralDirectory(out);
+        } finally {
+            if (ownsDeflater && deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void writeCentralDirectory(OutputStream out) throws IOException {
+        int centralDirectoryLength = END_OF_CENTRAL_DIRECTORY_LENGTH;
+        for (Entry entry : entries) {
+            centralDirectoryLength += CENTRAL_FILE_HEADER_LENGTH + entry.nameBytes.length;
+        }
+        byte[] centralDirectory = new byte[centralDirectoryLength];
+        int position = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            putInt(centralDirectory, position, CENTRAL_FILE_HEADER_SIGNATURE);
+            putShort(centralDirectory, position + 4, VERSION_NEEDED_TO_EXTRACT); // version made by
+            putShort(centralDirectory, position + 6, VERSION_NEEDED_TO_EXTRACT);
+            putShort(centralDirectory, position + 8, FLAG_UTF8_NAMES);
+            putShort(centralDirectory, position + 10, METHOD_DEFLATED);
+            putInt(centralDirectory, position + 12, entry.dosTime);
+            putInt(centralDirectory, position + 16, (int) entry.crc);
+            putInt(centralDirectory, position + 20, (int) entry.compressedSize);
+            putInt(centralDirectory, position + 24, (int) entry.size);
+            putShort(centralDirectory, position + 28, entry.nameBytes.length);
+            // extra field length, comment length, disk number, internal and external attributes stay 0
+            putInt(centralDirectory, position + 42, (int) offsets.get(i).longValue());
+            System.arraycopy(entry.nameBytes, 0, centralDirectory, position + CENTRAL_FILE_HEADER_LENGTH, entry.nameBytes.length);
+            position += CENTRAL_FILE_HEADER_LENGTH + entry.nameBytes.length;
+        }
+        putInt(centralDirectory, position, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        putShort(centralDirectory, position + 8, entries.size());
+        putShort(centralDirectory, position + 10, entries.size());
+        putInt(centralDirectory, position + 12, centralDirectoryLength - END_OF_CENTRAL_DIRECTORY_LENGTH);
+        putInt(centralDirectory, position + 16, (int) offset);
+        out.write(centralDirectory);
+    }
+
+    /**
+     * Deflates {@code content} into a complete local file record (header and compressed data).
+     *
+     * @param name
+     *            name of the entry inside the archive, using '/' as separator
+     * @param content
+     *            the uncompressed content, the position of the buffer is not changed
+     * @param modificationTime
+     *            modification time of the entry in milliseconds since the epoch
+     * @param deflater
+     *            a deflater using raw deflate (nowrap), it is reset before use
+     */
+    static Entry deflate(String name, ByteBuffer content, long modificationTime, Deflater deflater) throws ZipException {
+        return deflate(name, content, computeCrc(content), modificationTime, deflater, null);
+    }
+
+    private static Entry deflate(String name, ByteBuffer content, long crc, long modificationTime, Deflater deflater, byte[] buffer)
+            throws ZipException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int headerLength = LOCAL_FILE_HEADER_LENGTH + nameBytes.length;
+        int size = content.remaining();
+
+        deflater.reset();
+        deflater.setInput(content.duplicate());
+        deflater.finish();
+        byte[] localRecord = buffer != null && buffer.length > headerLength
+                ? buffer
+                : new byte[headerLength + size + (size >> 12) + (size >> 14) + 64];
+        int length = headerLength;
+        while (!deflater.finished()) {
+            if (length == localRecord.length) {
+                localRecord = Arrays.copyOf(localRecord, localRecord.length * 2);
+            }
+            length += deflater.deflate(localRecord, length, localRecord.length - length);
+        }
+        long compressedSize = length - headerLength;
+        if (compressedSize > MAX_SIZE) {
+            throw new ZipException("Entry " + name + " is too large for a ZIP archive without ZIP64 support");
+        }
+
+        int dosTime = toDosTime(modificationTime);
+        putInt(localRecord, 0, LOCAL_FILE_HEADER_SIGNATURE);
+        putShort(localRecord, 4, VERSION_NEEDED_TO_EXTRACT);
+        putShort(localRecord, 6, FLAG_UTF8_NAMES);
+        putShort(localRecord, 8, METHOD_DEFLATED);
+        putInt(localRecord, 10, dosTime);
+        putInt(localRecord, 14, (int) crc);
+        putInt(localRecord, 18, (int) compressedSize);
+        putInt(localRecord, 22, size);
+        putShort(localRecord, 26, nameBytes.length);
+        putShort(localRecord, 28, 0);
+        System.arraycopy(nameBytes, 0, localRecord, LOCAL_FILE_HEADER_LENGTH, nameBytes.length);
+
+        return new Entry(name, nameBytes, crc, compressedSize, size, dosTime, localRecord, length);
+    }
+
+    private static long computeCrc(ByteBuffer content) {
+        CRC32 crc = new CRC32();
+        crc.update(content.duplicate());
+        return crc.getValue();
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            // 1980-01-01 00:00:00, the earliest date that can be represented
+            return (1 << 21) | (1 << 16);
+        }
+        return (dateTime.getYear() - 1980) << 25
+                | dateTime.getMonthValue() << 21
+                | dateTime.getDayOfMonth() << 16
+                | dateTime.getHour() << 11
+                | dateTime.getMinute() << 5
+                | dateTime.getSecond() >> 1;
+    }
+
+    private static void putShort(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] buffer, int position, int value) {
+        buffer[position] = (byte) value;
+        buffer[position + 1] = (byte) (value >>> 8);
+        buffer[position + 2] = (byte) (value >>> 16);
+        buffer[position + 3] = (byte) (value >>> 24);
+    }
+
+    /**
+     * A deflated entry, including its complete local file record. Instances are immutable and can be written to any number of archives.
+     */
+    static final class Entry {
+
+        private final String name;
+        private final byte[] nameBytes;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final int dosTime;
+        private final byte[] localRecord;
+        private final int localRecordLength;
+
+        private Entry(String name, byte[] nameBytes, long crc, long compressedSize, long size, int dosTime, byte[] localRecord,
+                int localRecordLength) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dosTime = dosTime;
+            this.localRecord = localRecord;
+            this.localRecordLength = localRecordLength;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getCrc() {
+            return crc;
+        }
+
+        long getCompressedSize() {
+            return compressedSize;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /**
+         * @return a copy of this entry without spare capacity in its local file record, for entries that are kept around
+         */
+        Entry trimmed() {
+            if (localRecord.length == localRecordLength) {
+                return this;
+            }
+            return new Entry(name, nameBytes, crc, compressedSize, size, dosTime, Arrays.copyOf(localRecord, localRecordLength),
+                    localRecordLength);
+        }
+    }
+}
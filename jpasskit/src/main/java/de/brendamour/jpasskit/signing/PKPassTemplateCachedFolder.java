@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandles;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Folder based template that loads its files once and keeps them in memory.
+ * <p>
+ * The folder is checked for changes at most once per check interval, by comparing modification time and size of every file. Only
+ * changed or new files are read again; in between, {@link #getSnapshot()}, {@link #getAllFiles()} and {@link #getAllFileDigests()}
+ * return the same unmodifiable maps of read-only buffers without any I/O or copying. Like {@link PKPassTemplateFolder}, files
+ * starting with a dot are ignored.
+ * <p>
+ * The files and digests of one {@link #getSnapshot()} are consistent with each other; separate calls of {@link #getAllFiles()} and
+ * {@link #getAllFileDigests()} can see different checks. A file is reloaded when its modification time or size changes; a file that
+ * is still being written when it is checked can be loaded incomplete. Instances are thread-safe and meant to be shared.
+ */
+public class PKPassTemplateCachedFolder implements IPKPassTemplate {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds(5);
+
+    private final Path templateDir;
+    private final long checkIntervalNanos;
+    private final Object refreshLock = new Object();
+    private volatile Snapshot snapshot;
+
+    public PKPassTemplateCachedFolder(URL fileUrlOfTemplateDirectory) throws UnsupportedEncodingException {
+        this(URLDecoder.decode(fileUrlOfTemplateDirectory.getFile(), "UTF-8"));
+    }
+
+    public PKPassTemplateCachedFolder(String pathToTemplateDirectory) {
+        this(pathToTemplateDirectory, DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param pathToTemplateDirectory
+     *            the template folder
+     * @param checkInterval
+     *            minimum time between two checks for changed files, {@link Duration#ZERO} checks on every access
+     */
+    public PKPassTemplateCachedFolder(String pathToTemplateDirectory, Duration checkInterval) {
+        Assert.notNull(pathToTemplateDirectory, "Template directory is mandatory");
+        Assert.isTrue(checkInterval != null && !checkInterval.isNegative(), "Check interval must not be negative");
+        LOGGER.info("Specified template directory: {}", pathToTemplateDirectory);
+        this.templateDir = Paths.get(pathToTemplateDirectory);
+        this.checkIntervalNanos = checkInterval.toNanos();
+    }
+
+    @Override
+    public void provisionPassAtDirectory(File tempPassDir) throws IOException {
+        for (Entry<String, ByteBuffer> file : getAllFiles().entrySet()) {
+            Path target = tempPassDir.toPath().resolve(file.getKey());
+            Files.createDirectories(target.getParent());
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer content = file.getValue().duplicate();
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return an unmodifiable map of read-only buffers, shared by all callers until the folder changes. Use
+     *         {@link ByteBuffer#duplicate()} before reading a buffer, so that its position is not changed for other callers.
+     */
+    @Override
+    public Map<String, ByteBuffer> getAllFiles() throws IOException {
+        return currentSnapshot().template.getFiles();
+    }
+
+    @Override
+    public Map<String, String> getAllFileDigests() throws IOException {
+        return currentSnapshot().template.getFileDigests();
+    }
+
+    @Override
+    public PKPassTemplateSnapshot getSnapshot() throws IOException {
+        return currentSnapshot().template;
+    }
+
+    private Snapshot currentSnapshot() throws IOException {
+        Snapshot current = snapshot;
+        if (current != null && System.nanoTime() - current.checkedAt < checkIntervalNanos) {
+            return current;
+        }
+        synchronized (refreshLock) {
+            current = snapshot;
+            if (current == null || System.nanoTime() - current.checkedAt >= checkIntervalNanos) {
+                current = load(current);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private Snapshot load(Snapshot previous) throws IOException {
+        Path base = templateDir.toRealPath();
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(base)) {
+            paths = walk.filter(path -> !path.getFileName().toString().startsWith(".")).collect(Collectors.toList());
+        }
+
+        Map<String, CachedFile> files = new HashMap<>();
+        boolean changed = previous == null;
+        for (Path path : paths) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                continue;
+            }
+            String name = base.relativize(path).toString();
+            long lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            CachedFile file = previous == null ? null : previous.cachedFiles.get(name);
+            if (file == null || file.lastModified != lastModified || file.size != attributes.size()) {
+                LOGGER.debug("Loading template file {}", name);
+                byte[] content = Files.readAllBytes(path);
+                file = new CachedFile(lastModified, attributes.size(), content);
+                changed = true;
+            }
+            files.put(name, file);
+        }
+        changed |= previous != null && !previous.cachedFiles.keySet().equals(files.keySet());
+
+        if (!changed) {
+            return new Snapshot(previous.cachedFiles, previous.template, System.nanoTime());
+        }
+        Map<String, ByteBuffer> buffers = new HashMap<>(files.size());
+        Map<String, String> digests = new HashMap<>(files.size());
+        for (Entry<String, CachedFile> file : files.entrySet()) {
+            buffers.put(file.getKey(), file.getValue().content);
+            digests.put(file.getKey(), file.getValue().digest);
+        }
+        return new Snapshot(files, new PKPassTemplateSnapshot(Collections.unmodifiableMap(buffers), Collections.unmodifiableMap(digests)),
+                System.nanoTime());
+    }
+
+    private static final class CachedFile {
+
+        private final long lastModified;
+        private final long size;
+        private final ByteBuffer content;
+        private final String digest;
+
+        private CachedFile(long lastModified, long size, byte[] content) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.content = ByteBuffer.wrap(content).asReadOnlyBuffer();
+            this.digest = PKFileDigests.sha1Hex(content);
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final Map<String, CachedFile> cachedFiles;
+        private final PKPassTemplateSnapshot template;
+        private final long checkedAt;
+
+        private Snapshot(Map<String, CachedFile> cachedFiles, PKPassTemplateSnapshot template, long checkedAt) {
+            this.cachedFiles = cachedFiles;
+            this.template = template;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -28,6 +29,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -40,6 +42,7 @@ import org.apache.commons.io.filefilter.RegexFileFilter;
 import org.apache.commons.io.filefilter.TrueFileFilter;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class PKPassTemplateInMemory implements IPKPassTemplate, Serializable {
@@ -73,14 +76,20 @@ public class PKPassTemplateInMemory implements IPKPassTemplate, Serializable {
     public static final String PK_PERSONALIZATION_LOGO = "personalizationLogo.png";
 
     private final Map<String, byte[]> files;
+    // computed whenever a file is added, so signing only has to hash the per-pass files; changed together with files under this
+    private transient Map<String, String> fileDigests;
+    // created on demand from files and fileDigests, dropped whenever a file is added
+    private transient volatile PKPassTemplateSnapshot snapshot;
 
     public PKPassTemplateInMemory() {
         this.files = new ConcurrentHashMap<>();
+        this.fileDigests = new ConcurrentHashMap<>();
     }
 
     @JsonCreator
     public PKPassTemplateInMemory(@JsonProperty("files") Map<String, byte[]> files) {
         this.files = new ConcurrentHashMap<>(files);
+        this.fileDigests = computeFileDigests(this.files);
     }
 
     @JsonProperty("files")
@@ -105,10 +114,47 @@ public class PKPassTemplateInMemory implements IPKPassTemplate, Serializable {
         return bufferMap;
     }
 
+    /**
+     * @return the digests of the files at the time of the call, later changes to the template are not reflected
+     */
+    @Override
+    @JsonIgnore
+    public Map<String, String> getAllFileDigests() {
+        return getSnapshot().getFileDigests();
+    }
+
+    /**
+     * @return the files as read-only buffers with their digests, shared by all callers until a file is added
+     */
+    @Override
+    @JsonIgnore
+    public PKPassTemplateSnapshot getSnapshot() {
+        PKPassTemplateSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                Map<String, ByteBuffer> buffers = new HashMap<>(files.size());
+                for (Entry<String, byte[]> entry : files.entrySet()) {
+                    buffers.put(entry.getKey(), ByteBuffer.wrap(entry.getValue()).asReadOnlyBuffer());
+                }
+                snapshot = new PKPassTemplateSnapshot(Collections.unmodifiableMap(buffers),
+                        Collections.unmodifiableMap(new HashMap<>(fileDigests)));
+            }
+            return snapshot;
+        }
+    }
+
     public void addFile(String pathInTemplate, InputStream stream) throws IOException {
         try (InputStream inputStream = stream) {
             byte[] byteArray = IOUtils.toByteArray(inputStream);
-            files.put(pathInTemplate, byteArray);
+            String digest = PKFileDigests.sha1Hex(byteArray);
+            synchronized (this) {
+                files.put(pathInTemplate, byteArray);
+                fileDigests.put(pathInTemplate, digest);
+                snapshot = null;
+            }
         }
     }
 
@@ -163,6 +209,19 @@ public class PKPassTemplateInMemory implements IPKPassTemplate, Serializable {
         return streamMap;
     }
 
+    private static Map<String, String> computeFileDigests(Map<String, byte[]> files) {
+        Map<String, String> digests = new ConcurrentHashMap<>(files.size());
+        for (Entry<String, byte[]> entry : files.entrySet()) {
+            digests.put(entry.getKey(), PKFileDigests.sha1Hex(entry.getValue()));
+        }
+        return digests;
+    }
+
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        this.fileDigests = computeFileDigests(files);
+    }
+
     private String pathForLocale(String pathInTemplate, Locale locale) {
         if (locale == null) {
             return pathInTemplate;
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Deflater;
+
+import org.apache.commons.io.FileUtils;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * Immutable snapshot of another template, with every file deflated and hashed once when the snapshot is created.
+ * <p>
+ * {@link PKInMemorySigningUtil} copies the prepared ZIP records of these files straight into each archive, so only pass.json,
+ * personalization.json, manifest.json and the signature are compressed per pass. Create the snapshot once per template and share
+ * it between threads; changes to the source template after creation are not reflected.
+ */
+public final class PKPassTemplatePrecompressed implements IPKPassTemplate {
+
+    private final Map<String, byte[]> files;
+    private final Map<String, String> fileDigests;
+    private final Map<String, PKPassArchiveWriter.Entry> entries;
+    private final PKPassTemplateSnapshot snapshot;
+
+    public PKPassTemplatePrecompressed(IPKPassTemplate template) throws IOException {
+        Assert.notNull(template, "Template is mandatory");
+        PKPassTemplateSnapshot source = template.getSnapshot();
+        Map<String, ByteBuffer> sourceFiles = source.getFiles();
+        Map<String, String> sourceDigests = source.getFileDigests();
+
+        Map<String, byte[]> files = new HashMap<>(sourceFiles.size());
+        Map<String, String> fileDigests = new HashMap<>(sourceFiles.size());
+        Map<String, PKPassArchiveWriter.Entry> entries = new HashMap<>(sourceFiles.size());
+        long modificationTime = System.currentTimeMillis();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            for (Entry<String, ByteBuffer> file : sourceFiles.entrySet()) {
+                String path = file.getKey();
+                ByteBuffer content = file.getValue().duplicate();
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                files.put(path, bytes);
+
+                String digest = sourceDigests.get(path);
+                fileDigests.put(path, digest != null ? digest : PKFileDigests.sha1Hex(bytes));
+
+                String zipEntryName = File.separatorChar == '/' ? path : path.replace(File.separatorChar, '/');
+                entries.put(path, PKPassArchiveWriter.deflate(zipEntryName, ByteBuffer.wrap(bytes), modificationTime, deflater).trimmed());
+            }
+        } finally {
+            deflater.end();
+        }
+        this.files = Collections.unmodifiableMap(files);
+        this.fileDigests = Collections.unmodifiableMap(fileDigests);
+        this.entries = Collections.unmodifiableMap(entries);
+        this.snapshot = new PKPassTemplateSnapshot(getAllFiles(), this.fileDigests);
+    }
+
+    @Override
+    public void provisionPassAtDirectory(File tempPassDir) throws IOException {
+        for (Entry<String, byte[]> entry : files.entrySet()) {
+            FileUtils.writeByteArrayToFile(new File(tempPassDir, entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getAllFiles() {
+        Map<String, ByteBuffer> bufferMap = new HashMap<>(files.size());
+        for (Entry<String, byte[]> entry : files.entrySet()) {
+            bufferMap.put(entry.getKey(), ByteBuffer.wrap(entry.getValue()).asReadOnlyBuffer());
+        }
+        return bufferMap;
+    }
+
+    @Override
+    public Map<String, String> getAllFileDigests() {
+        return fileDigests;
+    }
+
+    /**
+     * @return the same snapshot for every call, as the files never change
+     */
+    @Override
+    public PKPassTemplateSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the deflated ZIP record of the file at {@code path}, or null if the template does not contain it
+     */
+    PKPassArchiveWriter.Entry getPrecompressedEntry(String path) {
+        return entries.get(path);
+    }
+}
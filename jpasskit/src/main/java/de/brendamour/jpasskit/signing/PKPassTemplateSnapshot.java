@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.brendamour.jpasskit.util.Assert;
+
+/**
+ * The files of a template together with their digests, taken at the same moment, see {@link IPKPassTemplate#getSnapshot()}.
+ * <p>
+ * A snapshot is itself a template that never changes, so it can be handed to a signing util to sign exactly the files that were
+ * looked at before.
+ */
+public final class PKPassTemplateSnapshot implements IPKPassTemplate {
+
+    private final Map<String, ByteBuffer> files;
+    private final Map<String, String> fileDigests;
+
+    /**
+     * @param files
+     *            the template files, keyed by path
+     * @param fileDigests
+     *            the hex encoded SHA-1 digests of (some of) these files, keyed by the same paths
+     */
+    public PKPassTemplateSnapshot(Map<String, ByteBuffer> files, Map<String, String> fileDigests) {
+        Assert.notNull(files, "Files are mandatory");
+        this.files = files;
+        this.fileDigests = fileDigests != null ? fileDigests : Collections.emptyMap();
+    }
+
+    public Map<String, ByteBuffer> getFiles() {
+        return files;
+    }
+
+    @Override
+    public void provisionPassAtDirectory(File tempPassDir) throws IOException {
+        for (Entry<String, ByteBuffer> file : files.entrySet()) {
+            Path target = tempPassDir.toPath().resolve(file.getKey());
+            Files.createDirectories(target.getParent());
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer content = file.getValue().duplicate();
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ByteBuffer> getAllFiles() {
+        return files;
+    }
+
+    @Override
+    public Map<String, String> getAllFileDigests() {
+        return fileDigests;
+    }
+
+    @Override
+    public PKPassTemplateSnapshot getSnapshot() {
+        return this;
+    }
+
+    /**
+     * @return the digests of the files returned by {@link #getFiles()}; files without a digest are hashed by the signing util
+     */
+    public Map<String, String> getFileDigests() {
+        return fileDigests;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERUTCTime;
+import org.bouncycastle.asn1.cms.AttributeTable;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.x509.Attribute;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.CMSTypedData;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.SignerInfoGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.bouncycastle.util.CollectionStore;
+import org.bouncycastle.util.Store;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import de.brendamour.jpasskit.util.CertUtils;
+
+/**
+ * Signing state that is prepared once per {@link PKSigningInformation} and shared between all signing utils.
+ * <p>
+ * The digest calculator provider and the encoded certificate chain are immutable and shared between threads. The {@link ContentSigner}
+ * wraps a stateful {@link java.security.Signature}, so every thread gets its own {@link SignerInfoGenerator}, which is reused for all
+ * signatures created by that thread.
+ */
+final class PKSignerContext {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+
+    // weak keys compare by identity, which is what we want for the mutable PKSigningInformation
+    private static final LoadingCache<PKSigningInformation, PKSignerContext> CONTEXTS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<PKSigningInformation, PKSignerContext>() {
+                @Override
+                public PKSignerContext load(PKSigningInformation signingInformation) throws Exception {
+                    return new PKSignerContext(signingInformation);
+                }
+            });
+
+    private final X509Certificate signingCert;
+    private final PrivateKey signingPrivateKey;
+    private final X509Certificate appleWWDRCACert;
+
+    private final DigestCalculatorProvider digestCalculatorProvider;
+    private final X509CertificateHolder signingCertHolder;
+    private final Store<X509CertificateHolder> certificates;
+    private final ThreadLocal<SignerInfoGenerator> signerInfoGenerators = new ThreadLocal<>();
+
+    private PKSignerContext(PKSigningInformation signingInformation) throws Exception {
+        this.signingCert = signingInformation.getSigningCert();
+        this.signingPrivateKey = signingInformation.getSigningPrivateKey();
+        this.appleWWDRCACert = signingInformation.getAppleWWDRCACert();
+
+        this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder()
+                .setProvider(CertUtils.getProviderName())
+                .build();
+        this.signingCertHolder = new JcaX509CertificateHolder(signingCert);
+        this.certificates = new CollectionStore<>(Arrays.<X509CertificateHolder>asList(
+                new JcaX509CertificateHolder(appleWWDRCACert), signingCertHolder));
+    }
+
+    /**
+     * Returns the (cached) context for the given signing information. A new context is prepared if the certificates or the key of the
+     * signing information were replaced since the context was created.
+     */
+    static PKSignerContext forSigningInformation(PKSigningInformation signingInformation) throws PKSigningException {
+        try {
+            PKSignerContext context = CONTEXTS.get(signingInformation);
+            if (!context.isPreparedFor(signingInformation)) {
+                context = new PKSignerContext(signingInformation);
+                CONTEXTS.put(signingInformation, context);
+            }
+            return context;
+        } catch (ExecutionException e) {
+            throw new PKSigningException("Error when preparing signing information", e.getCause());
+        } catch (Exception e) {
+            throw new PKSigningException("Error when preparing signing information", e);
+        }
+    }
+
+    byte[] sign(CMSTypedData content) throws PKSigningException {
+        try {
+            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(getSignerInfoGenerator());
+            generator.addCertificates(certificates);
+            return generator.generate(content, false).getEncoded();
+        } catch (Exception e) {
+            throw new PKSigningException("Error when signing manifest", e);
+        }
+    }
+
+    boolean isPreparedFor(PKSigningInformation signingInformation) {
+        return signingCert == signingInformation.getSigningCert()
+                && signingPrivateKey == signingInformation.getSigningPrivateKey()
+                && appleWWDRCACert == signingInformation.getAppleWWDRCACert();
+    }
+
+    private SignerInfoGenerator getSignerInfoGenerator() throws OperatorCreationException {
+        SignerInfoGenerator signerInfoGenerator = signerInfoGenerators.get();
+        if (signerInfoGenerator == null) {
+            ContentSigner sha1Signer = new JcaContentSignerBuilder(SIGNATURE_ALGORITHM)
+                    .setProvider(CertUtils.getProviderName())
+                    .build(signingPrivateKey);
+            signerInfoGenerator = new JcaSignerInfoGeneratorBuilder(digestCalculatorProvider)
+                    .setSignedAttributeGenerator(new SigningTimeAttributeTableGenerator())
+                    .build(sha1Signer, signingCertHolder);
+            signerInfoGenerators.set(signerInfoGenerator);
+        }
+        return signerInfoGenerator;
+    }
+
+    /**
+     * Adds a fresh signing time to the standard signed attributes, as the generator itself outlives a single signature.
+     */
+    private static final class SigningTimeAttributeTableGenerator implements CMSAttributeTableGenerator {
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public AttributeTable getAttributes(Map parameters) {
+            final ASN1EncodableVector signedAttributes = new ASN1EncodableVector();
+            signedAttributes.add(new Attribute(CMSAttributes.signingTime, new DERSet(new DERUTCTime(new Date()))));
+            return new DefaultSignedAttributeTableGenerator(new AttributeTable(signedAttributes)).getAttributes(parameters);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable buffers for creating one archive: the per-pass JSON files, the manifest, the file and digest maps, the deflater and the
+ * array ZIP records are deflated into.
+ * <p>
+ * Instances are kept in a small pool shared by all threads rather than in thread locals, so the number of retained buffers stays
+ * bounded when passes are signed on many (or virtual) threads. Buffers that grew beyond {@link #MAX_RETAINED_BUFFER_SIZE} while
+ * creating an unusually large pass are dropped on release instead of being kept.
+ */
+final class PKSigningScratch {
+
+    static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int INITIAL_ZIP_BUFFER_SIZE = 64 * 1024;
+    private static final BlockingQueue<PKSigningScratch> POOL = new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+    private final Map<String, ByteBuffer> files = new HashMap<>();
+    private final Map<String, String> manifest = new HashMap<>();
+    private final Map<String, PKDigestingOutputStream> generatedFiles = new HashMap<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private PKDigestingOutputStream passJSONFile = new PKDigestingOutputStream();
+    private PKDigestingOutputStream personalizationJSONFile = new PKDigestingOutputStream();
+    private PKDigestingOutputStream manifestJSONFile = new PKDigestingOutputStream();
+    private byte[] zipBuffer = new byte[INITIAL_ZIP_BUFFER_SIZE];
+
+    /**
+     * @return a pooled instance, or a new one if the pool is empty
+     */
+    static PKSigningScratch acquire() {
+        PKSigningScratch scratch = POOL.poll();
+        return scratch != null ? scratch : new PKSigningScratch();
+    }
+
+    /**
+     * Clears the buffers and returns them to the pool. Nothing obtained from this instance may be used afterwards.
+     */
+    void release() {
+        files.clear();
+        manifest.clear();
+        generatedFiles.clear();
+        passJSONFile = resetOrReplace(passJSONFile);
+        personalizationJSONFile = resetOrReplace(personalizationJSONFile);
+        manifestJSONFile = resetOrReplace(manifestJSONFile);
+        if (zipBuffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            zipBuffer = new byte[INITIAL_ZIP_BUFFER_SIZE];
+        }
+        if (!POOL.offer(this)) {
+            deflater.end();
+        }
+    }
+
+    private static PKDigestingOutputStream resetOrReplace(PKDigestingOutputStream outputStream) {
+        if (outputStream.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            return new PKDigestingOutputStream();
+        }
+        outputStream.reset();
+        return outputStream;
+    }
+
+    Map<String, ByteBuffer> getFiles() {
+        return files;
+    }
+
+    Map<String, String> getManifest() {
+        return manifest;
+    }
+
+    Map<String, PKDigestingOutputStream> getGeneratedFiles() {
+        return generatedFiles;
+    }
+
+    PKDigestingOutputStream getPassJSONFile() {
+        return passJSONFile;
+    }
+
+    PKDigestingOutputStream getPersonalizationJSONFile() {
+        return personalizationJSONFile;
+    }
+
+    PKDigestingOutputStream getManifestJSONFile() {
+        return manifestJSONFile;
+    }
+
+    Deflater getDeflater() {
+        return deflater;
+    }
+
+    byte[] getZipBuffer() {
+        return zipBuffer;
+    }
+
+    void setZipBuffer(byte[] zipBuffer) {
+        this.zipBuffer = zipBuffer;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import com.eatthepath.pushy.apns.ApnsClient;
+import com.eatthepath.pushy.apns.ApnsClientBuilder;
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.server.AcceptAllPushNotificationHandlerFactory;
+import com.eatthepath.pushy.apns.server.MockApnsServer;
+import com.eatthepath.pushy.apns.server.MockApnsServerBuilder;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static de.brendamour.jpasskit.util.CertUtils.toInputStream;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PKApnsClientRouterTest {
+
+    private static final String keyStorePathNoTopics = "passbook/jpasskittest.p12";
+    private static final char[] keyStorePasswordNoTopics = "password".toCharArray();
+    private static final String keyStorePath = "passbook/expired_cert.p12";
+    private static final char[] keyStorePassword = "cert".toCharArray();
+    private static final String CA_CERTIFICATE_FILENAME = "/ca.pem";
+    private static final String SERVER_CERTIFICATES_FILENAME = "/server-certs.pem";
+    private static final String SERVER_KEY_FILENAME = "/server-key.pem";
+    private static final String HOST = "localhost";
+    private static final int PORT = 8444;
+    private static final String MOCK_TOPIC = "pass.com.example.mock";
+
+    private PKApnsClientRouter router;
+    private MockApnsServer apnsServer;
+
+    @BeforeClass
+    public void prepareTest() throws Exception {
+        router = new PKApnsClientRouter(HOST, PORT, 1);
+        try (InputStream certificateStream = toInputStream(keyStorePath)) {
+            ApnsClient client = new ApnsClientBuilder().setApnsServer(HOST, PORT)
+                    .setClientCredentials(certificateStream, String.valueOf(keyStorePassword))
+                    .setTrustedServerCertificateChain(getClass().getResourceAsStream(CA_CERTIFICATE_FILENAME))
+                    .build();
+            router.addClient(client, Collections.singleton(MOCK_TOPIC));
+        }
+        apnsServer = new MockApnsServerBuilder()
+                .setHandlerFactory(new AcceptAllPushNotificationHandlerFactory())
+                .setServerCredentials(getClass().getResourceAsStream(SERVER_CERTIFICATES_FILENAME), getClass().getResourceAsStream(SERVER_KEY_FILENAME), null)
+                .build();
+        apnsServer.start(PORT).get();
+    }
+
+    @Test
+    public void addCertificateRegistersItsTopics() throws Exception {
+        Set<String> topics = router.addCertificate(keyStorePath, keyStorePassword, 2);
+        assertThat(topics).isNotEmpty();
+        assertThat(router.getTopics()).containsAll(topics).contains(MOCK_TOPIC);
+    }
+
+    @Test
+    public void addCertificateWithoutTopics() {
+        assertThatThrownBy(() -> router.addCertificate(keyStorePathNoTopics, keyStorePasswordNoTopics))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void sendPushNotificationWithMockAPNS() throws Exception {
+        final PushNotificationResponse<SimpleApnsPushNotification> response = router.sendPushNotificationAsync(MOCK_TOPIC, "ABC1234").get();
+        assertThat(response.isAccepted()).isTrue();
+        assertThat(response.getPushNotification().getTopic()).isEqualTo(MOCK_TOPIC);
+    }
+
+    @Test
+    public void sendPushNotificationsWithMockAPNS() throws Exception {
+        PKBulkPushResult result = router.sendPushNotifications(MOCK_TOPIC,
+                IntStream.range(0, 20).mapToObj(i -> String.format("ABC%04d", i)).collect(Collectors.toList()), 4);
+        assertThat(result.getAcceptedCount()).isEqualTo(20);
+    }
+
+    @Test
+    public void sendPushNotificationForUnknownPassType() {
+        assertThatThrownBy(() -> router.sendPushNotificationAsync("pass.com.example.unknown", "ABC1234"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessage("No APNS certificate for pass.com.example.unknown");
+    }
+
+    @Test
+    public void replacedClientIsClosedOnceItHasNoTopicLeft() throws Exception {
+        try (PKApnsClientRouter clientRouter = new PKApnsClientRouter(HOST, PORT, 1)) {
+            ApnsClient oldClient = mockClient();
+            ApnsClient newClient = mockClient();
+            clientRouter.addClient(oldClient, new HashSet<>(Arrays.asList("pass.com.example.a", "pass.com.example.b")));
+
+            clientRouter.addClient(newClient, Collections.singleton("pass.com.example.a"));
+            verify(oldClient, never()).close();
+            assertThat(clientRouter.getClient("pass.com.example.b")).isSameAs(oldClient);
+
+            clientRouter.addClient(newClient, Collections.singleton("pass.com.example.b"));
+            verify(oldClient).close();
+            verify(newClient, never()).close();
+            assertThat(clientRouter.getClient("pass.com.example.b")).isSameAs(newClient);
+        }
+    }
+
+    private static ApnsClient mockClient() {
+        ApnsClient client = mock(ApnsClient.class);
+        when(client.close()).thenReturn(CompletableFuture.completedFuture(null));
+        return client;
+    }
+
+    @AfterClass
+    public void shutDownTest() throws Exception {
+        router.close();
+        apnsServer.shutdown();
+    }
+}
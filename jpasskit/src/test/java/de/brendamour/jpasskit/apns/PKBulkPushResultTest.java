@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+public class PKBulkPushResultTest {
+
+    private static final String TOPIC = "pass.com.example";
+
+    @Test
+    public void testCountsResponsesPerStatus() {
+        PKBulkPushResult result = new PKBulkPushResult();
+        result.recordResponse(TOPIC, "token1", new TestResponse(200, null, null));
+        result.recordResponse(TOPIC, "token2", new TestResponse(200, null, null));
+        result.recordResponse(TOPIC, "token3", new TestResponse(400, "BadDeviceToken", null));
+        result.recordResponse(TOPIC, "token4", new TestResponse(410, "Unregistered", Instant.ofEpochSecond(1700000000)));
+        result.recordFailure("token5");
+
+        Assert.assertEquals(result.getTotalCount(), 5);
+        Assert.assertEquals(result.getAcceptedCount(), 2);
+        Assert.assertEquals(result.getRejectedCount(), 2);
+        Assert.assertEquals(result.getFailedCount(), 1);
+        Assert.assertEquals(new ArrayList<>(result.getStatusCounts().keySet()), Arrays.asList(200, 400, 410));
+        Assert.assertEquals(result.getStatusCounts().get(200), Long.valueOf(2));
+        Assert.assertEquals(result.getFailedPushTokens(), Collections.singletonList("token5"));
+
+        List<PKPushRejection> rejections = result.getRejections();
+        Assert.assertEquals(rejections.size(), 2);
+        PKPushRejection unregistered = rejections.get(1);
+        Assert.assertEquals(unregistered.getTopic(), TOPIC);
+        Assert.assertEquals(unregistered.getPushToken(), "token4");
+        Assert.assertEquals(unregistered.getStatusCode(), 410);
+        Assert.assertEquals(unregistered.getReason(), "Unregistered");
+        Assert.assertEquals(unregistered.getTokenInvalidationTimestamp(), Instant.ofEpochSecond(1700000000));
+    }
+
+    @Test
+    public void testEmptyResult() {
+        PKBulkPushResult result = new PKBulkPushResult();
+        Assert.assertEquals(result.getTotalCount(), 0);
+        Assert.assertTrue(result.getStatusCounts().isEmpty());
+        Assert.assertTrue(result.getRejections().isEmpty());
+    }
+
+    static final class TestResponse implements PushNotificationResponse<SimpleApnsPushNotification> {
+
+        private final int statusCode;
+        private final String rejectionReason;
+        private final Instant tokenInvalidationTimestamp;
+
+        TestResponse(int statusCode, String rejectionReason, Instant tokenInvalidationTimestamp) {
+            this.statusCode = statusCode;
+            this.rejectionReason = rejectionReason;
+            this.tokenInvalidationTimestamp = tokenInvalidationTimestamp;
+        }
+
+        @Override
+        public SimpleApnsPushNotification getPushNotification() {
+            return null;
+        }
+
+        @Override
+        public boolean isAccepted() {
+            return statusCode == 200;
+        }
+
+        @Override
+        public UUID getApnsId() {
+            return null;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public Optional<String> getRejectionReason() {
+            return Optional.ofNullable(rejectionReason);
+        }
+
+        @Override
+        public Optional<Instant> getTokenInvalidationTimestamp() {
+            return Optional.ofNullable(tokenInvalidationTimestamp);
+        }
+    }
+}
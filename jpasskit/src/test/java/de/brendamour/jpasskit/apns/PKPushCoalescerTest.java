@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+public class PKPushCoalescerTest {
+
+    private static final String TOPIC = "pass.com.example.test";
+    private static final String OTHER_TOPIC = "pass.com.example.other";
+
+    @Test
+    public void testCollapsesRequestsForSameTokenIntoOneNotification() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        try (PKPushCoalescer coalescer = new PKPushCoalescer(sender, Duration.ofHours(1))) {
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> first = coalescer.requestPush(TOPIC, "token1");
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> second = coalescer.requestPush(TOPIC, "token1");
+            coalescer.requestPush(TOPIC, "token1");
+            coalescer.requestPush(TOPIC, "token2");
+            coalescer.requestPush(OTHER_TOPIC, "token1");
+
+            Assert.assertTrue(sender.notifications.isEmpty());
+            Assert.assertEquals(coalescer.getPendingCount(), 3);
+            Assert.assertSame(first, second);
+
+            coalescer.flush();
+            Assert.assertEquals(sender.notifications.size(), 3);
+            Assert.assertEquals(first.get(1, TimeUnit.SECONDS).getStatusCode(), 200);
+            Assert.assertEquals(coalescer.getRequestedCount(), 5);
+            Assert.assertEquals(coalescer.getSentCount(), 3);
+            Assert.assertEquals(coalescer.getSavedCount(), 2);
+            Assert.assertEquals(coalescer.getPendingCount(), 0);
+        }
+    }
+
+    @Test
+    public void testSetsCollapseIdPerToken() {
+        RecordingSender sender = new RecordingSender();
+        try (PKPushCoalescer coalescer = new PKPushCoalescer(sender, Duration.ofHours(1))) {
+            coalescer.requestPush(TOPIC, "token1");
+            coalescer.requestPush(TOPIC, "token2");
+            coalescer.flush();
+            coalescer.requestPush(TOPIC, "token1");
+            coalescer.flush();
+        }
+        Assert.assertEquals(sender.notifications.size(), 3);
+        for (SimpleApnsPushNotification notification : sender.notifications) {
+            Assert.assertEquals(notification.getTopic(), TOPIC);
+            Assert.assertEquals(notification.getCollapseId(), PKPushCoalescer.collapseId(notification.getToken()));
+            Assert.assertTrue(notification.getCollapseId().length() <= 64);
+        }
+        Assert.assertNotEquals(PKPushCoalescer.collapseId("token1"), PKPushCoalescer.collapseId("token2"));
+        Assert.assertEquals(sender.notifications.get(2).getToken(), "token1");
+    }
+
+    @Test
+    public void testSendsWhenWindowEnds() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        try (PKPushCoalescer coalescer = new PKPushCoalescer(sender, Duration.ofMillis(50))) {
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = coalescer.requestPush(TOPIC, "token1");
+            coalescer.requestPush(TOPIC, "token1");
+            Assert.assertEquals(future.get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            Assert.assertEquals(sender.notifications.size(), 1);
+
+            // a request after the window was sent opens a new one
+            coalescer.requestPush(TOPIC, "token1").get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(sender.notifications.size(), 2);
+        }
+    }
+
+    @Test
+    public void testCloseSendsOpenWindows() {
+        RecordingSender sender = new RecordingSender();
+        PKPushCoalescer coalescer = new PKPushCoalescer(sender, Duration.ofHours(1));
+        CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = coalescer.requestPush(TOPIC, "token1");
+        coalescer.close();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(sender.notifications.size(), 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testRejectsRequestsAfterClose() {
+        PKPushCoalescer coalescer = new PKPushCoalescer(new RecordingSender(), Duration.ofSeconds(1));
+        coalescer.close();
+        coalescer.requestPush(TOPIC, "token1");
+    }
+
+    @Test
+    public void testFailedSendCompletesAllRequestsExceptionally() {
+        IllegalStateException failure = new IllegalStateException("connection lost");
+        try (PKPushCoalescer coalescer = new PKPushCoalescer(notification -> {
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = new CompletableFuture<>();
+            future.completeExceptionally(failure);
+            return future;
+        }, Duration.ofHours(1))) {
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = coalescer.requestPush(TOPIC, "token1");
+            coalescer.requestPush(TOPIC, "token1");
+            coalescer.flush();
+            Assert.assertTrue(future.isCompletedExceptionally());
+        }
+    }
+
+    static final class RecordingSender implements IPKPushNotificationSender {
+
+        final List<SimpleApnsPushNotification> notifications = new CopyOnWriteArrayList<>();
+
+        @Override
+        public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(
+                SimpleApnsPushNotification notification) {
+            notifications.add(notification);
+            return CompletableFuture.completedFuture(new PKBulkPushResultTest.TestResponse(200, null, null));
+        }
+    }
+}
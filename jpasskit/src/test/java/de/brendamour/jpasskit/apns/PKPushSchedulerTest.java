@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+import de.brendamour.jpasskit.apns.PKBulkPushResultTest.TestResponse;
+
+public class PKPushSchedulerTest {
+
+    private static final String TOPIC = "pass.com.example.test";
+
+    @Test
+    public void testRetriesRetryableStatusUntilAccepted() throws Exception {
+        ScriptedSender sender = new ScriptedSender(429, 503, 200);
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 5)) {
+            scheduler.setBackoff(Duration.ofMillis(1), Duration.ofMillis(5));
+            PushNotificationResponse<SimpleApnsPushNotification> response = scheduler.schedule(TOPIC, "token1").get(5, TimeUnit.SECONDS);
+
+            Assert.assertEquals(response.getStatusCode(), 200);
+            Assert.assertEquals(sender.notifications.size(), 3);
+            Assert.assertEquals(scheduler.getSentCount(), 3);
+            Assert.assertEquals(scheduler.getRetriedCount(), 2);
+            Assert.assertEquals(scheduler.getDeadLetteredCount(), 0);
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryPermanentRejection() throws Exception {
+        ScriptedSender sender = new ScriptedSender(410);
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 5)) {
+            Assert.assertEquals(scheduler.schedule(TOPIC, "token1").get(5, TimeUnit.SECONDS).getStatusCode(), 410);
+            Assert.assertEquals(scheduler.getRetriedCount(), 0);
+        }
+    }
+
+    @Test
+    public void testRetriesConnectionFailures() throws Exception {
+        ScriptedSender sender = new ScriptedSender(-1, 200);
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 5)) {
+            scheduler.setBackoff(Duration.ofMillis(1), Duration.ofMillis(5));
+            Assert.assertEquals(scheduler.schedule(TOPIC, "token1").get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            Assert.assertEquals(scheduler.getRetriedCount(), 1);
+        }
+    }
+
+    @Test
+    public void testDeadLettersWhenRetriesExhausted() throws Exception {
+        ScriptedSender sender = new ScriptedSender(429, 429);
+        List<PKPushDeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 2)) {
+            scheduler.setBackoff(Duration.ofMillis(1), Duration.ofMillis(5));
+            scheduler.setDeadLetterSink(deadLetters::add);
+            Assert.assertEquals(scheduler.schedule(TOPIC, "token1").get(5, TimeUnit.SECONDS).getStatusCode(), 429);
+        }
+        Assert.assertEquals(deadLetters.size(), 1);
+        PKPushDeadLetter deadLetter = deadLetters.get(0);
+        Assert.assertEquals(deadLetter.getReason(), PKPushDeadLetter.Reason.RETRIES_EXHAUSTED);
+        Assert.assertEquals(deadLetter.getAttempts(), 2);
+        Assert.assertEquals(deadLetter.getLastResponse().getStatusCode(), 429);
+        Assert.assertEquals(deadLetter.getNotification().getToken(), "token1");
+    }
+
+    @Test
+    public void testDeadLettersWhenRetryWouldExceedMaxAge() throws Exception {
+        ScriptedSender sender = new ScriptedSender(-1);
+        List<PKPushDeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMillis(50), 5)) {
+            scheduler.setBackoff(Duration.ofSeconds(1), Duration.ofSeconds(1));
+            scheduler.setDeadLetterSink(deadLetters::add);
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = scheduler.schedule(TOPIC, "token1");
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the connection failure");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(e.getCause().getMessage(), "connection lost");
+            }
+        }
+        Assert.assertEquals(deadLetters.size(), 1);
+        Assert.assertEquals(deadLetters.get(0).getReason(), PKPushDeadLetter.Reason.EXPIRED);
+        Assert.assertNotNull(deadLetters.get(0).getLastCause());
+    }
+
+    @Test
+    public void testRateLimitDelaysNotificationsOverBurst() throws Exception {
+        ScriptedSender sender = new ScriptedSender();
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 1)) {
+            scheduler.setRateLimit(20, 2);
+            scheduler.schedule(TOPIC, "token1");
+            scheduler.schedule(TOPIC, "token2");
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> third = scheduler.schedule(TOPIC, "token3");
+            // another topic has a bucket of its own
+            scheduler.schedule("pass.com.example.other", "token4");
+
+            Assert.assertEquals(sender.notifications.size(), 3);
+            Assert.assertEquals(scheduler.getWaitingCount(), 1);
+            Assert.assertEquals(third.get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            Assert.assertEquals(sender.notifications.size(), 4);
+        }
+    }
+
+    @Test
+    public void testExpiredBurstDoesNotDelayLaterNotifications() throws Exception {
+        ScriptedSender sender = new ScriptedSender();
+        List<PKPushDeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+        try (PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMillis(200), 1)) {
+            scheduler.setRateLimit(100, 1);
+            scheduler.setDeadLetterSink(deadLetters::add);
+            // about 20 fit into the max age, the others expire at once and would otherwise leave 10 s of reservations behind
+            for (int i = 0; i < 1000; i++) {
+                scheduler.schedule(TOPIC, "burst" + i);
+            }
+            Assert.assertTrue(deadLetters.size() >= 900, "" + deadLetters.size());
+            for (PKPushDeadLetter deadLetter : deadLetters) {
+                Assert.assertEquals(deadLetter.getReason(), PKPushDeadLetter.Reason.EXPIRED);
+            }
+
+            Thread.sleep(300);
+            Assert.assertEquals(scheduler.getWaitingCount(), 0);
+            int deadLettered = deadLetters.size();
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(scheduler.schedule(TOPIC, "later" + i).get(5, TimeUnit.SECONDS).getStatusCode(), 200);
+            }
+            Assert.assertEquals(deadLetters.size(), deadLettered);
+            Assert.assertEquals(sender.notifications.size() + deadLettered, 1010);
+        }
+    }
+
+    @Test
+    public void testCloseDeadLettersWaitingNotifications() {
+        ScriptedSender sender = new ScriptedSender();
+        List<PKPushDeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+        PKPushScheduler scheduler = new PKPushScheduler(sender, Duration.ofMinutes(1), 1);
+        scheduler.setRateLimit(1, 1);
+        scheduler.setDeadLetterSink(deadLetters::add);
+        scheduler.schedule(TOPIC, "token1");
+        CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> waiting = scheduler.schedule(TOPIC, "token2");
+        scheduler.close();
+
+        Assert.assertTrue(waiting.isCompletedExceptionally());
+        Assert.assertEquals(deadLetters.size(), 1);
+        Assert.assertEquals(deadLetters.get(0).getReason(), PKPushDeadLetter.Reason.SHUTDOWN);
+        Assert.assertEquals(deadLetters.get(0).getAttempts(), 0);
+    }
+
+    @Test
+    public void testBackoffGrowsWithinBounds() {
+        PKPushScheduler scheduler = new PKPushScheduler(new ScriptedSender(), Duration.ofMinutes(1), 1);
+        scheduler.setBackoff(Duration.ofMillis(100), Duration.ofSeconds(1));
+        for (int i = 0; i < 100; i++) {
+            long first = scheduler.backoffNanos(1);
+            Assert.assertTrue(first >= TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100), "" + first);
+            long third = scheduler.backoffNanos(3);
+            Assert.assertTrue(third >= TimeUnit.MILLISECONDS.toNanos(200) && third <= TimeUnit.MILLISECONDS.toNanos(400), "" + third);
+            long capped = scheduler.backoffNanos(64);
+            Assert.assertTrue(capped >= TimeUnit.MILLISECONDS.toNanos(500) && capped <= TimeUnit.SECONDS.toNanos(1), "" + capped);
+        }
+        scheduler.close();
+    }
+
+    // answers with the scripted statuses in order, -1 fails the send, 200 once the script is used up
+    static final class ScriptedSender implements IPKPushNotificationSender {
+
+        final List<SimpleApnsPushNotification> notifications = new CopyOnWriteArrayList<>();
+        private final Queue<Integer> statuses = new ConcurrentLinkedQueue<>();
+
+        ScriptedSender(int... statuses) {
+            for (int status : statuses) {
+                this.statuses.add(status);
+            }
+        }
+
+        @Override
+        public CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> sendNotification(
+                SimpleApnsPushNotification notification) {
+            notifications.add(notification);
+            Integer status = statuses.poll();
+            CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> future = new CompletableFuture<>();
+            if (status != null && status < 0) {
+                future.completeExceptionally(new IllegalStateException("connection lost"));
+            } else {
+                int statusCode = status != null ? status : 200;
+                future.complete(new TestResponse(statusCode, statusCode == 200 ? null : "Rejected", null));
+            }
+            return future;
+        }
+    }
+}
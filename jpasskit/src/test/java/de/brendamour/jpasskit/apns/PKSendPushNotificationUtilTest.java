@@ -28,6 +28,9 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static de.brendamour.jpasskit.util.CertUtils.toInputStream;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -73,6 +76,25 @@ public class PKSendPushNotificationUtilTest {
         assertThat(response.isAccepted()).isTrue();
     }
 
+    @Test
+    public void sendPushNotificationsWithMockAPNS() throws Exception {
+        List<String> pushTokens = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            pushTokens.add(String.format("ABC%04d", i));
+        }
+        PKBulkPushResult result = mockPushUtil.sendPushNotifications(pushTokens, 8);
+        assertThat(result.getAcceptedCount()).isEqualTo(50);
+        assertThat(result.getStatusCounts()).containsEntry(200, 50L);
+        assertThat(result.getRejections()).isEmpty();
+        assertThat(result.getFailedPushTokens()).isEmpty();
+    }
+
+    @Test
+    public void sendPushNotificationsWithBadCertificate() {
+        assertThatThrownBy(() -> badCertPushUtil.sendPushNotifications(Stream.of("ABC1234"), 1))
+                .isInstanceOf(IllegalStateException.class).hasMessage("APNS topic is required for sending a push notification");
+    }
+
     @Test
     public void sendPushNotificationWithBadCertificate() {
         assertThatThrownBy(new ThrowableAssert.ThrowingCallable() {
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKTokenBucketTest {
+
+    @Test
+    public void testBurstThenRate() {
+        AtomicLong clock = new AtomicLong();
+        PKTokenBucket bucket = new PKTokenBucket(10, 2, clock::get);
+
+        Assert.assertEquals(bucket.reserve(), 0);
+        Assert.assertEquals(bucket.reserve(), 0);
+        // one permit every 100 ms once the burst is used, reservations queue up behind each other
+        Assert.assertEquals(bucket.reserve(), TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(bucket.reserve(), TimeUnit.MILLISECONDS.toNanos(200));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(bucket.reserve(), TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testRefillsUpToBurst() {
+        AtomicLong clock = new AtomicLong();
+        PKTokenBucket bucket = new PKTokenBucket(10, 2, clock::get);
+        bucket.reserve();
+        bucket.reserve();
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(bucket.reserve(), 0);
+        Assert.assertEquals(bucket.reserve(), 0);
+        Assert.assertTrue(bucket.reserve() > 0);
+    }
+
+    @Test
+    public void testTryReserveTakesNoPermitItWouldNotWaitFor() {
+        AtomicLong clock = new AtomicLong();
+        PKTokenBucket bucket = new PKTokenBucket(10, 1, clock::get);
+        Assert.assertEquals(bucket.tryReserve(0), 0);
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(bucket.tryReserve(TimeUnit.MILLISECONDS.toNanos(50)), -1);
+        }
+        // the refused reservations left no debt behind
+        Assert.assertEquals(bucket.tryReserve(TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.MILLISECONDS.toNanos(100));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        Assert.assertEquals(bucket.tryReserve(0), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectsZeroRate() {
+        new PKTokenBucket(0, 1, System::nanoTime);
+    }
+}
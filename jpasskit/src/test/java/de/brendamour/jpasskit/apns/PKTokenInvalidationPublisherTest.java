@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.apns;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.eatthepath.pushy.apns.PushNotificationResponse;
+import com.eatthepath.pushy.apns.util.SimpleApnsPushNotification;
+
+import de.brendamour.jpasskit.apns.PKBulkPushResultTest.TestResponse;
+
+public class PKTokenInvalidationPublisherTest {
+
+    private static final String TOPIC = "pass.com.example.test";
+
+    @Test
+    public void testClassifiesInvalidTokens() {
+        Assert.assertTrue(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(410, "Unregistered", Instant.now())));
+        Assert.assertTrue(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(410, "ExpiredToken", null)));
+        Assert.assertTrue(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(400, "BadDeviceToken", null)));
+        Assert.assertTrue(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(400, "DeviceTokenNotForTopic", null)));
+        Assert.assertFalse(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(200, null, null)));
+        Assert.assertFalse(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(429, "TooManyRequests", null)));
+        Assert.assertFalse(PKTokenInvalidationPublisher.isTokenInvalid(new TestResponse(400, "PayloadEmpty", null)));
+        Assert.assertFalse(PKTokenInvalidationPublisher.isTokenInvalid(null));
+    }
+
+    @Test
+    public void testDeliversBatchWhenFull() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(1);
+        List<List<PKPushRejection>> batches = new CopyOnWriteArrayList<>();
+        try (PKTokenInvalidationPublisher publisher = new PKTokenInvalidationPublisher(batch -> {
+            batches.add(batch);
+            delivered.countDown();
+        }, 2, Duration.ofHours(1))) {
+            Instant invalidatedAt = Instant.ofEpochSecond(1700000000);
+            Assert.assertTrue(publisher.report(TOPIC, "token1", new TestResponse(410, "Unregistered", invalidatedAt)));
+            Assert.assertFalse(publisher.report(TOPIC, "token2", new TestResponse(200, null, null)));
+            // the same token again does not fill the batch
+            publisher.report(TOPIC, "token1", new TestResponse(410, "Unregistered", invalidatedAt));
+            Assert.assertTrue(batches.isEmpty());
+            publisher.report(TOPIC, "token3", new TestResponse(400, "BadDeviceToken", null));
+
+            Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            List<PKPushRejection> batch = batches.get(0);
+            Assert.assertEquals(batch.size(), 2);
+            Assert.assertEquals(batch.get(0).getTopic(), TOPIC);
+            Assert.assertEquals(batch.get(0).getPushToken(), "token1");
+            Assert.assertEquals(batch.get(0).getTokenInvalidationTimestamp(), invalidatedAt);
+            Assert.assertEquals(batch.get(1).getReason(), "BadDeviceToken");
+            Assert.assertEquals(publisher.getReportedCount(), 3);
+        }
+    }
+
+    @Test
+    public void testDeliversAfterMaxDelay() throws Exception {
+        CountDownLatch delivered = new CountDownLatch(1);
+        try (PKTokenInvalidationPublisher publisher = new PKTokenInvalidationPublisher(batch -> delivered.countDown(), 100,
+                Duration.ofMillis(50))) {
+            publisher.report(TOPIC, "token1", new TestResponse(410, "Unregistered", null));
+            Assert.assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testObservesSentNotifications() {
+        List<PKPushRejection> invalidations = new ArrayList<>();
+        PKTokenInvalidationPublisher publisher = new PKTokenInvalidationPublisher(invalidations::addAll, 100, Duration.ofHours(1));
+        CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> rejected = new CompletableFuture<>();
+        CompletableFuture<PushNotificationResponse<SimpleApnsPushNotification>> failed = new CompletableFuture<>();
+        publisher.observe(TOPIC, "token1", rejected);
+        publisher.observe(TOPIC, "token2", failed);
+        rejected.complete(new TestResponse(410, "Unregistered", null));
+        failed.completeExceptionally(new IllegalStateException("connection lost"));
+
+        publisher.close();
+        Assert.assertEquals(invalidations.size(), 1);
+        Assert.assertEquals(invalidations.get(0).getPushToken(), "token1");
+        Assert.assertEquals(publisher.getDeliveredCount(), 1);
+    }
+
+    @Test
+    public void testListenerFailureIsCounted() {
+        PKTokenInvalidationPublisher publisher = new PKTokenInvalidationPublisher(batch -> {
+            throw new IllegalStateException("database down");
+        }, 100, Duration.ofHours(1));
+        publisher.report(TOPIC, "token1", new TestResponse(410, "Unregistered", null));
+        publisher.close();
+        Assert.assertEquals(publisher.getFailedBatchCount(), 1);
+        Assert.assertEquals(publisher.getDeliveredCount(), 0);
+    }
+}
@@ -17,13 +17,22 @@ package de.brendamour.jpasskit.signing;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * @author stepio
  */
@@ -38,6 +47,30 @@ public class AssertZip {
         }
     }
 
+    /**
+     * Checks that manifest.json lists exactly the other files of the archive with their SHA-1 digests.
+     */
+    public static void assertManifestMatchesContent(final File file) throws IOException {
+        Map<String, String> actualDigests = new HashMap<>();
+        Map<String, String> manifest = null;
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                try (InputStream inputStream = zip.getInputStream(entry)) {
+                    if ("manifest.json".equals(entry.getName())) {
+                        manifest = new ObjectMapper().readValue(inputStream, new TypeReference<Map<String, String>>() {
+                        });
+                    } else if (!"signature".equals(entry.getName())) {
+                        actualDigests.put(entry.getName(), DigestUtils.sha1Hex(inputStream));
+                    }
+                }
+            }
+        }
+        Assert.assertNotNull(manifest, "manifest.json is missing");
+        Assert.assertEquals(manifest, actualDigests);
+    }
+
     private static boolean isValid(final File file) {
         try (ZipFile zip = new ZipFile(file)) {
             return true;
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKArchiveOutputStreamTest {
+
+    private static final byte[] CONTENT = "pass content".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testBufferSharesBackingArray() throws IOException {
+        PKArchiveOutputStream.Buffer outputStream = new PKArchiveOutputStream.Buffer();
+        outputStream.write(CONTENT);
+
+        ByteBuffer buffer = outputStream.toByteBuffer();
+        Assert.assertEquals(buffer.position(), 0);
+        Assert.assertEquals(buffer.remaining(), CONTENT.length);
+        Assert.assertEquals(buffer, ByteBuffer.wrap(CONTENT));
+        buffer.put(0, (byte) 'P');
+        Assert.assertEquals(outputStream.toByteArray()[0], (byte) 'P');
+    }
+
+    @Test
+    public void testChannelIsNotClosed() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(target);
+
+        try (OutputStream outputStream = new PKArchiveOutputStream.Channel(channel)) {
+            outputStream.write(CONTENT, 0, 4);
+            outputStream.write(CONTENT[4]);
+            outputStream.write(CONTENT, 5, CONTENT.length - 5);
+        }
+
+        Assert.assertTrue(channel.isOpen());
+        Assert.assertEquals(target.toByteArray(), CONTENT);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testChannelIsMandatory() {
+        new PKArchiveOutputStream.Channel(null);
+    }
+}
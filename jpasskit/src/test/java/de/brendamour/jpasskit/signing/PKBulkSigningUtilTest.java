@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+
+public class PKBulkSigningUtilTest {
+
+    private static final String PASS_TEMPLATE_FOLDER = PKPassTemplateFolderTest.class.getClassLoader().getResource("StoreCard.raw").getPath();
+    private static final String APPLE_WWDRCA = "passbook/ca-chain.cert.pem";
+    private static final String KEYSTORE_PATH = "passbook/jpasskittest.p12";
+    private static final String KEYSTORE_PASSWORD = "password";
+
+    private ExecutorService executorService;
+    private RecordingListener listener;
+
+    @BeforeMethod
+    public void prepare() {
+        executorService = Executors.newFixedThreadPool(8);
+        listener = new RecordingListener();
+    }
+
+    @AfterMethod
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testAllPassesAreDeliveredWithBoundedInFlightWork() throws Exception {
+        FakeSigningUtil signingUtil = new FakeSigningUtil();
+        PKBulkSigningUtil bulkSigningUtil = new PKBulkSigningUtil(signingUtil, executorService, 3);
+
+        bulkSigningUtil.createSignedAndZippedPkPassArchives(passes(100).stream(), new PKPassTemplateInMemory(),
+                new PKSigningInformation(null, null, null), listener);
+
+        Assert.assertEquals(listener.signed.size(), 100);
+        Assert.assertTrue(listener.failed.isEmpty());
+        Assert.assertEquals(listener.signed.get("serial42"), "serial42".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(signingUtil.maxConcurrency.get() <= 3, "max concurrency was " + signingUtil.maxConcurrency.get());
+    }
+
+    @Test
+    public void testFailuresAreDelivered() throws Exception {
+        FakeSigningUtil signingUtil = new FakeSigningUtil();
+        PKBulkSigningUtil bulkSigningUtil = new PKBulkSigningUtil(signingUtil, executorService, 4);
+        List<PKPass> passes = passes(10);
+        passes.add(PKPass.builder().serialNumber("checked").build());
+        passes.add(PKPass.builder().serialNumber("unchecked").build());
+
+        bulkSigningUtil.createSignedAndZippedPkPassArchives(passes, new PKPassTemplateInMemory(),
+                new PKSigningInformation(null, null, null), listener);
+
+        Assert.assertEquals(listener.signed.size(), 10);
+        Assert.assertEquals(listener.failed.size(), 2);
+        Assert.assertEquals(listener.failed.get("checked").getMessage(), "checked");
+        Assert.assertTrue(listener.failed.get("unchecked").getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testListenerFailureDoesNotStopTheBatch() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        PKBulkSigningUtil bulkSigningUtil = new PKBulkSigningUtil(new FakeSigningUtil(), Runnable::run, 1);
+
+        bulkSigningUtil.createSignedAndZippedPkPassArchives(passes(5), new PKPassTemplateInMemory(),
+                new PKSigningInformation(null, null, null), new IPKBulkSigningListener() {
+                    @Override
+                    public void onPassSigned(PKPass pass, byte[] signedAndZippedPkPassArchive) {
+                        calls.incrementAndGet();
+                        throw new IllegalStateException("listener failure");
+                    }
+
+                    @Override
+                    public void onPassFailed(PKPass pass, PKSigningException exception) {
+                        Assert.fail("Unexpected failure", exception);
+                    }
+                });
+
+        Assert.assertEquals(calls.get(), 5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMaxInFlightMustBePositive() {
+        new PKBulkSigningUtil(new FakeSigningUtil(), executorService, 0);
+    }
+
+    @Test
+    public void testVirtualThreadPerTaskExecutor() throws Exception {
+        ExecutorService virtualThreadExecutor = PKBulkSigningUtil.newVirtualThreadPerTaskExecutor();
+        try {
+            new PKBulkSigningUtil(new FakeSigningUtil(), virtualThreadExecutor, 16).createSignedAndZippedPkPassArchives(passes(50),
+                    new PKPassTemplateInMemory(), new PKSigningInformation(null, null, null), listener);
+        } finally {
+            virtualThreadExecutor.shutdown();
+        }
+        Assert.assertEquals(listener.signed.size(), 50);
+    }
+
+    @Test
+    public void testWithInMemorySigningUtil() throws Exception {
+        PKSigningInformation pkSigningInformation = new PKSigningInformationUtil().loadSigningInformationFromPKCS12AndIntermediateCertificate(
+                KEYSTORE_PATH, KEYSTORE_PASSWORD, APPLE_WWDRCA);
+        PKPassTemplatePrecompressed template = new PKPassTemplatePrecompressed(new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER));
+        List<PKPass> passes = IntStream.range(0, 8)
+                .mapToObj(i -> PKPass.builder()
+                        .formatVersion(1)
+                        .passTypeIdentifier("pass.de.brendamour.test")
+                        .teamIdentifier("ABCDEF")
+                        .organizationName("jpasskit")
+                        .description("bulk " + i)
+                        .serialNumber("serial" + i)
+                        .build())
+                .collect(Collectors.toList());
+
+        new PKBulkSigningUtil(new PKInMemorySigningUtil(), executorService, 4).createSignedAndZippedPkPassArchives(passes, template,
+                pkSigningInformation, listener);
+
+        Assert.assertTrue(listener.failed.isEmpty(), listener.failed.toString());
+        Assert.assertEquals(listener.signed.size(), 8);
+        File passFile = File.createTempFile("bulkPass", ".zip");
+        try (OutputStream outputStream = new FileOutputStream(passFile)) {
+            outputStream.write(listener.signed.get("serial3"));
+        }
+        AssertZip.assertValid(passFile);
+        AssertZip.assertManifestMatchesContent(passFile);
+    }
+
+    private static List<PKPass> passes(int count) {
+        List<PKPass> passes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            passes.add(PKPass.builder().serialNumber("serial" + i).build());
+        }
+        return passes;
+    }
+
+    private static final class RecordingListener implements IPKBulkSigningListener {
+
+        private final Map<String, byte[]> signed = new ConcurrentHashMap<>();
+        private final Map<String, PKSigningException> failed = new ConcurrentHashMap<>();
+
+        @Override
+        public void onPassSigned(PKPass pass, byte[] signedAndZippedPkPassArchive) {
+            signed.put(pass.getSerialNumber(), signedAndZippedPkPassArchive);
+        }
+
+        @Override
+        public void onPassFailed(PKPass pass, PKSigningException exception) {
+            failed.put(pass.getSerialNumber(), exception);
+        }
+    }
+
+    /**
+     * Returns the serial number as archive and records how many passes are signed concurrently.
+     */
+    private static final class FakeSigningUtil implements IPKSigningUtil {
+
+        private final AtomicInteger concurrency = new AtomicInteger();
+        private final AtomicInteger maxConcurrency = new AtomicInteger();
+
+        @Override
+        public byte[] createSignedAndZippedPkPassArchive(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation)
+                throws PKSigningException {
+            int current = concurrency.incrementAndGet();
+            maxConcurrency.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(1);
+                if ("checked".equals(pass.getSerialNumber())) {
+                    throw new PKSigningException("checked", null);
+                }
+                if ("unchecked".equals(pass.getSerialNumber())) {
+                    throw new IllegalStateException("unchecked");
+                }
+                return pass.getSerialNumber().getBytes(StandardCharsets.UTF_8);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PKSigningException(e);
+            } finally {
+                concurrency.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void createSignedAndZippedPkPassArchiveStream(PKPass pass, IPKPassTemplate passTemplate,
+                PKSigningInformation signingInformation, OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] createSignedAndZippedPersonalizedPkPassArchive(PKPass pass, PKPersonalization personalization,
+                IPKPassTemplate passTemplate, PKSigningInformation signingInformation) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void createSignedAndZippedPersonalizedPkPassArchiveStream(PKPass pass, PKPersonalization personalization,
+                IPKPassTemplate passTemplate, PKSigningInformation signingInformation, OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] signManifestFile(byte[] manifestJSON, PKSigningInformation signingInformation) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+
+public class PKCachingSigningUtilTest {
+
+    private static final String PASS_TEMPLATE_FOLDER = PKPassTemplateFolderTest.class.getClassLoader().getResource("StoreCard.raw").getPath();
+
+    private CountingSigningUtil delegate;
+    private PKCachingSigningUtil cachingSigningUtil;
+    private PKPassTemplateInMemory template;
+    private PKSigningInformation signingInformation;
+
+    @BeforeMethod
+    public void prepare() throws Exception {
+        delegate = new CountingSigningUtil();
+        cachingSigningUtil = new PKCachingSigningUtil(delegate, 1024 * 1024);
+        template = new PKPassTemplateInMemory();
+        template.addFile(PKPassTemplateInMemory.PK_ICON, "icon");
+        signingInformation = new PKSigningInformation();
+    }
+
+    @Test
+    public void testUnchangedPassIsServedFromCache() throws Exception {
+        byte[] first = cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("1").build(), template,
+                signingInformation);
+        byte[] second = cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("1").build(), template,
+                signingInformation);
+
+        Assert.assertEquals(second, first);
+        Assert.assertEquals(delegate.calls.get(), 1);
+        Assert.assertEquals(cachingSigningUtil.getMissCount(), 1);
+        Assert.assertEquals(cachingSigningUtil.getHitCount(), 1);
+        Assert.assertEquals(cachingSigningUtil.size(), 1);
+    }
+
+    @Test
+    public void testChangedPassPersonalizationOrTemplateIsSignedAgain() throws Exception {
+        PKPass pass = PKPass.builder().serialNumber("1").build();
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, signingInformation);
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("2").build(), template, signingInformation);
+        cachingSigningUtil.createSignedAndZippedPersonalizedPkPassArchive(pass, PKPersonalization.builder().description("d").build(),
+                template, signingInformation);
+        template.addFile(PKPassTemplateInMemory.PK_LOGO, "logo");
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, signingInformation);
+
+        Assert.assertEquals(delegate.calls.get(), 4);
+        Assert.assertEquals(cachingSigningUtil.getHitCount(), 0);
+    }
+
+    @Test
+    public void testCachedArchiveIsNotShared() throws Exception {
+        PKPass pass = PKPass.builder().serialNumber("1").build();
+        byte[] first = cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, signingInformation);
+        first[0] = 'x';
+
+        Assert.assertEquals(cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, signingInformation)[0], (byte) '1');
+        ByteBuffer buffer = cachingSigningUtil.createSignedAndZippedPkPassArchiveBuffer(pass, template, signingInformation);
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(buffer.get(0), (byte) '1');
+    }
+
+    @Test
+    public void testStreamVariant() throws Exception {
+        PKPass pass = PKPass.builder().serialNumber("1").build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        cachingSigningUtil.createSignedAndZippedPkPassArchiveStream(pass, template, signingInformation, outputStream);
+
+        Assert.assertEquals(outputStream.toByteArray(), cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, signingInformation));
+        Assert.assertEquals(delegate.calls.get(), 1);
+    }
+
+    @Test
+    public void testArchivesAreEvictedWhenBudgetIsExceeded() throws Exception {
+        cachingSigningUtil = new PKCachingSigningUtil(delegate, 2048);
+        for (int i = 0; i < 20; i++) {
+            cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber(String.valueOf(i)).build(), template,
+                    signingInformation);
+        }
+
+        Assert.assertTrue(cachingSigningUtil.size() < 20);
+        Assert.assertTrue(cachingSigningUtil.getStats().evictionCount() > 0);
+    }
+
+    @Test
+    public void testSigningCertificateIsPartOfTheKey() throws Exception {
+        PKPass pass = PKPass.builder().serialNumber("1").build();
+        X509Certificate serverCertificate = loadCertificate("server-certs.pem");
+        X509Certificate caCertificate = loadCertificate("ca.pem");
+
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, new PKSigningInformation(serverCertificate, null, caCertificate));
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, new PKSigningInformation(serverCertificate, null, caCertificate));
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, template, new PKSigningInformation(caCertificate, null, caCertificate));
+
+        Assert.assertEquals(delegate.calls.get(), 2);
+        Assert.assertEquals(cachingSigningUtil.getHitCount(), 1);
+    }
+
+    @Test
+    public void testTemplateWithoutDigests() throws Exception {
+        PKPassTemplateFolder folderTemplate = new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER);
+        PKPass pass = PKPass.builder().serialNumber("1").build();
+
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, folderTemplate, signingInformation);
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(pass, folderTemplate, signingInformation);
+
+        Assert.assertEquals(delegate.calls.get(), 1);
+    }
+
+    @Test(expectedExceptions = PKSigningException.class)
+    public void testUncheckedErrorIsWrapped() throws Exception {
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("unchecked").build(), template,
+                signingInformation);
+    }
+
+    @Test(expectedExceptions = PKSigningException.class)
+    public void testFingerprintErrorIsWrapped() throws Exception {
+        PKPass unserializablePass = new PKPass() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getSerialNumber() {
+                throw new IllegalStateException("unserializable");
+            }
+        };
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(unserializablePass, template, signingInformation);
+    }
+
+    @Test
+    public void testSignsTheFingerprintedTemplateSnapshot() throws Exception {
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("1").build(), template, signingInformation);
+        Assert.assertSame(delegate.lastTemplate, template.getSnapshot());
+
+        PKPassTemplatePrecompressed precompressedTemplate = new PKPassTemplatePrecompressed(template);
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("2").build(), precompressedTemplate,
+                signingInformation);
+        Assert.assertSame(delegate.lastTemplate, precompressedTemplate);
+    }
+
+    @Test(expectedExceptions = PKSigningException.class)
+    public void testSigningErrorIsPropagated() throws Exception {
+        cachingSigningUtil.createSignedAndZippedPkPassArchive(PKPass.builder().serialNumber("error").build(), template, signingInformation);
+    }
+
+    private X509Certificate loadCertificate(String path) throws Exception {
+        try (InputStream inputStream = PKCachingSigningUtilTest.class.getClassLoader().getResourceAsStream(path)) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(inputStream);
+        }
+    }
+
+    private static final class CountingSigningUtil implements IPKSigningUtil {
+
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile IPKPassTemplate lastTemplate;
+
+        @Override
+        public byte[] createSignedAndZippedPkPassArchive(PKPass pass, IPKPassTemplate passTemplate, PKSigningInformation signingInformation)
+                throws PKSigningException {
+            return createSignedAndZippedPersonalizedPkPassArchive(pass, null, passTemplate, signingInformation);
+        }
+
+        @Override
+        public void createSignedAndZippedPkPassArchiveStream(PKPass pass, IPKPassTemplate passTemplate,
+                PKSigningInformation signingInformation, OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] createSignedAndZippedPersonalizedPkPassArchive(PKPass pass, PKPersonalization personalization,
+                IPKPassTemplate passTemplate, PKSigningInformation signingInformation) throws PKSigningException {
+            calls.incrementAndGet();
+            lastTemplate = passTemplate;
+            if ("error".equals(pass.getSerialNumber())) {
+                throw new PKSigningException("error", null);
+            }
+            if ("unchecked".equals(pass.getSerialNumber())) {
+                throw new IllegalStateException("unchecked");
+            }
+            // large enough for the eviction test: a 2 KB budget holds only a few of these
+            byte[] archive = new byte[512];
+            byte[] serialNumber = pass.getSerialNumber().getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(serialNumber, 0, archive, 0, serialNumber.length);
+            return archive;
+        }
+
+        @Override
+        public void createSignedAndZippedPersonalizedPkPassArchiveStream(PKPass pass, PKPersonalization personalization,
+                IPKPassTemplate passTemplate, PKSigningInformation signingInformation, OutputStream outputStream) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public byte[] signManifestFile(byte[] manifestJSON, PKSigningInformation signingInformation) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.PKPass;
+import de.brendamour.jpasskit.personalization.PKPersonalization;
+
+public class PKContentFingerprintTest {
+
+    @Test
+    public void testSameContentHasSameFingerprint() {
+        Map<String, Object> userInfo = new HashMap<>();
+        userInfo.put("a", 1);
+        userInfo.put("b", "two");
+        Map<String, Object> reorderedUserInfo = new LinkedHashMap<>();
+        reorderedUserInfo.put("b", "two");
+        reorderedUserInfo.put("a", 1);
+
+        PKPass pass = PKPass.builder().serialNumber("123").description("desc").userInfo(userInfo).build();
+        PKPass sameContent = PKPass.builder().description("desc").userInfo(reorderedUserInfo).serialNumber("123").build();
+
+        Assert.assertEquals(PKContentFingerprint.of(pass), PKContentFingerprint.of(sameContent));
+        Assert.assertEquals(PKContentFingerprint.of(pass).length(), 64);
+    }
+
+    @Test
+    public void testChangedContentHasDifferentFingerprint() {
+        PKPass pass = PKPass.builder().serialNumber("123").description("desc").build();
+        PKPass changed = PKPass.builder().serialNumber("123").description("other").build();
+
+        Assert.assertNotEquals(PKContentFingerprint.of(pass), PKContentFingerprint.of(changed));
+    }
+
+    @Test
+    public void testPersonalizationIsIncluded() {
+        PKPass pass = PKPass.builder().serialNumber("123").build();
+        PKPersonalization personalization = PKPersonalization.builder().description("desc").build();
+
+        Assert.assertEquals(PKContentFingerprint.of(pass, null), PKContentFingerprint.of(pass));
+        Assert.assertNotEquals(PKContentFingerprint.of(pass, personalization), PKContentFingerprint.of(pass));
+        Assert.assertEquals(PKContentFingerprint.of(pass, personalization),
+                PKContentFingerprint.of(pass, PKPersonalization.builder().description("desc").build()));
+    }
+
+    @Test
+    public void testTemplateFingerprintHashesFilesWithoutDigest() throws Exception {
+        PKPassTemplateInMemory template = new PKPassTemplateInMemory();
+        template.addFile(PKPassTemplateInMemory.PK_ICON, "icon");
+        PKPassTemplateSnapshot withDigests = template.getSnapshot();
+        PKPassTemplateSnapshot withoutDigests = new PKPassTemplateSnapshot(withDigests.getFiles(), null);
+        Map<String, ByteBuffer> otherFiles = new HashMap<>();
+        otherFiles.put(PKPassTemplateInMemory.PK_ICON, ByteBuffer.wrap("other icon".getBytes(StandardCharsets.UTF_8)));
+
+        Assert.assertEquals(PKContentFingerprint.ofTemplate(withoutDigests), PKContentFingerprint.ofTemplate(withDigests));
+        Assert.assertNotEquals(PKContentFingerprint.ofTemplate(new PKPassTemplateSnapshot(otherFiles, null)),
+                PKContentFingerprint.ofTemplate(withoutDigests));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testPassIsMandatory() {
+        PKContentFingerprint.of(null);
+    }
+}
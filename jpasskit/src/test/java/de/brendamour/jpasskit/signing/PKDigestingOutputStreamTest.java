@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.brendamour.jpasskit.PKPass;
+
+public class PKDigestingOutputStreamTest {
+
+    @Test
+    public void testDigestAndCrcMatchContent() throws Exception {
+        PKPass pass = PKPass.builder().serialNumber("123").description("ümlaut").build();
+        byte[] expected = new ObjectMapper().writeValueAsBytes(pass);
+
+        PKDigestingOutputStream outputStream = new PKDigestingOutputStream();
+        new ObjectMapper().writeValue(outputStream, pass);
+
+        CRC32 crc = new CRC32();
+        crc.update(expected);
+        Assert.assertEquals(outputStream.toByteBuffer(), ByteBuffer.wrap(expected));
+        Assert.assertEquals(outputStream.getSha1Hex(), DigestUtils.sha1Hex(expected));
+        Assert.assertEquals(outputStream.getSha1Hex(), DigestUtils.sha1Hex(expected));
+        Assert.assertEquals(outputStream.getCrc(), crc.getValue());
+    }
+
+    @Test
+    public void testSingleBytes() {
+        PKDigestingOutputStream outputStream = new PKDigestingOutputStream();
+        for (byte b : "{}".getBytes(StandardCharsets.UTF_8)) {
+            outputStream.write(b);
+        }
+
+        Assert.assertEquals(outputStream.getSha1Hex(), DigestUtils.sha1Hex("{}"));
+        Assert.assertEquals(outputStream.toString(StandardCharsets.UTF_8), "{}");
+    }
+
+    @Test
+    public void testReset() {
+        PKDigestingOutputStream outputStream = new PKDigestingOutputStream();
+        outputStream.write(new byte[] { 1, 2, 3 }, 0, 3);
+        outputStream.getSha1Hex();
+
+        outputStream.reset();
+        byte[] content = "{}".getBytes(StandardCharsets.UTF_8);
+        outputStream.write(content, 0, content.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        Assert.assertEquals(outputStream.toByteBuffer(), ByteBuffer.wrap(content));
+        Assert.assertEquals(outputStream.getSha1Hex(), DigestUtils.sha1Hex(content));
+        Assert.assertEquals(outputStream.getCrc(), crc.getValue());
+    }
+}
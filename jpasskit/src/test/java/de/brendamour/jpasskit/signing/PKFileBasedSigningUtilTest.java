@@ -36,6 +36,8 @@ import org.testng.annotations.Test;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
@@ -44,6 +46,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public class PKFileBasedSigningUtilTest {
 
@@ -139,6 +142,34 @@ public class PKFileBasedSigningUtilTest {
         createZipAndAssert(passBuilder.build(), personalization.build(), passfile);
     }
 
+    @Test
+    public void testTemplateIsNotProvisionedToDisk() throws Exception {
+        PKPass pass = getObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+        PKSigningInformation pkSigningInformation =
+                new PKSigningInformationUtil().loadSigningInformationFromPKCS12AndIntermediateCertificate(
+                        KEYSTORE_PATH, KEYSTORE_PASSWORD, APPLE_WWDRCA);
+        final PKPassTemplateFolder folderTemplate = new PKPassTemplateFolder(getPathFromClasspath(PASS_TEMPLATE_FOLDER));
+        IPKPassTemplate template = new IPKPassTemplate() {
+            @Override
+            public void provisionPassAtDirectory(File tempPassDir) {
+                throw new UnsupportedOperationException("template must not be copied to disk");
+            }
+
+            @Override
+            public Map<String, ByteBuffer> getAllFiles() throws IOException {
+                return Collections.unmodifiableMap(folderTemplate.getAllFiles());
+            }
+        };
+
+        byte[] signedAndZippedPkPassArchive = new PKFileBasedSigningUtil().createSignedAndZippedPkPassArchive(pass, template,
+                pkSigningInformation);
+
+        File passZipFile = File.createTempFile("passFileBasedNotProvisioned", ".zip");
+        Files.write(passZipFile.toPath(), signedAndZippedPkPassArchive);
+        AssertZip.assertValid(passZipFile);
+        AssertZip.assertManifestMatchesContent(passZipFile);
+    }
+
     private void createZipAndAssert(PKPass pkPass, File fileName) throws Exception {
         createZipAndAssert(pkPass, null, fileName);
     }
@@ -167,6 +198,7 @@ public class PKFileBasedSigningUtilTest {
         Assert.assertTrue(passZipFile.exists());
         Assert.assertTrue(passZipFile.length() > 0);
         AssertZip.assertValid(passZipFile);
+        AssertZip.assertManifestMatchesContent(passZipFile);
 
         Path pkpassFile = passZipFile.toPath();
         FileSystem fs = FileSystems.newFileSystem(pkpassFile, (ClassLoader) null);
@@ -289,6 +321,7 @@ public class PKFileBasedSigningUtilTest {
         Assert.assertTrue(passZipFile.exists());
         Assert.assertTrue(passZipFile.length() > 0);
         AssertZip.assertValid(passZipFile);
+        AssertZip.assertManifestMatchesContent(passZipFile);
 
         Path pkpassFile = passZipFile.toPath();
         FileSystem fs = FileSystems.newFileSystem(pkpassFile, (ClassLoader) null);
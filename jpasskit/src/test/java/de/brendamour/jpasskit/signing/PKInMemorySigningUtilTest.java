@@ -18,20 +18,30 @@ package de.brendamour.jpasskit.signing;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import de.brendamour.jpasskit.PKBarcode;
 import de.brendamour.jpasskit.PKPassBuilder;
 import de.brendamour.jpasskit.enums.PKBarcodeFormat;
 import de.brendamour.jpasskit.personalization.PKPersonalizationBuilder;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
@@ -106,6 +116,142 @@ public class PKInMemorySigningUtilTest {
         createZipAndAssert(pkPassTemplateInMemory, pass, personalization.build(), passfile);
     }
 
+    @Test
+    public void testWithInMemoryTemplateContainingPassJson() throws Exception {
+        PKPassTemplateInMemory pkPassTemplateInMemory = new PKPassTemplateInMemory();
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_ICON_RETINA,
+                new File(PKInMemorySigningUtilTest.class.getClassLoader().getResource("StoreCard.raw/icon@2x.png").getFile()));
+        // the precomputed digest of this file must not end up in the manifest
+        pkPassTemplateInMemory.addFile("pass.json", "{}");
+
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+
+        File passfile = File.createTempFile("passInMemoryTemplatePassJson", ".zip");
+        createZipAndAssert(pkPassTemplateInMemory, pass, passfile);
+    }
+
+    @Test
+    public void testWithPrecompressedFolderBasedTemplate() throws Exception {
+        PKPassTemplatePrecompressed pkPassTemplate = new PKPassTemplatePrecompressed(new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER));
+
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+
+        File passfile = File.createTempFile("passPrecompressedFolder", ".zip");
+        createZipAndAssert(pkPassTemplate, pass, passfile);
+        // the prepared entries are shared between archives
+        createZipAndAssert(pkPassTemplate, pass, passfile);
+    }
+
+    @Test
+    public void testWithPrecompressedTemplateAndPersonalization() throws Exception {
+        PKPassTemplateInMemory pkPassTemplateInMemory = new PKPassTemplateInMemory();
+        File iconFile = new File(PKInMemorySigningUtilTest.class.getClassLoader().getResource("StoreCard.raw/icon@2x.png").getFile());
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_ICON_RETINA, iconFile);
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_ICON_RETINA, Locale.ENGLISH, iconFile);
+        // replaced by the generated file
+        pkPassTemplateInMemory.addFile("personalization.json", "{}");
+
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+
+        PKPersonalizationBuilder personalization = PKPersonalization.builder()
+                .description("desc")
+                .termsAndConditions("T&C")
+                .requiredPersonalizationField(PKPassPersonalizationField.PKPassPersonalizationFieldName);
+
+        File passfile = File.createTempFile("passPrecompressedPersonalized", ".zip");
+        createZipAndAssert(new PKPassTemplatePrecompressed(pkPassTemplateInMemory), pass, personalization.build(), passfile);
+    }
+
+    @Test
+    public void testWithReusedBuffers() throws Exception {
+        PKInMemorySigningUtil signingUtil = new PKInMemorySigningUtil();
+        signingUtil.setReuseBuffers(true);
+        PKPassTemplatePrecompressed pkPassTemplate = new PKPassTemplatePrecompressed(new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER));
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+        PKPersonalization personalization = PKPersonalization.builder()
+                .description("desc")
+                .requiredPersonalizationField(PKPassPersonalizationField.PKPassPersonalizationFieldName)
+                .build();
+
+        // the second archive is created with the buffers released by the first one
+        for (PKPersonalization passPersonalization : Arrays.asList(personalization, null, personalization)) {
+            File passfile = File.createTempFile("passReusedBuffers", ".zip");
+            try (FileOutputStream outputStream = new FileOutputStream(passfile)) {
+                signingUtil.createSignedAndZippedPersonalizedPkPassArchiveStream(pass, passPersonalization, pkPassTemplate,
+                        loadSigningInformation(), outputStream);
+            }
+            AssertZip.assertValid(passfile);
+            AssertZip.assertManifestMatchesContent(passfile);
+        }
+    }
+
+    @Test
+    public void testTemplateReloadedWhileSigning() throws Exception {
+        File templateDir = Files.createTempDirectory("reloadedTemplate").toFile();
+        try {
+            FileUtils.copyDirectory(new File(PASS_TEMPLATE_FOLDER), templateDir);
+            File icon = new File(templateDir, "icon.png");
+            // every read of the files changes the folder, so reading the digests separately would reload the template
+            PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(templateDir.getPath(), Duration.ZERO) {
+
+                private int version;
+
+                @Override
+                public Map<String, ByteBuffer> getAllFiles() throws IOException {
+                    Map<String, ByteBuffer> files = super.getAllFiles();
+                    FileUtils.writeStringToFile(icon, "icon version " + version++, StandardCharsets.UTF_8);
+                    return files;
+                }
+
+                @Override
+                public PKPassTemplateSnapshot getSnapshot() throws IOException {
+                    PKPassTemplateSnapshot snapshot = super.getSnapshot();
+                    getAllFiles();
+                    return snapshot;
+                }
+            };
+            PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+
+            File passfile = File.createTempFile("passReloadedTemplate", ".zip");
+            try (FileOutputStream outputStream = new FileOutputStream(passfile)) {
+                pkInMemorySigningUtil.createSignedAndZippedPkPassArchiveStream(pass, template, loadSigningInformation(), outputStream);
+            }
+            AssertZip.assertManifestMatchesContent(passfile);
+        } finally {
+            FileUtils.deleteDirectory(templateDir);
+        }
+    }
+
+    @Test
+    public void testWritingToFileChannel() throws Exception {
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+        File passfile = File.createTempFile("passInMemoryChannel", ".zip");
+
+        try (FileChannel channel = FileChannel.open(passfile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            pkInMemorySigningUtil.createSignedAndZippedPkPassArchiveChannel(pass, new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER),
+                    loadSigningInformation(), channel);
+            Assert.assertTrue(channel.isOpen());
+        }
+
+        AssertZip.assertValid(passfile);
+        AssertZip.assertManifestMatchesContent(passfile);
+    }
+
+    @Test
+    public void testCreatingByteBuffer() throws Exception {
+        PKPass pass = new ObjectMapper().readValue(new File(getPathFromClasspath("pass.json")), PKPass.class);
+        File passfile = File.createTempFile("passInMemoryBuffer", ".zip");
+
+        ByteBuffer archive = pkInMemorySigningUtil.createSignedAndZippedPkPassArchiveBuffer(pass,
+                new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER), loadSigningInformation());
+        try (FileChannel channel = FileChannel.open(passfile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(archive);
+        }
+
+        AssertZip.assertValid(passfile);
+        AssertZip.assertManifestMatchesContent(passfile);
+    }
+
     @Test
     public void testJSONCreation() throws Exception {
         Instant expirationDate = LocalDate.of(2020, 3, 5).atStartOfDay(ZoneId.of("America/Phoenix"))
@@ -154,6 +300,7 @@ public class PKInMemorySigningUtilTest {
         Assert.assertTrue(passZipFile.exists());
         Assert.assertTrue(passZipFile.length() > 0);
         AssertZip.assertValid(passZipFile);
+        AssertZip.assertManifestMatchesContent(passZipFile);
     }
 
     @Test
@@ -223,6 +370,11 @@ public class PKInMemorySigningUtilTest {
         AssertZip.assertValid(passZipFile);
     }
 
+    private PKSigningInformation loadSigningInformation() throws Exception {
+        return new PKSigningInformationUtil().loadSigningInformationFromPKCS12AndIntermediateCertificate(KEYSTORE_PATH, KEYSTORE_PASSWORD,
+                APPLE_WWDRCA);
+    }
+
     private String getPathFromClasspath(String path) throws Exception {
         return Paths.get(ClassLoader.getSystemResource(path).toURI()).toString();
     }
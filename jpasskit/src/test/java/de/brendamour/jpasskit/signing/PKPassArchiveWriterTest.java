@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKPassArchiveWriterTest {
+
+    private static final byte[] TEXT = "{\"description\":\"Text that compresses well, text that compresses well\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testArchiveCanBeReadWithZipFile() throws IOException {
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(outputStream)) {
+            archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+            archiveWriter.putEntry("de.lproj/pass.strings", ByteBuffer.wrap(TEXT).asReadOnlyBuffer());
+            archiveWriter.putEntry("random.bin", ByteBuffer.wrap(random));
+            archiveWriter.putEntry("empty", ByteBuffer.allocate(0));
+            archiveWriter.putEntry("ümläut.png", ByteBuffer.allocateDirect(3));
+        }
+
+        Map<String, byte[]> content = readWithZipFile(outputStream.toByteArray());
+        Assert.assertEquals(content.size(), 5);
+        Assert.assertEquals(content.get("pass.json"), TEXT);
+        Assert.assertEquals(content.get("de.lproj/pass.strings"), TEXT);
+        Assert.assertEquals(content.get("random.bin"), random);
+        Assert.assertEquals(content.get("empty"), new byte[0]);
+        Assert.assertEquals(content.get("ümläut.png"), new byte[3]);
+    }
+
+    @Test
+    public void testArchiveCanBeReadAsStream() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(outputStream)) {
+            archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+            archiveWriter.putEntry("manifest.json", ByteBuffer.wrap(TEXT));
+        }
+
+        Map<String, byte[]> content = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zipInputStream.getNextEntry()) != null) {
+                content.put(entry.getName(), IOUtils.toByteArray(zipInputStream));
+            }
+        }
+        Assert.assertEquals(content.size(), 2);
+        Assert.assertEquals(content.get("manifest.json"), TEXT);
+    }
+
+    @Test
+    public void testPrecompressedEntryCanBeWrittenToSeveralArchives() throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(TEXT);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        PKPassArchiveWriter.Entry entry;
+        try {
+            entry = PKPassArchiveWriter.deflate("icon.png", content, System.currentTimeMillis(), deflater).trimmed();
+        } finally {
+            deflater.end();
+        }
+        Assert.assertEquals(content.position(), 0);
+        Assert.assertEquals(entry.getName(), "icon.png");
+        Assert.assertEquals(entry.getSize(), TEXT.length);
+        Assert.assertTrue(entry.getCompressedSize() < TEXT.length);
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(outputStream)) {
+                archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+                archiveWriter.putPrecompressedEntry(entry);
+            }
+            Map<String, byte[]> archiveContent = readWithZipFile(outputStream.toByteArray());
+            Assert.assertEquals(archiveContent.get("icon.png"), TEXT);
+            Assert.assertEquals(archiveContent.get("pass.json"), TEXT);
+        }
+    }
+
+    @Test
+    public void testEntryWithKnownCrc() throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(TEXT);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(outputStream)) {
+            archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT), crc.getValue());
+        }
+
+        // ZipInputStream verifies the checksum of every entry it reads
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry entry = zipInputStream.getNextEntry();
+            Assert.assertEquals(IOUtils.toByteArray(zipInputStream), TEXT);
+            Assert.assertEquals(entry.getCrc(), crc.getValue());
+        }
+    }
+
+    @Test
+    public void testScratchBufferAndExternalDeflater() throws IOException {
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] scratchBuffer = new byte[128];
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(outputStream, deflater, scratchBuffer)) {
+                archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+                archiveWriter.putEntry("random.bin", ByteBuffer.wrap(random));
+                archiveWriter.putEntry("empty", ByteBuffer.allocate(0));
+                scratchBuffer = archiveWriter.getScratchBuffer();
+            }
+
+            Map<String, byte[]> content = readWithZipFile(outputStream.toByteArray());
+            Assert.assertEquals(content.size(), 3);
+            Assert.assertEquals(content.get("pass.json"), TEXT);
+            Assert.assertEquals(content.get("random.bin"), random);
+            Assert.assertEquals(content.get("empty"), new byte[0]);
+        }
+        Assert.assertTrue(scratchBuffer.length > random.length);
+        // still usable, the writer does not end a deflater it does not own
+        deflater.reset();
+        deflater.end();
+    }
+
+    @Test(expectedExceptions = ZipException.class)
+    public void testDuplicateEntry() throws IOException {
+        try (PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(new ByteArrayOutputStream())) {
+            archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+            archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testPutEntryAfterClose() throws IOException {
+        PKPassArchiveWriter archiveWriter = new PKPassArchiveWriter(new ByteArrayOutputStream());
+        archiveWriter.close();
+        archiveWriter.putEntry("pass.json", ByteBuffer.wrap(TEXT));
+    }
+
+    private Map<String, byte[]> readWithZipFile(byte[] archive) throws IOException {
+        File file = File.createTempFile("archiveWriter", ".zip");
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                outputStream.write(archive);
+            }
+            Map<String, byte[]> content = new HashMap<>();
+            try (ZipFile zipFile = new ZipFile(file)) {
+                Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                        content.put(entry.getName(), IOUtils.toByteArray(inputStream));
+                    }
+                }
+            }
+            return content;
+        } finally {
+            file.delete();
+        }
+    }
+}
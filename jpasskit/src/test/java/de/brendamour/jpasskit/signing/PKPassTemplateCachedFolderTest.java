@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PKPassTemplateCachedFolderTest {
+
+    private static final String PASS_TEMPLATE_FOLDER = PKPassTemplateFolderTest.class.getClassLoader().getResource("StoreCard.raw").getPath();
+
+    private Path templateDir;
+
+    @BeforeMethod
+    public void prepare() throws IOException {
+        templateDir = Files.createTempDirectory("cachedTemplate");
+        write("icon.png", "icon");
+        write("de.lproj/pass.strings", "strings");
+        write(".DS_Store", "hidden");
+    }
+
+    @AfterMethod
+    public void cleanup() throws IOException {
+        FileUtils.deleteDirectory(templateDir.toFile());
+    }
+
+    @Test
+    public void testSameFilesAsFolderTemplate() throws IOException {
+        Map<String, ByteBuffer> expectedFiles = new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER).getAllFiles();
+        PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(PASS_TEMPLATE_FOLDER);
+
+        Assert.assertEquals(template.getAllFiles(), expectedFiles);
+        for (Entry<String, ByteBuffer> file : expectedFiles.entrySet()) {
+            Assert.assertEquals(template.getAllFileDigests().get(file.getKey()), DigestUtils.sha1Hex(file.getValue().array()));
+        }
+    }
+
+    @Test
+    public void testFilesAreCachedWithinCheckInterval() throws IOException {
+        PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(templateDir.toString(), Duration.ofHours(1));
+
+        Map<String, ByteBuffer> files = template.getAllFiles();
+        Assert.assertEquals(files.size(), 2);
+        Assert.assertEquals(files.get("icon.png"), buffer("icon"));
+        Assert.assertEquals(files.get("de.lproj" + File.separator + "pass.strings"), buffer("strings"));
+
+        write("icon.png", "changed");
+        Assert.assertSame(template.getAllFiles(), files);
+    }
+
+    @Test
+    public void testChangedFilesAreReloaded() throws IOException {
+        PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(templateDir.toString(), Duration.ZERO);
+        Map<String, ByteBuffer> files = template.getAllFiles();
+        ByteBuffer strings = files.get("de.lproj" + File.separator + "pass.strings");
+
+        // unchanged folder keeps the maps
+        Assert.assertSame(template.getAllFiles(), files);
+
+        write("icon.png", "changed icon");
+        write("logo.png", "logo");
+        Map<String, ByteBuffer> changedFiles = template.getAllFiles();
+        Assert.assertNotSame(changedFiles, files);
+        Assert.assertEquals(changedFiles.get("icon.png"), buffer("changed icon"));
+        Assert.assertEquals(changedFiles.get("logo.png"), buffer("logo"));
+        Assert.assertSame(changedFiles.get("de.lproj" + File.separator + "pass.strings"), strings);
+        Assert.assertEquals(template.getAllFileDigests().get("icon.png"), DigestUtils.sha1Hex("changed icon"));
+
+        Files.delete(templateDir.resolve("logo.png"));
+        Assert.assertFalse(template.getAllFiles().containsKey("logo.png"));
+        Assert.assertFalse(template.getAllFileDigests().containsKey("logo.png"));
+    }
+
+    @Test
+    public void testSnapshotKeepsFilesAndDigestsTogether() throws IOException {
+        PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(templateDir.toString(), Duration.ZERO);
+        PKPassTemplateSnapshot snapshot = template.getSnapshot();
+
+        // a reload between two reads of the same snapshot does not change it
+        write("icon.png", "changed icon");
+        Assert.assertEquals(template.getAllFileDigests().get("icon.png"), DigestUtils.sha1Hex("changed icon"));
+        Assert.assertEquals(snapshot.getFiles().get("icon.png"), buffer("icon"));
+        Assert.assertEquals(snapshot.getFileDigests().get("icon.png"), DigestUtils.sha1Hex("icon"));
+
+        PKPassTemplateSnapshot reloaded = template.getSnapshot();
+        Assert.assertEquals(reloaded.getFiles().get("icon.png"), buffer("changed icon"));
+        Assert.assertEquals(reloaded.getFileDigests().get("icon.png"), DigestUtils.sha1Hex("changed icon"));
+    }
+
+    @Test
+    public void testSameSizeChangeIsDetectedByModificationTime() throws IOException {
+        PKPassTemplateCachedFolder template = new PKPassTemplateCachedFolder(templateDir.toString(), Duration.ZERO);
+        template.getAllFiles();
+
+        Path icon = write("icon.png", "ICON");
+        Files.setLastModifiedTime(icon, FileTime.fromMillis(Files.getLastModifiedTime(icon).toMillis() + 10_000));
+        Assert.assertEquals(template.getAllFiles().get("icon.png"), buffer("ICON"));
+    }
+
+    @Test(expectedExceptions = ReadOnlyBufferException.class)
+    public void testBuffersAreReadOnly() throws IOException {
+        new PKPassTemplateCachedFolder(templateDir.toString()).getAllFiles().get("icon.png").duplicate().put((byte) 0);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testMapIsUnmodifiable() throws IOException {
+        new PKPassTemplateCachedFolder(templateDir.toString()).getAllFiles().put("pass.json", buffer("{}"));
+    }
+
+    @Test
+    public void testProvisionPassAtDirectory() throws IOException {
+        Path target = Files.createTempDirectory("provisioned");
+        try {
+            new PKPassTemplateCachedFolder(templateDir.toString()).provisionPassAtDirectory(target.toFile());
+            Assert.assertEquals(new String(Files.readAllBytes(target.resolve("icon.png")), StandardCharsets.UTF_8), "icon");
+            Assert.assertEquals(new String(Files.readAllBytes(target.resolve("de.lproj").resolve("pass.strings")), StandardCharsets.UTF_8),
+                    "strings");
+            Assert.assertFalse(Files.exists(target.resolve(".DS_Store")));
+        } finally {
+            FileUtils.deleteDirectory(target.toFile());
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testMissingFolder() throws IOException {
+        new PKPassTemplateCachedFolder(templateDir.resolve("missing").toString()).getAllFiles();
+    }
+
+    private Path write(String name, String content) throws IOException {
+        Path path = templateDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer buffer(String content) {
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
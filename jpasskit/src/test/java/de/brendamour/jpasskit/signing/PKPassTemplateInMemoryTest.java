@@ -18,9 +18,12 @@ package de.brendamour.jpasskit.signing;
 import static org.apache.commons.io.IOUtils.toByteArray;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -32,6 +35,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.RegexFileFilter;
@@ -191,6 +195,61 @@ public class PKPassTemplateInMemoryTest {
         Assert.assertEquals(inputStreamToArray(streamMap.get(PKPassTemplateInMemory.PK_BACKGROUND)), source);
     }
 
+    @Test
+    public void test_getAllFileDigests() throws IOException {
+        prepareTemplate();
+
+        Map<String, ByteBuffer> allFiles = pkPassTemplateInMemory.getAllFiles();
+        Map<String, String> allFileDigests = pkPassTemplateInMemory.getAllFileDigests();
+        Assert.assertEquals(allFileDigests.keySet(), allFiles.keySet());
+        for (Entry<String, ByteBuffer> entry : allFiles.entrySet()) {
+            Assert.assertEquals(allFileDigests.get(entry.getKey()), DigestUtils.sha1Hex(entry.getValue().array()));
+        }
+    }
+
+    @Test
+    public void test_getAllFileDigestsAfterReplacingFile() throws IOException {
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_BACKGROUND, "Hello");
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_BACKGROUND, "World");
+
+        Assert.assertEquals(pkPassTemplateInMemory.getAllFileDigests().get(PKPassTemplateInMemory.PK_BACKGROUND), DigestUtils.sha1Hex("World"));
+    }
+
+    @Test
+    public void test_getSnapshotIsNotChangedByReplacingFile() throws IOException {
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_BACKGROUND, "Hello");
+        PKPassTemplateSnapshot snapshot = pkPassTemplateInMemory.getSnapshot();
+        Map<String, String> digests = pkPassTemplateInMemory.getAllFileDigests();
+        Assert.assertSame(pkPassTemplateInMemory.getSnapshot(), snapshot);
+
+        pkPassTemplateInMemory.addFile(PKPassTemplateInMemory.PK_BACKGROUND, "World");
+        Assert.assertEquals(snapshot.getFiles().get(PKPassTemplateInMemory.PK_BACKGROUND), ByteBuffer.wrap("Hello".getBytes()));
+        Assert.assertEquals(snapshot.getFileDigests().get(PKPassTemplateInMemory.PK_BACKGROUND), DigestUtils.sha1Hex("Hello"));
+        Assert.assertEquals(digests.get(PKPassTemplateInMemory.PK_BACKGROUND), DigestUtils.sha1Hex("Hello"));
+
+        PKPassTemplateSnapshot replaced = pkPassTemplateInMemory.getSnapshot();
+        Assert.assertEquals(replaced.getFiles().get(PKPassTemplateInMemory.PK_BACKGROUND), ByteBuffer.wrap("World".getBytes()));
+        Assert.assertEquals(replaced.getFileDigests().get(PKPassTemplateInMemory.PK_BACKGROUND), DigestUtils.sha1Hex("World"));
+    }
+
+    @Test
+    public void test_getAllFileDigestsAfterDeserialization() throws IOException, ClassNotFoundException {
+        prepareTemplate();
+        Map<String, String> expectedDigests = pkPassTemplateInMemory.getAllFileDigests();
+
+        PKPassTemplateInMemory fromFilesMap = new PKPassTemplateInMemory(pkPassTemplateInMemory.getFilesMap());
+        Assert.assertEquals(fromFilesMap.getAllFileDigests(), expectedDigests);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(serialized)) {
+            objectOutputStream.writeObject(pkPassTemplateInMemory);
+        }
+        try (ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(serialized.toByteArray()))) {
+            PKPassTemplateInMemory deserialized = (PKPassTemplateInMemory) objectInputStream.readObject();
+            Assert.assertEquals(deserialized.getAllFileDigests(), expectedDigests);
+        }
+    }
+
     private byte[] inputStreamToArray(InputStream stream) throws IOException {
         try (InputStream is = stream) {
             return toByteArray(is);
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.io.Files;
+
+public class PKPassTemplatePrecompressedTest {
+
+    private static final String PASS_TEMPLATE_FOLDER = PKPassTemplateFolderTest.class.getClassLoader().getResource("StoreCard.raw").getPath();
+
+    @Test
+    public void testSnapshotOfFolderTemplate() throws IOException {
+        PKPassTemplateFolder folderTemplate = new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER);
+        PKPassTemplatePrecompressed template = new PKPassTemplatePrecompressed(folderTemplate);
+
+        Map<String, ByteBuffer> expectedFiles = folderTemplate.getAllFiles();
+        Map<String, ByteBuffer> files = template.getAllFiles();
+        Assert.assertEquals(files, expectedFiles);
+        Assert.assertEquals(template.getAllFileDigests().keySet(), expectedFiles.keySet());
+        for (Map.Entry<String, ByteBuffer> file : expectedFiles.entrySet()) {
+            Assert.assertEquals(template.getAllFileDigests().get(file.getKey()), DigestUtils.sha1Hex(file.getValue().array()));
+            PKPassArchiveWriter.Entry entry = template.getPrecompressedEntry(file.getKey());
+            Assert.assertNotNull(entry);
+            Assert.assertEquals(entry.getSize(), file.getValue().remaining());
+        }
+        Assert.assertNull(template.getPrecompressedEntry("pass.json"));
+    }
+
+    @Test
+    public void testSnapshotIsNotAffectedBySourceChanges() throws IOException {
+        PKPassTemplateInMemory source = new PKPassTemplateInMemory();
+        source.addFile(PKPassTemplateInMemory.PK_ICON, "first");
+        source.addFile(PKPassTemplateInMemory.PK_ICON, Locale.GERMAN, "erstes");
+        PKPassTemplatePrecompressed template = new PKPassTemplatePrecompressed(source);
+
+        source.addFile(PKPassTemplateInMemory.PK_ICON, "second");
+
+        Map<String, ByteBuffer> files = template.getAllFiles();
+        Assert.assertEquals(files.size(), 2);
+        Assert.assertEquals(files.get(PKPassTemplateInMemory.PK_ICON), ByteBuffer.wrap("first".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(template.getAllFileDigests().get(PKPassTemplateInMemory.PK_ICON), DigestUtils.sha1Hex("first"));
+        Assert.assertEquals(template.getPrecompressedEntry("de.lproj" + File.separator + PKPassTemplateInMemory.PK_ICON).getName(),
+                "de.lproj/" + PKPassTemplateInMemory.PK_ICON);
+    }
+
+    @Test(expectedExceptions = ReadOnlyBufferException.class)
+    public void testFilesAreReadOnly() throws IOException {
+        PKPassTemplateInMemory source = new PKPassTemplateInMemory();
+        source.addFile(PKPassTemplateInMemory.PK_ICON, "first");
+
+        new PKPassTemplatePrecompressed(source).getAllFiles().get(PKPassTemplateInMemory.PK_ICON).put((byte) 0);
+    }
+
+    @Test
+    public void testProvisionPassAtDirectory() throws IOException {
+        PKPassTemplatePrecompressed template = new PKPassTemplatePrecompressed(new PKPassTemplateFolder(PASS_TEMPLATE_FOLDER));
+        @SuppressWarnings("deprecation")
+        File tempDir = Files.createTempDir();
+        try {
+            template.provisionPassAtDirectory(tempDir);
+            for (Map.Entry<String, ByteBuffer> file : template.getAllFiles().entrySet()) {
+                byte[] expected = new byte[file.getValue().remaining()];
+                file.getValue().get(expected);
+                Assert.assertEquals(FileUtils.readFileToByteArray(new File(tempDir, file.getKey())), expected);
+            }
+        } finally {
+            FileUtils.deleteDirectory(tempDir);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTemplateIsMandatory() throws IOException {
+        new PKPassTemplatePrecompressed(null);
+    }
+}
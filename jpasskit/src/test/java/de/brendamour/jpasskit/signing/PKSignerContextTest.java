@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.brendamour.jpasskit.util.CertUtils;
+
+public class PKSignerContextTest {
+
+    private static final String APPLE_WWDRCA = "passbook/ca-chain.cert.pem";
+    private static final String KEYSTORE_PATH = "passbook/jpasskittest.p12";
+    private static final String KEYSTORE_PASSWORD = "password";
+    private static final byte[] CONTENT = "{\"pass.json\":\"abc\"}".getBytes(StandardCharsets.UTF_8);
+
+    private PKSigningInformation pkSigningInformation;
+
+    @BeforeMethod
+    public void prepare() throws Exception {
+        pkSigningInformation = new PKSigningInformationUtil().loadSigningInformationFromPKCS12AndIntermediateCertificate(
+                KEYSTORE_PATH, KEYSTORE_PASSWORD, APPLE_WWDRCA);
+    }
+
+    @Test
+    public void testContextIsCachedPerSigningInformation() throws Exception {
+        PKSignerContext context = PKSignerContext.forSigningInformation(pkSigningInformation);
+
+        Assert.assertSame(PKSignerContext.forSigningInformation(pkSigningInformation), context);
+        Assert.assertTrue(context.isPreparedFor(pkSigningInformation));
+    }
+
+    @Test
+    public void testContextIsRebuiltWhenSigningInformationChanges() throws Exception {
+        PKSignerContext context = PKSignerContext.forSigningInformation(pkSigningInformation);
+
+        pkSigningInformation.setAppleWWDRCACert(pkSigningInformation.getSigningCert());
+        Assert.assertFalse(context.isPreparedFor(pkSigningInformation));
+        Assert.assertNotSame(PKSignerContext.forSigningInformation(pkSigningInformation), context);
+    }
+
+    @Test
+    public void testSignaturesAreValid() throws Exception {
+        PKSignerContext context = PKSignerContext.forSigningInformation(pkSigningInformation);
+
+        assertValidSignature(context.sign(new CMSProcessableByteArray(CONTENT)));
+        // second signature reuses the signer of this thread
+        assertValidSignature(context.sign(new CMSProcessableByteArray(CONTENT)));
+    }
+
+    @Test
+    public void testSigningFromMultipleThreads() throws Exception {
+        final PKSignerContext context = PKSignerContext.forSigningInformation(pkSigningInformation);
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> signatures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                signatures.add(executorService.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        return context.sign(new CMSProcessableByteArray(CONTENT));
+                    }
+                }));
+            }
+            for (Future<byte[]> signature : signatures) {
+                assertValidSignature(signature.get());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = PKSigningException.class)
+    public void testInvalidCertificate() throws Exception {
+        PKSigningInformation invalidSigningInformation = new PKSigningInformation(mock(X509Certificate.class),
+                pkSigningInformation.getSigningPrivateKey(), mock(X509Certificate.class));
+        PKSignerContext.forSigningInformation(invalidSigningInformation);
+    }
+
+    private void assertValidSignature(byte[] signature) throws Exception {
+        CMSSignedData signedData = new CMSSignedData(new CMSProcessableByteArray(CONTENT), signature);
+        Assert.assertEquals(signedData.getCertificates().getMatches(null).size(), 2);
+        Assert.assertEquals(signedData.getSignerInfos().size(), 1);
+        SignerInformation signerInformation = signedData.getSignerInfos().getSigners().iterator().next();
+        Assert.assertTrue(signerInformation.verify(new JcaSimpleSignerInfoVerifierBuilder()
+                .setProvider(CertUtils.getProviderName())
+                .build(pkSigningInformation.getSigningCert())));
+    }
+}
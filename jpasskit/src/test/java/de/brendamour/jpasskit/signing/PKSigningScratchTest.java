@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2024 Patrice Brend'amour <patrice@brendamour.net>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.brendamour.jpasskit.signing;
+
+import java.nio.ByteBuffer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PKSigningScratchTest {
+
+    @Test
+    public void testReleaseClearsBuffers() {
+        PKSigningScratch scratch = PKSigningScratch.acquire();
+        scratch.getFiles().put("pass.json", ByteBuffer.allocate(1));
+        scratch.getManifest().put("pass.json", "hash");
+        scratch.getGeneratedFiles().put("pass.json", scratch.getPassJSONFile());
+        scratch.getPassJSONFile().write(new byte[] { 1, 2, 3 }, 0, 3);
+        PKDigestingOutputStream passJSONFile = scratch.getPassJSONFile();
+
+        scratch.release();
+
+        Assert.assertTrue(scratch.getFiles().isEmpty());
+        Assert.assertTrue(scratch.getManifest().isEmpty());
+        Assert.assertTrue(scratch.getGeneratedFiles().isEmpty());
+        Assert.assertSame(scratch.getPassJSONFile(), passJSONFile);
+        Assert.assertEquals(scratch.getPassJSONFile().size(), 0);
+    }
+
+    @Test
+    public void testOversizedBuffersAreNotRetained() {
+        PKSigningScratch scratch = PKSigningScratch.acquire();
+        byte[] large = new byte[PKSigningScratch.MAX_RETAINED_BUFFER_SIZE + 1];
+        scratch.getManifestJSONFile().write(large, 0, large.length);
+        scratch.setZipBuffer(large);
+
+        scratch.release();
+
+        Assert.assertTrue(scratch.getManifestJSONFile().capacity() <= PKSigningScratch.MAX_RETAINED_BUFFER_SIZE);
+        Assert.assertTrue(scratch.getZipBuffer().length <= PKSigningScratch.MAX_RETAINED_BUFFER_SIZE);
+    }
+}
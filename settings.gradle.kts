@@ -16,4 +16,5 @@ pluginManagement {
 rootProject.name = "jpasskit-parent"
 
 include(":jpasskit.server")
-include(":jpasskit")
\ No newline at end of file
+include(":jpasskit")
+include(":jpasskit.benchmarks")
\ No newline at end of file